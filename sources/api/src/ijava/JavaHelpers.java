@@ -8,7 +8,9 @@ import java.net.*;
 import java.nio.charset.*;
 import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.*;
 import ijava.data.*;
+import ijava.extensibility.*;
 import org.joda.time.*;
 
 /**
@@ -22,6 +24,38 @@ public final class JavaHelpers {
   private JavaHelpers() {
   }
 
+  /**
+   * Wraps a task, so that its output is part of the output of the current execution, rather
+   * than that of the execution the thread it runs on was created in, when it runs on a shared
+   * thread, for example, one of an executor created in an earlier execution.
+   * @param task the task to wrap.
+   * @return the wrapped task.
+   */
+  public static Runnable captureOutput(Runnable task) {
+    return OutputRoutes.wrap(task);
+  }
+
+  /**
+   * Wraps a task, so that its output is part of the output of the current execution, rather
+   * than that of the execution the thread it runs on was created in, when it runs on a shared
+   * thread, for example, one of an executor created in an earlier execution.
+   * @param task the task to wrap.
+   * @return the wrapped task.
+   */
+  public static <T> Callable<T> captureOutput(Callable<T> task) {
+    return OutputRoutes.wrap(task);
+  }
+
+  /**
+   * Wraps an executor, so that the output of each task submitted to it is part of the output
+   * of the execution that submitted it, even when the executor is used across executions.
+   * @param executor the executor to wrap.
+   * @return the wrapped executor.
+   */
+  public static ExecutorService captureOutput(ExecutorService executor) {
+    return OutputRoutes.wrap(executor);
+  }
+
   public static DateTime date(String s) {
     return DateTime.parse(s);
   }
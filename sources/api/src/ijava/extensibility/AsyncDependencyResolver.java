@@ -0,0 +1,25 @@
+// AsyncDependencyResolver.java
+//
+
+package ijava.extensibility;
+
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Provides the functionality to resolve URIs into dependency objects asynchronously, so that
+ * resolution of multiple dependencies can overlap, and progress can be reported while resolution
+ * is in progress.
+ */
+public interface AsyncDependencyResolver extends DependencyResolver {
+
+  /**
+   * Starts resolving the specified URI into a set of jars to be loaded.
+   * @param uri the identifier of the dependency.
+   * @param progress the listener to notify of progress.
+   * @return the future list of jar paths resulting from the resolution process.
+   */
+  public Future<List<String>> resolveAsync(URI uri, DependencyProgress progress)
+      throws IllegalArgumentException;
+}
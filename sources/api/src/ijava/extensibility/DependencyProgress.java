@@ -0,0 +1,23 @@
+// DependencyProgress.java
+//
+
+package ijava.extensibility;
+
+/**
+ * Receives progress notifications while dependencies are being resolved. Notifications may be
+ * raised from any thread.
+ */
+public interface DependencyProgress {
+
+  /**
+   * Notifies that an artifact has been resolved.
+   * @param artifact the name of the artifact.
+   */
+  public void artifactResolved(String artifact);
+
+  /**
+   * Notifies that data has been read while fetching artifacts.
+   * @param count the number of bytes read since the last notification.
+   */
+  public void bytesRead(long count);
+}
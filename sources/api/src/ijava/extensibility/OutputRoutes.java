@@ -0,0 +1,237 @@
+// OutputRoutes.java
+//
+
+package ijava.extensibility;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Tracks the streams that output written by each thread is routed to, so that the process-wide
+ * standard streams can be replaced once, while each execution captures its own output.
+ *
+ * Threads inherit the streams of the thread that created them, so output from background threads
+ * started by code is routed to the streams that were current when the thread was started.
+ * Threads that are shared across executions, such as those of an executor, run tasks on behalf
+ * of whichever execution submitted them, so tasks can be wrapped to capture the streams current
+ * when they are submitted, and use them while they run. Fork/join worker threads are shared
+ * across executions, e.g. by parallel streams, so the streams they inherited are ignored. Unless
+ * the task they are running was wrapped, they use the streams of the execution in progress, or
+ * none if there is none, or if multiple executions are in progress, such as in different
+ * sessions, since the execution they are working on cannot be determined.
+ */
+public final class OutputRoutes {
+
+  private final static InheritableThreadLocal<Map<OutputStream, OutputStream>> INHERITED_ROUTES =
+      new InheritableThreadLocal<Map<OutputStream, OutputStream>>();
+  private final static ThreadLocal<Map<OutputStream, OutputStream>> TASK_ROUTES =
+      new ThreadLocal<Map<OutputStream, OutputStream>>();
+  private final static ConcurrentHashMap<Thread, Map<OutputStream, OutputStream>>
+      EVALUATION_ROUTES = new ConcurrentHashMap<Thread, Map<OutputStream, OutputStream>>();
+
+  private OutputRoutes() {
+  }
+
+  /**
+   * Gets the streams associated with the current thread, for all routed streams.
+   * @return the streams keyed by the routed stream they are associated with, or null if there
+   *   are none.
+   */
+  private static Map<OutputStream, OutputStream> getRoutes() {
+    Map<OutputStream, OutputStream> routes = OutputRoutes.TASK_ROUTES.get();
+    if (routes == null) {
+      if (Thread.currentThread() instanceof ForkJoinWorkerThread) {
+        routes = OutputRoutes.getEvaluationRoutes();
+      }
+      else {
+        routes = OutputRoutes.INHERITED_ROUTES.get();
+      }
+    }
+
+    return routes;
+  }
+
+  /**
+   * Gets the streams of the execution in progress, if there is exactly one.
+   * @return the streams of the execution, or null if there are none, or multiple executions.
+   */
+  private static Map<OutputStream, OutputStream> getEvaluationRoutes() {
+    Iterator<Map<OutputStream, OutputStream>> evaluationRoutes =
+        OutputRoutes.EVALUATION_ROUTES.values().iterator();
+
+    Map<OutputStream, OutputStream> routes =
+        evaluationRoutes.hasNext() ? evaluationRoutes.next() : null;
+    return evaluationRoutes.hasNext() ? null : routes;
+  }
+
+  /**
+   * Gets the stream that output written to a routed stream by the current thread goes to.
+   * @param routedStream the routed stream being written to.
+   * @return the associated stream, or null if there is none.
+   */
+  public static OutputStream getStream(OutputStream routedStream) {
+    Map<OutputStream, OutputStream> routes = OutputRoutes.getRoutes();
+    return (routes != null) ? routes.get(routedStream) : null;
+  }
+
+  /**
+   * Associates a stream with a routed stream for the current thread, and threads subsequently
+   * created by it. Threads already created by the current thread continue to use the stream they
+   * inherited.
+   * @param routedStream the routed stream being written to.
+   * @param stream the stream to route output to, or null to remove the association.
+   */
+  public static void setStream(OutputStream routedStream, OutputStream stream) {
+    // The routes are copied rather than updated, as they are shared with any threads that
+    // inherited them.
+    Map<OutputStream, OutputStream> routes = new HashMap<OutputStream, OutputStream>();
+    Map<OutputStream, OutputStream> currentRoutes = OutputRoutes.INHERITED_ROUTES.get();
+    if (currentRoutes != null) {
+      routes.putAll(currentRoutes);
+    }
+
+    if (stream == null) {
+      routes.remove(routedStream);
+    }
+    else {
+      routes.put(routedStream, stream);
+    }
+
+    if (routes.isEmpty()) {
+      OutputRoutes.INHERITED_ROUTES.remove();
+    }
+    else {
+      OutputRoutes.INHERITED_ROUTES.set(Collections.unmodifiableMap(routes));
+    }
+  }
+
+  /**
+   * Marks the start of an execution on the current thread, so that fork/join worker threads
+   * use the streams associated with the current thread, until the execution ends.
+   */
+  public static void beginEvaluation() {
+    Map<OutputStream, OutputStream> routes = OutputRoutes.INHERITED_ROUTES.get();
+    if (routes != null) {
+      OutputRoutes.EVALUATION_ROUTES.put(Thread.currentThread(), routes);
+    }
+  }
+
+  /**
+   * Marks the end of the execution on the current thread.
+   */
+  public static void endEvaluation() {
+    OutputRoutes.EVALUATION_ROUTES.remove(Thread.currentThread());
+  }
+
+  private static Map<OutputStream, OutputStream> captureRoutes() {
+    Map<OutputStream, OutputStream> routes = OutputRoutes.getRoutes();
+
+    // A task submitted without any streams binds an empty set of routes, so that it writes to
+    // the default streams, rather than those the thread it runs on inherited.
+    if (routes == null) {
+      routes = Collections.emptyMap();
+    }
+    return routes;
+  }
+
+  /**
+   * Wraps a task, so that it writes to the streams associated with the current thread when it
+   * runs, regardless of the thread it runs on.
+   * @param task the task to wrap.
+   * @return the wrapped task.
+   */
+  public static Runnable wrap(final Runnable task) {
+    final Map<OutputStream, OutputStream> routes = OutputRoutes.captureRoutes();
+    return new Runnable() {
+      @Override
+      public void run() {
+        Map<OutputStream, OutputStream> previousRoutes = OutputRoutes.TASK_ROUTES.get();
+        OutputRoutes.TASK_ROUTES.set(routes);
+        try {
+          task.run();
+        }
+        finally {
+          OutputRoutes.TASK_ROUTES.set(previousRoutes);
+        }
+      }
+    };
+  }
+
+  /**
+   * Wraps a task, so that it writes to the streams associated with the current thread when it
+   * runs, regardless of the thread it runs on.
+   * @param task the task to wrap.
+   * @return the wrapped task.
+   */
+  public static <T> Callable<T> wrap(final Callable<T> task) {
+    final Map<OutputStream, OutputStream> routes = OutputRoutes.captureRoutes();
+    return new Callable<T>() {
+      @Override
+      public T call() throws Exception {
+        Map<OutputStream, OutputStream> previousRoutes = OutputRoutes.TASK_ROUTES.get();
+        OutputRoutes.TASK_ROUTES.set(routes);
+        try {
+          return task.call();
+        }
+        finally {
+          OutputRoutes.TASK_ROUTES.set(previousRoutes);
+        }
+      }
+    };
+  }
+
+  /**
+   * Wraps an executor, so that each task submitted to it writes to the streams associated with
+   * the thread that submitted it.
+   * @param executor the executor to wrap.
+   * @return the wrapped executor.
+   */
+  public static ExecutorService wrap(ExecutorService executor) {
+    return new RoutedExecutorService(executor);
+  }
+
+
+  /**
+   * An executor that wraps tasks as they are submitted, so they are routed to the streams of
+   * the thread that submitted them.
+   */
+  private static final class RoutedExecutorService extends AbstractExecutorService {
+
+    private final ExecutorService _executor;
+
+    public RoutedExecutorService(ExecutorService executor) {
+      _executor = executor;
+    }
+
+    @Override
+    public void execute(Runnable task) {
+      _executor.execute(OutputRoutes.wrap(task));
+    }
+
+    @Override
+    public void shutdown() {
+      _executor.shutdown();
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+      return _executor.shutdownNow();
+    }
+
+    @Override
+    public boolean isShutdown() {
+      return _executor.isShutdown();
+    }
+
+    @Override
+    public boolean isTerminated() {
+      return _executor.isTerminated();
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+      return _executor.awaitTermination(timeout, unit);
+    }
+  }
+}
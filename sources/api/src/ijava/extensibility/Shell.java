@@ -55,6 +55,13 @@ public interface Shell extends Evaluator {
    */
   public void addDependency(URI uri);
 
+  /**
+   * Adds the specified set of dependencies to the shell. The dependencies are resolved
+   * concurrently, and either all of them are added, or none are.
+   * @param uris the URIs that identify the dependencies.
+   */
+  public void addDependencies(List<URI> uris);
+
   /**
    * Adds a package to be imported for subsequent compilations.
    * @param importName the package or type to be imported.
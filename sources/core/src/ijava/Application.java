@@ -3,7 +3,11 @@
 
 package ijava;
 
+import java.lang.instrument.*;
 import java.net.*;
+import java.nio.file.*;
+import java.util.concurrent.*;
+import ijava.extensibility.*;
 import ijava.kernel.*;
 import ijava.shell.*;
 
@@ -26,11 +30,132 @@ public final class Application {
 
     URL applicationURL = Application.class.getProtectionDomain().getCodeSource().getLocation();
 
+    if (options.warmup) {
+      ShellWarmup.start(applicationURL);
+    }
+
+    if ((options.hostPort != null) || (options.sessionOptions.size() > 1)) {
+      Application.host(applicationURL, options);
+      System.exit(0);
+    }
+
+    InteractiveShell shell = Application.createShell(applicationURL, options);
+
+    final Session session = new Session(options.sessionOptions.get(0), shell);
+    if (options.training) {
+      int errors = Application.train(session, shell);
+
+      // Halt rather than exit, as there is nothing to clean up, and the session would otherwise
+      // wait for its sockets to be closed. Errors fail the run, so that an archive is not
+      // generated from an incomplete set of classes.
+      Runtime.getRuntime().halt(errors == 0 ? 0 : 1);
+    }
+
+    session.setLimits(Application.createLimits(options));
+    if (options.recordPath != null) {
+      session.startRecording(Paths.get(options.recordPath));
+    }
+
+    // The session runs until it is shut down by the client, or the process is terminated.
+    session.start();
+    System.exit(0);
+  }
+
+  /**
+   * Creates and initializes a shell to evaluate code within a session.
+   * @param applicationURL the URL of the application.
+   * @param options the options the application was started with.
+   * @return the initialized shell.
+   */
+  private static InteractiveShell createShell(URL applicationURL, ApplicationOptions options)
+      throws Exception {
     InteractiveShell shell = new InteractiveShell();
     shell.initialize(applicationURL,
                      options.dependencies, options.shellDependencies, options.extensions);
 
-    Session session = new Session(options.sessionOptions, shell);
-    session.start();
+    if (options.languageLevel != null) {
+      shell.setLanguageLevel(options.languageLevel);
+    }
+    if (options.redefineTypes && !shell.enableTypeRedefinition()) {
+      InteractiveShell.Log.warn("Type redefinition requires the kernel to be started with " +
+                                "-javaagent, and is disabled.");
+    }
+
+    return shell;
+  }
+
+  /**
+   * Creates the default resource limits of evaluations.
+   * @param options the options the application was started with.
+   * @return the limits to apply to evaluations.
+   */
+  private static EvaluationLimits createLimits(ApplicationOptions options) {
+    return new EvaluationLimits(TimeUnit.SECONDS.toMillis(options.cpuLimit),
+                                TimeUnit.SECONDS.toMillis(options.timeLimit),
+                                options.allocationLimit * 1024L * 1024L);
+  }
+
+  /**
+   * Hosts a session for each connection file, as well as each connection file sent to the
+   * control port, if specified, within this process. Each session has its own shell.
+   * @param applicationURL the URL of the application.
+   * @param options the options the application was started with.
+   */
+  private static void host(final URL applicationURL, final ApplicationOptions options)
+      throws Exception {
+    SessionHost host = new SessionHost(new SessionHost.EvaluatorFactory() {
+      @Override
+      public Evaluator createEvaluator() throws Exception {
+        return Application.createShell(applicationURL, options);
+      }
+    });
+
+    host.setLimits(Application.createLimits(options));
+    if (options.recordPath != null) {
+      host.setRecordingDirectory(Paths.get(options.recordPath));
+    }
+
+    if (options.hostKeyPath != null) {
+      host.setControlKey(SessionHost.readControlKey(Paths.get(options.hostKeyPath)));
+    }
+
+    for (SessionOptions sessionOptions: options.sessionOptions) {
+      host.addSession(sessionOptions);
+    }
+    host.run(options.hostPort != null ? options.hostPort : 0);
+  }
+
+  /**
+   * Runs the kernel through a representative set of work, i.e. starting the session, and
+   * evaluating a set of snippets, so that the classes used by the kernel are loaded. This is
+   * used to produce a class data sharing archive for the kernel.
+   * @param session the session to start.
+   * @param shell the shell to evaluate snippets in.
+   * @return the number of snippets that could not be evaluated.
+   */
+  private static int train(final Session session, InteractiveShell shell) {
+    Thread sessionThread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        session.start();
+      }
+    }, "ijava-session");
+    sessionThread.setDaemon(true);
+    sessionThread.start();
+
+    int errors = ShellWarmup.evaluate(shell);
+    InteractiveShell.Log.info("Training completed with %d errors.", errors);
+
+    return errors;
+  }
+
+  /**
+   * Java agent entry point method, used when the application is loaded with -javaagent, to
+   * enable type redefinition.
+   * @param args the arguments passed to the agent.
+   * @param instrumentation the instrumentation services for the process.
+   */
+  public static void premain(String args, Instrumentation instrumentation) {
+    JavaTypeRedefiner.initialize(instrumentation);
   }
 }
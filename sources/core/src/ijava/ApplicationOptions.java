@@ -7,6 +7,7 @@ import java.util.*;
 import java.util.logging.*;
 import com.beust.jcommander.*;
 import ijava.kernel.*;
+import ijava.shell.compiler.*;
 
 @Parameters(separators = ":")
 public final class ApplicationOptions {
@@ -32,13 +33,43 @@ public final class ApplicationOptions {
   @Parameter(names = "--ext")
   public List<String> extensions = new ArrayList<String>();
 
-  @Parameter(arity = 1)
+  @Parameter(names = "--languageLevel", converter = LanguageLevelConverter.class)
+  public LanguageLevel languageLevel = null;
+
+  @Parameter(names = "--cpuLimit")
+  public Integer cpuLimit = 0;
+
+  @Parameter(names = "--timeLimit")
+  public Integer timeLimit = 0;
+
+  @Parameter(names = "--allocationLimit")
+  public Integer allocationLimit = 0;
+
+  @Parameter(names = "--redefineTypes")
+  public boolean redefineTypes = false;
+
+  @Parameter(names = "--warmup")
+  public boolean warmup = false;
+
+  @Parameter(names = "--training")
+  public boolean training = false;
+
+  @Parameter(names = "--hostPort")
+  public Integer hostPort = null;
+
+  @Parameter(names = "--hostKey")
+  public String hostKeyPath = null;
+
+  @Parameter(names = "--record")
+  public String recordPath = null;
+
+  @Parameter
   public List<String> connectionFiles = new ArrayList<String>();
 
   @Parameter(names = { "--help", "--?" }, help = true)
   public boolean showHelp = false;
 
-  public SessionOptions sessionOptions = null;
+  public List<SessionOptions> sessionOptions = new ArrayList<SessionOptions>();
 
   private ApplicationOptions() {
   }
@@ -51,19 +82,36 @@ public final class ApplicationOptions {
     try {
       commandParser.parse(args);
 
-      if (!options.connectionFiles.isEmpty()) {
-        options.sessionOptions = SessionOptions.load(options.connectionFiles.get(0));
+      for (String connectionFile: options.connectionFiles) {
+        SessionOptions sessionOptions = SessionOptions.load(connectionFile);
+        if (sessionOptions == null) {
+          error = "Unable to load connection file '" + connectionFile + "'.";
+          break;
+        }
+
+        options.sessionOptions.add(sessionOptions);
       }
     }
     catch (ParameterException e) {
       error = e.getMessage();
     }
 
-    if (options.showHelp || !error.isEmpty() || (options.sessionOptions == null)) {
+    if (error.isEmpty() &&
+        ((options.cpuLimit < 0) || (options.timeLimit < 0) || (options.allocationLimit < 0))) {
+      error = "Limits must not be negative.";
+    }
+
+    if (error.isEmpty() && (options.hostPort != null) && (options.hostKeyPath == null)) {
+      error = "A key file is required to enable the control socket.";
+    }
+
+    boolean hasSessions = !options.sessionOptions.isEmpty() || (options.hostPort != null);
+    if (options.showHelp || !error.isEmpty() || !hasSessions) {
       System.out.println(error);
 
       System.out.println("Usage:");
-      System.out.println("ijava [dependencies] [extensions] [logging] <connection> ");
+      System.out.println("ijava [dependencies] [extensions] [language] [limits] [types] " +
+                         "[startup] [hosting] [recording] [logging] <connection>...");
       System.out.println();
       System.out.println("Dependencies");
       System.out.println("Optional list of jar paths (relative to ijava) that should be preload.");
@@ -74,6 +122,48 @@ public final class ApplicationOptions {
       System.out.println("Optional list of extension classes to pre-load at startup.");
       System.out.println("  --ext:<fully qualified extension class name>");
       System.out.println();
+      System.out.println("Language");
+      System.out.println("Optional Java language level to compile code at. By default, the highest");
+      System.out.println("level supported by the Java runtime.");
+      System.out.println("  --languageLevel:<level> 1.7 or 1.8");
+      System.out.println();
+      System.out.println("Limits");
+      System.out.println("Optional limits on the resources each execution can use (default none),");
+      System.out.println("enforced by interrupting the execution. The ijava.limits.cpuTime,");
+      System.out.println("ijava.limits.wallTime (both in ms) and ijava.limits.allocation (in bytes)");
+      System.out.println("metadata of an execute request can only tighten these limits, i.e. the");
+      System.out.println("smaller of the two limits applies, and a limit of 0 is ignored.");
+      System.out.println("  --cpuLimit       :<seconds>   CPU time");
+      System.out.println("  --timeLimit      :<seconds>   wall-clock time");
+      System.out.println("  --allocationLimit:<megabytes> allocated memory");
+      System.out.println();
+      System.out.println("Types");
+      System.out.println("Optionally redefine shell types in-place when only method bodies change.");
+      System.out.println("  --redefineTypes         requires the kernel to run with -javaagent");
+      System.out.println();
+      System.out.println("Startup");
+      System.out.println("Optionally warm up the compiler in the background at startup.");
+      System.out.println("  --warmup");
+      System.out.println("Optionally run the kernel to evaluate a set of snippets, and exit, e.g. to");
+      System.out.println("generate a class data sharing archive (see tools/cds.sh).");
+      System.out.println("  --training");
+      System.out.println();
+      System.out.println("Hosting");
+      System.out.println("Optionally host multiple sessions in the kernel process, one for each");
+      System.out.println("connection file, as well as each connection file path sent to a control");
+      System.out.println("socket listening on the specified port of the loopback interface.");
+      System.out.println("Control requests consist of a signature, a timestamp in milliseconds,");
+      System.out.println("a unique nonce and the connection file path. The last three are signed");
+      System.out.println("with HMAC-SHA256, using the key in the specified file, which must only");
+      System.out.println("be accessible by its owner. Stale or replayed requests are rejected.");
+      System.out.println("  --hostPort:<port>");
+      System.out.println("  --hostKey :<path to key file>");
+      System.out.println();
+      System.out.println("Recording");
+      System.out.println("Optionally record the messages of each session, with timestamps, into");
+      System.out.println("the specified directory, to replay later with ijava.SessionReplay.");
+      System.out.println("  --record:<directory>");
+      System.out.println();
       System.out.println("Logging");
       System.out.println("Optional set of logging configuration.");
       System.out.println("  --logLevel:<level>      debug, info (default), warning or error");
@@ -82,7 +172,7 @@ public final class ApplicationOptions {
       System.out.println("  --logFiles:<file count> number of individual log files to rotate over");
       System.out.println();
       System.out.println("Connection");
-      System.out.println("Path to JSON formatted file containing the following connection info:");
+      System.out.println("Paths to JSON formatted files containing the following connection info:");
       System.out.println("- ip            the IP address to listen on");
       System.out.println("- transport     the transport to use such as 'tcp'");
       System.out.println("- hb_port       the socket port to send heart beat messages");
@@ -119,4 +209,22 @@ public final class ApplicationOptions {
       throw new IllegalArgumentException("Invalid value for log level.");
     }
   }
+
+
+  public static final class LanguageLevelConverter implements IStringConverter<LanguageLevel> {
+
+    @Override
+    public LanguageLevel convert(String value) {
+      LanguageLevel level = LanguageLevel.parse(value);
+      if (level == null) {
+        throw new ParameterException("Invalid value for language level.");
+      }
+      else if (!level.isSupported()) {
+        throw new ParameterException("The language level " + level +
+                                     " is newer than the Java runtime.");
+      }
+
+      return level;
+    }
+  }
 }
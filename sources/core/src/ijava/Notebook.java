@@ -0,0 +1,282 @@
+// Notebook.java
+//
+
+package ijava;
+
+import java.io.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+import com.fasterxml.jackson.jr.ob.*;
+
+/**
+ * Represents an IPython notebook (.ipynb) file, in either the version 3 or version 4 format,
+ * with just enough structure to execute its code cells, and record their outputs.
+ */
+public final class Notebook {
+
+  private static final Map<String, String> V3DataKeys;
+
+  private final Map<String, Object> _content;
+  private final List<Cell> _cells;
+
+  static {
+    V3DataKeys = new HashMap<String, String>();
+    V3DataKeys.put("text/plain", "text");
+    V3DataKeys.put("text/html", "html");
+    V3DataKeys.put("text/latex", "latex");
+    V3DataKeys.put("image/svg+xml", "svg");
+    V3DataKeys.put("image/png", "png");
+    V3DataKeys.put("image/jpeg", "jpeg");
+    V3DataKeys.put("application/javascript", "javascript");
+    V3DataKeys.put("application/json", "json");
+    V3DataKeys.put("application/pdf", "pdf");
+  }
+
+  private Notebook(Map<String, Object> content, List<Cell> cells) {
+    _content = content;
+    _cells = cells;
+  }
+
+  /**
+   * Gets the cells within the notebook, in order.
+   * @return the list of cells.
+   */
+  public List<Cell> getCells() {
+    return _cells;
+  }
+
+  /**
+   * Loads a notebook from the specified file.
+   * @param path the path of the notebook file.
+   * @return the loaded notebook.
+   * @throws IOException if the file could not be read, or is not a valid notebook.
+   */
+  @SuppressWarnings("unchecked")
+  public static Notebook load(Path path) throws IOException {
+    String json = new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+
+    Map<String, Object> content = JSON.std.mapFrom(json);
+    Object format = content.get("nbformat");
+    if (!(format instanceof Number)) {
+      throw new IOException("The file '" + path + "' is not a notebook.");
+    }
+
+    int formatVersion = ((Number)format).intValue();
+    List<Object> cellList;
+    if (formatVersion == 3) {
+      List<Object> worksheets = (List<Object>)content.get("worksheets");
+      cellList = new ArrayList<Object>();
+      if (worksheets != null) {
+        for (Object worksheet: worksheets) {
+          List<Object> worksheetCells =
+              (List<Object>)((Map<String, Object>)worksheet).get("cells");
+          if (worksheetCells != null) {
+            cellList.addAll(worksheetCells);
+          }
+        }
+      }
+    }
+    else if (formatVersion == 4) {
+      cellList = (List<Object>)content.get("cells");
+      if (cellList == null) {
+        cellList = new ArrayList<Object>();
+      }
+    }
+    else {
+      throw new IOException("Unsupported notebook format version " + formatVersion + " in '" +
+                            path + "'.");
+    }
+
+    List<Cell> cells = new ArrayList<Cell>();
+    for (Object cell: cellList) {
+      cells.add(new Cell((Map<String, Object>)cell, formatVersion));
+    }
+
+    return new Notebook(content, cells);
+  }
+
+  /**
+   * Saves the notebook to the specified file. The file is written to completely, and then moved
+   * into place, so a partially written notebook is never observed.
+   * @param path the path of the notebook file.
+   * @throws IOException if the file could not be written.
+   */
+  public void save(Path path) throws IOException {
+    String json = JSON.std.with(JSON.Feature.PRETTY_PRINT_OUTPUT,
+                                JSON.Feature.WRITE_NULL_PROPERTIES).asString(_content);
+
+    Path directory = path.toAbsolutePath().getParent();
+    Path tempPath = Files.createTempFile(directory, path.getFileName().toString(), ".part");
+    try {
+      Files.write(tempPath, json.getBytes(StandardCharsets.UTF_8));
+
+      try {
+        Files.move(tempPath, path, StandardCopyOption.ATOMIC_MOVE);
+      }
+      catch (AtomicMoveNotSupportedException e) {
+        Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING);
+      }
+    }
+    finally {
+      Files.deleteIfExists(tempPath);
+    }
+  }
+
+  private static String joinLines(Object value) {
+    if (value instanceof List<?>) {
+      StringBuilder sb = new StringBuilder();
+      for (Object line: (List<?>)value) {
+        sb.append(line);
+      }
+      return sb.toString();
+    }
+
+    return (value == null) ? "" : value.toString();
+  }
+
+  private static List<String> splitLines(String text) {
+    // Notebooks store multi-line text as a list of lines, each retaining its line terminator.
+    List<String> lines = new ArrayList<String>();
+
+    int start = 0;
+    int index;
+    while ((index = text.indexOf('\n', start)) >= 0) {
+      lines.add(text.substring(start, index + 1));
+      start = index + 1;
+    }
+    if (start < text.length()) {
+      lines.add(text.substring(start));
+    }
+
+    return lines;
+  }
+
+
+  /**
+   * Represents a cell within a notebook.
+   */
+  public static final class Cell {
+
+    private final Map<String, Object> _content;
+    private final int _format;
+
+    private Cell(Map<String, Object> content, int format) {
+      _content = content;
+      _format = format;
+    }
+
+    /**
+     * Gets the code within the cell.
+     * @return the code, or an empty string if the cell is not a code cell.
+     */
+    public String getCode() {
+      if (!isCode()) {
+        return "";
+      }
+
+      return Notebook.joinLines(_content.get(_format == 3 ? "input" : "source"));
+    }
+
+    /**
+     * Gets the metadata associated with the cell. Changes to the metadata are saved along with
+     * the notebook.
+     * @return the cell metadata.
+     */
+    @SuppressWarnings("unchecked")
+    public Map<String, Object> getMetadata() {
+      Map<String, Object> metadata = (Map<String, Object>)_content.get("metadata");
+      if (metadata == null) {
+        metadata = new LinkedHashMap<String, Object>();
+        _content.put("metadata", metadata);
+      }
+
+      return metadata;
+    }
+
+    /**
+     * Determines whether the cell is a code cell.
+     * @return true if the cell contains code.
+     */
+    public boolean isCode() {
+      return "code".equals(_content.get("cell_type"));
+    }
+
+    /**
+     * Clears the execution count and the outputs of the cell.
+     */
+    public void clearOutputs() {
+      if (_format == 3) {
+        _content.remove("prompt_number");
+      }
+      else {
+        _content.put("execution_count", null);
+      }
+
+      _content.put("outputs", new ArrayList<Object>());
+    }
+
+    /**
+     * Sets the execution count of the cell.
+     * @param executionCount the sequence number of the execution of the cell.
+     */
+    public void setExecutionCount(long executionCount) {
+      _content.put(_format == 3 ? "prompt_number" : "execution_count", executionCount);
+    }
+
+    /**
+     * Adds a stream output to the cell.
+     * @param name the name of the stream, i.e. stdout or stderr.
+     * @param text the text written to the stream.
+     */
+    public void addStreamOutput(String name, String text) {
+      Map<String, Object> output = new LinkedHashMap<String, Object>();
+      output.put("output_type", "stream");
+      output.put(_format == 3 ? "stream" : "name", name);
+      output.put("text", Notebook.splitLines(text));
+
+      addOutput(output);
+    }
+
+    /**
+     * Adds a display data output to the cell.
+     * @param data the mime representations of the data being displayed.
+     */
+    public void addDataOutput(Map<String, String> data) {
+      Map<String, Object> output = new LinkedHashMap<String, Object>();
+      output.put("output_type", "display_data");
+      output.put("metadata", new LinkedHashMap<String, Object>());
+
+      Map<String, Object> dataObject = output;
+      if (_format != 3) {
+        dataObject = new LinkedHashMap<String, Object>();
+        output.put("data", dataObject);
+      }
+
+      for (Map.Entry<String, String> entry: data.entrySet()) {
+        String key = entry.getKey();
+        if (_format == 3) {
+          String v3Key = Notebook.V3DataKeys.get(key);
+          if (v3Key != null) {
+            key = v3Key;
+          }
+        }
+
+        dataObject.put(key, Notebook.splitLines(entry.getValue()));
+      }
+
+      addOutput(output);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void addOutput(Map<String, Object> output) {
+      List<Object> outputs = (List<Object>)_content.get("outputs");
+      if (outputs == null) {
+        outputs = new ArrayList<Object>();
+        _content.put("outputs", outputs);
+      }
+
+      outputs.add(output);
+    }
+  }
+}
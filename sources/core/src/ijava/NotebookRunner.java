@@ -0,0 +1,330 @@
+// NotebookRunner.java
+//
+
+package ijava;
+
+import java.io.*;
+import java.net.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import ijava.extensibility.*;
+import ijava.kernel.*;
+import ijava.shell.*;
+
+/**
+ * Represents the entry point for executing notebooks headlessly, i.e. in-process, without a
+ * notebook server, kernel session or sockets. Each notebook is executed in a new shell, one code
+ * cell at a time, and written back out along with the resulting outputs.
+ *
+ * Multiple notebooks can be executed concurrently within the one process. Each has its own
+ * shell (and so its own class loaders and state), while sharing the jar indexes, loaded
+ * runtime classes and compiled code of the process. The standard streams are replaced once,
+ * and output is routed to the cell being executed on the writing thread.
+ */
+public final class NotebookRunner {
+
+  private final static long TIMEOUT_GRACE_PERIOD = 5000;
+
+  private final URL _applicationURL;
+  private final NotebookRunnerOptions _options;
+
+  /**
+   * Initializes an instance of a NotebookRunner.
+   * @param applicationURL the URL of the application, used to initialize shells.
+   * @param options the options to execute notebooks with.
+   */
+  public NotebookRunner(URL applicationURL, NotebookRunnerOptions options) {
+    _applicationURL = applicationURL;
+    _options = options;
+  }
+
+  /**
+   * Application entry point method.
+   * @param args the arguments passed in into the application process.
+   */
+  public static void main(String[] args) throws Exception {
+    NotebookRunnerOptions options = NotebookRunnerOptions.parse(args);
+    if (options == null) {
+      System.exit(1);
+    }
+
+    Log.initializeLogging(options.logLevel, options.logPath, options.logSize, options.logFiles);
+
+    // Reading from stdin reaches the end of the stream immediately, i.e. fails fast rather than
+    // blocking the run.
+    System.setIn(new ByteArrayInputStream(new byte[0]));
+
+    URL applicationURL = NotebookRunner.class.getProtectionDomain().getCodeSource().getLocation();
+    final NotebookRunner runner = new NotebookRunner(applicationURL, options);
+
+    ExecutorService executor = Executors.newFixedThreadPool(options.parallel);
+    List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+    for (final String notebook: options.notebooks) {
+      results.add(executor.submit(new Callable<Boolean>() {
+        @Override
+        public Boolean call() {
+          return runner.run(Paths.get(notebook));
+        }
+      }));
+    }
+
+    int failures = 0;
+    for (Future<Boolean> result: results) {
+      if (!result.get()) {
+        failures++;
+      }
+    }
+    executor.shutdown();
+
+    System.exit(failures == 0 ? 0 : 1);
+  }
+
+  /**
+   * Executes the specified notebook, and writes out the executed notebook. If a timeout has
+   * been specified, the notebook is executed on its own thread, which is interrupted once the
+   * timeout has elapsed, and abandoned if it does not stop.
+   * @param notebookPath the path of the notebook to execute.
+   * @return true if all code cells were executed successfully.
+   */
+  public boolean run(final Path notebookPath) {
+    long startTime = System.currentTimeMillis();
+
+    final NotebookExecution execution = new NotebookExecution();
+    boolean succeeded;
+    if (_options.timeout <= 0) {
+      succeeded = runNotebook(notebookPath, execution);
+    }
+    else {
+      FutureTask<Boolean> task = new FutureTask<Boolean>(new Callable<Boolean>() {
+        @Override
+        public Boolean call() {
+          return runNotebook(notebookPath, execution);
+        }
+      });
+
+      Thread thread = new Thread(task, "ijava-notebook");
+      thread.setDaemon(true);
+      execution.setThread(thread);
+      thread.start();
+
+      succeeded = waitForNotebook(notebookPath, task, execution);
+    }
+
+    System.out.println(String.format("%s: %s in %d ms", notebookPath,
+                                     succeeded ? "completed" :
+                                         (execution.isTimedOut() ? "timed out" : "failed"),
+                                     System.currentTimeMillis() - startTime));
+    return succeeded;
+  }
+
+  private boolean waitForNotebook(Path notebookPath, FutureTask<Boolean> task,
+                                  NotebookExecution execution) {
+    try {
+      try {
+        return task.get(_options.timeout, TimeUnit.SECONDS);
+      }
+      catch (TimeoutException e) {
+        execution.timeout();
+      }
+
+      try {
+        return task.get(NotebookRunner.TIMEOUT_GRACE_PERIOD, TimeUnit.MILLISECONDS);
+      }
+      catch (TimeoutException e) {
+        InteractiveShell.Log.warn("Abandoning notebook '%s', as it did not stop after timing out.",
+                                  notebookPath);
+        return false;
+      }
+    }
+    catch (InterruptedException e) {
+      execution.timeout();
+      Thread.currentThread().interrupt();
+      return false;
+    }
+    catch (ExecutionException e) {
+      InteractiveShell.Log.exception(e, "Unable to run notebook '%s'.", notebookPath);
+      return false;
+    }
+  }
+
+  private boolean runNotebook(Path notebookPath, NotebookExecution execution) {
+    Path outputPath = notebookPath;
+    if (_options.outputPath != null) {
+      outputPath = Paths.get(_options.outputPath).resolve(notebookPath.getFileName());
+    }
+
+    try {
+      Notebook notebook = Notebook.load(notebookPath);
+
+      InteractiveShell shell = new InteractiveShell();
+      shell.initialize(_applicationURL,
+                       _options.dependencies, _options.shellDependencies, _options.extensions);
+      if (_options.languageLevel != null) {
+        shell.setLanguageLevel(_options.languageLevel);
+      }
+
+      boolean succeeded = execute(shell, notebook, execution);
+      notebook.save(outputPath);
+
+      return succeeded;
+    }
+    catch (Exception e) {
+      InteractiveShell.Log.exception(e, "Unable to run notebook '%s'.", notebookPath);
+      System.out.println(String.format("%s: error: %s", notebookPath, e.getMessage()));
+      return false;
+    }
+  }
+
+  /**
+   * Executes the code cells of a notebook in order, replacing their outputs. Once a cell fails,
+   * subsequent cells are not executed, unless errors are allowed. Once the notebook times out,
+   * subsequent cells are not executed in either case.
+   * @param shell the shell to execute code within.
+   * @param notebook the notebook to execute.
+   * @param execution the state of the execution of the notebook.
+   * @return true if all code cells were executed successfully.
+   */
+  private boolean execute(InteractiveShell shell, Notebook notebook,
+                          NotebookExecution execution) {
+    boolean succeeded = true;
+    boolean stopped = false;
+    long counter = 1;
+
+    for (Notebook.Cell cell: notebook.getCells()) {
+      if (!cell.isCode()) {
+        continue;
+      }
+
+      cell.clearOutputs();
+      if (stopped || execution.isTimedOut()) {
+        continue;
+      }
+
+      String code = cell.getCode();
+      if (code.trim().isEmpty()) {
+        continue;
+      }
+
+      if (!executeCell(shell, cell, code, counter, execution)) {
+        succeeded = false;
+        stopped = !_options.allowErrors;
+      }
+      counter++;
+
+      if (execution.isTimedOut()) {
+        cell.addStreamOutput("stderr", String.format("Timed out after %d seconds.\n",
+                                                     _options.timeout));
+        succeeded = false;
+      }
+    }
+
+    return succeeded;
+  }
+
+  /**
+   * Executes a single code cell, capturing its output streams and result as cell outputs.
+   * @param shell the shell to execute code within.
+   * @param cell the cell being executed.
+   * @param code the code within the cell.
+   * @param counter the execution sequence number of the cell.
+   * @param execution the state of the execution of the notebook.
+   * @return true if the cell was executed successfully.
+   */
+  private boolean executeCell(InteractiveShell shell, Notebook.Cell cell, String code,
+                              long counter, NotebookExecution execution) {
+    // As in a kernel session, the error output is buffered separately so it doesn't get
+    // interspersed within the output.
+    ByteArrayOutputStream outBuffer = new ByteArrayOutputStream();
+    ByteArrayOutputStream errBuffer = new ByteArrayOutputStream();
+
+    Throwable error = null;
+    Object result = null;
+    try {
+      RoutedOutputStream.getOutput().setStream(outBuffer);
+      RoutedOutputStream.getError().setStream(errBuffer);
+      OutputRoutes.beginEvaluation();
+      execution.beginCell();
+
+      result = shell.evaluate(code, counter, cell.getMetadata());
+    }
+    catch (EvaluationError e) {
+      System.err.println(e.getMessage());
+      error = e;
+    }
+    catch (Throwable t) {
+      t.printStackTrace();
+      error = t;
+    }
+    finally {
+      execution.endCell();
+
+      System.out.flush();
+      System.err.flush();
+
+      OutputRoutes.endEvaluation();
+      RoutedOutputStream.getOutput().setStream(null);
+      RoutedOutputStream.getError().setStream(null);
+    }
+
+    cell.setExecutionCount(counter);
+    try {
+      if (outBuffer.size() != 0) {
+        cell.addStreamOutput("stdout", outBuffer.toString("UTF-8"));
+      }
+      if (errBuffer.size() != 0) {
+        cell.addStreamOutput("stderr", errBuffer.toString("UTF-8"));
+      }
+    }
+    catch (UnsupportedEncodingException e) {
+      // UTF-8 is always supported.
+    }
+
+    if (result != null) {
+      Map<String, String> data = MimeFormatter.format(result);
+      cell.addDataOutput(data);
+    }
+
+    return error == null;
+  }
+
+
+  /**
+   * Tracks the execution of a notebook, so that it can be timed out. The executing thread is
+   * only interrupted while a cell is being executed, and its interrupted status is cleared
+   * once the cell completes, so that the notebook can still be written out.
+   */
+  private static final class NotebookExecution {
+
+    private Thread _thread;
+    private boolean _executingCell;
+    private boolean _timedOut;
+
+    public synchronized void setThread(Thread thread) {
+      _thread = thread;
+    }
+
+    public synchronized boolean isTimedOut() {
+      return _timedOut;
+    }
+
+    public synchronized void beginCell() {
+      _executingCell = true;
+      if (_timedOut) {
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    public synchronized void endCell() {
+      _executingCell = false;
+      Thread.interrupted();
+    }
+
+    public synchronized void timeout() {
+      _timedOut = true;
+      if (_executingCell && (_thread != null)) {
+        _thread.interrupt();
+      }
+    }
+  }
+}
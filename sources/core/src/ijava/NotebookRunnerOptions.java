@@ -0,0 +1,126 @@
+// NotebookRunnerOptions.java
+//
+
+package ijava;
+
+import java.util.*;
+import java.util.logging.*;
+import com.beust.jcommander.*;
+import ijava.shell.compiler.*;
+
+@Parameters(separators = ":")
+public final class NotebookRunnerOptions {
+
+  @Parameter(names = "--logLevel", converter = ApplicationOptions.LogLevelConverter.class)
+  public Level logLevel = Level.WARNING;
+
+  @Parameter(names = "--logPath")
+  public String logPath = null;
+
+  @Parameter(names = "--logSize")
+  public Integer logSize = 10485760;
+
+  @Parameter(names = "--logFiles")
+  public Integer logFiles = 10;
+
+  @Parameter(names = "--dep")
+  public List<String> dependencies = new ArrayList<String>();
+
+  @Parameter(names = "--shellDep")
+  public List<String> shellDependencies = new ArrayList<String>();
+
+  @Parameter(names = "--ext")
+  public List<String> extensions = new ArrayList<String>();
+
+  @Parameter(names = "--languageLevel", converter = ApplicationOptions.LanguageLevelConverter.class)
+  public LanguageLevel languageLevel = null;
+
+  @Parameter(names = "--output")
+  public String outputPath = null;
+
+  @Parameter(names = "--allowErrors")
+  public boolean allowErrors = false;
+
+  @Parameter(names = "--parallel")
+  public Integer parallel = 1;
+
+  @Parameter(names = "--timeout")
+  public Integer timeout = 0;
+
+  @Parameter
+  public List<String> notebooks = new ArrayList<String>();
+
+  @Parameter(names = { "--help", "--?" }, help = true)
+  public boolean showHelp = false;
+
+  private NotebookRunnerOptions() {
+  }
+
+  public static NotebookRunnerOptions parse(String[] args) {
+    NotebookRunnerOptions options = new NotebookRunnerOptions();
+    JCommander commandParser = new JCommander(options);
+
+    String error = "";
+    try {
+      commandParser.parse(args);
+    }
+    catch (ParameterException e) {
+      error = e.getMessage();
+    }
+
+    if (error.isEmpty() && (options.parallel < 1)) {
+      error = "The parallel count must be at least 1.";
+    }
+
+    if (options.showHelp || !error.isEmpty() || options.notebooks.isEmpty()) {
+      System.out.println(error);
+
+      System.out.println("Usage:");
+      System.out.println("java -cp ijava ijava.NotebookRunner [dependencies] [extensions] " +
+                         "[language] [output] [execution] [logging] <notebooks>");
+      System.out.println();
+      System.out.println("Dependencies");
+      System.out.println("Optional list of jar paths (relative to ijava) that should be preload.");
+      System.out.println("  --dep:<path to runtime dependency>");
+      System.out.println("  --shellDep:<path to shell dependency>");
+      System.out.println();
+      System.out.println("Extensions");
+      System.out.println("Optional list of extension classes to pre-load at startup.");
+      System.out.println("  --ext:<fully qualified extension class name>");
+      System.out.println();
+      System.out.println("Language");
+      System.out.println("Optional Java language level to compile code at. By default, the highest");
+      System.out.println("level supported by the Java runtime.");
+      System.out.println("  --languageLevel:<level> 1.7 or 1.8");
+      System.out.println();
+      System.out.println("Output");
+      System.out.println("Optional directory to write executed notebooks into. By default,");
+      System.out.println("notebooks are updated in place.");
+      System.out.println("  --output:<directory>");
+      System.out.println();
+      System.out.println("Execution");
+      System.out.println("Optionally continue executing the cells of a notebook after an error.");
+      System.out.println("  --allowErrors");
+      System.out.println("Optional number of notebooks to execute concurrently (default 1), and");
+      System.out.println("a time limit for executing each notebook (default none).");
+      System.out.println("  --parallel:<count>");
+      System.out.println("  --timeout :<seconds>");
+      System.out.println();
+      System.out.println("Logging");
+      System.out.println("Optional set of logging configuration.");
+      System.out.println("  --logLevel:<level>      debug, info (default), warning or error");
+      System.out.println("  --logPath :<directory>  path to directory to generate log files into");
+      System.out.println("  --logSize :<file size>  maximum file size for individual log files");
+      System.out.println("  --logFiles:<file count> number of individual log files to rotate over");
+      System.out.println();
+      System.out.println("Notebooks");
+      System.out.println("Paths to one or more .ipynb files, in the version 3 or 4 format. Each");
+      System.out.println("notebook is executed in a new shell, one code cell at a time.");
+      System.out.println();
+
+      return null;
+    }
+
+    return options;
+  }
+}
@@ -0,0 +1,503 @@
+// SessionReplay.java
+//
+
+package ijava;
+
+import java.io.*;
+import java.net.URL;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import org.zeromq.*;
+import org.zeromq.ZMQ.*;
+import ijava.extensibility.*;
+import ijava.kernel.*;
+import ijava.kernel.protocol.*;
+import ijava.shell.*;
+
+/**
+ * Represents the entry point for replaying a recorded session against a new kernel, in-process,
+ * so that issues (including slowdowns) observed in a session can be reproduced and profiled.
+ *
+ * The requests within the recording are sent to a new session, at the recorded timing, scaled
+ * by the specified speed, and re-signed with the key of the new session. The replies and outputs
+ * of each request are then compared with those that were recorded, along with the time taken
+ * to reply to each request.
+ */
+public final class SessionReplay {
+
+  private final static int POLL_INTERVAL = 10;
+  private final static int SYNC_INTERVAL = 3000;
+  private final static String SyncIdentity = "ijava-replay";
+
+  private final List<MessageRecorder.Record> _records;
+  private final double _speed;
+  private final long _timeout;
+
+  /**
+   * Initializes an instance of a SessionReplay.
+   * @param records the recorded messages to replay.
+   * @param speed the speed to replay requests at, relative to the recorded timing, or 0 to send
+   *              each request as soon as possible.
+   * @param timeout the time to wait for outstanding replies, in milliseconds.
+   */
+  public SessionReplay(List<MessageRecorder.Record> records, double speed, long timeout) {
+    _records = records;
+    _speed = speed;
+    _timeout = timeout;
+  }
+
+  /**
+   * Application entry point method.
+   * @param args the arguments passed in into the application process.
+   */
+  public static void main(String[] args) throws Exception {
+    SessionReplayOptions options = SessionReplayOptions.parse(args);
+    if (options == null) {
+      System.exit(1);
+    }
+
+    Log.initializeLogging(options.logLevel, options.logPath, options.logSize, options.logFiles);
+
+    List<MessageRecorder.Record> records =
+        MessageRecorder.read(Paths.get(options.recordings.get(0)));
+
+    URL applicationURL = SessionReplay.class.getProtectionDomain().getCodeSource().getLocation();
+    InteractiveShell shell = new InteractiveShell();
+    shell.initialize(applicationURL,
+                     options.dependencies, options.shellDependencies, options.extensions);
+
+    SessionReplay replay = new SessionReplay(records, options.speed,
+                                             TimeUnit.SECONDS.toMillis(options.timeout));
+    List<MessageRecorder.Record> replayedRecords = replay.replay(shell);
+
+    boolean matched = replay.compare(replayedRecords, System.out);
+    System.exit(matched ? 0 : 1);
+  }
+
+  /**
+   * Replays the recorded requests against a new session, hosted within the process, and using
+   * the specified evaluator.
+   * @param evaluator the evaluator to process requests with.
+   * @return the messages sent to and received from the session during the replay.
+   * @throws TimeoutException if the session did not start responding in time.
+   */
+  public List<MessageRecorder.Record> replay(Evaluator evaluator) throws TimeoutException {
+    List<MessageRecorder.Record> requests = new ArrayList<MessageRecorder.Record>();
+    for (MessageRecorder.Record record: _records) {
+      if (record.isIncoming()) {
+        requests.add(record);
+      }
+    }
+
+    Context context = ZMQ.context(1);
+    SessionOptions options = SessionOptions.createInProcess("ijava-replay");
+    final Session session = new Session(options, evaluator, context);
+    Thread sessionThread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        session.start();
+      }
+    }, "Replay Session");
+    sessionThread.start();
+
+    ReplayClient client = new ReplayClient(context, options, requests);
+    try {
+      client.waitForSession(_timeout);
+      return client.replay(requests);
+    }
+    finally {
+      client.close();
+
+      session.stop();
+      try {
+        sessionThread.join(_timeout);
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      context.term();
+    }
+  }
+
+  /**
+   * Compares the replies and outputs of each replayed request with those that were recorded,
+   * and reports the differences along with the time taken to reply to each request. Stream
+   * output is compared as a whole, since it may be split across messages differently, and
+   * status messages are not compared, as the status transitions depend on timing.
+   * @param replayedRecords the messages sent to and received from the session during the replay.
+   * @param output the stream to report the comparison to.
+   * @return true if the replies and outputs of all requests matched.
+   */
+  public boolean compare(List<MessageRecorder.Record> replayedRecords, PrintStream output) {
+    Map<String, List<MessageRecorder.Record>> recordedResults =
+        SessionReplay.groupResults(_records);
+    Map<String, List<MessageRecorder.Record>> replayedResults =
+        SessionReplay.groupResults(replayedRecords);
+    Map<String, MessageRecorder.Record> replayedRequests =
+        new HashMap<String, MessageRecorder.Record>();
+    for (MessageRecorder.Record record: replayedRecords) {
+      if (record.isIncoming()) {
+        replayedRequests.put(record.getId(), record);
+      }
+    }
+
+    int requestCount = 0;
+    int mismatchCount = 0;
+    for (MessageRecorder.Record request: _records) {
+      if (!request.isIncoming()) {
+        continue;
+      }
+      requestCount++;
+
+      MessageRecorder.Record replayedRequest = replayedRequests.get(request.getId());
+      List<MessageRecorder.Record> recorded = recordedResults.get(request.getId());
+      List<MessageRecorder.Record> replayed = replayedResults.get(request.getId());
+
+      String difference = null;
+      if (replayedRequest == null) {
+        difference = "not replayed";
+      }
+      else {
+        difference = SessionReplay.compareResults(recorded, replayed);
+      }
+      if (difference != null) {
+        mismatchCount++;
+      }
+
+      output.println(String.format("%s %s: recorded %s, replayed %s%s",
+                                   request.getType(), request.getId(),
+                                   SessionReplay.formatReplyTime(request, recorded),
+                                   SessionReplay.formatReplyTime(replayedRequest, replayed),
+                                   difference == null ? "" : " (" + difference + ")"));
+    }
+
+    output.println(String.format("Replayed %d requests, %d with differences.",
+                                 requestCount, mismatchCount));
+    return mismatchCount == 0;
+  }
+
+  private static Map<String, List<MessageRecorder.Record>> groupResults(
+      List<MessageRecorder.Record> records) {
+    Map<String, List<MessageRecorder.Record>> results =
+        new HashMap<String, List<MessageRecorder.Record>>();
+    for (MessageRecorder.Record record: records) {
+      String parentId = record.getParentId();
+      if (record.isIncoming() || (parentId == null) || record.getType().equals(Message.Status)) {
+        continue;
+      }
+
+      List<MessageRecorder.Record> result = results.get(parentId);
+      if (result == null) {
+        result = new ArrayList<MessageRecorder.Record>();
+        results.put(parentId, result);
+      }
+      result.add(record);
+    }
+
+    return results;
+  }
+
+  private static String compareResults(List<MessageRecorder.Record> recorded,
+                                       List<MessageRecorder.Record> replayed) {
+    List<Object> recordedOutputs = SessionReplay.normalizeResults(recorded);
+    List<Object> replayedOutputs = SessionReplay.normalizeResults(replayed);
+
+    if (recordedOutputs.size() != replayedOutputs.size()) {
+      return String.format("%d messages recorded, %d replayed",
+                           recordedOutputs.size(), replayedOutputs.size());
+    }
+    for (int i = 0; i < recordedOutputs.size(); i++) {
+      if (!recordedOutputs.get(i).equals(replayedOutputs.get(i))) {
+        return String.format("recorded %s, replayed %s",
+                             recordedOutputs.get(i), replayedOutputs.get(i));
+      }
+    }
+
+    return null;
+  }
+
+  /**
+   * Normalizes the results of a request into a list of comparable values, i.e. each message as
+   * its type and content, with consecutive stream messages merged per stream. Messages are
+   * grouped by channel, since only the order of messages on the same channel is preserved.
+   */
+  private static List<Object> normalizeResults(List<MessageRecorder.Record> results) {
+    List<Object> outputs = new ArrayList<Object>();
+    if (results == null) {
+      return outputs;
+    }
+
+    results = new ArrayList<MessageRecorder.Record>(results);
+    Collections.sort(results, new Comparator<MessageRecorder.Record>() {
+      @Override
+      public int compare(MessageRecorder.Record record1, MessageRecorder.Record record2) {
+        return record1.getChannel().compareTo(record2.getChannel());
+      }
+    });
+
+    Map<String, StringBuilder> streams = null;
+    for (MessageRecorder.Record record: results) {
+      if (record.getType().equals(Message.Stream)) {
+        if (streams == null) {
+          streams = new TreeMap<String, StringBuilder>();
+          outputs.add(streams);
+        }
+
+        String name = (String)record.getContent().get("name");
+        StringBuilder text = streams.get(name);
+        if (text == null) {
+          text = new StringBuilder();
+          streams.put(name, text);
+        }
+        text.append(record.getContent().get("data"));
+        continue;
+      }
+
+      streams = null;
+      outputs.add(record.getType() + " " + record.getContent());
+    }
+
+    // Compare stream text as strings, since StringBuilder doesn't implement equals.
+    for (int i = 0; i < outputs.size(); i++) {
+      if (outputs.get(i) instanceof Map) {
+        outputs.set(i, Message.Stream + " " + outputs.get(i).toString());
+      }
+    }
+    return outputs;
+  }
+
+  private static String formatReplyTime(MessageRecorder.Record request,
+                                        List<MessageRecorder.Record> results) {
+    if ((request != null) && (results != null)) {
+      for (MessageRecorder.Record record: results) {
+        if (record.getType().endsWith("_reply")) {
+          return String.format("%.1f ms", (record.getTime() - request.getTime()) / 1000.0);
+        }
+      }
+    }
+
+    return "no reply";
+  }
+
+
+  /**
+   * Sends requests to the replayed session, and receives its replies and outputs, over
+   * sockets in the same ZMQ context. A socket is created per recorded client identity and
+   * channel, so that replies are routed back as they were in the recorded session.
+   */
+  private final class ReplayClient {
+
+    private final MessageSigner _signer;
+    private final Map<String, Socket> _requestSockets;
+    private final List<Socket> _sockets;
+    private final List<MessageChannel> _channels;
+    private final Socket _syncSocket;
+    private final ZMQ.Poller _poller;
+
+    private long _startTime;
+    private String _idleParentId;
+
+    public ReplayClient(Context context, SessionOptions options,
+                        List<MessageRecorder.Record> requests) {
+      _signer = MessageSigner.create(options.getSignatureKey(), options.getSignatureScheme());
+      _requestSockets = new HashMap<String, Socket>();
+      _sockets = new ArrayList<Socket>();
+      _channels = new ArrayList<MessageChannel>();
+
+      Socket ioPubSocket = context.socket(ZMQ.SUB);
+      ioPubSocket.subscribe(new byte[0]);
+      ioPubSocket.connect(getAddress(options, options.getIOPubPort()));
+      addSocket(ioPubSocket, MessageChannel.Output);
+
+      _syncSocket = createRequestSocket(context, options, MessageChannel.Shell,
+                                        SessionReplay.SyncIdentity);
+      for (MessageRecorder.Record request: requests) {
+        String key = request.getChannel() + "/" + request.getIdentity();
+        if (!_requestSockets.containsKey(key)) {
+          _requestSockets.put(key, createRequestSocket(context, options, request.getChannel(),
+                                                       request.getIdentity()));
+        }
+      }
+
+      _poller = new ZMQ.Poller(_sockets.size());
+      for (Socket socket: _sockets) {
+        _poller.register(socket, ZMQ.Poller.POLLIN);
+      }
+    }
+
+    private String getAddress(SessionOptions options, int port) {
+      return String.format("%s://%s:%d", options.getTransport(), options.getIP(), port);
+    }
+
+    private void addSocket(Socket socket, MessageChannel channel) {
+      socket.setLinger(0);
+      _sockets.add(socket);
+      _channels.add(channel);
+    }
+
+    private Socket createRequestSocket(Context context, SessionOptions options,
+                                       MessageChannel channel, String identity) {
+      int port = channel == MessageChannel.Control ? options.getControlPort()
+                                                   : options.getShellPort();
+
+      Socket socket = context.socket(ZMQ.DEALER);
+      if (identity != null) {
+        socket.setIdentity(identity.getBytes(StandardCharsets.UTF_8));
+      }
+      socket.connect(getAddress(options, port));
+      addSocket(socket, channel);
+
+      return socket;
+    }
+
+    public void close() {
+      for (Socket socket: _sockets) {
+        socket.close();
+      }
+    }
+
+    /**
+     * Waits until the session responds, and published messages are being received, by sending
+     * empty execute requests until the resulting status messages are received. Messages
+     * published before the subscription has been established would otherwise be missed.
+     */
+    public void waitForSession(long timeout) throws TimeoutException {
+      long endTime = System.currentTimeMillis() + timeout;
+      while (System.currentTimeMillis() < endTime) {
+        Map<String, Object> header = new HashMap<String, Object>();
+        header.put("msg_id", UUID.randomUUID().toString());
+        header.put("msg_type", Message.ExecuteRequest);
+
+        Map<String, Object> content = new HashMap<String, Object>();
+        content.put("code", "");
+        content.put("silent", true);
+        content.put("store_history", false);
+        content.put("allow_stdin", false);
+
+        Message request = Message.createMessage(null, header, new HashMap<String, Object>(),
+                                                new HashMap<String, Object>(), content);
+        MessageIO.writeMessage(_syncSocket, _signer, request);
+
+        // Wait for the session to become idle after processing the request, before retrying.
+        long retryTime = System.currentTimeMillis() + SessionReplay.SYNC_INTERVAL;
+        while (System.currentTimeMillis() < Math.min(retryTime, endTime)) {
+          receive();
+          if (request.getId().equals(_idleParentId)) {
+            return;
+          }
+        }
+      }
+
+      throw new TimeoutException("The replayed session did not respond.");
+    }
+
+    /**
+     * Sends the specified requests at the recorded timing, scaled by the replay speed, and
+     * receives the resulting messages, until the replies to all requests have been received,
+     * and the session is idle, or no messages have been received within the timeout.
+     */
+    public List<MessageRecorder.Record> replay(List<MessageRecorder.Record> requests) {
+      List<MessageRecorder.Record> records = new ArrayList<MessageRecorder.Record>();
+      Set<String> pendingRequests = new HashSet<String>();
+
+      _startTime = System.nanoTime();
+      long firstRequestTime = requests.isEmpty() ? 0 : requests.get(0).getTime();
+      long lastActivityTime = System.currentTimeMillis();
+
+      String lastExecuteId = null;
+      int nextRequest = 0;
+      while (true) {
+        if (nextRequest < requests.size()) {
+          MessageRecorder.Record request = requests.get(nextRequest);
+          long dueTime = 0;
+          if (_speed > 0) {
+            dueTime = (long)((request.getTime() - firstRequestTime) / _speed);
+          }
+
+          if (getTime() >= dueTime) {
+            nextRequest++;
+
+            Message message = request.createMessage();
+            if (message == null) {
+              InteractiveShell.Log.warn("Skipping unsupported %s message.", request.getType());
+              continue;
+            }
+
+            Socket socket =
+                _requestSockets.get(request.getChannel() + "/" + request.getIdentity());
+            MessageIO.writeMessage(socket, _signer, message);
+            records.add(MessageRecorder.createRecord(getTime(), /* incoming */ true,
+                                                     request.getChannel(), message));
+
+            pendingRequests.add(request.getId());
+            lastActivityTime = System.currentTimeMillis();
+            continue;
+          }
+        }
+        else if (pendingRequests.isEmpty() &&
+                 ((lastExecuteId == null) || lastExecuteId.equals(_idleParentId))) {
+          // The session becomes idle after processing the last execute request, and publishes
+          // the idle status after all the outputs of the request.
+          break;
+        }
+
+        if (System.currentTimeMillis() - lastActivityTime > _timeout) {
+          InteractiveShell.Log.warn("Timed out waiting for replies to %d requests.",
+                                    pendingRequests.size());
+          break;
+        }
+
+        List<MessageRecorder.Record> receivedRecords = receive();
+        for (MessageRecorder.Record record: receivedRecords) {
+          if (record.getType().endsWith("_reply")) {
+            pendingRequests.remove(record.getParentId());
+          }
+          if (record.getType().equals(Message.ExecuteResponse)) {
+            lastExecuteId = record.getParentId();
+          }
+          records.add(record);
+        }
+        if (!receivedRecords.isEmpty()) {
+          lastActivityTime = System.currentTimeMillis();
+        }
+      }
+
+      return records;
+    }
+
+    private long getTime() {
+      return (System.nanoTime() - _startTime) / 1000;
+    }
+
+    private List<MessageRecorder.Record> receive() {
+      List<MessageRecorder.Record> records = new ArrayList<MessageRecorder.Record>();
+
+      _poller.poll(SessionReplay.POLL_INTERVAL);
+      for (int i = 0; i < _sockets.size(); i++) {
+        if (!_poller.pollin(i)) {
+          continue;
+        }
+
+        Message message = MessageIO.readMessage(_sockets.get(i), _signer, /* anyType */ true);
+        if (message == null) {
+          continue;
+        }
+
+        MessageRecorder.Record record =
+            MessageRecorder.createRecord(getTime(), /* incoming */ false, _channels.get(i),
+                                         message);
+        if (record.getType().equals(Message.Status) &&
+            "idle".equals(record.getContent().get("execution_state"))) {
+          _idleParentId = record.getParentId();
+        }
+        if (_sockets.get(i) != _syncSocket) {
+          records.add(record);
+        }
+      }
+
+      return records;
+    }
+  }
+}
@@ -0,0 +1,109 @@
+// SessionReplayOptions.java
+//
+
+package ijava;
+
+import java.util.*;
+import java.util.logging.*;
+import com.beust.jcommander.*;
+
+@Parameters(separators = ":")
+public final class SessionReplayOptions {
+
+  @Parameter(names = "--logLevel", converter = ApplicationOptions.LogLevelConverter.class)
+  public Level logLevel = Level.WARNING;
+
+  @Parameter(names = "--logPath")
+  public String logPath = null;
+
+  @Parameter(names = "--logSize")
+  public Integer logSize = 10485760;
+
+  @Parameter(names = "--logFiles")
+  public Integer logFiles = 10;
+
+  @Parameter(names = "--dep")
+  public List<String> dependencies = new ArrayList<String>();
+
+  @Parameter(names = "--shellDep")
+  public List<String> shellDependencies = new ArrayList<String>();
+
+  @Parameter(names = "--ext")
+  public List<String> extensions = new ArrayList<String>();
+
+  @Parameter(names = "--speed")
+  public Double speed = 1.0;
+
+  @Parameter(names = "--timeout")
+  public Integer timeout = 60;
+
+  @Parameter
+  public List<String> recordings = new ArrayList<String>();
+
+  @Parameter(names = { "--help", "--?" }, help = true)
+  public boolean showHelp = false;
+
+  private SessionReplayOptions() {
+  }
+
+  public static SessionReplayOptions parse(String[] args) {
+    SessionReplayOptions options = new SessionReplayOptions();
+    JCommander commandParser = new JCommander(options);
+
+    String error = "";
+    try {
+      commandParser.parse(args);
+    }
+    catch (ParameterException e) {
+      error = e.getMessage();
+    }
+
+    if (error.isEmpty() && (options.speed < 0)) {
+      error = "The speed must not be negative.";
+    }
+    if (error.isEmpty() && (options.recordings.size() > 1)) {
+      error = "Only one recording can be replayed at a time.";
+    }
+
+    if (options.showHelp || !error.isEmpty() || options.recordings.isEmpty()) {
+      System.out.println(error);
+
+      System.out.println("Usage:");
+      System.out.println("java -cp ijava ijava.SessionReplay [dependencies] [extensions] " +
+                         "[replay] [logging] <recording>");
+      System.out.println();
+      System.out.println("Dependencies");
+      System.out.println("Optional list of jar paths (relative to ijava) that should be preload.");
+      System.out.println("  --dep:<path to runtime dependency>");
+      System.out.println("  --shellDep:<path to shell dependency>");
+      System.out.println();
+      System.out.println("Extensions");
+      System.out.println("Optional list of extension classes to pre-load at startup.");
+      System.out.println("  --ext:<fully qualified extension class name>");
+      System.out.println();
+      System.out.println("Replay");
+      System.out.println("Optional speed to replay requests at, relative to the recorded timing");
+      System.out.println("(default 1, or 0 to send each request as soon as possible), and the");
+      System.out.println("time to wait for outstanding replies (default 60).");
+      System.out.println("  --speed  :<factor>");
+      System.out.println("  --timeout:<seconds>");
+      System.out.println();
+      System.out.println("Logging");
+      System.out.println("Optional set of logging configuration.");
+      System.out.println("  --logLevel:<level>      debug, info (default), warning or error");
+      System.out.println("  --logPath :<directory>  path to directory to generate log files into");
+      System.out.println("  --logSize :<file size>  maximum file size for individual log files");
+      System.out.println("  --logFiles:<file count> number of individual log files to rotate over");
+      System.out.println();
+      System.out.println("Recording");
+      System.out.println("Path to a session recording, created by running the kernel with the");
+      System.out.println("--record option. The requests within the recording are replayed against");
+      System.out.println("a new kernel, and the replies and outputs compared with the recording.");
+      System.out.println();
+
+      return null;
+    }
+
+    return options;
+  }
+}
@@ -0,0 +1,103 @@
+// EvaluationLimits.java
+//
+
+package ijava.kernel;
+
+import java.util.*;
+
+/**
+ * Represents the resource limits of an evaluation: the CPU time and wall-clock time it can take,
+ * and the number of bytes it can allocate. A limit of zero indicates there is no limit.
+ *
+ * Limits can be tightened for an individual evaluation through the metadata of the execute
+ * request, using the ijava.limits.cpuTime and ijava.limits.wallTime keys, in milliseconds, and
+ * the ijava.limits.allocation key, in bytes. Since the metadata is specified by the client, it
+ * cannot relax or remove the limits set for the kernel.
+ */
+public final class EvaluationLimits {
+
+  public static final EvaluationLimits None = new EvaluationLimits(0, 0, 0);
+
+  public static final String CpuTimeKey = "ijava.limits.cpuTime";
+  public static final String WallTimeKey = "ijava.limits.wallTime";
+  public static final String AllocationKey = "ijava.limits.allocation";
+
+  private final long _cpuTime;
+  private final long _wallTime;
+  private final long _allocation;
+
+  /**
+   * Initializes an instance of EvaluationLimits.
+   * @param cpuTime the CPU time limit in milliseconds, or zero for no limit.
+   * @param wallTime the wall-clock time limit in milliseconds, or zero for no limit.
+   * @param allocation the allocation limit in bytes, or zero for no limit.
+   */
+  public EvaluationLimits(long cpuTime, long wallTime, long allocation) {
+    if ((cpuTime < 0) || (wallTime < 0) || (allocation < 0)) {
+      throw new IllegalArgumentException("Limits must not be negative.");
+    }
+
+    _cpuTime = cpuTime;
+    _wallTime = wallTime;
+    _allocation = allocation;
+  }
+
+  /**
+   * Gets the CPU time limit.
+   * @return the limit in milliseconds, or zero for no limit.
+   */
+  public long getCpuTime() {
+    return _cpuTime;
+  }
+
+  /**
+   * Gets the wall-clock time limit.
+   * @return the limit in milliseconds, or zero for no limit.
+   */
+  public long getWallTime() {
+    return _wallTime;
+  }
+
+  /**
+   * Gets the allocation limit.
+   * @return the limit in bytes, or zero for no limit.
+   */
+  public long getAllocation() {
+    return _allocation;
+  }
+
+  /**
+   * Gets whether any limit is set.
+   * @return true if at least one of the limits is set.
+   */
+  public boolean isLimited() {
+    return (_cpuTime != 0) || (_wallTime != 0) || (_allocation != 0);
+  }
+
+  /**
+   * Creates the limits for an evaluation, by combining these limits with any limits specified
+   * in the metadata of the evaluation. The smaller of each pair of limits applies, where zero
+   * indicates there is no limit.
+   * @param metadata the metadata associated with the evaluation.
+   * @return the resulting limits.
+   */
+  public EvaluationLimits override(Map<String, Object> metadata) {
+    if (metadata == null) {
+      return this;
+    }
+
+    return new EvaluationLimits(EvaluationLimits.getLimit(metadata, CpuTimeKey, _cpuTime),
+                                EvaluationLimits.getLimit(metadata, WallTimeKey, _wallTime),
+                                EvaluationLimits.getLimit(metadata, AllocationKey, _allocation));
+  }
+
+  private static long getLimit(Map<String, Object> metadata, String key, long defaultLimit) {
+    Object value = metadata.get(key);
+    if (!(value instanceof Number) || (((Number)value).longValue() <= 0)) {
+      return defaultLimit;
+    }
+
+    long limit = ((Number)value).longValue();
+    return (defaultLimit == 0) ? limit : Math.min(defaultLimit, limit);
+  }
+}
@@ -0,0 +1,205 @@
+// EvaluationWatchdog.java
+//
+
+package ijava.kernel;
+
+import java.lang.management.*;
+import java.util.*;
+
+/**
+ * Tracks the CPU time, allocated bytes and wall-clock time of evaluations performed on a worker
+ * thread, and enforces their limits. The worker is sampled through ThreadMXBean by a background
+ * thread, which interrupts the worker once a limit is exceeded. The worker is only interrupted
+ * while an evaluation is in progress, and its interrupted status is cleared once the evaluation
+ * ends, so that it can go on to process subsequent evaluations.
+ *
+ * Usage is measured for the worker thread only, i.e. excludes threads started by the code being
+ * evaluated. Code that does not respond to interruption runs to completion, but is still
+ * reported as having exceeded its limits.
+ */
+public final class EvaluationWatchdog implements Runnable {
+
+  public static final String CpuTimeKey = "ijava.usage.cpuTime";
+  public static final String WallTimeKey = "ijava.usage.wallTime";
+  public static final String AllocationKey = "ijava.usage.allocation";
+
+  private final static long SAMPLE_INTERVAL = 50;
+
+  private final ThreadMXBean _threads;
+  private final com.sun.management.ThreadMXBean _allocations;
+
+  private Thread _watchdogThread;
+  private Thread _thread;
+  private EvaluationLimits _limits;
+  private long _startCpuTime;
+  private long _startWallTime;
+  private long _startAllocation;
+  private String _violation;
+  private boolean _interrupted;
+  private boolean _stopped;
+
+  /**
+   * Initializes an instance of an EvaluationWatchdog.
+   */
+  public EvaluationWatchdog() {
+    _threads = ManagementFactory.getThreadMXBean();
+    if (_threads.isThreadCpuTimeSupported() && !_threads.isThreadCpuTimeEnabled()) {
+      _threads.setThreadCpuTimeEnabled(true);
+    }
+
+    // Allocation tracking is specific to HotSpot based runtimes.
+    com.sun.management.ThreadMXBean allocations = null;
+    if (_threads instanceof com.sun.management.ThreadMXBean) {
+      allocations = (com.sun.management.ThreadMXBean)_threads;
+      if (!allocations.isThreadAllocatedMemorySupported()) {
+        allocations = null;
+      }
+      else if (!allocations.isThreadAllocatedMemoryEnabled()) {
+        allocations.setThreadAllocatedMemoryEnabled(true);
+      }
+    }
+    _allocations = allocations;
+  }
+
+  private long getCpuTime(Thread thread) {
+    if (!_threads.isThreadCpuTimeSupported()) {
+      return -1;
+    }
+
+    return _threads.getThreadCpuTime(thread.getId());
+  }
+
+  private long getAllocation(Thread thread) {
+    if (_allocations == null) {
+      return -1;
+    }
+
+    return _allocations.getThreadAllocatedBytes(thread.getId());
+  }
+
+  /**
+   * Begins tracking an evaluation performed on the current thread.
+   * @param limits the limits of the evaluation.
+   */
+  public synchronized void begin(EvaluationLimits limits) {
+    _thread = Thread.currentThread();
+    _limits = limits;
+    _violation = null;
+    _interrupted = false;
+
+    _startWallTime = System.nanoTime();
+    _startCpuTime = getCpuTime(_thread);
+    _startAllocation = getAllocation(_thread);
+
+    if (limits.isLimited() && !_stopped) {
+      if (_watchdogThread == null) {
+        _watchdogThread = new Thread(this, "ijava-watchdog");
+        _watchdogThread.setDaemon(true);
+        _watchdogThread.start();
+      }
+
+      notifyAll();
+    }
+  }
+
+  /**
+   * Ends tracking the current evaluation, and saves its usage into a metadata dictionary.
+   * @param metadata the metadata dictionary to store usage into, if any.
+   * @return a message describing the limit that was exceeded, or null if the evaluation was
+   *   within its limits.
+   */
+  public synchronized String end(Map<String, Object> metadata) {
+    String violation = checkLimits();
+    if (_violation == null) {
+      _violation = violation;
+    }
+
+    long wallTime = System.nanoTime() - _startWallTime;
+    long cpuTime = getCpuTime(_thread);
+    long allocation = getAllocation(_thread);
+
+    if (metadata != null) {
+      metadata.put(EvaluationWatchdog.WallTimeKey, wallTime / 1000000);
+      if (cpuTime >= 0) {
+        metadata.put(EvaluationWatchdog.CpuTimeKey, (cpuTime - _startCpuTime) / 1000000);
+      }
+      if (allocation >= 0) {
+        metadata.put(EvaluationWatchdog.AllocationKey, allocation - _startAllocation);
+      }
+    }
+
+    // Clear the interruption triggered by the watchdog, in case the evaluated code did not
+    // observe it.
+    if (_interrupted) {
+      Thread.interrupted();
+    }
+
+    _thread = null;
+    return _violation;
+  }
+
+  /**
+   * Stops the background thread used to enforce limits, if it was started. Usage continues to
+   * be tracked, but limits are no longer enforced while evaluations are in progress.
+   */
+  public synchronized void stop() {
+    _stopped = true;
+    if (_watchdogThread != null) {
+      _watchdogThread.interrupt();
+      _watchdogThread = null;
+    }
+  }
+
+  /**
+   * Checks the usage of the current evaluation against its limits.
+   * @return a message describing the limit that was exceeded, or null if there was none.
+   */
+  private String checkLimits() {
+    long wallTime = (System.nanoTime() - _startWallTime) / 1000000;
+    if ((_limits.getWallTime() != 0) && (wallTime > _limits.getWallTime())) {
+      return String.format("The execution exceeded its time limit of %d ms.",
+                           _limits.getWallTime());
+    }
+
+    long cpuTime = getCpuTime(_thread);
+    if ((_limits.getCpuTime() != 0) && (cpuTime >= 0) &&
+        ((cpuTime - _startCpuTime) / 1000000 > _limits.getCpuTime())) {
+      return String.format("The execution exceeded its CPU time limit of %d ms.",
+                           _limits.getCpuTime());
+    }
+
+    long allocation = getAllocation(_thread);
+    if ((_limits.getAllocation() != 0) && (allocation >= 0) &&
+        (allocation - _startAllocation > _limits.getAllocation())) {
+      return String.format("The execution exceeded its allocation limit of %d bytes.",
+                           _limits.getAllocation());
+    }
+
+    return null;
+  }
+
+  @Override
+  public synchronized void run() {
+    while (!_stopped) {
+      try {
+        if ((_thread == null) || !_limits.isLimited() || (_violation != null)) {
+          wait();
+        }
+        else {
+          wait(EvaluationWatchdog.SAMPLE_INTERVAL);
+        }
+      }
+      catch (InterruptedException e) {
+        return;
+      }
+
+      if ((_thread != null) && _limits.isLimited() && (_violation == null)) {
+        _violation = checkLimits();
+        if (_violation != null) {
+          _interrupted = true;
+          _thread.interrupt();
+        }
+      }
+    }
+  }
+}
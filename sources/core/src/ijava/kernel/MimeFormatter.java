@@ -0,0 +1,51 @@
+// MimeFormatter.java
+//
+
+package ijava.kernel;
+
+import java.lang.reflect.*;
+import java.util.*;
+
+/**
+ * Implements data formatting to convert objects into mime representations.
+ */
+public final class MimeFormatter {
+
+  private MimeFormatter() {
+  }
+
+  /**
+   * Formats the specified value into its mime representation.
+   * @param value the value to be formatted.
+   * @return the set of corresponding mime representations.
+   */
+  @SuppressWarnings("unchecked")
+  public static Map<String, String> format(Object value) {
+    Map<String, String> mimeMap;
+
+    Class<?> valueClass = value.getClass();
+    Method conversionMethod = null;
+
+    try {
+      conversionMethod = valueClass.getMethod("toMimeRepresentation");
+    }
+    catch (NoSuchMethodException e) {
+    }
+
+    if (conversionMethod != null) {
+      try {
+        return (Map<String, String>)conversionMethod.invoke(value);
+      }
+      catch (Exception e) {
+        Session.Log.exception(e, "Failed to generate mime representations for %s",
+                              valueClass.getName());
+      }
+    }
+
+    // Default to a textual representation produced via toString.
+    mimeMap = new HashMap<String, String>();
+    mimeMap.put("text/plain", value.toString());
+
+    return mimeMap;
+  }
+}
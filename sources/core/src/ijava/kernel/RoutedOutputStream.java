@@ -0,0 +1,106 @@
+// RoutedOutputStream.java
+//
+
+package ijava.kernel;
+
+import java.io.*;
+import ijava.extensibility.*;
+
+/**
+ * Implements an OutputStream that routes written bytes to a stream associated with the current
+ * thread, or a default stream when the thread has none. This allows the process-wide standard
+ * streams to be replaced once, while multiple threads capture their own output. The association
+ * of streams with threads, including threads started by code, executor tasks and fork/join
+ * workers, is described by OutputRoutes, which code being evaluated can use to route the output
+ * of tasks it submits to shared threads.
+ */
+public final class RoutedOutputStream extends OutputStream {
+
+  private static RoutedOutputStream Output;
+  private static RoutedOutputStream Error;
+
+  private final OutputStream _defaultStream;
+
+  /**
+   * Initializes an instance of a RoutedOutputStream.
+   * @param defaultStream the stream to write to, for threads without an associated stream.
+   */
+  public RoutedOutputStream(OutputStream defaultStream) {
+    _defaultStream = defaultStream;
+  }
+
+  /**
+   * Gets the routed stream installed as the standard output stream.
+   * @return the routed standard output stream.
+   */
+  public static RoutedOutputStream getOutput() {
+    RoutedOutputStream.installStreams();
+    return RoutedOutputStream.Output;
+  }
+
+  /**
+   * Gets the routed stream installed as the standard error stream.
+   * @return the routed standard error stream.
+   */
+  public static RoutedOutputStream getError() {
+    RoutedOutputStream.installStreams();
+    return RoutedOutputStream.Error;
+  }
+
+  /**
+   * Replaces the standard output and error streams of the process with routed streams, which
+   * default to the original streams. This is only done once.
+   */
+  private static synchronized void installStreams() {
+    if (RoutedOutputStream.Output != null) {
+      return;
+    }
+
+    RoutedOutputStream output = new RoutedOutputStream(System.out);
+    RoutedOutputStream error = new RoutedOutputStream(System.err);
+    try {
+      System.setOut(new PrintStream(output, /* autoFlush */ true, "UTF-8"));
+      System.setErr(new PrintStream(error, /* autoFlush */ true, "UTF-8"));
+    }
+    catch (UnsupportedEncodingException e) {
+      // UTF-8 is always supported.
+    }
+
+    RoutedOutputStream.Output = output;
+    RoutedOutputStream.Error = error;
+  }
+
+  /**
+   * Gets the stream to write to for the current thread.
+   * @return the current stream.
+   */
+  private OutputStream getStream() {
+    OutputStream stream = OutputRoutes.getStream(this);
+    return (stream != null) ? stream : _defaultStream;
+  }
+
+  /**
+   * Associates a stream with the current thread, and threads subsequently created by it. Threads
+   * already created by the current thread continue to use the stream they inherited.
+   * @param stream the stream to route output to, or null to revert to the default stream.
+   */
+  public void setStream(OutputStream stream) {
+    OutputRoutes.setStream(this, stream);
+  }
+
+  @Override
+  public void flush() throws IOException {
+    getStream().flush();
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    getStream().write(b);
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    getStream().write(b, off, len);
+  }
+}
+
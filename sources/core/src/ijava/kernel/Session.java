@@ -3,7 +3,10 @@
 
 package ijava.kernel;
 
-import java.lang.reflect.*;
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
 import java.util.*;
 import org.zeromq.*;
 import org.zeromq.ZMQ.*;
@@ -27,6 +30,7 @@ public final class Session implements MessageServices {
   private final MessageSigner _signer;
 
   private final Context _context;
+  private final boolean _hosted;
   private final Socket _controlSocket;
   private final Socket _shellSocket;
   private final Socket _ioPubSocket;
@@ -34,8 +38,10 @@ public final class Session implements MessageServices {
   private final SessionWorker _worker;
 
   private final Queue<Message> _publishQueue;
+  private final Pipe _publishSignal;
 
-  private Boolean _stopped;
+  private volatile boolean _stopped;
+  private volatile MessageRecorder _recorder;
 
 
   /**
@@ -44,15 +50,46 @@ public final class Session implements MessageServices {
    * @param runtimeFunction the function that processes tasks within the session.
    */
   public Session(SessionOptions options, Evaluator evaluator) {
+    this(options, evaluator, /* context */ null);
+  }
+
+  /**
+   * Creates and initializes an instance of a Session object, hosted within a process along with
+   * other sessions.
+   * @param options the options describing the Session instance.
+   * @param evaluator the evaluator that processes tasks within the session.
+   * @param context the ZMQ context shared across sessions, or null if the session is the only
+   *                session within the process.
+   */
+  public Session(SessionOptions options, Evaluator evaluator, Context context) {
     _options = options;
     _evaluator = evaluator;
 
     _signer = MessageSigner.create(_options.getSignatureKey(), _options.getSignatureScheme());
 
-    _context = ZMQ.context(Session.ZMQ_IO_THREADS);
-    _controlSocket = createSocket(ZMQ.ROUTER, options.getControlPort());
-    _shellSocket = createSocket(ZMQ.ROUTER, options.getShellPort());
-    _ioPubSocket = createSocket(ZMQ.PUB, options.getIOPubPort());
+    _hosted = context != null;
+    _context = _hosted ? context : ZMQ.context(Session.ZMQ_IO_THREADS);
+
+    _publishSignal = Session.createSignal();
+
+    // Close any sockets already bound if a port can't be bound, so a failed session doesn't
+    // leave sockets open on a context shared with other sessions.
+    List<Socket> sockets = new ArrayList<Socket>();
+    try {
+      sockets.add(createSocket(ZMQ.ROUTER, options.getControlPort()));
+      sockets.add(createSocket(ZMQ.ROUTER, options.getShellPort()));
+      sockets.add(createSocket(ZMQ.PUB, options.getIOPubPort()));
+    }
+    catch (RuntimeException e) {
+      for (Socket socket: sockets) {
+        socket.close();
+      }
+      closeSignal();
+      throw e;
+    }
+    _controlSocket = sockets.get(0);
+    _shellSocket = sockets.get(1);
+    _ioPubSocket = sockets.get(2);
 
     _worker = new SessionWorker(this);
 
@@ -61,6 +98,14 @@ public final class Session implements MessageServices {
     _stopped = true;
   }
 
+  /**
+   * Gets whether the session has been stopped.
+   * @return true if the session has been stopped, or has not been started.
+   */
+  public boolean isStopped() {
+    return _stopped;
+  }
+
   /**
    * Gets the evaluator associated with the session to evaluate inputs.
    * @return the current evaluation function.
@@ -69,11 +114,43 @@ public final class Session implements MessageServices {
     return _evaluator;
   }
 
+  /**
+   * Creates the pipe used to wake up the thread processing sockets when messages are queued to
+   * be sent, so they are sent as soon as they are queued, rather than once polling times out.
+   * @return the pipe, with non-blocking ends.
+   */
+  private static Pipe createSignal() {
+    try {
+      Pipe pipe = Pipe.open();
+      pipe.source().configureBlocking(false);
+      pipe.sink().configureBlocking(false);
+      return pipe;
+    }
+    catch (IOException e) {
+      throw new IllegalStateException("Unable to create the session's signal pipe.", e);
+    }
+  }
+
+  private void closeSignal() {
+    try {
+      _publishSignal.source().close();
+      _publishSignal.sink().close();
+    }
+    catch (IOException e) {
+    }
+  }
+
   Socket createSocket(int socketType, int port) {
     Socket socket = _context.socket(socketType);
 
     String address = String.format("%s://%s:%d", _options.getTransport(), _options.getIP(), port);
-    socket.bind(address);
+    try {
+      socket.bind(address);
+    }
+    catch (RuntimeException e) {
+      socket.close();
+      throw e;
+    }
 
     return socket;
   }
@@ -86,6 +163,11 @@ public final class Session implements MessageServices {
 
     Session.Log.info("%s message received.", message.getType());
 
+    MessageRecorder recorder = _recorder;
+    if (recorder != null) {
+      recorder.record(/* incoming */ true, channel, message);
+    }
+
     MessageHandler handler = message.getHandler();
     if (handler == null) {
       Session.Log.warn("Ignoring unhandled message of type %s", message.getType());
@@ -121,6 +203,11 @@ public final class Session implements MessageServices {
     if (socket != null) {
       Session.Log.info("%s message sent", message.getType());
       MessageIO.writeMessage(socket, _signer, message);
+
+      MessageRecorder recorder = _recorder;
+      if (recorder != null) {
+        recorder.record(/* incoming */ false, message.getChannel(), message);
+      }
     }
   }
 
@@ -130,8 +217,11 @@ public final class Session implements MessageServices {
   public void start() {
     _stopped = false;
 
-    // Setup handling of shutdown based on interrupt handling
-    Runtime.getRuntime().addShutdownHook(new Thread(new ShutdownHandler()));
+    // Setup handling of shutdown based on interrupt handling. Hosted sessions are shut down by
+    // their host instead.
+    if (!_hosted) {
+      Runtime.getRuntime().addShutdownHook(new Thread(new ShutdownHandler()));
+    }
 
     // Start the worker to process tasks submitted into the session.
     _worker.start();
@@ -146,45 +236,103 @@ public final class Session implements MessageServices {
     // In other words, all socket processing occurs in the thread that the sockets were
     // created on.
 
-    ZMQ.Poller poller = new ZMQ.Poller(2);
+    ZMQ.Poller poller = new ZMQ.Poller(3);
     poller.register(_controlSocket, ZMQ.Poller.POLLIN);
     poller.register(_shellSocket, ZMQ.Poller.POLLIN);
+    poller.register(_publishSignal.source(), ZMQ.Poller.POLLIN);
 
-    while (!_stopped) {
-      poller.poll(Session.POLL_INTERVAL);
+    try {
+      while (!_stopped) {
+        poller.poll(Session.POLL_INTERVAL);
 
-      if (poller.pollin(0)) {
-        processIncomingMessage(_controlSocket, MessageChannel.Control);
-      }
-      if (poller.pollin(1)) {
-        processIncomingMessage(_shellSocket, MessageChannel.Shell);
-      }
+        if (poller.pollin(0)) {
+          processIncomingMessage(_controlSocket, MessageChannel.Control);
+        }
+        if (poller.pollin(1)) {
+          processIncomingMessage(_shellSocket, MessageChannel.Shell);
+        }
+        if (poller.pollin(2)) {
+          // Consume the signal; the queued messages are sent below.
+          ByteBuffer buffer = ByteBuffer.allocate(64);
+          try {
+            while (_publishSignal.source().read(buffer) > 0) {
+              buffer.clear();
+            }
+          }
+          catch (IOException e) {
+          }
+        }
 
-      if (_publishQueue.size() != 0) {
-        synchronized (_publishQueue) {
-          while (!_publishQueue.isEmpty()) {
-            Message message = _publishQueue.poll();
-            processOutgoingMessage(message);
+        if (_publishQueue.size() != 0) {
+          synchronized (_publishQueue) {
+            while (!_publishQueue.isEmpty()) {
+              Message message = _publishQueue.poll();
+              processOutgoingMessage(message);
+            }
           }
         }
       }
     }
+    catch (ZMQException e) {
+      // The context was terminated, i.e. the process is shutting down.
+    }
 
     _worker.stop();
 
     _controlSocket.close();
     _shellSocket.close();
     _ioPubSocket.close();
+    closeSignal();
+
+    stopRecording();
+  }
+
+  /**
+   * Sets the default resource limits of the evaluations performed by the session, which can be
+   * tightened, but not relaxed, by the metadata of individual execute requests.
+   * @param limits the default limits.
+   */
+  public void setLimits(EvaluationLimits limits) {
+    _worker.setLimits(limits);
+  }
+
+  /**
+   * Starts recording the messages received and sent by the session, until it is stopped, to a
+   * new recording within the specified directory.
+   * @param directory the directory to create the recording in.
+   * @return the path of the recording.
+   * @throws IOException if the recording could not be created.
+   */
+  public Path startRecording(Path directory) throws IOException {
+    Path path = directory.resolve(String.format("session-%d-%d.jsonl.gz",
+                                                _options.getShellPort(),
+                                                System.currentTimeMillis()));
+    _recorder = MessageRecorder.create(path);
+
+    Session.Log.info("Recording session messages to %s", path);
+    return path;
+  }
+
+  private void stopRecording() {
+    MessageRecorder recorder = _recorder;
+    if (recorder != null) {
+      _recorder = null;
+      recorder.close();
+    }
   }
 
   /**
-   * Stops the session.
+   * Stops the session. The sockets of the session are closed once the threads using them
+   * observe the session has been stopped.
    */
   public void stop() {
     _stopped = true;
+    stopRecording();
 
-    _context.close();
-    _context.term();
+    if (!_hosted) {
+      _context.close();
+      _context.term();
+    }
   }
 
   /**
@@ -192,7 +340,11 @@ public final class Session implements MessageServices {
    */
   @Override
   public void endSession() {
-    System.exit(0);
+    // Stop processing messages, rather than exiting the process from within message processing.
+    // The session completes sending any pending messages (i.e. the response to the shutdown
+    // request), closes its sockets, and returns from start(). Other sessions hosted within the
+    // same process continue.
+    _stopped = true;
   }
 
   /**
@@ -217,50 +369,20 @@ public final class Session implements MessageServices {
    */
   @Override
   public void sendMessage(Message message) {
+    boolean signal;
     synchronized (_publishQueue) {
+      signal = _publishQueue.isEmpty();
       _publishQueue.add(message);
     }
-  }
-
-
-  /**
-   * Implements data formatting to convert objects into mime representations.
-   */
-  private static final class MimeFormatter {
-
-    /**
-     * Formats the specified value into its mime representation.
-     * @param value the value to be formatted.
-     * @return the set of corresponding mime representations.
-     */
-    @SuppressWarnings("unchecked")
-    public static Map<String, String> format(Object value) {
-      Map<String, String> mimeMap;
-
-      Class<?> valueClass = value.getClass();
-      Method conversionMethod = null;
 
+    // Wake up the thread processing sockets, unless it is already due to send pending messages.
+    // A full pipe is already signalled, and a closed one belongs to a session that has ended.
+    if (signal) {
       try {
-        conversionMethod = valueClass.getMethod("toMimeRepresentation");
+        _publishSignal.sink().write(ByteBuffer.wrap(new byte[] { 1 }));
       }
-      catch (NoSuchMethodException e) {
+      catch (IOException e) {
       }
-
-      if (conversionMethod != null) {
-        try {
-          return (Map<String, String>)conversionMethod.invoke(value);
-        }
-        catch (Exception e) {
-          Session.Log.exception(e, "Failed to generate mime representations for %s",
-                                valueClass.getName());
-        }
-      }
-
-      // Default to a textual representation produced via toString.
-      mimeMap = new HashMap<String, String>();
-      mimeMap.put("text/plain", value.toString());
-
-      return mimeMap;
     }
   }
 
@@ -11,6 +11,8 @@ import org.zeromq.ZMQ.*;
  */
 public final class SessionHeartbeat implements Runnable {
 
+  private final static int POLL_INTERVAL = 500;
+
   private final Session _session;
   private final SessionOptions _options;
 
@@ -25,8 +27,8 @@ public final class SessionHeartbeat implements Runnable {
   }
 
   /**
-   * Starts a Heartbeat instance for the specified session. This runs while the process-wide
-   * ZMQ context has not been terminated.
+   * Starts a Heartbeat instance for the specified session. This runs until the session is
+   * stopped.
    * @param session the session to create a heart beat for.
    * @param options the options used to configure the session.
    */
@@ -45,6 +47,30 @@ public final class SessionHeartbeat implements Runnable {
   @Override
   public void run() {
     Socket socket = _session.createSocket(ZMQ.REP, _options.getHeartbeatPort());
-    ZMQ.proxy(socket, socket, /* capture */ null);
+
+    // Echo heartbeat messages back, polling rather than blocking, so that the socket can be
+    // closed once the session is stopped, without terminating the ZMQ context, which may be
+    // shared with other sessions.
+    ZMQ.Poller poller = new ZMQ.Poller(1);
+    poller.register(socket, ZMQ.Poller.POLLIN);
+
+    try {
+      while (!_session.isStopped()) {
+        poller.poll(SessionHeartbeat.POLL_INTERVAL);
+
+        if (poller.pollin(0)) {
+          ZMsg message = ZMsg.recvMsg(socket);
+          if (message != null) {
+            message.send(socket);
+          }
+        }
+      }
+    }
+    catch (ZMQException e) {
+      // The context was terminated.
+    }
+    finally {
+      socket.close();
+    }
   }
 }
@@ -0,0 +1,340 @@
+// SessionHost.java
+//
+
+package ijava.kernel;
+
+import java.io.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.nio.file.attribute.*;
+import java.util.*;
+import java.util.concurrent.*;
+import org.zeromq.*;
+import org.zeromq.ZMQ.*;
+import ijava.extensibility.*;
+import ijava.kernel.protocol.*;
+
+/**
+ * Hosts multiple sessions within a single process. Each session has its own evaluator, and runs
+ * on its own thread, while the ZMQ context, as well as everything loaded into the process, is
+ * shared across sessions.
+ *
+ * Sessions are added for connection files specified at startup, as well as connection files
+ * sent to the control socket of the host, if one is enabled. The control socket is a REP socket
+ * bound to the loopback interface, which accepts a request of four frames, an HMAC-SHA256
+ * signature of the remaining frames, a timestamp in milliseconds since the epoch, a unique nonce,
+ * and the path of a connection file, and replies with "ok", or "error: " followed by a
+ * description of the error. Requests are signed with a key shared through a file only its
+ * owner can access, so that other users of the machine cannot start sessions in the host.
+ * Requests with a timestamp outside of a short window, or a nonce already used within it, are
+ * rejected, so that captured requests cannot be replayed.
+ */
+public final class SessionHost {
+
+  private final static int ZMQ_IO_THREADS = 1;
+  private final static int POLL_INTERVAL = 500;
+  private final static int STOP_TIMEOUT = 5000;
+  private final static String SIGNATURE_SCHEME = "hmac-sha256";
+  private final static long REQUEST_WINDOW = 30000;
+
+  private final EvaluatorFactory _evaluatorFactory;
+  private final Context _context;
+  private final ConcurrentHashMap<Session, Thread> _sessions;
+
+  private Path _recordingDirectory;
+  private EvaluationLimits _limits;
+  private MessageSigner _controlSigner;
+  private final Map<String, Long> _controlNonces;
+
+  private volatile boolean _stopped;
+  private volatile Thread _thread;
+
+  /**
+   * Creates an instance of a SessionHost.
+   * @param evaluatorFactory the factory used to create the evaluator of each session.
+   */
+  public SessionHost(EvaluatorFactory evaluatorFactory) {
+    _evaluatorFactory = evaluatorFactory;
+    _context = ZMQ.context(SessionHost.ZMQ_IO_THREADS);
+    _sessions = new ConcurrentHashMap<Session, Thread>();
+    _limits = EvaluationLimits.None;
+    _controlNonces = new LinkedHashMap<String, Long>();
+  }
+
+  /**
+   * Sets the directory to record the messages of each session added subsequently into.
+   * @param directory the directory to create recordings in, or null to disable recording.
+   */
+  public void setRecordingDirectory(Path directory) {
+    _recordingDirectory = directory;
+  }
+
+  /**
+   * Sets the default resource limits of evaluations within each session added subsequently.
+   * @param limits the default limits.
+   */
+  public void setLimits(EvaluationLimits limits) {
+    _limits = limits;
+  }
+
+  /**
+   * Sets the key used to validate the signature of requests sent to the control socket.
+   * @param key the key, which must not be empty.
+   */
+  public void setControlKey(String key) {
+    if ((key == null) || key.isEmpty()) {
+      throw new IllegalArgumentException("The control key must not be empty.");
+    }
+
+    _controlSigner = MessageSigner.create(key, SessionHost.SIGNATURE_SCHEME);
+  }
+
+  /**
+   * Reads the key used to sign control requests from a file, which must only be accessible by
+   * its owner.
+   * @param path the path of the key file.
+   * @return the key.
+   * @throws IOException if the file could not be read, is accessible by other users, or is empty.
+   */
+  public static String readControlKey(Path path) throws IOException {
+    try {
+      for (PosixFilePermission permission: Files.getPosixFilePermissions(path)) {
+        if (!permission.name().startsWith("OWNER_")) {
+          throw new IOException("The key file '" + path + "' must only be accessible by its " +
+                                "owner.");
+        }
+      }
+    }
+    catch (UnsupportedOperationException e) {
+      // File systems without POSIX permissions rely on their own access control.
+    }
+
+    String key = new String(Files.readAllBytes(path), StandardCharsets.UTF_8).trim();
+    if (key.isEmpty()) {
+      throw new IOException("The key file '" + path + "' is empty.");
+    }
+
+    return key;
+  }
+
+  /**
+   * Gets the number of sessions currently running within the host.
+   * @return the number of sessions.
+   */
+  public int getSessionCount() {
+    return _sessions.size();
+  }
+
+  /**
+   * Adds and starts a session.
+   * @param options the options describing the session.
+   * @return the new session.
+   * @throws Exception if the session could not be created.
+   */
+  public Session addSession(final SessionOptions options) throws Exception {
+    Evaluator evaluator = _evaluatorFactory.createEvaluator();
+
+    final Session session = new Session(options, evaluator, _context);
+    session.setLimits(_limits);
+    if (_recordingDirectory != null) {
+      session.startRecording(_recordingDirectory);
+    }
+
+    Thread thread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          session.start();
+        }
+        finally {
+          _sessions.remove(session);
+          Session.Log.info("Session on port %d ended.", options.getShellPort());
+        }
+      }
+    }, "Session-" + options.getShellPort());
+
+    _sessions.put(session, thread);
+    thread.start();
+
+    Session.Log.info("Session on port %d started.", options.getShellPort());
+    return session;
+  }
+
+  private String processRequest(Socket socket) {
+    List<String> frames = new ArrayList<String>();
+    frames.add(socket.recvStr());
+    while (socket.hasReceiveMore()) {
+      frames.add(socket.recvStr());
+    }
+
+    if ((frames.size() != 4) ||
+        !_controlSigner.validate(frames.get(0), frames.get(1), frames.get(2), frames.get(3))) {
+      Session.Log.warn("Rejected a control request that was not signed with the control key.");
+      return "error: The request was not signed with the control key.";
+    }
+
+    if (!acceptNonce(frames.get(1), frames.get(2))) {
+      Session.Log.warn("Rejected a stale or replayed control request.");
+      return "error: The request is stale or was already processed.";
+    }
+
+    return addSession(frames.get(3));
+  }
+
+  /**
+   * Records the nonce of a signed control request, if its timestamp is within the request window,
+   * and the nonce has not been used within it. Nonces are only remembered for the duration of the
+   * window, since requests with older timestamps are rejected regardless.
+   * @param timestamp the timestamp of the request, in milliseconds since the epoch.
+   * @param nonce the nonce of the request.
+   * @return true if the request should be processed; false if it is stale or replayed.
+   */
+  private boolean acceptNonce(String timestamp, String nonce) {
+    long currentTime = System.currentTimeMillis();
+
+    Iterator<Long> nonceTimes = _controlNonces.values().iterator();
+    while (nonceTimes.hasNext() &&
+           (nonceTimes.next() < currentTime - SessionHost.REQUEST_WINDOW)) {
+      nonceTimes.remove();
+    }
+
+    long time;
+    try {
+      time = Long.parseLong(timestamp);
+    }
+    catch (NumberFormatException e) {
+      return false;
+    }
+
+    if ((Math.abs(currentTime - time) > SessionHost.REQUEST_WINDOW) || nonce.isEmpty() ||
+        _controlNonces.containsKey(nonce)) {
+      return false;
+    }
+
+    _controlNonces.put(nonce, currentTime);
+    return true;
+  }
+
+  private String addSession(String connectionFile) {
+    SessionOptions options = SessionOptions.load(connectionFile);
+    if (options == null) {
+      return "error: Unable to read connection file '" + connectionFile + "'.";
+    }
+
+    try {
+      addSession(options);
+      return "ok";
+    }
+    catch (Exception e) {
+      Session.Log.exception(e, "Unable to start a session for '%s'.", connectionFile);
+      return "error: " + e.getMessage();
+    }
+  }
+
+  /**
+   * Runs the host until it is stopped. If there is no control port, the host also stops once
+   * all sessions have ended.
+   * @param controlPort the port to listen on for connection files, or 0 to disable. A control
+   *   key must have been set to enable the control socket.
+   */
+  public void run(int controlPort) {
+    if ((controlPort > 0) && (_controlSigner == null)) {
+      throw new IllegalStateException("A control key is required to enable the control socket.");
+    }
+
+    _thread = Thread.currentThread();
+    Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+      @Override
+      public void run() {
+        Thread.currentThread().setName("Shutdown Handler");
+        SessionHost.this.stop();
+      }
+    }));
+
+    Socket socket = null;
+    ZMQ.Poller poller = new ZMQ.Poller(1);
+    if (controlPort > 0) {
+      socket = _context.socket(ZMQ.REP);
+      socket.bind(String.format("tcp://127.0.0.1:%d", controlPort));
+      poller.register(socket, ZMQ.Poller.POLLIN);
+    }
+
+    try {
+      while (!_stopped) {
+        if (socket == null) {
+          if (_sessions.isEmpty()) {
+            break;
+          }
+
+          Thread.sleep(SessionHost.POLL_INTERVAL);
+          continue;
+        }
+
+        poller.poll(SessionHost.POLL_INTERVAL);
+        if (poller.pollin(0)) {
+          socket.send(processRequest(socket));
+        }
+      }
+    }
+    catch (InterruptedException e) {
+    }
+    catch (ZMQException e) {
+      // The context was terminated.
+    }
+    finally {
+      if (socket != null) {
+        socket.close();
+      }
+    }
+  }
+
+  /**
+   * Stops all sessions, and the host.
+   */
+  public void stop() {
+    if (_stopped) {
+      return;
+    }
+    _stopped = true;
+
+    // Sockets are closed by the threads using them, once they observe they have been stopped,
+    // and the context can only be terminated once all its sockets have been closed. A session
+    // that is still starting resets its stopped state once it starts, so sessions are stopped
+    // repeatedly until their threads end.
+    Map<Session, Thread> sessions = new HashMap<Session, Thread>(_sessions);
+    long endTime = System.currentTimeMillis() + SessionHost.STOP_TIMEOUT;
+    try {
+      for (Map.Entry<Session, Thread> sessionEntry: sessions.entrySet()) {
+        Thread thread = sessionEntry.getValue();
+        do {
+          sessionEntry.getKey().stop();
+          thread.join(SessionHost.POLL_INTERVAL);
+        } while (thread.isAlive() && (System.currentTimeMillis() < endTime));
+      }
+
+      Thread hostThread = _thread;
+      if ((hostThread != null) && (hostThread != Thread.currentThread())) {
+        hostThread.join(SessionHost.STOP_TIMEOUT);
+      }
+    }
+    catch (InterruptedException e) {
+    }
+
+    _context.term();
+  }
+
+
+  /**
+   * Creates the evaluator used by each hosted session, so that each session has its own
+   * independent evaluation state.
+   */
+  public interface EvaluatorFactory {
+
+    /**
+     * Creates an evaluator for a new session.
+     * @return the evaluator to be used by the session.
+     * @throws Exception if the evaluator could not be created.
+     */
+    Evaluator createEvaluator() throws Exception;
+  }
+}
@@ -101,6 +101,27 @@ public final class SessionOptions {
     return _transport;
   }
 
+  /**
+   * Creates options for a session hosted within the process, which clients within the same
+   * process connect to over the inproc transport, using the same ZMQ context.
+   * @param name the name that distinguishes the session's sockets from those of other sessions.
+   * @return a SessionOptions instance.
+   */
+  public static SessionOptions createInProcess(String name) {
+    SessionOptions options = new SessionOptions();
+    options._ip = name;
+    options._transport = "inproc";
+    options._signatureKey = UUID.randomUUID().toString();
+    options._signatureScheme = "hmac-sha256";
+    options._heartbeatPort = 1;
+    options._controlPort = 2;
+    options._shellPort = 3;
+    options._ioPubPort = 4;
+    options._stdinPort = 5;
+
+    return options;
+  }
+
   /**
    * Loads the specified options path to construct an Options instance.
    * @param optionsPath the path of the options file.
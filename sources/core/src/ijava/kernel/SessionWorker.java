@@ -19,6 +19,10 @@ public final class SessionWorker implements Runnable {
 
   private final Queue<SessionTask> _tasks;
   private final Thread _thread;
+  private final EvaluationWatchdog _watchdog;
+
+  private volatile EvaluationLimits _limits;
+  private volatile boolean _stopped;
 
   /**
    * Creates an instance of a SessionWorker.
@@ -31,6 +35,18 @@ public final class SessionWorker implements Runnable {
     _thread = new Thread(this);
     _thread.setName("Worker");
     _thread.setDaemon(true);
+
+    _watchdog = new EvaluationWatchdog();
+    _limits = EvaluationLimits.None;
+  }
+
+  /**
+   * Sets the default resource limits of evaluations, which can be tightened, but not relaxed, by
+   * the metadata of individual execute requests.
+   * @param limits the default limits.
+   */
+  public void setLimits(EvaluationLimits limits) {
+    _limits = limits;
   }
 
   /**
@@ -40,10 +56,10 @@ public final class SessionWorker implements Runnable {
   public void addTask(SessionTask task) {
     synchronized (_tasks) {
       _tasks.add(task);
+      _tasks.notify();
     }
   }
 
-  @SuppressWarnings("resource")
   private long processTask(SessionTask task, long counter) {
     Message parentMessage = task.getMessage();
     Map<String, Object> metadata = parentMessage.getMetadata();
@@ -61,57 +77,76 @@ public final class SessionWorker implements Runnable {
       return counter;
     }
 
-    PrintStream stdout = System.out;
-    PrintStream stderr = System.err;
-    InputStream stdin = System.in;
-
     Throwable error = null;
     Object result = null;
+    OutputStream out = null;
+    OutputStream err = null;
     try {
-      // Replace the standard streams.
+      // Route the standard streams of this thread, i.e. the process-wide streams are replaced
+      // once, so that multiple sessions in the same process each capture their own output.
+      // Threads started by the code inherit these streams, so their output is published to
+      // the client as part of the output of this execution, even once it has completed. Shared
+      // fork/join workers, e.g. those of parallel streams, write to them while it is in progress.
       // Both stdout and stderr are published to the kernel client. The error output is buffered
       // so it doesn't get interspersed within the output, by getting broken up into incremental
       // blocks.
       // Ideally it would have been fine to interleave, and have the client UI split resulting
       // text spew across two different regions... but that doesn't seem to be the case in IPython.
-      //
-      // The stdin stream is simply disabled, i.e. fail fast if code attempts to read from it.
-      PrintStream out;
-      PrintStream err;
-
       if (task.requiresSilentProcessing()) {
-        err = out = new PrintStream(new DisabledOutputStream());
+        err = out = new DisabledOutputStream();
       }
       else {
-        out = new PrintStream(new PublishingOutputStream(Messages.StreamMessage.STDOUT,
-                                                         parentMessage));
-        err = new PrintStream(new PublishingOutputStream(Messages.StreamMessage.STDERR,
-                                                         parentMessage,
-                                                         /* autoFlush */ false));
+        out = new PublishingOutputStream(Messages.StreamMessage.STDOUT, parentMessage);
+        err = new PublishingOutputStream(Messages.StreamMessage.STDERR, parentMessage,
+                                         /* autoFlush */ false);
       }
-      System.setOut(out);
-      System.setErr(err);
-      System.setIn(new DisabledInputStream());
+      RoutedOutputStream.getOutput().setStream(out);
+      RoutedOutputStream.getError().setStream(err);
+      OutputRoutes.beginEvaluation();
 
       long evaluationID = task.recordProcessing() ? counter : 0;
+      _watchdog.begin(_limits.override(metadata));
       result = _session.getEvaluator().evaluate(task.getContent(), evaluationID, metadata);
     }
-    catch (EvaluationError e) {
-      System.err.println(e.getMessage());
-      error = e;
-    }
     catch (Throwable t) {
-      t.printStackTrace();
       error = t;
     }
     finally {
+      // Report resource usage, and fail the execution if it exceeded its limits, regardless of
+      // whether the evaluated code observed the resulting interruption. The error resulting from
+      // the interruption, if any, is replaced by one describing the limit.
+      String violation = _watchdog.end(metadata);
+      if (_stopped) {
+        // Ending the evaluation clears any interruption by the watchdog, which may have also
+        // cleared the interruption that stops the worker.
+        Thread.currentThread().interrupt();
+      }
+      if (violation != null) {
+        error = new EvaluationError(violation);
+        result = null;
+      }
+
+      if (error instanceof EvaluationError) {
+        System.err.println(error.getMessage());
+      }
+      else if (error != null) {
+        error.printStackTrace();
+      }
+
       // Flush the captured streams. This will send out any pending stream data to the client.
       System.out.flush();
       System.err.flush();
 
-      System.setOut(stdout);
-      System.setErr(stderr);
-      System.setIn(stdin);
+      OutputRoutes.endEvaluation();
+      RoutedOutputStream.getOutput().setStream(null);
+      RoutedOutputStream.getError().setStream(null);
+
+      // Any output written subsequently, i.e. by background threads, is sent out as it is
+      // written, rather than waiting for a flush that might not come.
+      if (out instanceof PublishingOutputStream) {
+        ((PublishingOutputStream)out).complete();
+        ((PublishingOutputStream)err).complete();
+      }
     }
 
     // Send a message to display the result, if there was any.
@@ -135,7 +170,8 @@ public final class SessionWorker implements Runnable {
       response =
           new Messages.ErrorExecuteResponse(parentMessage.getIdentity(), parentMessage.getHeader(),
                                             counter,
-                                            error);
+                                            error,
+                                            metadata);
     }
     _session.sendMessage(response.associateChannel(parentMessage.getChannel()));
 
@@ -146,6 +182,9 @@ public final class SessionWorker implements Runnable {
    * Starts the task processing.
    */
   public void start() {
+    // The stdin stream is simply disabled, i.e. fail fast if code attempts to read from it.
+    System.setIn(new DisabledInputStream());
+
     _thread.start();
   }
 
@@ -153,43 +192,50 @@ public final class SessionWorker implements Runnable {
    * Stops the task processing.
    */
   public void stop() {
+    _stopped = true;
     _thread.interrupt();
+    _watchdog.stop();
   }
 
   @Override
   public void run() {
     boolean busy = false;
     long counter = 1;
+    Message lastMessage = null;
 
-    while (!Thread.currentThread().isInterrupted()) {
+    while (!_stopped) {
       SessionTask task = null;
       synchronized (_tasks) {
         task = _tasks.poll();
+
+        // Wait for tasks while idle; adding a task wakes the worker, so the interval only bounds
+        // how long it takes to observe being stopped. Once busy, the worker transitions to idle
+        // as soon as the queue is drained, rather than after waiting.
+        if ((task == null) && !busy) {
+          try {
+            _tasks.wait(SessionWorker.SLEEP_INTERVAL);
+          }
+          catch (InterruptedException e) {
+          }
+          continue;
+        }
       }
 
       if (task != null) {
         if (!busy) {
           // Transitioning from idle to busy
           busy = true;
-          _session.sendMessage(Messages.KernelStatus.createBusyStatus());
+          _session.sendMessage(Messages.KernelStatus.createBusyStatus(task.getMessage()));
         }
 
         counter = processTask(task, counter);
+        lastMessage = task.getMessage();
       }
       else {
         if (busy) {
           // Transitioning from busy to idle
           busy = false;
-          _session.sendMessage(Messages.KernelStatus.createIdleStatus());
-        }
-      }
-
-      // TODO: Synchronized access to check for empty?
-      if (_tasks.isEmpty()) {
-        try {
-          Thread.sleep(SessionWorker.SLEEP_INTERVAL);
-        }
-        catch (InterruptedException e) {
+          _session.sendMessage(Messages.KernelStatus.createIdleStatus(lastMessage));
         }
       }
     }
@@ -197,7 +243,8 @@ public final class SessionWorker implements Runnable {
 
 
   /**
-   * Implements an OutputStream that publishes written bytes as out-going messages.
+   * Implements an OutputStream that publishes written bytes as out-going messages. The stream
+   * can be written to by multiple threads, i.e. threads started by the code being executed.
    */
   private final class PublishingOutputStream extends OutputStream {
 
@@ -208,6 +255,7 @@ public final class SessionWorker implements Runnable {
     private final StringBuilder _buffer;
 
     private final boolean _autoFlush;
+    private boolean _completed;
 
     /**
      * Initializes a PublishingOutputStream instance with the stream name.
@@ -232,8 +280,17 @@ public final class SessionWorker implements Runnable {
       _buffer = new StringBuilder(240);
     }
 
+    /**
+     * Marks the execution the stream is associated with as completed. Text written from then on
+     * is published as soon as it is written.
+     */
+    public synchronized void complete() {
+      _completed = true;
+      flush();
+    }
+
     @Override
-    public void flush() {
+    public synchronized void flush() {
       if (_buffer.length() != 0) {
         String text = _buffer.toString();
         _buffer.setLength(0);
@@ -245,14 +302,31 @@ public final class SessionWorker implements Runnable {
       }
     }
 
-    @Override
-    public void write(int b) throws IOException {
+    private void append(int b) {
       if (_autoFlush && (_buffer.length() >= PublishingOutputStream.MAX_BUFFER_SIZE)) {
         flush();
       }
 
       _buffer.append((char)b);
     }
+
+    @Override
+    public synchronized void write(int b) throws IOException {
+      append(b);
+      if (_completed) {
+        flush();
+      }
+    }
+
+    @Override
+    public synchronized void write(byte[] b, int off, int len) throws IOException {
+      for (int i = 0; i < len; i++) {
+        append(b[off + i]);
+      }
+      if (_completed) {
+        flush();
+      }
+    }
   }
 
 
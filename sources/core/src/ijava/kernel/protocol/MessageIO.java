@@ -25,6 +25,19 @@ public final class MessageIO {
    * @return the resulting Message instance.
    */
   public static Message readMessage(Socket socket, MessageSigner signer) {
+    return MessageIO.readMessage(socket, signer, /* anyType */ false);
+  }
+
+  /**
+   * Reads an incoming message from the specified socket, optionally reading messages of any type,
+   * rather than only the requests handled by the kernel. This allows a client of the kernel to
+   * read the replies and published messages it receives.
+   * @param socket the socket to read from.
+   * @param signer the message signer to use to validate messages.
+   * @param anyType whether to read messages of any type as ReceivedMessage instances.
+   * @return the resulting Message instance.
+   */
+  public static Message readMessage(Socket socket, MessageSigner signer, boolean anyType) {
     String identity = null;
     for (String id = socket.recvStr(); !id.equals(MessageIO.DELIMITER); id = socket.recvStr()) {
       if (identity == null) {
@@ -52,6 +65,9 @@ public final class MessageIO {
       Map<String, Object> metadata = JSON.std.mapFrom(metadataJson);
       Map<String, Object> content = JSON.std.mapFrom(contentJson);
 
+      if (anyType) {
+        return new Messages.ReceivedMessage(identity, header, parentHeader, metadata, content);
+      }
       return Message.createMessage(identity, header, parentHeader, metadata, content);
     }
     catch (Exception e) {
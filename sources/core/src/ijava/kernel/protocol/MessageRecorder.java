@@ -0,0 +1,266 @@
+// MessageRecorder.java
+//
+
+package ijava.kernel.protocol;
+
+import java.io.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.zip.*;
+import com.fasterxml.jackson.jr.ob.*;
+import ijava.kernel.*;
+
+/**
+ * Records the messages received and sent by a session, along with the time they were received
+ * or sent at, so that the session can later be replayed against a fresh kernel.
+ *
+ * Recordings are gzip compressed, with one JSON record per line. Each record contains the
+ * time in microseconds since recording started, the direction and channel of the message, and
+ * the identity, header, parent header, metadata and content of the message. Signatures are not
+ * recorded, as messages are signed again with the key of the session they are replayed against.
+ *
+ * Each record is flushed through to the file as it is written, so that a recording remains
+ * readable up to its last record if the process ends without closing it.
+ */
+public final class MessageRecorder {
+
+  private final static int BUFFER_SIZE = 8192;
+
+  private final Writer _writer;
+  private final long _startTime;
+
+  private MessageRecorder(Writer writer) {
+    _writer = writer;
+    _startTime = System.nanoTime();
+  }
+
+  /**
+   * Creates a recorder that writes a new recording to the specified path.
+   * @param path the path of the recording to write.
+   * @return the new recorder.
+   * @throws IOException if the recording could not be created.
+   */
+  public static MessageRecorder create(Path path) throws IOException {
+    OutputStream stream = new GZIPOutputStream(Files.newOutputStream(path), /* syncFlush */ true);
+    return new MessageRecorder(new BufferedWriter(
+        new OutputStreamWriter(stream, StandardCharsets.UTF_8)));
+  }
+
+  /**
+   * Reads a recording. A recording that is truncated, e.g. because the kernel was terminated
+   * while recording, is read up to its last complete record.
+   * @param path the path of the recording to read.
+   * @return the list of records within the recording, in the order they were recorded.
+   * @throws IOException if the recording could not be read.
+   */
+  public static List<Record> read(Path path) throws IOException {
+    List<Record> records = new ArrayList<Record>();
+
+    // The data is read as bytes rather than through a reader, as readers can discard decoded
+    // text when the end of a truncated stream is reached.
+    InputStream stream = new GZIPInputStream(Files.newInputStream(path));
+    try {
+      ByteArrayOutputStream lineStream = new ByteArrayOutputStream();
+      byte[] buffer = new byte[MessageRecorder.BUFFER_SIZE];
+
+      for (int count = stream.read(buffer); count >= 0; count = stream.read(buffer)) {
+        int lineStart = 0;
+        for (int i = 0; i < count; i++) {
+          if (buffer[i] == '\n') {
+            lineStream.write(buffer, lineStart, i - lineStart);
+            lineStart = i + 1;
+
+            String line = new String(lineStream.toByteArray(), StandardCharsets.UTF_8);
+            if (!line.isEmpty()) {
+              records.add(MessageRecorder.parseRecord(line));
+            }
+            lineStream.reset();
+          }
+        }
+
+        lineStream.write(buffer, lineStart, count - lineStart);
+      }
+    }
+    catch (EOFException | ZipException e) {
+      // Any partial record at the end of the recording is ignored.
+      Session.Log.warn("The recording '%s' is truncated after %d records.", path, records.size());
+    }
+    finally {
+      stream.close();
+    }
+
+    return records;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Record parseRecord(String line) throws IOException {
+    Map<String, Object> data = JSON.std.mapFrom(line);
+    return new Record(((Number)data.get("time")).longValue(),
+                      "in".equals(data.get("direction")),
+                      MessageChannel.valueOf((String)data.get("channel")),
+                      (String)data.get("identity"),
+                      (Map<String, Object>)data.get("header"),
+                      (Map<String, Object>)data.get("parent_header"),
+                      (Map<String, Object>)data.get("metadata"),
+                      (Map<String, Object>)data.get("content"));
+  }
+
+  /**
+   * Creates a record for the specified message.
+   * @param time the time the message was received or sent at, in microseconds.
+   * @param incoming whether the message was received, rather than sent.
+   * @param channel the channel the message was received or sent on.
+   * @param message the message to record.
+   * @return the resulting record.
+   */
+  public static Record createRecord(long time, boolean incoming, MessageChannel channel,
+                                    Message message) {
+    return new Record(time, incoming, channel, message.getIdentity(),
+                      message.getHeader(), message.getParentHeader(),
+                      message.getMetadata(), message.getContent());
+  }
+
+  /**
+   * Records a message. Failures are logged, rather than failing the session.
+   * @param incoming whether the message was received, rather than sent.
+   * @param channel the channel the message was received or sent on.
+   * @param message the message to record.
+   */
+  public synchronized void record(boolean incoming, MessageChannel channel, Message message) {
+    long time = (System.nanoTime() - _startTime) / 1000;
+
+    Map<String, Object> data = new LinkedHashMap<String, Object>();
+    data.put("time", time);
+    data.put("direction", incoming ? "in" : "out");
+    data.put("channel", channel.toString());
+    data.put("identity", message.getIdentity());
+    data.put("header", message.getHeader());
+    data.put("parent_header", message.getParentHeader());
+    data.put("metadata", message.getMetadata());
+    data.put("content", message.getContent());
+
+    try {
+      _writer.write(JSON.std.asString(data));
+      _writer.write('\n');
+      _writer.flush();
+    }
+    catch (IOException e) {
+      Session.Log.exception(e, "Unable to record message of type %s", message.getType());
+    }
+  }
+
+  /**
+   * Flushes and closes the recording.
+   */
+  public synchronized void close() {
+    try {
+      _writer.close();
+    }
+    catch (IOException e) {
+      Session.Log.exception(e, "Unable to close recording");
+    }
+  }
+
+
+  /**
+   * Represents a single recorded message.
+   */
+  public static final class Record {
+
+    private final long _time;
+    private final boolean _incoming;
+    private final MessageChannel _channel;
+    private final String _identity;
+    private final Map<String, Object> _header;
+    private final Map<String, Object> _parentHeader;
+    private final Map<String, Object> _metadata;
+    private final Map<String, Object> _content;
+
+    private Record(long time, boolean incoming, MessageChannel channel, String identity,
+                   Map<String, Object> header, Map<String, Object> parentHeader,
+                   Map<String, Object> metadata, Map<String, Object> content) {
+      _time = time;
+      _incoming = incoming;
+      _channel = channel;
+      _identity = identity;
+      _header = header;
+      _parentHeader = parentHeader;
+      _metadata = metadata;
+      _content = content;
+    }
+
+    /**
+     * Gets the time the message was received or sent at.
+     * @return the time in microseconds, relative to the start of the recording.
+     */
+    public long getTime() {
+      return _time;
+    }
+
+    /**
+     * Gets whether the message was received by the session, rather than sent.
+     * @return true if the message was received.
+     */
+    public boolean isIncoming() {
+      return _incoming;
+    }
+
+    /**
+     * Gets the channel the message was received or sent on.
+     * @return the channel of the message.
+     */
+    public MessageChannel getChannel() {
+      return _channel;
+    }
+
+    /**
+     * Gets the identity of the client associated with the message.
+     * @return the identity string.
+     */
+    public String getIdentity() {
+      return _identity;
+    }
+
+    /**
+     * Gets the id of the message.
+     * @return the message id.
+     */
+    public String getId() {
+      return (String)_header.get("msg_id");
+    }
+
+    /**
+     * Gets the id of the associated parent message.
+     * @return the parent message id, or null if there is no parent message.
+     */
+    public String getParentId() {
+      return _parentHeader != null ? (String)_parentHeader.get("msg_id") : null;
+    }
+
+    /**
+     * Gets the type of the message.
+     * @return the type name of the message.
+     */
+    public String getType() {
+      return (String)_header.get("msg_type");
+    }
+
+    /**
+     * Gets the content of the message.
+     * @return the content object.
+     */
+    public Map<String, Object> getContent() {
+      return _content;
+    }
+
+    /**
+     * Creates a message from the record, to be sent to a session by a client. The message has no
+     * identity, as the identity is associated with the socket of the client.
+     * @return the message, or null if the type of the message is not handled by the kernel.
+     */
+    public Message createMessage() {
+      return Message.createMessage(null, _header, _parentHeader, _metadata, _content);
+    }
+  }
+}
@@ -11,7 +11,7 @@ import java.util.*;
 public interface MessageServices {
 
   /**
-   * Ends the current session, and shuts down the process.
+   * Ends the current session. The process shuts down once all of its sessions have ended.
    */
   public void endSession();
 
@@ -74,20 +74,23 @@ public final class Messages {
     /**
      * Creates an instance of a StatusMessage with the specified status.
      * @param status the status of the kernel.
+     * @param parentHeader the header of the request that resulted in the status.
      */
-    private KernelStatus(String status) {
-      super(null, Message.Status, new HashMap<String, Object>());
+    private KernelStatus(String status, Map<String, Object> parentHeader) {
+      super(null, Message.Status, parentHeader);
 
       Map<String, Object> content = getContent();
       content.put("execution_state", status);
     }
 
     /**
-     * Creates a status message indicating busy status.
+     * Creates a status message indicating busy status, as a result of processing a request.
+     * @param parentMessage the request being processed, if any.
      * @return the message that is ready be published to the client.
      */
-    public static Message createBusyStatus() {
-      return new KernelStatus(KernelStatus.BusyStatus).associateChannel(MessageChannel.Output);
+    public static Message createBusyStatus(Message parentMessage) {
+      return new KernelStatus(KernelStatus.BusyStatus, KernelStatus.getParentHeader(parentMessage))
+          .associateChannel(MessageChannel.Output);
     }
 
     /**
@@ -95,7 +98,24 @@ public final class Messages {
      * @return the message that is ready be published to the client.
      */
     public static Message createIdleStatus() {
-      return new KernelStatus(KernelStatus.IdleStatus).associateChannel(MessageChannel.Output);
+      return KernelStatus.createIdleStatus(null);
+    }
+
+    /**
+     * Creates a status message indicating idle status, once requests have been processed.
+     * @param parentMessage the last request that was processed, if any.
+     * @return the message that is ready be published to the client.
+     */
+    public static Message createIdleStatus(Message parentMessage) {
+      return new KernelStatus(KernelStatus.IdleStatus, KernelStatus.getParentHeader(parentMessage))
+          .associateChannel(MessageChannel.Output);
+    }
+
+    private static Map<String, Object> getParentHeader(Message parentMessage) {
+      if (parentMessage == null) {
+        return new HashMap<String, Object>();
+      }
+      return parentMessage.getHeader();
     }
   }
 
@@ -271,7 +291,24 @@ public final class Messages {
                                 Map<String, Object> parentHeader,
                                 long executionCount,
                                 Throwable error) {
-      super(identity, parentHeader, Messages.ExecuteResponse.ErrorStatus, executionCount);
+      this(identity, parentHeader, executionCount, error, null);
+    }
+
+    /**
+     * Creates an instance of an ErrorExecuteResponse.
+     * @param identity the identity of the client.
+     * @param parentHeader the header of the associated parent message.
+     * @param executionCount the counter representing the execution sequence number.
+     * @param error the exception that caused the failure.
+     * @param metadata any additional data associated with the message.
+     */
+    public ErrorExecuteResponse(String identity,
+                                Map<String, Object> parentHeader,
+                                long executionCount,
+                                Throwable error,
+                                Map<String, Object> metadata) {
+      super(identity, parentHeader, Messages.ExecuteResponse.ErrorStatus, executionCount,
+            metadata);
 
       List<String> traceback = new ArrayList<String>();
       for (StackTraceElement stackFrame : error.getStackTrace()) {
@@ -359,4 +396,28 @@ public final class Messages {
       content.put("data", data);
     }
   }
+
+
+  /**
+   * Represents a message of any type, as read by a client of the kernel, e.g. a message sent by
+   * the kernel in response to a request, or published during an execution.
+   */
+  public static final class ReceivedMessage extends Message {
+
+    /**
+     * Creates an instance of a ReceivedMessage.
+     * @param identity the identity of the client.
+     * @param header the header of the message.
+     * @param parentHeader the header of the associated parent message.
+     * @param metadata any metadata associated with the message.
+     * @param content the content of the message.
+     */
+    public ReceivedMessage(String identity,
+                           Map<String, Object> header,
+                           Map<String, Object> parentHeader,
+                           Map<String, Object> metadata,
+                           Map<String, Object> content) {
+      super(identity, header, parentHeader, metadata, content);
+    }
+  }
 }
@@ -47,16 +47,26 @@ public final class Dependency {
    * @return the new chained class loader.
    */
   public ClassLoader createClassLoader(ClassLoader parent) {
-    URL[] urls = new URL[_jars.size()];
-    for (int i = 0; i < urls.length; i++) {
-      File file = new File(_jars.get(i));
+    return Dependency.createClassLoader(_jars, parent);
+  }
+
+  /**
+   * Creates a class loader to load classes from a set of jars.
+   * @param jars the local file paths of the jars.
+   * @param parent the parent class loader to parent the new one to.
+   * @return the new chained class loader.
+   */
+  public static ClassLoader createClassLoader(Collection<String> jars, ClassLoader parent) {
+    List<URL> urls = new ArrayList<URL>();
+    for (String jar: jars) {
+      File file = new File(jar);
       try {
-        urls[i] = file.toURI().toURL();
+        urls.add(file.toURI().toURL());
       }
       catch (MalformedURLException e) {
       }
     }
 
-    return new URLClassLoader(urls, parent);
+    return new URLClassLoader(urls.toArray(new URL[urls.size()]), parent);
   }
 }
@@ -0,0 +1,186 @@
+// DependencyCache.java
+//
+
+package ijava.shell;
+
+import java.io.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.security.*;
+import java.util.*;
+import com.fasterxml.jackson.jr.ob.*;
+
+/**
+ * Persists the results of resolving dependencies, so that subsequent sessions referencing the
+ * same dependencies can skip resolution entirely. Each entry is keyed by the dependency URI
+ * (which includes the resolver scheme), and records the resolved jars along with their size,
+ * modification time and checksum. Entries are only used while all their jars are unchanged,
+ * as determined by size and modification time.
+ */
+public final class DependencyCache {
+
+  private final Path _directory;
+
+  /**
+   * Initializes an instance of a DependencyCache using the default cache directory.
+   */
+  public DependencyCache() {
+    this(Paths.get(System.getProperty("user.home"), ".ijava", "cache", "dependencies"));
+  }
+
+  /**
+   * Initializes an instance of a DependencyCache.
+   * @param directory the directory in which to store cache entries.
+   */
+  public DependencyCache(Path directory) {
+    _directory = directory;
+  }
+
+  /**
+   * Computes the SHA-1 checksum of a file.
+   * @param path the path of the file.
+   * @return the checksum as a hex string.
+   * @throws IOException if the file could not be read.
+   */
+  public static String computeChecksum(Path path) throws IOException {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-1");
+    }
+    catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+
+    InputStream stream = Files.newInputStream(path);
+    try {
+      byte[] buffer = new byte[64 * 1024];
+      int count;
+      while ((count = stream.read(buffer)) > 0) {
+        digest.update(buffer, 0, count);
+      }
+    }
+    finally {
+      stream.close();
+    }
+
+    return DependencyCache.toHex(digest.digest());
+  }
+
+  private static String toHex(byte[] bytes) {
+    StringBuilder sb = new StringBuilder();
+    for (byte b : bytes) {
+      sb.append(String.format("%02x", b));
+    }
+
+    return sb.toString();
+  }
+
+  private Path getEntryPath(String key) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-1");
+      byte[] hash = digest.digest(key.getBytes(StandardCharsets.UTF_8));
+
+      return _directory.resolve(DependencyCache.toHex(hash) + ".json");
+    }
+    catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Looks up the previously resolved jars of a dependency.
+   * @param key the key identifying the dependency, i.e. its URI.
+   * @return the list of jars, or null if the dependency is not cached, or if any of its jars
+   *         have changed since.
+   */
+  @SuppressWarnings("unchecked")
+  public List<String> get(String key) {
+    Path entryPath = getEntryPath(key);
+    if (!Files.isRegularFile(entryPath)) {
+      return null;
+    }
+
+    try {
+      String json = new String(Files.readAllBytes(entryPath), StandardCharsets.UTF_8);
+      Map<String, Object> entry = JSON.std.mapFrom(json);
+      if (!key.equals(entry.get("key"))) {
+        return null;
+      }
+
+      List<String> jars = new ArrayList<String>();
+      for (Object item : (List<Object>)entry.get("jars")) {
+        Map<String, Object> jar = (Map<String, Object>)item;
+
+        Path jarPath = Paths.get((String)jar.get("path"));
+        if (!Files.isRegularFile(jarPath) ||
+            (Files.size(jarPath) != ((Number)jar.get("size")).longValue()) ||
+            (Files.getLastModifiedTime(jarPath).toMillis() !=
+                ((Number)jar.get("modified")).longValue())) {
+          InteractiveShell.Log.info("Cached dependency '%s' is stale.", key);
+          return null;
+        }
+
+        jars.add(jarPath.toString());
+      }
+
+      return jars;
+    }
+    catch (Exception e) {
+      InteractiveShell.Log.exception(e, "Unable to read cached dependency '%s'.", key);
+      return null;
+    }
+  }
+
+  /**
+   * Records the resolved jars of a dependency. The entry is written to a temporary file first,
+   * and then moved into place, so that concurrent sessions never observe partial entries.
+   * Failures are logged, and otherwise ignored, as the cache is only an optimization.
+   * @param key the key identifying the dependency, i.e. its URI.
+   * @param jars the list of jars that the dependency resolved to.
+   */
+  public void put(String key, List<String> jars) {
+    Path tempPath = null;
+    try {
+      List<Object> jarEntries = new ArrayList<Object>();
+      for (String jar : jars) {
+        Path jarPath = Paths.get(jar);
+
+        Map<String, Object> jarEntry = new HashMap<String, Object>();
+        jarEntry.put("path", jarPath.toAbsolutePath().toString());
+        jarEntry.put("size", Files.size(jarPath));
+        jarEntry.put("modified", Files.getLastModifiedTime(jarPath).toMillis());
+        jarEntry.put("sha1", DependencyCache.computeChecksum(jarPath));
+        jarEntries.add(jarEntry);
+      }
+
+      Map<String, Object> entry = new HashMap<String, Object>();
+      entry.put("key", key);
+      entry.put("jars", jarEntries);
+
+      Files.createDirectories(_directory);
+
+      Path entryPath = getEntryPath(key);
+      tempPath = Files.createTempFile(_directory, entryPath.getFileName().toString(), ".part");
+      Files.write(tempPath, JSON.std.asString(entry).getBytes(StandardCharsets.UTF_8));
+
+      try {
+        Files.move(tempPath, entryPath, StandardCopyOption.ATOMIC_MOVE);
+      }
+      catch (AtomicMoveNotSupportedException e) {
+        Files.move(tempPath, entryPath, StandardCopyOption.REPLACE_EXISTING);
+      }
+    }
+    catch (Exception e) {
+      InteractiveShell.Log.exception(e, "Unable to cache dependency '%s'.", key);
+    }
+    finally {
+      if (tempPath != null) {
+        try {
+          Files.deleteIfExists(tempPath);
+        }
+        catch (IOException e) {
+        }
+      }
+    }
+  }
+}
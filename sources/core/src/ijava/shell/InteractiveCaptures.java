@@ -0,0 +1,160 @@
+// InteractiveCaptures.java
+//
+
+package ijava.shell;
+
+import java.lang.ref.*;
+import java.lang.reflect.*;
+import java.util.*;
+
+/**
+ * Tracks the instances of generated classes that declare lambdas, which capture the instance
+ * they were created within, along with the shell variables declared as fields of that instance.
+ * Such lambdas can outlive the evaluation that created them, e.g. when assigned to a variable,
+ * so the fields of their instance are kept in sync with shell state: later changes to variables
+ * are visible to the lambdas, and changes made by the lambdas are reflected in shell state.
+ */
+public final class InteractiveCaptures {
+
+  private final List<Capture> _captures;
+
+  /**
+   * Initializes an instance of InteractiveCaptures.
+   */
+  public InteractiveCaptures() {
+    _captures = new ArrayList<Capture>();
+  }
+
+  /**
+   * Determines whether a generated class declares any lambdas.
+   * @param generatedClass the class to inspect.
+   * @return true if the class contains the methods implementing lambdas.
+   */
+  public static boolean hasLambdas(Class<?> generatedClass) {
+    for (Method method: generatedClass.getDeclaredMethods()) {
+      if (method.getName().startsWith("lambda$")) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  /**
+   * Tracks an instance, so its fields are kept in sync with shell state. The current values of
+   * its fields are assumed to already be reflected in shell state.
+   * @param instance the instance that lambdas might have captured.
+   * @param state the current shell state.
+   */
+  public void track(Object instance, InteractiveState state) {
+    Capture capture = new Capture(instance);
+    for (String name: state.getFields()) {
+      Field field = InteractiveCaptures.getField(instance.getClass(), name);
+      if (field != null) {
+        try {
+          capture.values.put(field, field.get(instance));
+        }
+        catch (IllegalAccessException e) {
+        }
+      }
+    }
+
+    _captures.add(capture);
+  }
+
+  /**
+   * Synchronizes shell state with captured instances. Fields that have been changed since the
+   * last synchronization, i.e. by lambdas, are first copied into shell state, and then shell
+   * state is copied into the fields of all captured instances.
+   * @param state the current shell state.
+   */
+  public void synchronize(InteractiveState state) {
+    Iterator<Capture> iterator = _captures.iterator();
+    while (iterator.hasNext()) {
+      Capture capture = iterator.next();
+      Object instance = capture.get();
+      if (instance == null) {
+        iterator.remove();
+        continue;
+      }
+
+      for (Map.Entry<Field, Object> entry: capture.values.entrySet()) {
+        Field field = entry.getKey();
+        String name = field.getName();
+
+        try {
+          Object value = field.get(instance);
+          if (!InteractiveCaptures.isSameValue(field, value, entry.getValue()) &&
+              state.getFields().contains(name)) {
+            state.setValue(name, value);
+          }
+        }
+        catch (IllegalAccessException e) {
+        }
+      }
+    }
+
+    for (Capture capture: _captures) {
+      Object instance = capture.get();
+      if (instance == null) {
+        continue;
+      }
+
+      Iterator<Map.Entry<Field, Object>> fields = capture.values.entrySet().iterator();
+      while (fields.hasNext()) {
+        Map.Entry<Field, Object> entry = fields.next();
+        Field field = entry.getKey();
+        if (!state.getFields().contains(field.getName())) {
+          fields.remove();
+          continue;
+        }
+
+        Object value = state.getValue(field.getName());
+        try {
+          field.set(instance, value);
+          entry.setValue(field.get(instance));
+        }
+        catch (IllegalArgumentException e) {
+          // The variable has been re-declared with a different type, and is no longer
+          // associated with this field.
+          fields.remove();
+        }
+        catch (IllegalAccessException e) {
+          fields.remove();
+        }
+      }
+    }
+  }
+
+  private static Field getField(Class<?> instanceClass, String name) {
+    try {
+      Field field = instanceClass.getDeclaredField(name);
+      field.setAccessible(true);
+
+      return field;
+    }
+    catch (NoSuchFieldException e) {
+      return null;
+    }
+  }
+
+  private static boolean isSameValue(Field field, Object value, Object previousValue) {
+    if (value == previousValue) {
+      return true;
+    }
+
+    // Values of primitive fields are boxed each time they are read.
+    return field.getType().isPrimitive() && value.equals(previousValue);
+  }
+
+
+  private static final class Capture extends WeakReference<Object> {
+
+    public final Map<Field, Object> values;
+
+    public Capture(Object instance) {
+      super(instance);
+      values = new HashMap<Field, Object>();
+    }
+  }
+}
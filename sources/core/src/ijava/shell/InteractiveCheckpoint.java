@@ -0,0 +1,590 @@
+// InteractiveCheckpoint.java
+//
+
+package ijava.shell;
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.zip.*;
+
+/**
+ * Saves and restores the state of the shell, so that it can be recreated in a new session
+ * without re-running the code that produced it. A checkpoint contains the dependencies, imports,
+ * byte code of types declared in the shell, declared variables and methods, and the values of
+ * variables that can be serialized.
+ *
+ * The format of a checkpoint is as follows (all values are big-endian, and all strings are
+ * length-prefixed UTF-8):
+ * - header: magic, version, and whether the remainder is GZIP compressed
+ * - dependencies: count, followed by the URI and list of jars of each
+ * - imports and static imports: count, followed by names
+ * - packages and types: count, followed by names and length-prefixed byte code
+ * - variables and methods: count, followed by names and types or code
+ * - values: a sequence of names and serialized values, terminated by a marker; each value is
+ *   written as length-prefixed chunks, followed by a zero length, or by -1 if the value could
+ *   not be completely serialized
+ *
+ * Values are serialized individually, and streamed into the checkpoint rather than buffered in
+ * full, so a value that cannot be serialized, or deserialized, is skipped without affecting the
+ * remaining values.
+ */
+public final class InteractiveCheckpoint {
+
+  private final static int MAGIC = 0x494a434b;
+  private final static int VERSION = 2;
+  private final static int CHUNK_SIZE = 8192;
+
+  private InteractiveCheckpoint() {
+  }
+
+  /**
+   * Saves the state of a shell into a checkpoint file. The checkpoint is written to a temporary
+   * file first, and then moved into place, so an existing checkpoint is never left partially
+   * overwritten.
+   * @param shell the shell whose state is to be saved.
+   * @param path the path of the checkpoint file.
+   * @param compress whether to compress the checkpoint.
+   * @return a description of the saved checkpoint.
+   * @throws IOException if the checkpoint could not be written.
+   */
+  public static String save(InteractiveShell shell, Path path, boolean compress)
+      throws IOException {
+    Path directory = path.toAbsolutePath().getParent();
+    Files.createDirectories(directory);
+
+    List<String> skippedNames = new ArrayList<String>();
+    int valueCount;
+
+    Path tempPath = Files.createTempFile(directory, path.getFileName().toString(), ".part");
+    try {
+      OutputStream outputStream = new BufferedOutputStream(Files.newOutputStream(tempPath));
+      try {
+        DataOutputStream stream = new DataOutputStream(outputStream);
+        stream.writeInt(InteractiveCheckpoint.MAGIC);
+        stream.writeInt(InteractiveCheckpoint.VERSION);
+        stream.writeBoolean(compress);
+
+        if (compress) {
+          stream.flush();
+          stream = new DataOutputStream(new GZIPOutputStream(outputStream));
+        }
+
+        InteractiveCheckpoint.writeShell(shell, stream);
+        valueCount = InteractiveCheckpoint.writeValues(shell.getState(), stream, skippedNames);
+
+        stream.close();
+      }
+      finally {
+        outputStream.close();
+      }
+
+      try {
+        Files.move(tempPath, path, StandardCopyOption.ATOMIC_MOVE);
+      }
+      catch (AtomicMoveNotSupportedException e) {
+        Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING);
+      }
+    }
+    finally {
+      Files.deleteIfExists(tempPath);
+    }
+
+    StringBuilder sb = new StringBuilder();
+    sb.append(String.format("Saved %d types and %d values to %s (%d KB).\n",
+                            shell.getTypeByteCode().size(), valueCount, path,
+                            Files.size(path) / 1024));
+    InteractiveCheckpoint.describeSkippedValues(sb, skippedNames, "saved");
+
+    return sb.toString();
+  }
+
+  /**
+   * Restores the state of a shell from a checkpoint file. Dependencies are restored using the
+   * jars recorded in the checkpoint, and are only resolved again if those jars no longer exist.
+   * @param shell the shell whose state is to be restored.
+   * @param id the ID to use for the class loader created to load restored types.
+   * @param path the path of the checkpoint file.
+   * @return a description of the restored checkpoint.
+   * @throws IOException if the checkpoint could not be read.
+   */
+  public static String restore(InteractiveShell shell, long id, Path path) throws IOException {
+    List<String> skippedNames = new ArrayList<String>();
+    int typeCount;
+    int valueCount;
+
+    InputStream inputStream = new BufferedInputStream(Files.newInputStream(path));
+    try {
+      DataInputStream stream = new DataInputStream(inputStream);
+      if (stream.readInt() != InteractiveCheckpoint.MAGIC) {
+        throw new IOException("The file '" + path + "' is not a checkpoint.");
+      }
+      if (stream.readInt() != InteractiveCheckpoint.VERSION) {
+        throw new IOException("The checkpoint '" + path + "' is not a supported version.");
+      }
+
+      if (stream.readBoolean()) {
+        stream = new DataInputStream(new GZIPInputStream(inputStream));
+      }
+
+      typeCount = InteractiveCheckpoint.readShell(shell, id, stream);
+      valueCount = InteractiveCheckpoint.readValues(shell, stream, skippedNames);
+    }
+    finally {
+      inputStream.close();
+    }
+
+    StringBuilder sb = new StringBuilder();
+    sb.append(String.format("Restored %d types and %d values from %s.\n",
+                            typeCount, valueCount, path));
+    InteractiveCheckpoint.describeSkippedValues(sb, skippedNames, "restored");
+
+    return sb.toString();
+  }
+
+  private static void describeSkippedValues(StringBuilder sb, List<String> names,
+                                            String action) {
+    if (names.size() != 0) {
+      sb.append(String.format("The following values could not be %s: ", action));
+
+      boolean firstName = true;
+      for (String name: names) {
+        if (!firstName) {
+          sb.append(", ");
+        }
+
+        sb.append(name);
+        firstName = false;
+      }
+
+      sb.append("\n");
+    }
+  }
+
+  private static void writeShell(InteractiveShell shell, DataOutputStream stream)
+      throws IOException {
+    Collection<Dependency> dependencies = shell.getDependencies();
+    stream.writeInt(dependencies.size());
+    for (Dependency dependency: dependencies) {
+      InteractiveCheckpoint.writeString(stream, dependency.getURI().toString());
+      InteractiveCheckpoint.writeStrings(stream, dependency.getJars());
+    }
+
+    InteractiveCheckpoint.writeStrings(stream, shell.getImportNames());
+    InteractiveCheckpoint.writeStrings(stream, shell.getStaticImportNames());
+
+    InteractiveCheckpoint.writeStrings(stream, shell.getPackageNames());
+
+    Map<String, byte[]> types = new HashMap<String, byte[]>(shell.getTypeByteCode());
+    stream.writeInt(types.size());
+    for (Map.Entry<String, byte[]> typeEntry: types.entrySet()) {
+      InteractiveCheckpoint.writeString(stream, typeEntry.getKey());
+      InteractiveCheckpoint.writeBytes(stream, typeEntry.getValue());
+    }
+
+    InteractiveState state = shell.getState();
+
+    Set<String> fields = state.getFields();
+    stream.writeInt(fields.size());
+    for (String name: fields) {
+      InteractiveCheckpoint.writeString(stream, name);
+      InteractiveCheckpoint.writeString(stream, state.getFieldType(name));
+    }
+
+    Set<String> methods = state.getMethods();
+    stream.writeInt(methods.size());
+    for (String name: methods) {
+      InteractiveCheckpoint.writeString(stream, name);
+      InteractiveCheckpoint.writeString(stream, state.getMethod(name));
+    }
+  }
+
+  private static int writeValues(InteractiveState state, DataOutputStream stream,
+                                 List<String> skippedNames) throws IOException {
+    int valueCount = 0;
+
+    List<String> names = new ArrayList<String>(state.getFields());
+    Collections.sort(names);
+
+    for (String name: names) {
+      Object value = state.getValue(name);
+      if (value == null) {
+        // Variables are restored with null values when they are declared.
+        continue;
+      }
+
+      if (!(value instanceof Serializable)) {
+        skippedNames.add(name);
+        continue;
+      }
+
+      stream.writeBoolean(true);
+      InteractiveCheckpoint.writeString(stream, name);
+
+      // A value can turn out not to be serializable part way through its object graph, once
+      // some of it has been written, in which case the value is ended with the skip marker.
+      ValueOutputStream valueStream = new ValueOutputStream(stream);
+      boolean complete = false;
+      try {
+        ObjectOutputStream objectStream = new ObjectOutputStream(valueStream);
+        objectStream.writeObject(value);
+        objectStream.flush();
+
+        complete = true;
+      }
+      catch (IOException | RuntimeException e) {
+        InteractiveShell.Log.exception(e, "Unable to serialize the value of '%s'.", name);
+      }
+      valueStream.end(complete);
+
+      if (complete) {
+        valueCount++;
+      }
+      else {
+        skippedNames.add(name);
+      }
+    }
+
+    stream.writeBoolean(false);
+    return valueCount;
+  }
+
+  private static int readShell(InteractiveShell shell, long id, DataInputStream stream)
+      throws IOException {
+    List<Dependency> dependencies = new ArrayList<Dependency>();
+    List<URI> unresolvedDependencies = new ArrayList<URI>();
+
+    int dependencyCount = stream.readInt();
+    for (int i = 0; i < dependencyCount; i++) {
+      URI uri = URI.create(InteractiveCheckpoint.readString(stream));
+      List<String> jars = InteractiveCheckpoint.readStrings(stream);
+
+      boolean resolved = true;
+      for (String jar: jars) {
+        if (!Files.isRegularFile(Paths.get(jar))) {
+          resolved = false;
+          break;
+        }
+      }
+
+      if (resolved) {
+        dependencies.add(new Dependency(uri, jars));
+      }
+      else {
+        unresolvedDependencies.add(uri);
+      }
+    }
+
+    shell.addResolvedDependencies(dependencies);
+    if (unresolvedDependencies.size() != 0) {
+      shell.addDependencies(unresolvedDependencies);
+    }
+
+    for (String name: InteractiveCheckpoint.readStrings(stream)) {
+      shell.addImport(name, /* staticImport */ false);
+    }
+    for (String name: InteractiveCheckpoint.readStrings(stream)) {
+      shell.addImport(name, /* staticImport */ true);
+    }
+
+    Set<String> packages = new HashSet<String>(InteractiveCheckpoint.readStrings(stream));
+
+    Map<String, byte[]> types = new HashMap<String, byte[]>();
+    int typeCount = stream.readInt();
+    for (int i = 0; i < typeCount; i++) {
+      String name = InteractiveCheckpoint.readString(stream);
+      types.put(name, InteractiveCheckpoint.readBytes(stream));
+    }
+
+    shell.addTypes(id, packages, types);
+
+    InteractiveState state = shell.getState();
+
+    int fieldCount = stream.readInt();
+    for (int i = 0; i < fieldCount; i++) {
+      String name = InteractiveCheckpoint.readString(stream);
+      state.declareField(name, InteractiveCheckpoint.readString(stream));
+    }
+
+    int methodCount = stream.readInt();
+    for (int i = 0; i < methodCount; i++) {
+      String name = InteractiveCheckpoint.readString(stream);
+      state.declareMethod(name, InteractiveCheckpoint.readString(stream));
+    }
+
+    return typeCount;
+  }
+
+  private static int readValues(InteractiveShell shell, DataInputStream stream,
+                                List<String> skippedNames) throws IOException {
+    int valueCount = 0;
+
+    InteractiveState state = shell.getState();
+    ClassLoader classLoader = shell.getClassLoader();
+
+    while (stream.readBoolean()) {
+      String name = InteractiveCheckpoint.readString(stream);
+
+      ValueInputStream valueStream = new ValueInputStream(stream);
+      Object value = null;
+      boolean read = false;
+      try {
+        ObjectInputStream objectStream = new ShellObjectInputStream(valueStream, classLoader);
+        value = objectStream.readObject();
+
+        read = true;
+      }
+      catch (Exception e) {
+        InteractiveShell.Log.exception(e, "Unable to deserialize the value of '%s'.", name);
+      }
+
+      // Values that were only partially saved are skipped, even if they happen to be readable.
+      if (valueStream.skipToEnd() && read) {
+        state.setValue(name, value);
+        valueCount++;
+      }
+      else {
+        skippedNames.add(name);
+      }
+    }
+
+    return valueCount;
+  }
+
+  private static void writeString(DataOutputStream stream, String value) throws IOException {
+    InteractiveCheckpoint.writeBytes(stream, value.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static void writeStrings(DataOutputStream stream, Collection<String> values)
+      throws IOException {
+    stream.writeInt(values.size());
+    for (String value: values) {
+      InteractiveCheckpoint.writeString(stream, value);
+    }
+  }
+
+  private static void writeBytes(DataOutputStream stream, byte[] bytes) throws IOException {
+    stream.writeInt(bytes.length);
+    stream.write(bytes);
+  }
+
+  private static String readString(DataInputStream stream) throws IOException {
+    return new String(InteractiveCheckpoint.readBytes(stream), StandardCharsets.UTF_8);
+  }
+
+  private static List<String> readStrings(DataInputStream stream) throws IOException {
+    int count = stream.readInt();
+
+    List<String> values = new ArrayList<String>(count);
+    for (int i = 0; i < count; i++) {
+      values.add(InteractiveCheckpoint.readString(stream));
+    }
+
+    return values;
+  }
+
+  private static byte[] readBytes(DataInputStream stream) throws IOException {
+    byte[] bytes = new byte[stream.readInt()];
+    stream.readFully(bytes);
+
+    return bytes;
+  }
+
+
+  /**
+   * A stream that writes a value into the checkpoint as a sequence of length-prefixed chunks, so
+   * that the value does not need to be buffered in full.
+   */
+  private static final class ValueOutputStream extends OutputStream {
+
+    private final DataOutputStream _stream;
+    private final byte[] _buffer;
+    private int _count;
+    private IOException _error;
+
+    public ValueOutputStream(DataOutputStream stream) {
+      _stream = stream;
+      _buffer = new byte[InteractiveCheckpoint.CHUNK_SIZE];
+    }
+
+    /**
+     * Ends the value, by writing any buffered data and the end marker.
+     * @param complete whether the value was completely written, or should be skipped.
+     * @throws IOException if the checkpoint could not be written.
+     */
+    public void end(boolean complete) throws IOException {
+      // Failures writing the checkpoint itself fail the checkpoint, rather than the value.
+      if (_error != null) {
+        throw _error;
+      }
+
+      if (complete) {
+        writeChunk();
+        _stream.writeInt(0);
+      }
+      else {
+        _stream.writeInt(-1);
+      }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      if (_count == _buffer.length) {
+        writeChunk();
+      }
+
+      _buffer[_count++] = (byte)b;
+    }
+
+    @Override
+    public void write(byte[] b, int offset, int length) throws IOException {
+      while (length > 0) {
+        if (_count == _buffer.length) {
+          writeChunk();
+        }
+
+        int count = Math.min(length, _buffer.length - _count);
+        System.arraycopy(b, offset, _buffer, _count, count);
+
+        _count += count;
+        offset += count;
+        length -= count;
+      }
+    }
+
+    private void writeChunk() throws IOException {
+      if (_count == 0) {
+        return;
+      }
+
+      try {
+        _stream.writeInt(_count);
+        _stream.write(_buffer, 0, _count);
+      }
+      catch (IOException e) {
+        _error = e;
+        throw e;
+      }
+
+      _count = 0;
+    }
+  }
+
+
+  /**
+   * A stream that reads a value written by ValueOutputStream, ending at the end of the value.
+   */
+  private static final class ValueInputStream extends InputStream {
+
+    private final DataInputStream _stream;
+    private int _remaining;
+    private boolean _ended;
+    private boolean _complete;
+
+    public ValueInputStream(DataInputStream stream) {
+      _stream = stream;
+    }
+
+    /**
+     * Skips any remaining data of the value, up to its end marker.
+     * @return true if the value was completely written, or false if it was skipped.
+     * @throws IOException if the checkpoint could not be read.
+     */
+    public boolean skipToEnd() throws IOException {
+      while (nextChunk()) {
+        int count = _stream.skipBytes(_remaining);
+        if (count == 0) {
+          if (_stream.read() < 0) {
+            throw new EOFException();
+          }
+          count = 1;
+        }
+
+        _remaining -= count;
+      }
+
+      return _complete;
+    }
+
+    @Override
+    public int read() throws IOException {
+      if (!nextChunk()) {
+        return -1;
+      }
+
+      int b = _stream.read();
+      if (b < 0) {
+        throw new EOFException();
+      }
+
+      _remaining--;
+      return b;
+    }
+
+    @Override
+    public int read(byte[] b, int offset, int length) throws IOException {
+      if (length == 0) {
+        return 0;
+      }
+      if (!nextChunk()) {
+        return -1;
+      }
+
+      int count = _stream.read(b, offset, Math.min(length, _remaining));
+      if (count < 0) {
+        throw new EOFException();
+      }
+
+      _remaining -= count;
+      return count;
+    }
+
+    private boolean nextChunk() throws IOException {
+      while ((_remaining == 0) && !_ended) {
+        int length = _stream.readInt();
+        if (length > 0) {
+          _remaining = length;
+        }
+        else if (length >= -1) {
+          _ended = true;
+          _complete = (length == 0);
+        }
+        else {
+          throw new IOException("The checkpoint is corrupt.");
+        }
+      }
+
+      return !_ended;
+    }
+  }
+
+
+  /**
+   * An object stream that resolves classes using the class loader of the shell, so that values
+   * of types declared in the shell, or its dependencies, can be deserialized.
+   */
+  private static final class ShellObjectInputStream extends ObjectInputStream {
+
+    private final ClassLoader _classLoader;
+
+    public ShellObjectInputStream(InputStream stream, ClassLoader classLoader)
+        throws IOException {
+      super(stream);
+      _classLoader = classLoader;
+    }
+
+    @Override
+    protected Class<?> resolveClass(ObjectStreamClass description)
+        throws IOException, ClassNotFoundException {
+      try {
+        return Class.forName(description.getName(), /* initialize */ false, _classLoader);
+      }
+      catch (ClassNotFoundException e) {
+        // Primitive types are not resolvable by name, and are handled by the default lookup.
+        return super.resolveClass(description);
+      }
+    }
+  }
+}
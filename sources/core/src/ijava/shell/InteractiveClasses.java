@@ -0,0 +1,286 @@
+// InteractiveClasses.java
+//
+
+package ijava.shell;
+
+import java.lang.management.*;
+import java.lang.ref.*;
+import java.lang.reflect.*;
+import java.util.*;
+
+/**
+ * Tracks the class loaders generated by the shell for each evaluation, along with the class
+ * loading and metaspace usage of the process, so that loaders pinned by shell state can be
+ * identified.
+ */
+public final class InteractiveClasses {
+
+  /**
+   * The maximum number of objects visited when following references from each value in state.
+   */
+  public final static int MaxReferences = 1000;
+
+  private final ReferenceQueue<JavaByteCodeLoader> _queue;
+  private final TreeMap<Long, LoaderReference> _loaders;
+
+  private final ClassLoadingMXBean _classLoading;
+  private final MemoryPoolMXBean _metaspace;
+
+  private long _loadedCount;
+  private long _unloadedCount;
+
+  /**
+   * Initializes an instance of InteractiveClasses.
+   */
+  public InteractiveClasses() {
+    _queue = new ReferenceQueue<JavaByteCodeLoader>();
+    _loaders = new TreeMap<Long, LoaderReference>();
+
+    _classLoading = ManagementFactory.getClassLoadingMXBean();
+    _metaspace = InteractiveClasses.findMetaspacePool();
+  }
+
+  /**
+   * Locates the memory pool that holds class metadata, i.e. metaspace, or the permanent
+   * generation on older runtimes.
+   * @return the memory pool if one could be found; null otherwise.
+   */
+  private static MemoryPoolMXBean findMetaspacePool() {
+    for (MemoryPoolMXBean pool: ManagementFactory.getMemoryPoolMXBeans()) {
+      String name = pool.getName();
+      if (name.equals("Metaspace") || name.endsWith("Perm Gen")) {
+        return pool;
+      }
+    }
+
+    return null;
+  }
+
+  /**
+   * Gets the number of bytes of class metadata currently in use.
+   * @return the used metaspace size, or -1 if it is not available.
+   */
+  public long getMetaspaceUsage() {
+    if (_metaspace == null) {
+      return -1;
+    }
+
+    return _metaspace.getUsage().getUsed();
+  }
+
+  /**
+   * Gets the set of generated class loaders that are still alive, i.e. have not been collected.
+   * @return the IDs of live class loaders, in the order they were created.
+   */
+  public Set<Long> getLiveLoaders() {
+    purge();
+    return Collections.unmodifiableSet(_loaders.keySet());
+  }
+
+  /**
+   * Gets the set of generated class loaders that are kept alive by values tracked in state, i.e.
+   * those that define the class of a variable's value, or of an object reachable from it, such
+   * as the elements of collections, maps and arrays, or the values captured by lambdas and
+   * anonymous classes. References are followed across up to MaxReferences objects per value, so
+   * loaders only reachable through larger object graphs are not reported.
+   * @param state the current shell state.
+   * @return the variable names keyed by the ID of the class loader they reference.
+   */
+  public Map<Long, Set<String>> getPinnedLoaders(InteractiveState state) {
+    TreeMap<Long, Set<String>> pinnedLoaders = new TreeMap<Long, Set<String>>();
+    Map<Class<?>, List<Field>> fields = new HashMap<Class<?>, List<Field>>();
+
+    for (String name: state.getFields()) {
+      Object value = state.getValue(name);
+      if (value == null) {
+        continue;
+      }
+
+      for (Long id: InteractiveClasses.findLoaders(value, fields)) {
+        Set<String> names = pinnedLoaders.get(id);
+        if (names == null) {
+          names = new TreeSet<String>();
+          pinnedLoaders.put(id, names);
+        }
+        names.add(name);
+      }
+    }
+
+    return pinnedLoaders;
+  }
+
+  /**
+   * Finds the generated class loaders referenced by the object graph of a value.
+   * @param value the value to start from.
+   * @param fields the reference fields of the types visited so far.
+   * @return the IDs of the class loaders referenced.
+   */
+  private static Set<Long> findLoaders(Object value, Map<Class<?>, List<Field>> fields) {
+    Set<Long> ids = new TreeSet<Long>();
+
+    Map<Object, Boolean> visited = new IdentityHashMap<Object, Boolean>();
+    Deque<Object> pending = new ArrayDeque<Object>();
+    InteractiveClasses.addReference(value, visited, pending);
+
+    while (!pending.isEmpty() && (visited.size() - pending.size() < MaxReferences)) {
+      Object object = pending.removeFirst();
+
+      // Class objects and class loaders pin the loaders they correspond to, but are not followed
+      // any further, as they reference the state of the shell itself. Neither are threads and
+      // references, which do not keep their classes alive through the value.
+      if (object instanceof Class<?>) {
+        InteractiveClasses.addLoader((Class<?>)object, ids);
+        continue;
+      }
+      if (object instanceof JavaByteCodeLoader) {
+        ids.add(((JavaByteCodeLoader)object).getId());
+        continue;
+      }
+
+      Class<?> objectClass = object.getClass();
+      InteractiveClasses.addLoader(objectClass, ids);
+      if ((object instanceof ClassLoader) || (object instanceof Thread) ||
+          (object instanceof Reference<?>)) {
+        continue;
+      }
+
+      if (objectClass.isArray()) {
+        if (!objectClass.getComponentType().isPrimitive()) {
+          for (Object item: (Object[])object) {
+            InteractiveClasses.addReference(item, visited, pending);
+          }
+        }
+        continue;
+      }
+
+      for (Field field: InteractiveClasses.getFields(objectClass, fields)) {
+        try {
+          InteractiveClasses.addReference(field.get(object), visited, pending);
+        }
+        catch (IllegalAccessException e) {
+        }
+      }
+    }
+
+    return ids;
+  }
+
+  private static void addLoader(Class<?> type, Set<Long> ids) {
+    while (type.isArray()) {
+      type = type.getComponentType();
+    }
+
+    ClassLoader loader = type.getClassLoader();
+    if (loader instanceof JavaByteCodeLoader) {
+      ids.add(((JavaByteCodeLoader)loader).getId());
+    }
+  }
+
+  private static void addReference(Object value, Map<Object, Boolean> visited,
+                                   Deque<Object> pending) {
+    if ((value != null) && (visited.put(value, Boolean.TRUE) == null)) {
+      pending.addLast(value);
+    }
+  }
+
+  /**
+   * Gets the instance fields of a type, including inherited ones, that can hold references.
+   * @param type the type whose fields are to be returned.
+   * @param fields the reference fields of the types looked up so far.
+   * @return the list of accessible reference fields.
+   */
+  private static List<Field> getFields(Class<?> type, Map<Class<?>, List<Field>> fields) {
+    List<Field> typeFields = fields.get(type);
+    if (typeFields != null) {
+      return typeFields;
+    }
+
+    typeFields = new ArrayList<Field>();
+    for (Class<?> t = type; t != null; t = t.getSuperclass()) {
+      for (Field field: t.getDeclaredFields()) {
+        if (Modifier.isStatic(field.getModifiers()) || field.getType().isPrimitive()) {
+          continue;
+        }
+
+        try {
+          field.setAccessible(true);
+          typeFields.add(field);
+        }
+        catch (RuntimeException e) {
+          // Fields that cannot be made accessible are skipped.
+        }
+      }
+    }
+
+    fields.put(type, typeFields);
+    return typeFields;
+  }
+
+  /**
+   * Saves class loading information about the most recent evaluation into a metadata
+   * dictionary.
+   * @param state the current shell state.
+   * @param metadata the metadata dictionary to store information into.
+   */
+  public void generateMetadata(InteractiveState state, Map<String, Object> metadata) {
+    long loadedCount = _classLoading.getTotalLoadedClassCount();
+    long unloadedCount = _classLoading.getUnloadedClassCount();
+
+    metadata.put("ijava.classes.loaded", loadedCount - _loadedCount);
+    metadata.put("ijava.classes.unloaded", unloadedCount - _unloadedCount);
+    metadata.put("ijava.classes.total", _classLoading.getLoadedClassCount());
+    metadata.put("ijava.loaders.live", getLiveLoaders().size());
+    metadata.put("ijava.loaders.pinned", getPinnedLoaders(state).size());
+    metadata.put("ijava.metaspace.used", getMetaspaceUsage());
+
+    _loadedCount = loadedCount;
+    _unloadedCount = unloadedCount;
+  }
+
+  /**
+   * Starts tracking a generated class loader.
+   * @param loader the class loader to track.
+   */
+  public void track(JavaByteCodeLoader loader) {
+    purge();
+    _loaders.put(loader.getId(), new LoaderReference(loader, _queue));
+  }
+
+  /**
+   * Resets the class loading counters, so that the next set of metadata generated only
+   * reflects activity after this point.
+   */
+  public void reset() {
+    _loadedCount = _classLoading.getTotalLoadedClassCount();
+    _unloadedCount = _classLoading.getUnloadedClassCount();
+  }
+
+  private void purge() {
+    Reference<? extends JavaByteCodeLoader> reference;
+    while ((reference = _queue.poll()) != null) {
+      long id = ((LoaderReference)reference).getId();
+      if (_loaders.get(id) == reference) {
+        _loaders.remove(id);
+      }
+    }
+  }
+
+
+  /**
+   * A weak reference to a generated class loader, that remembers the loader's ID once the
+   * loader itself has been collected.
+   */
+  private static final class LoaderReference extends WeakReference<JavaByteCodeLoader> {
+
+    private final long _id;
+
+    public LoaderReference(JavaByteCodeLoader loader, ReferenceQueue<JavaByteCodeLoader> queue) {
+      super(loader, queue);
+      _id = loader.getId();
+    }
+
+    public long getId() {
+      return _id;
+    }
+  }
+}
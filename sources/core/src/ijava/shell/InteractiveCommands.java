@@ -3,6 +3,7 @@
 
 package ijava.shell;
 
+import java.nio.file.*;
 import java.util.*;
 import com.beust.jcommander.*;
 import ijava.data.*;
@@ -65,4 +66,92 @@ public final class InteractiveCommands {
       public List<String> names = new ArrayList<String>();
     }
   }
+
+  public static final class ClassesCommand extends Command.SimpleCommand {
+
+    public ClassesCommand(InteractiveShell shell) {
+      super(shell);
+    }
+
+    @Override
+    public Object evaluate(long evaluationID, Map<String, Object> metadata) throws Exception {
+      InteractiveShell shell = (InteractiveShell)getShell();
+      InteractiveClasses classes = shell.getClasses();
+
+      Set<Long> liveLoaders = classes.getLiveLoaders();
+      Map<Long, Set<String>> pinnedLoaders = classes.getPinnedLoaders(shell.getState());
+
+      StringBuilder sb = new StringBuilder();
+      sb.append(String.format("Live class loaders: %d\n", liveLoaders.size()));
+      sb.append(String.format("Metaspace used: %d KB\n", classes.getMetaspaceUsage() / 1024));
+
+      for (Map.Entry<Long, Set<String>> entry: pinnedLoaders.entrySet()) {
+        sb.append(String.format("[%d] referenced by ", entry.getKey()));
+
+        boolean firstName = true;
+        for (String name: entry.getValue()) {
+          if (!firstName) {
+            sb.append(", ");
+          }
+
+          sb.append(name);
+          firstName = false;
+        }
+
+        sb.append("\n");
+      }
+
+      if (!pinnedLoaders.isEmpty()) {
+        sb.append(String.format("(References are followed across up to %d objects per value.)\n",
+                                InteractiveClasses.MaxReferences));
+      }
+
+      return sb.toString();
+    }
+  }
+
+  public static final class CheckpointCommand extends Command<CheckpointCommand.Options> {
+
+    public CheckpointCommand(InteractiveShell shell) {
+      super(shell, Options.class);
+    }
+
+    @Override
+    public Object evaluate(Options options, long evaluationID,
+                           Map<String, Object> metadata) throws Exception {
+      return InteractiveCheckpoint.save((InteractiveShell)getShell(), Paths.get(options.path),
+                                        options.compress);
+    }
+
+    public static final class Options extends CommandOptions {
+
+      @Parameter(names = "--path", description = "The path of the checkpoint file to save.",
+          required = true)
+      public String path;
+
+      @Parameter(names = "--compress", description = "Whether to compress the checkpoint.")
+      public boolean compress = false;
+    }
+  }
+
+  public static final class RestoreCommand extends Command<RestoreCommand.Options> {
+
+    public RestoreCommand(InteractiveShell shell) {
+      super(shell, Options.class);
+    }
+
+    @Override
+    public Object evaluate(Options options, long evaluationID,
+                           Map<String, Object> metadata) throws Exception {
+      return InteractiveCheckpoint.restore((InteractiveShell)getShell(), evaluationID,
+                                           Paths.get(options.path));
+    }
+
+    public static final class Options extends CommandOptions {
+
+      @Parameter(names = "--path", description = "The path of the checkpoint file to restore.",
+          required = true)
+      public String path;
+    }
+  }
 }
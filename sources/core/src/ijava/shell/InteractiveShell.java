@@ -8,6 +8,7 @@ import java.net.*;
 import java.nio.file.*;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 import ijava.*;
 import ijava.extensibility.*;
 import ijava.shell.compiler.*;
@@ -19,6 +20,8 @@ public final class InteractiveShell implements Shell {
 
   public static final Log Log = ijava.Log.createLog("ijava.shell");
 
+  private final static int MAX_RESOLVERS = 8;
+  private final static long PROGRESS_INTERVAL = 1000;
   private final static String ERROR_TYPE_REDECLARED =
       "The type of the variable '%s', '%s', has changed, and its value is no longer usable.\n" +
           "Please run the code to re-initialize that variable first, or simply re-run this code " +
@@ -30,16 +33,26 @@ public final class InteractiveShell implements Shell {
   private final HashMap<String, Object> _extensions;
 
   private final HashMap<String, Dependency> _dependencies;
+  private final DependencyCache _dependencyCache;
   private final HashSet<String> _jars;
   private final HashSet<String> _imports;
   private final HashSet<String> _staticImports;
   private final HashSet<String> _packages;
-  private final HashMap<String, byte[]> _types;
+  private final ConcurrentHashMap<String, byte[]> _types;
 
   private final InteractiveState _state;
+  private final InteractiveClasses _classes;
+  private final InteractiveCaptures _captures;
+  private final JavaInterpreter _interpreter;
 
   private ClassLoader _classLoader;
+  private JarClassLoaders _jarClassLoaders;
+  private volatile Future<?> _initialization;
+  private volatile Thread _initializationThread;
+  private Exception _initializationError;
   private String _cachedImports;
+  private boolean _redefineTypes;
+  private LanguageLevel _languageLevel;
 
   /**
    * Initializes an instance of an InteractiveShell.
@@ -51,14 +64,20 @@ public final class InteractiveShell implements Shell {
     _extensions = new HashMap<String, Object>();
 
     _dependencies = new HashMap<String, Dependency>();
+    _dependencyCache = new DependencyCache();
     _jars = new HashSet<String>();
     _imports = new HashSet<String>();
     _staticImports = new HashSet<String>();
     _packages = new HashSet<String>();
-    _types = new HashMap<String, byte[]>();
+    _types = new ConcurrentHashMap<String, byte[]>();
     _state = new InteractiveState();
+    _classes = new InteractiveClasses();
+    _captures = new InteractiveCaptures();
+    _interpreter = new JavaInterpreter(this);
 
     _classLoader = ClassLoader.getSystemClassLoader();
+    _jarClassLoaders = new JarClassLoaders(_classLoader);
+    _languageLevel = LanguageLevel.getDefault();
   }
 
   /**
@@ -69,6 +88,14 @@ public final class InteractiveShell implements Shell {
     return _state;
   }
 
+  /**
+   * Gets the tracking information for class loaders generated by the shell.
+   * @return the class loader tracking information.
+   */
+  public InteractiveClasses getClasses() {
+    return _classes;
+  }
+
   /**
    * Adds a shell extension to the current shell.
    * @param name the name of the extension to lookup.
@@ -76,6 +103,11 @@ public final class InteractiveShell implements Shell {
    * @throws Exception if the specified extension could not be found or is invalid.
    */
   public Object addExtension(String name) throws Exception {
+    waitForInitialization();
+    return loadExtension(name);
+  }
+
+  private Object loadExtension(String name) throws Exception {
     if (_extensions.containsKey(name)) {
       return _extensions.get(name);
     }
@@ -101,7 +133,9 @@ public final class InteractiveShell implements Shell {
    * @param dependencies the list of dependencies to pre-load, as well as include in compilation.
    * @param shellDependencies the list of shell-only dependencies to pre-load.
    * @param extensions the list of extensions to pre-load.
-   * @throws Exception if there is an error during initialization.
+   * @throws Exception if there is an error during initialization. Errors loading dependencies
+   *                   and extensions, which happens in the background, are instead reported
+   *                   by the first evaluation.
    */
   public void initialize(URL appURL,
                          List<String> dependencies,
@@ -110,6 +144,9 @@ public final class InteractiveShell implements Shell {
     // Register the commands offered for shell functionality
     registerCommand("load", new InteractiveCommands.LoadCommand(this));
     registerCommand("values", new InteractiveCommands.ValuesCommand(this));
+    registerCommand("classes", new InteractiveCommands.ClassesCommand(this));
+    registerCommand("checkpoint", new InteractiveCommands.CheckpointCommand(this));
+    registerCommand("restore", new InteractiveCommands.RestoreCommand(this));
 
     // Register the commands offered for data creation/rendering functionality
     registerCommand("text", new DataCommands.TextCommand(this));
@@ -149,34 +186,153 @@ public final class InteractiveShell implements Shell {
     addImport("org.joda.time.*", /* staticImport */ false);
     addImport("ijava.JavaHelpers.*", /* staticImport */ true);
 
-    // Load up the dependencies - all of them get loaded via a class loader.
-    // Only dependencies are tracked and made available as references during compilation.
-    if (!dependencies.isEmpty() || !shellDependencies.isEmpty()) {
-      URL[] dependencyJars = new URL[dependencies.size() + shellDependencies.size()];
-      int i = 0;
+    // Track the dependencies, so they are available as references during compilation.
+    // Only dependencies are tracked, and not shell dependencies.
+    final List<URL> dependencyJars = new ArrayList<URL>();
+    for (String dependency: dependencies) {
+      URL dependencyURL = new URL(appURL, dependency);
 
-      for (String dependency: dependencies) {
-        dependencyJars[i] = new URL(appURL, dependency);
-        _jars.add(dependencyJars[i].getPath());
+      dependencyJars.add(dependencyURL);
+      _jars.add(dependencyURL.getPath());
+    }
+    for (String dependency: shellDependencies) {
+      dependencyJars.add(new URL(appURL, dependency));
+    }
 
-        i++;
+    // Loading dependencies and extensions, and indexing referenced jars is performed in the
+    // background, so the kernel can start responding to requests right away. Evaluation waits
+    // for initialization to complete, once there is code to evaluate.
+    final List<String> referencedJars = new ArrayList<String>(_jars);
+    final List<String> extensionNames = new ArrayList<String>(extensions);
+    Callable<Void> initialization = new Callable<Void>() {
+      @Override
+      public Void call() throws Exception {
+        initializeDependencies(dependencyJars, referencedJars, extensionNames);
+        return null;
       }
+    };
 
-      for (String dependency: shellDependencies) {
-        dependencyJars[i] = new URL(appURL, dependency);
-        i++;
-      }
+    FutureTask<Void> initializationTask = new FutureTask<Void>(initialization);
+    Thread initializationThread = new Thread(initializationTask, "ijava-initializer");
+    initializationThread.setDaemon(true);
 
-      _classLoader = new URLClassLoader(dependencyJars, _classLoader);
+    _initialization = initializationTask;
+    _initializationThread = initializationThread;
+    initializationThread.start();
+  }
+
+  /**
+   * Loads dependencies and extensions specified at startup. This runs on a background thread,
+   * while the shell is otherwise unused, and errors are reported on the next evaluation.
+   * @param dependencyJars the list of dependency jars to load.
+   * @param referencedJars the list of jars referenced during compilation, to index.
+   * @param extensions the list of extensions to load.
+   */
+  private void initializeDependencies(List<URL> dependencyJars, List<String> referencedJars,
+                                      List<String> extensions) {
+    long startTime = System.currentTimeMillis();
+
+    // Load up the dependencies - all of them get loaded via a class loader.
+    if (!dependencyJars.isEmpty()) {
+      _classLoader = new URLClassLoader(dependencyJars.toArray(new URL[dependencyJars.size()]),
+                                        _classLoader);
+      _jarClassLoaders = new JarClassLoaders(_classLoader);
     }
 
-    if (!extensions.isEmpty()) {
-      for (String name: extensions) {
-        addExtension(name);
+    for (String name: extensions) {
+      try {
+        loadExtension(name);
       }
+      catch (Exception e) {
+        InteractiveShell.Log.exception(e, "Unable to load extension '%s'.", name);
+        if (_initializationError == null) {
+          _initializationError = e;
+        }
+      }
+    }
+
+    // Index referenced jars ahead of the first compilation.
+    for (String jar: referencedJars) {
+      JarIndex.getIndex(jar);
+    }
+
+    InteractiveShell.Log.info("Shell initialized in %d ms.",
+                              System.currentTimeMillis() - startTime);
+  }
+
+  /**
+   * Waits for background initialization of the shell to complete, if it is still in progress.
+   * Shell APIs invoked during initialization, i.e. by extensions, do not wait.
+   */
+  private void waitForInitialization() {
+    Future<?> initialization = _initialization;
+    if ((initialization == null) || (Thread.currentThread() == _initializationThread)) {
+      return;
+    }
+
+    try {
+      initialization.get();
+      _initialization = null;
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    catch (ExecutionException e) {
+      InteractiveShell.Log.exception(e, "Unable to initialize the shell.");
+      _initialization = null;
+    }
+  }
+
+  /**
+   * Waits for background initialization of the shell to complete, before evaluating code.
+   * @throws EvaluationError if initialization failed; the error is only reported once.
+   */
+  private void awaitInitialization() throws EvaluationError {
+    waitForInitialization();
+    if (_initialization != null) {
+      throw new EvaluationError("Interrupted while waiting for the shell to initialize.");
+    }
+
+    Exception error = _initializationError;
+    if (error != null) {
+      _initializationError = null;
+      throw new EvaluationError("Unable to initialize the shell: " + error.getMessage(), error);
     }
   }
 
+  /**
+   * Enables in-place redefinition of types declared in the shell, when a new declaration of a
+   * type only changes method bodies. Other changes continue to result in new types.
+   * @return true if redefinition is supported in the current process, and was enabled.
+   */
+  public boolean enableTypeRedefinition() {
+    _redefineTypes = JavaTypeRedefiner.isSupported();
+    return _redefineTypes;
+  }
+
+  /**
+   * Gets the language level code is parsed and compiled at.
+   * @return the current language level.
+   */
+  public LanguageLevel getLanguageLevel() {
+    return _languageLevel;
+  }
+
+  /**
+   * Sets the language level code is parsed and compiled at.
+   * @param languageLevel the language level to use.
+   * @throws IllegalArgumentException if the current runtime cannot load classes compiled at the
+   *   specified language level.
+   */
+  public void setLanguageLevel(LanguageLevel languageLevel) throws IllegalArgumentException {
+    if (!languageLevel.isSupported()) {
+      throw new IllegalArgumentException("The language level " + languageLevel +
+          " is newer than the Java runtime, " + System.getProperty("java.version") + ".");
+    }
+
+    _languageLevel = languageLevel;
+  }
+
   /**
    * Invokes a command for the specified evaluation input.
    * @param data the evaluation text.
@@ -261,7 +417,8 @@ public final class InteractiveShell implements Shell {
    */
   private Object processCode(long id, Snippet snippet) throws Exception {
     SnippetCompilation compilation = snippet.getCompilation();
-    ClassLoader classLoader = new CodeClassLoader(_classLoader, id, compilation.getTypes());
+    CodeClassLoader classLoader = new CodeClassLoader(_classLoader, id, compilation.getTypes());
+    _classes.track(classLoader);
 
     Class<?> snippetClass = classLoader.loadClass(snippet.getClassName());
     Object instance = snippetClass.newInstance();
@@ -293,6 +450,7 @@ public final class InteractiveShell implements Shell {
     }
 
     // Execute the code
+    Object codeInstance = instance;
     Object result = ((Callable<?>)instance).call();
 
     if (snippet.getType() == SnippetType.CodeMembers) {
@@ -329,6 +487,17 @@ public final class InteractiveShell implements Shell {
       }
     }
 
+    // Lambdas declared by the code capture the instance they were created within, and can be
+    // invoked in later evaluations, so captured instances are kept in sync with shell state.
+    if (InteractiveCaptures.hasLambdas(snippetClass) ||
+        InteractiveCaptures.hasLambdas(instanceClass)) {
+      _captures.track(codeInstance, _state);
+      if (instance != codeInstance) {
+        _captures.track(instance, _state);
+      }
+    }
+    _captures.synchronize(_state);
+
     if (snippet.getType() == SnippetType.CodeMembers) {
       // For class members, the result is simply a shim class containing the newly defined
       // members, i.e. not meaningful to return out of the shell.
@@ -339,23 +508,45 @@ public final class InteractiveShell implements Shell {
   }
 
   /**
-   * Process the the results of compiling a compilation unit. This involves two things:
+   * Process the the results of compiling a set of compilation units. This involves two things:
    * - Recording any packages created in the process.
    * - Stashing (or optionally updating) the byte code for types defined, and saving a reference
-   *   to the new class loader created to enable loading those types.
+   *   to the new class loader created to enable loading those types. If type redefinition is
+   *   enabled, and the types only differ in method bodies, the existing types are redefined
+   *   instead.
+   * All the types are defined by a single class loader, so that compilation units compiled
+   * together can reference each other.
    * @param id the ID to use to generate unique names.
-   * @param snippet the compiled snippet.
+   * @param snippets the compiled snippets.
    */
-  private void processCompilationUnit(long id, Snippet snippet) {
-    SnippetCompilation compilation = snippet.getCompilation();
+  private void processCompilationUnits(long id, List<Snippet> snippets) {
+    HashSet<String> packages = new HashSet<String>();
+    HashMap<String, byte[]> compiledTypes = new HashMap<String, byte[]>();
+    for (Snippet snippet : snippets) {
+      SnippetCompilation compilation = snippet.getCompilation();
+
+      packages.addAll(compilation.getPackages());
+      compiledTypes.putAll(compilation.getTypes());
+    }
 
-    for (String packageName : compilation.getPackages()) {
+    addTypes(id, packages, compiledTypes);
+  }
+
+  /**
+   * Adds types declared in the shell, along with the packages containing them, and makes them
+   * available for use in subsequent code.
+   * @param id the ID to use for the class loader created to load the types.
+   * @param packages the set of packages containing the types.
+   * @param compiledTypes the byte code of the types keyed by their names.
+   */
+  void addTypes(long id, Set<String> packages, Map<String, byte[]> compiledTypes) {
+    for (String packageName : packages) {
       _packages.add(packageName);
       addImport(packageName + ".*", /* staticImport */ false);
     }
 
-    HashSet<String> newNames = new HashSet<String>();
-    for (Map.Entry<String, byte[]> typeEntry : compilation.getTypes().entrySet()) {
+    HashMap<String, byte[]> newTypes = new HashMap<String, byte[]>();
+    for (Map.Entry<String, byte[]> typeEntry : compiledTypes.entrySet()) {
       String name = typeEntry.getKey();
       byte[] bytes = typeEntry.getValue();
 
@@ -368,14 +559,30 @@ public final class InteractiveShell implements Shell {
         continue;
       }
 
-      _types.put(name, bytes);
-      newNames.add(name);
+      newTypes.put(name, bytes);
+    }
+
+    if (newTypes.size() == 0) {
+      return;
     }
 
-    if (newNames.size() != 0) {
-      // Create a new class loader parented to the current one for the newly defined classes
-      _classLoader = new ShellClassLoader(_classLoader, id, newNames);
+    _interpreter.invalidate();
+
+    if (_redefineTypes && JavaTypeRedefiner.redefine(_classLoader, _types, newTypes)) {
+      // The existing classes were updated in-place, so existing instances remain valid, and
+      // there is no need for a new class loader.
+      _types.putAll(newTypes);
+      return;
     }
+
+    _types.putAll(newTypes);
+
+    // Create a new class loader parented to the current one for the newly defined classes
+    HashSet<String> newNames = new HashSet<String>(newTypes.keySet());
+    ShellClassLoader classLoader = new ShellClassLoader(_classLoader, id, newNames, _types);
+    _classes.track(classLoader);
+
+    _classLoader = classLoader;
   }
 
   /**
@@ -389,21 +596,228 @@ public final class InteractiveShell implements Shell {
     }
 
     if (data.startsWith("%")) {
+      awaitInitialization();
       return invokeCommand(data, evaluationID, metadata);
     }
 
-    // Parse the data as code into a Snippet object
+    // Parsing doesn't depend on dependencies or extensions, so it can overlap with the remainder
+    // of initialization.
     Snippet snippet = null;
+    if (_initialization != null) {
+      snippet = parseSnippet(data, evaluationID);
+      awaitInitialization();
+    }
+
+    _classes.reset();
+
+    Object interpretedResult = interpretCode(data, evaluationID, metadata);
+    if (interpretedResult != JavaInterpreter.NotInterpreted) {
+      return interpretedResult;
+    }
+
+    if (snippet == null) {
+      snippet = parseSnippet(data, evaluationID);
+    }
+    return evaluateSnippet(snippet, evaluationID, metadata);
+  }
+
+  /**
+   * Evaluates a batch of code, such as all the cells of a notebook, in order. Consecutive
+   * compilation units are compiled together in a single compiler pass, while code depending on
+   * shell state is evaluated in order, after all preceding compilation units have been processed.
+   * Evaluation stops at the first error.
+   *
+   * The results are the same as evaluating each item on its own, in order: compilation units
+   * are only compiled together when none of them references a type declared by a later one, so
+   * that forward references fail, and references to redeclared types resolve to the earlier
+   * declaration, just as they would when evaluated one at a time.
+   * @param data the list of code to evaluate.
+   * @param evaluationID the evaluation sequence number of the first item; subsequent items use
+   *                     successive numbers.
+   * @param metadata the list of metadata dictionaries associated with each item.
+   * @return the list of results of evaluation, one for each item.
+   * @throws Exception if there is an evaluation error.
+   */
+  public List<Object> evaluate(List<String> data, long evaluationID,
+                               List<Map<String, Object>> metadata) throws Exception {
+    if (evaluationID == 0) {
+      evaluationID = (new Date()).getTime();
+    }
+
+    List<Object> results = new ArrayList<Object>();
+
+    List<Snippet> pendingSnippets = new ArrayList<Snippet>();
+    List<Long> pendingIDs = new ArrayList<Long>();
+    Set<String> pendingFileNames = new HashSet<String>();
+    List<Map<String, Object>> pendingMetadata = new ArrayList<Map<String, Object>>();
+
+    for (int i = 0; i < data.size(); i++) {
+      String code = data.get(i);
+      long id = evaluationID + i;
+
+      Snippet snippet = null;
+      if (!code.startsWith("%")) {
+        try {
+          snippet = parseSnippet(code, id);
+        }
+        catch (EvaluationError e) {
+          evaluateCompilationUnits(pendingSnippets, pendingIDs, pendingMetadata);
+          throw e;
+        }
+
+        awaitInitialization();
+
+        if (snippet.getType() == SnippetType.CompilationImports) {
+          // Pending compilation units are processed first, as they are rewritten again if they
+          // end up being evaluated individually, and must not pick up imports that follow them.
+          evaluateCompilationUnits(pendingSnippets, pendingIDs, pendingMetadata);
+          pendingFileNames.clear();
+
+          results.add(evaluateSnippet(snippet, id, metadata.get(i)));
+          continue;
+        }
+        else if (snippet.getType() == SnippetType.CompilationUnit) {
+          String fileName = SnippetCompiler.getFileName(snippet);
+          if (pendingFileNames.contains(fileName)) {
+            // The same type is being redeclared, so process the earlier declaration first.
+            evaluateCompilationUnits(pendingSnippets, pendingIDs, pendingMetadata);
+            pendingFileNames.clear();
+          }
+
+          rewriteSnippet(snippet);
+
+          pendingSnippets.add(snippet);
+          pendingIDs.add(id);
+          pendingFileNames.add(fileName);
+          pendingMetadata.add(metadata.get(i));
+
+          results.add(null);
+          continue;
+        }
+      }
+
+      evaluateCompilationUnits(pendingSnippets, pendingIDs, pendingMetadata);
+      pendingFileNames.clear();
+
+      if (snippet == null) {
+        results.add(evaluate(code, id, metadata.get(i)));
+      }
+      else {
+        _classes.reset();
+
+        Object result = interpretCode(code, id, metadata.get(i));
+        if (result == JavaInterpreter.NotInterpreted) {
+          result = evaluateSnippet(snippet, id, metadata.get(i));
+        }
+        results.add(result);
+      }
+    }
+
+    evaluateCompilationUnits(pendingSnippets, pendingIDs, pendingMetadata);
+    return results;
+  }
+
+  /**
+   * Compiles and processes a set of compilation units together. If compiling the set results
+   * in errors, or any compilation unit references a type declared by a later one, each
+   * compilation unit is instead evaluated individually, in order, so that errors are reported
+   * against the code that caused them, and the results match evaluating them one at a time.
+   * @param snippets the compilation units to evaluate; the list is cleared once processed.
+   * @param ids the evaluation sequence numbers of each compilation unit; the list is cleared
+   *            once processed.
+   * @param metadata the metadata associated with each compilation unit; the list is cleared
+   *                 once processed.
+   * @throws Exception if there is an evaluation error.
+   */
+  private void evaluateCompilationUnits(List<Snippet> snippets, List<Long> ids,
+                                        List<Map<String, Object>> metadata) throws Exception {
+    if (snippets.size() == 0) {
+      return;
+    }
+
     try {
-      SnippetParser parser = new SnippetParser();
-      snippet = parser.parse(data, evaluationID);
+      _classes.reset();
+
+      if (snippets.size() != 1) {
+        SnippetCompiler compiler = new SnippetCompiler(_jars, _packages, _types, _languageLevel);
+        List<SnippetCompilation> compilations = compiler.compile(snippets);
+
+        boolean hasErrors = false;
+        for (SnippetCompilation compilation : compilations) {
+          hasErrors = hasErrors || compilation.hasErrors();
+        }
+
+        if (!hasErrors && InteractiveShell.isOrdered(compilations)) {
+          for (int i = 0; i < snippets.size(); i++) {
+            Snippet snippet = snippets.get(i);
+            snippet.setCompilation(compilations.get(i));
+
+            onSnippetCompiled(snippet);
+          }
+
+          processCompilationUnits(ids.get(0), snippets);
+
+          for (int i = 0; i < snippets.size(); i++) {
+            snippets.get(i).generateMetadata(metadata.get(i));
+            _classes.generateMetadata(_state, metadata.get(i));
+          }
+
+          return;
+        }
+      }
+
+      for (int i = 0; i < snippets.size(); i++) {
+        Snippet snippet = snippets.get(i);
+        if (i != 0) {
+          // Rewrite again, to pick up imports added by processing earlier compilation units.
+          rewriteSnippet(snippet);
+        }
+
+        compileSnippet(snippet);
+        processSnippet(snippet, ids.get(i), metadata.get(i));
+      }
     }
-    catch (SnippetException e) {
-      throw new EvaluationError(e.getMessage(), e);
+    finally {
+      snippets.clear();
+      ids.clear();
+      metadata.clear();
     }
+  }
 
-    onSnippetParsed(snippet);
+  /**
+   * Determines whether a set of compilation units compiled together only reference types
+   * declared by earlier compilation units, or themselves. Types are matched by simple name, so
+   * this errs on the side of reporting a forward reference.
+   * @param compilations the compilation results of each compilation unit, in order.
+   * @return true if there are no references to types declared by later compilation units.
+   */
+  private static boolean isOrdered(List<SnippetCompilation> compilations) {
+    Set<String> laterNames = new HashSet<String>();
+    for (int i = compilations.size() - 1; i >= 0; i--) {
+      SnippetCompilation compilation = compilations.get(i);
+      if (!Collections.disjoint(compilation.getReferences(), laterNames)) {
+        return false;
+      }
+
+      for (String name: compilation.getTypes().keySet()) {
+        String simpleName = name.substring(name.lastIndexOf('.') + 1);
+        laterNames.addAll(Arrays.asList(simpleName.split("\\$")));
+      }
+    }
 
+    return true;
+  }
+
+  /**
+   * Evaluates a parsed snippet.
+   * @param snippet the snippet to evaluate.
+   * @param evaluationID the evaluation sequence number.
+   * @param metadata any metadata associated with the evaluation.
+   * @return the result of evaluation if any.
+   * @throws Exception if there is an evaluation error.
+   */
+  private Object evaluateSnippet(Snippet snippet, long evaluationID,
+                                 Map<String, Object> metadata) throws Exception {
     // If the code was simply a set of imports, theres not much else to do besides
     // just tracking the import references. This allows using normal java syntax for imports.
     if (snippet.getType() == SnippetType.CompilationImports) {
@@ -414,36 +828,77 @@ public final class InteractiveShell implements Shell {
       return null;
     }
 
-    // Rewrite the snippet, so it is always a compilable unit of java code.
+    rewriteSnippet(snippet);
+    compileSnippet(snippet);
+
+    return processSnippet(snippet, evaluationID, metadata);
+  }
+
+  /**
+   * Interprets trivial expressions, such as references to variables, or simple field and method
+   * accesses on them, directly against shell state, skipping compilation altogether.
+   * @param data the code to interpret.
+   * @param evaluationID the evaluation sequence number.
+   * @param metadata any metadata associated with the evaluation.
+   * @return the result of evaluation, or NotInterpreted if the code must be compiled.
+   * @throws Exception if there is an evaluation error.
+   */
+  private Object interpretCode(String data, long evaluationID,
+                               Map<String, Object> metadata) throws Exception {
+    Object result = _interpreter.interpret(data);
+    if (result != JavaInterpreter.NotInterpreted) {
+      Snippet snippet = Snippet.codeExpression(data, "__Class" + evaluationID + "__");
+      result = onSnippetEvaluated(snippet, result);
+
+      snippet.generateMetadata(metadata);
+      _classes.generateMetadata(_state, metadata);
+    }
+
+    return result;
+  }
+
+  /**
+   * Parses the data as code into a Snippet object.
+   * @param data the code to parse.
+   * @param evaluationID the evaluation sequence number used to generate unique names.
+   * @return the parsed snippet.
+   * @throws EvaluationError if the code could not be parsed.
+   */
+  private Snippet parseSnippet(String data, long evaluationID) throws EvaluationError {
+    Snippet snippet = null;
+    try {
+      SnippetParser parser = new SnippetParser(_languageLevel);
+      snippet = parser.parse(data, evaluationID);
+    }
+    catch (SnippetException e) {
+      throw new EvaluationError(e.getMessage(), e);
+    }
+
+    onSnippetParsed(snippet);
+    return snippet;
+  }
+
+  /**
+   * Rewrites the snippet, so it is always a compilable unit of java code.
+   * @param snippet the snippet to rewrite.
+   */
+  private void rewriteSnippet(Snippet snippet) {
     JavaRewriter rewriter = new JavaRewriter(this);
     snippet.setRewrittenCode(rewriter.rewrite(snippet));
 
     onSnippetRewritten(snippet);
+  }
 
-    // Compile the snippet into a set of classes.
-    SnippetCompiler compiler = new SnippetCompiler(_jars, _packages, _types);
+  /**
+   * Compiles a rewritten snippet into a set of classes.
+   * @param snippet the snippet to compile.
+   * @throws EvaluationError if there were compilation errors.
+   */
+  private void compileSnippet(Snippet snippet) throws EvaluationError {
+    SnippetCompiler compiler = new SnippetCompiler(_jars, _packages, _types, _languageLevel);
     SnippetCompilation compilation = compiler.compile(snippet);
 
-    if (!compilation.hasErrors()) {
-      snippet.setCompilation(compilation);
-
-      onSnippetCompiled(snippet);
-
-      // Evaluate the snippet, i.e. execute the code. If the snippet was defining types
-      // then simply track the types declared in the shell instead.
-      Object result = null;
-      if (snippet.getType() == SnippetType.CompilationUnit) {
-        processCompilationUnit(evaluationID, snippet);
-      }
-      else {
-        result = processCode(evaluationID, snippet);
-        result = onSnippetEvaluated(snippet, result);
-      }
-
-      snippet.generateMetadata(metadata);
-      return result;
-    }
-    else {
+    if (compilation.hasErrors()) {
       // Raise an error for compilation errors
       StringBuilder errorBuilder = new StringBuilder();
       for (String error : compilation.getErrors()) {
@@ -453,6 +908,49 @@ public final class InteractiveShell implements Shell {
 
       throw new EvaluationError(errorBuilder.toString());
     }
+
+    snippet.setCompilation(compilation);
+    onSnippetCompiled(snippet);
+  }
+
+  /**
+   * Parses, rewrites and compiles code, without evaluating it, or otherwise changing the
+   * state of the shell.
+   * @param data the code to compile.
+   * @param evaluationID the evaluation sequence number used to generate unique names.
+   * @throws EvaluationError if the code could not be parsed or compiled.
+   */
+  void compileCode(String data, long evaluationID) throws EvaluationError {
+    Snippet snippet = parseSnippet(data, evaluationID);
+    if (snippet.getType() != SnippetType.CompilationImports) {
+      rewriteSnippet(snippet);
+      compileSnippet(snippet);
+    }
+  }
+
+  /**
+   * Evaluates a compiled snippet, i.e. execute the code. If the snippet was defining types
+   * then simply track the types declared in the shell instead.
+   * @param snippet the compiled snippet.
+   * @param metadata any metadata associated with the evaluation.
+   * @return the result of evaluation if any.
+   * @throws Exception if there is an evaluation error.
+   */
+  private Object processSnippet(Snippet snippet, long evaluationID,
+                                Map<String, Object> metadata) throws Exception {
+    Object result = null;
+    if (snippet.getType() == SnippetType.CompilationUnit) {
+      processCompilationUnits(evaluationID, Collections.singletonList(snippet));
+    }
+    else {
+      result = processCode(evaluationID, snippet);
+      result = onSnippetEvaluated(snippet, result);
+    }
+
+    snippet.generateMetadata(metadata);
+    _classes.generateMetadata(_state, metadata);
+
+    return result;
   }
 
   /**
@@ -476,6 +974,54 @@ public final class InteractiveShell implements Shell {
     return _cachedImports;
   }
 
+  /**
+   * Gets the set of types and packages imported (non-statically) for compilations.
+   * @return the set of imported names.
+   */
+  Set<String> getImportNames() {
+    return _imports;
+  }
+
+  /**
+   * Gets the set of types and members imported statically for compilations.
+   * @return the set of statically imported names.
+   */
+  Set<String> getStaticImportNames() {
+    return _staticImports;
+  }
+
+  /**
+   * Gets the set of packages containing types declared in the shell.
+   * @return the set of package names.
+   */
+  Set<String> getPackageNames() {
+    return _packages;
+  }
+
+  /**
+   * Gets the byte code of the types declared in the shell.
+   * @return the byte code of types keyed by their names.
+   */
+  Map<String, byte[]> getTypeByteCode() {
+    return _types;
+  }
+
+  /**
+   * Gets the set of dependencies referenced in the shell.
+   * @return the set of dependencies.
+   */
+  Collection<Dependency> getDependencies() {
+    return _dependencies.values();
+  }
+
+  /**
+   * Gets the class loader used to load types declared in the shell, and their dependencies.
+   * @return the current class loader.
+   */
+  ClassLoader getClassLoader() {
+    return _classLoader;
+  }
+
   /**
    * {@link Shell}
    */
@@ -496,6 +1042,7 @@ public final class InteractiveShell implements Shell {
    */
   @Override
   public Class<?> getType(String name) {
+    waitForInitialization();
     try {
       return _classLoader.loadClass(name);
     }
@@ -533,30 +1080,178 @@ public final class InteractiveShell implements Shell {
    */
   @Override
   public void addDependency(URI uri) throws IllegalArgumentException {
-    String dependencyKey = uri.toString();
-    if (_dependencies.containsKey(dependencyKey)) {
+    addDependencies(Collections.singletonList(uri));
+  }
+
+  /**
+   * {@link Shell}
+   */
+  @Override
+  public void addDependencies(List<URI> uris) throws IllegalArgumentException {
+    waitForInitialization();
+
+    // Validate all the URIs up-front, so that nothing is resolved if any one is invalid.
+    final Map<String, URI> newDependencies = new LinkedHashMap<String, URI>();
+    for (URI uri: uris) {
+      String dependencyKey = uri.toString();
+      if (_dependencies.containsKey(dependencyKey)) {
+        continue;
+      }
+
+      if (!uri.isAbsolute()) {
+        throw new IllegalArgumentException(
+            "The URI used to identify a dependency must be absolute.");
+      }
+
+      if (!_resolvers.containsKey(uri.getScheme())) {
+        throw new IllegalArgumentException("Unknown dependency type '" + uri.getScheme() + "'.");
+      }
+
+      newDependencies.put(dependencyKey, uri);
+    }
+
+    if (newDependencies.size() == 0) {
       return;
     }
 
-    if (!uri.isAbsolute()) {
-      throw new IllegalArgumentException("The URI used to identify a dependency must be absolute.");
+    // Resolution can be expensive, so reuse the results of earlier sessions, as long as the
+    // resolved jars haven't changed since. Remaining dependencies are resolved concurrently.
+    Map<String, List<String>> resolvedJars = new HashMap<String, List<String>>();
+    Map<String, Future<List<String>>> pendingJars =
+        new LinkedHashMap<String, Future<List<String>>>();
+    ResolutionProgress progress = new ResolutionProgress();
+
+    ExecutorService executor = null;
+    try {
+      for (Map.Entry<String, URI> dependencyEntry: newDependencies.entrySet()) {
+        String dependencyKey = dependencyEntry.getKey();
+        final URI uri = dependencyEntry.getValue();
+
+        List<String> jars = _dependencyCache.get(dependencyKey);
+        if (jars != null) {
+          resolvedJars.put(dependencyKey, jars);
+          continue;
+        }
+
+        final DependencyResolver resolver = _resolvers.get(uri.getScheme());
+        if (resolver instanceof AsyncDependencyResolver) {
+          pendingJars.put(dependencyKey,
+                          ((AsyncDependencyResolver)resolver).resolveAsync(uri, progress));
+          continue;
+        }
+
+        // Synchronous resolvers are run on their own threads, so they can overlap as well.
+        final ResolutionProgress resolverProgress = progress;
+        Callable<List<String>> resolution = new Callable<List<String>>() {
+          @Override
+          public List<String> call() throws Exception {
+            List<String> jars = resolver.resolve(uri);
+            resolverProgress.artifactResolved(uri.toString());
+
+            return jars;
+          }
+        };
+
+        if (executor == null) {
+          executor = Executors.newFixedThreadPool(Math.min(newDependencies.size(),
+                                                           InteractiveShell.MAX_RESOLVERS));
+        }
+        pendingJars.put(dependencyKey, executor.submit(resolution));
+      }
+
+      for (Map.Entry<String, Future<List<String>>> pendingEntry: pendingJars.entrySet()) {
+        String dependencyKey = pendingEntry.getKey();
+
+        List<String> jars = awaitResolution(dependencyKey, pendingEntry.getValue(), progress);
+        resolvedJars.put(dependencyKey, jars);
+        _dependencyCache.put(dependencyKey, jars);
+      }
     }
+    finally {
+      // Stop any resolutions still in progress if one of them failed.
+      for (Future<List<String>> pendingResolution: pendingJars.values()) {
+        pendingResolution.cancel(/* mayInterruptIfRunning */ true);
+      }
 
-    DependencyResolver resolver = _resolvers.get(uri.getScheme());
-    if (resolver == null) {
-      throw new IllegalArgumentException("Unknown dependency type '" + uri.getScheme() + "'.");
+      if (executor != null) {
+        executor.shutdownNow();
+      }
+
+      progress.complete();
     }
 
-    Dependency dependency = new Dependency(uri, resolver.resolve(uri));
-    _dependencies.put(dependencyKey, dependency);
+    List<Dependency> dependencies = new ArrayList<Dependency>();
+    for (Map.Entry<String, URI> dependencyEntry: newDependencies.entrySet()) {
+      dependencies.add(new Dependency(dependencyEntry.getValue(),
+                                      resolvedJars.get(dependencyEntry.getKey())));
+    }
 
-    // Add references to all the jars from the dependency so they can be used during compilation.
-    for (String jar: dependency.getJars()) {
-      _jars.add(jar);
+    addResolvedDependencies(dependencies);
+  }
+
+  /**
+   * Adds dependencies whose jars have already been resolved, and makes them available for use in
+   * subsequent code.
+   * @param dependencies the list of dependencies to add; existing dependencies are skipped.
+   */
+  void addResolvedDependencies(List<Dependency> dependencies) {
+    // Add references to all the jars from the dependencies so they can be used during
+    // compilation, skipping jars shared by multiple dependencies, or already referenced.
+    Set<String> newJars = new LinkedHashSet<String>();
+    for (Dependency dependency: dependencies) {
+      String dependencyKey = dependency.getURI().toString();
+      if (_dependencies.containsKey(dependencyKey)) {
+        continue;
+      }
+
+      _dependencies.put(dependencyKey, dependency);
+
+      for (String jar: dependency.getJars()) {
+        if (!_jars.contains(jar)) {
+          newJars.add(jar);
+        }
+      }
     }
+    _jars.addAll(newJars);
+
+    // Chain a single class loader to enable loading types from all the referenced dependencies.
+    // Jars are loaded by shared loaders, so identical jars are only ever loaded once.
+    if (newJars.size() != 0) {
+      _classLoader = _jarClassLoaders.createClassLoader(newJars, _classLoader);
+    }
+    _interpreter.invalidate();
+  }
+
+  /**
+   * Waits for a dependency to be resolved, periodically reporting progress until it is.
+   * @param dependencyKey the key identifying the dependency.
+   * @param resolution the pending resolution.
+   * @param progress the progress of all pending resolutions.
+   * @return the list of jars resulting from the resolution.
+   */
+  private List<String> awaitResolution(String dependencyKey, Future<List<String>> resolution,
+                                       ResolutionProgress progress) {
+    while (true) {
+      try {
+        return resolution.get(InteractiveShell.PROGRESS_INTERVAL, TimeUnit.MILLISECONDS);
+      }
+      catch (TimeoutException e) {
+        progress.report();
+      }
+      catch (ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof RuntimeException) {
+          throw (RuntimeException)cause;
+        }
 
-    // Chain a class loader to enable loading types from the referenced dependency
-    _classLoader = dependency.createClassLoader(_classLoader);
+        throw new IllegalStateException("Unable to resolve dependency '" + dependencyKey + "'.",
+                                        cause);
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("Dependency resolution was interrupted.", e);
+      }
+    }
   }
 
   /**
@@ -574,6 +1269,7 @@ public final class InteractiveShell implements Shell {
     }
 
     _cachedImports = null;
+    _interpreter.invalidate();
   }
 
   /**
@@ -627,22 +1323,88 @@ public final class InteractiveShell implements Shell {
   }
 
 
+  /**
+   * Tracks the progress of a set of dependency resolutions.
+   */
+  private static final class ResolutionProgress implements DependencyProgress {
+
+    private final AtomicInteger _artifacts;
+    private final AtomicLong _bytes;
+
+    private boolean _reported;
+    private int _reportedArtifacts;
+    private long _reportedBytes;
+
+    public ResolutionProgress() {
+      _artifacts = new AtomicInteger();
+      _bytes = new AtomicLong();
+    }
+
+    @Override
+    public void artifactResolved(String artifact) {
+      _artifacts.incrementAndGet();
+    }
+
+    @Override
+    public void bytesRead(long count) {
+      _bytes.addAndGet(count);
+    }
+
+    /**
+     * Writes out the current progress, if there has been any since it was last reported. The
+     * progress is written over the previous report, using a carriage return, so it occupies a
+     * single line of output.
+     */
+    public void report() {
+      int artifacts = _artifacts.get();
+      long bytes = _bytes.get();
+
+      if (!_reported || (artifacts != _reportedArtifacts) || (bytes != _reportedBytes)) {
+        System.out.print(String.format("\rResolving dependencies ... %d artifacts, %d KB",
+                                       artifacts, bytes / 1024));
+        System.out.flush();
+
+        _reported = true;
+        _reportedArtifacts = artifacts;
+        _reportedBytes = bytes;
+      }
+    }
+
+    /**
+     * Completes the line of progress output, if any progress was reported.
+     */
+    public void complete() {
+      if (_reported) {
+        System.out.println();
+      }
+    }
+  }
+
+
   /**
    * A class loader that holds on to classes declared within the shell.
    */
-  private final class ShellClassLoader extends JavaByteCodeLoader {
+  private static final class ShellClassLoader extends JavaByteCodeLoader {
 
-    private final HashSet<String> _names;
+    private final Set<String> _names;
+    private final Map<String, byte[]> _types;
+
+    static {
+      ClassLoader.registerAsParallelCapable();
+    }
 
     /**
      * Initializes an instance of a ShellClassLoader.
      * @param parentClassLoader the parent class loader to chain with.
      * @param id the ID of this class loader.
      * @param names the list of names that should be resolved with this class loader.
+     * @param types the set of byte code buffers for types declared in the shell.
      */
-    public ShellClassLoader(ClassLoader parentClassLoader, long id, HashSet<String> names) {
+    public ShellClassLoader(ClassLoader parentClassLoader, long id, Set<String> names,
+                            Map<String, byte[]> types) {
       super(parentClassLoader, id);
       _names = names;
+      _types = types;
     }
 
     @Override
@@ -659,11 +1421,20 @@ public final class InteractiveShell implements Shell {
   /**
    * A class loader that allows loading classes generated during compilation from code blocks
    * entered into the shell, while that code is being executed.
+   * 
+   * Byte code is released once the corresponding class has been defined, since each name is only
+   * ever defined once, so that a loader kept alive by values in state only retains its classes.
+   * Byte code is retained if defining the class fails, so that a later attempt fails the same way
+   * rather than with a ClassNotFoundException.
    */
-  private final class CodeClassLoader extends JavaByteCodeLoader {
+  private static final class CodeClassLoader extends JavaByteCodeLoader {
 
     private final Map<String, byte[]> _types;
 
+    static {
+      ClassLoader.registerAsParallelCapable();
+    }
+
     /**
      * Initializes an instance of a CodeBlockClassLoader.
      * @param parentClassLoader the parent class loader to chain with.
@@ -673,12 +1444,17 @@ public final class InteractiveShell implements Shell {
     public CodeClassLoader(ClassLoader parentClassLoader, long id,
                            Map<String, byte[]> types) {
       super(parentClassLoader, id);
-      _types = types;
+      _types = new ConcurrentHashMap<String, byte[]>(types);
     }
 
     @Override
     protected byte[] getByteCode(String name) {
       return _types.get(name);
     }
+
+    @Override
+    protected void onClassDefined(String name) {
+      _types.remove(name);
+    }
   }
 }
@@ -72,6 +72,38 @@ public final class InteractiveState {
     return _values.keySet();
   }
 
+  /**
+   * Gets the declared type of a field.
+   * @param name the name of the field to lookup.
+   * @return the type the field was declared with, or null if not found.
+   */
+  public String getFieldType(String name) {
+    for (Map.Entry<String, Set<String>> entry: _fields.entrySet()) {
+      if (entry.getValue().contains(name)) {
+        return entry.getKey();
+      }
+    }
+
+    return null;
+  }
+
+  /**
+   * Gets the set of names of all declared methods.
+   * @return the set of names.
+   */
+  public Set<String> getMethods() {
+    return _methods.keySet();
+  }
+
+  /**
+   * Gets the code of a declared method.
+   * @param name the name of the method to lookup.
+   * @return the code representing the method, or null if not found.
+   */
+  public String getMethod(String name) {
+    return _methods.get(name);
+  }
+
   /**
    * Gets the value of a field.
    * @param name the name of the field to lookup.
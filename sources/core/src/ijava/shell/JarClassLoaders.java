@@ -0,0 +1,272 @@
+// JarClassLoaders.java
+//
+
+package ijava.shell;
+
+import java.io.*;
+import java.net.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import ijava.shell.compiler.*;
+
+/**
+ * Manages the class loaders used to load types from the jars of dependencies referenced in the
+ * shell. Each distinct jar, as identified by its checksum, is loaded by exactly one loader, no
+ * matter how many dependencies (or paths) it is referenced through. Dependencies are loaded via
+ * views over the loaders of their jars.
+ *
+ * Each type is defined by the first registered jar that contains it, even when it is requested
+ * through the loader of another jar, so that types shared by multiple dependencies are only
+ * defined once, and types in one jar can reference types in jars registered later.
+ */
+public final class JarClassLoaders {
+
+  private final ClassLoader _parentClassLoader;
+
+  private final ConcurrentHashMap<String, String> _checksums;
+  private final ConcurrentHashMap<String, JarClassLoader> _loaders;
+  private final CopyOnWriteArrayList<JarClassLoader> _orderedLoaders;
+
+  /**
+   * Initializes an instance of JarClassLoaders.
+   * @param parentClassLoader the class loader that all jar loaders delegate to first.
+   */
+  public JarClassLoaders(ClassLoader parentClassLoader) {
+    _parentClassLoader = parentClassLoader;
+
+    _checksums = new ConcurrentHashMap<String, String>();
+    _loaders = new ConcurrentHashMap<String, JarClassLoader>();
+    _orderedLoaders = new CopyOnWriteArrayList<JarClassLoader>();
+  }
+
+  /**
+   * Creates a class loader to load classes from a set of jars, reusing the loaders of jars
+   * that have been previously loaded.
+   * @param jars the local file paths of the jars.
+   * @param parentClassLoader the parent class loader to parent the new one to.
+   * @return the new chained class loader.
+   */
+  public ClassLoader createClassLoader(Collection<String> jars, ClassLoader parentClassLoader) {
+    Set<JarClassLoader> loaders = new LinkedHashSet<JarClassLoader>();
+    for (String jar: jars) {
+      JarClassLoader loader = getLoader(jar);
+      if (loader != null) {
+        loaders.add(loader);
+      }
+    }
+
+    return new DependencyClassLoader(parentClassLoader, this,
+                                     new ArrayList<JarClassLoader>(loaders));
+  }
+
+  /**
+   * Gets the number of distinct jars that have been loaded.
+   * @return the number of jar loaders.
+   */
+  public int getLoaderCount() {
+    return _orderedLoaders.size();
+  }
+
+  private JarClassLoader getLoader(String jar) {
+    File file = new File(jar);
+    if (!file.isFile()) {
+      return null;
+    }
+
+    String checksum;
+    try {
+      checksum = getChecksum(file);
+    }
+    catch (IOException e) {
+      InteractiveShell.Log.exception(e, "Unable to read jar '%s'.", jar);
+      return null;
+    }
+
+    synchronized (_loaders) {
+      JarClassLoader loader = _loaders.get(checksum);
+      if (loader == null) {
+        URL url;
+        try {
+          url = file.toURI().toURL();
+        }
+        catch (MalformedURLException e) {
+          return null;
+        }
+
+        loader = new JarClassLoader(_parentClassLoader, this, url, JarIndex.getIndex(jar));
+        _loaders.put(checksum, loader);
+        _orderedLoaders.add(loader);
+      }
+      else {
+        InteractiveShell.Log.debug("Reusing the loader of '%s' for '%s'.",
+                                   loader.getURLs()[0], jar);
+      }
+
+      return loader;
+    }
+  }
+
+  private String getChecksum(File file) throws IOException {
+    // Checksums are only computed once for any given version of a jar.
+    String key = file.getPath() + "|" + file.length() + "|" + file.lastModified();
+
+    String checksum = _checksums.get(key);
+    if (checksum == null) {
+      checksum = DependencyCache.computeChecksum(Paths.get(file.getPath()));
+      _checksums.put(key, checksum);
+    }
+
+    return checksum;
+  }
+
+  /**
+   * Loads a class from the first registered jar that contains it.
+   * @param name the name of the class to load.
+   * @return the loaded class.
+   * @throws ClassNotFoundException if none of the jars contain the class.
+   */
+  private Class<?> loadClass(String name) throws ClassNotFoundException {
+    String typeName = name.replace('.', '/');
+    for (JarClassLoader loader: _orderedLoaders) {
+      if (loader.containsType(typeName)) {
+        return loader.defineType(name);
+      }
+    }
+
+    throw new ClassNotFoundException(name);
+  }
+
+
+  /**
+   * A class loader that defines the types contained within a single jar.
+   */
+  private static final class JarClassLoader extends URLClassLoader {
+
+    private final JarClassLoaders _loaders;
+    private final JarIndex _index;
+
+    static {
+      ClassLoader.registerAsParallelCapable();
+    }
+
+    /**
+     * Initializes an instance of a JarClassLoader.
+     * @param parentClassLoader the parent class loader to delegate to first.
+     * @param loaders the set of loaders of all jars.
+     * @param url the URL of the jar.
+     * @param index the index of the jar, if it could be indexed.
+     */
+    public JarClassLoader(ClassLoader parentClassLoader, JarClassLoaders loaders, URL url,
+                          JarIndex index) {
+      super(new URL[] { url }, parentClassLoader);
+      _loaders = loaders;
+      _index = index;
+    }
+
+    /**
+     * Determines whether the jar contains the specified type.
+     * @param typeName the binary name of the type, using '/' as the separator.
+     * @return true if the jar contains the type.
+     */
+    public boolean containsType(String typeName) {
+      if (_index != null) {
+        return _index.containsType(typeName);
+      }
+
+      return findResource(typeName + ".class") != null;
+    }
+
+    /**
+     * Defines a type contained within the jar, if it hasn't already been defined.
+     * @param name the name of the type.
+     * @return the defined class.
+     * @throws ClassNotFoundException if the class could not be defined.
+     */
+    public Class<?> defineType(String name) throws ClassNotFoundException {
+      synchronized (getClassLoadingLock(name)) {
+        Class<?> loadedClass = findLoadedClass(name);
+        if (loadedClass == null) {
+          loadedClass = findClass(name);
+        }
+
+        return loadedClass;
+      }
+    }
+
+    @Override
+    protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+      try {
+        return getParent().loadClass(name);
+      }
+      catch (ClassNotFoundException e) {
+      }
+
+      // Defer to the set of loaders, rather than defining the type directly, so that it is only
+      // ever defined once, and so that types in other jars can be referenced.
+      return _loaders.loadClass(name);
+    }
+  }
+
+
+  /**
+   * A class loader that loads types from the set of jars of a dependency, by delegating to
+   * the loaders of those jars.
+   */
+  private static final class DependencyClassLoader extends ClassLoader {
+
+    private final JarClassLoaders _loaders;
+    private final List<JarClassLoader> _jarLoaders;
+
+    static {
+      ClassLoader.registerAsParallelCapable();
+    }
+
+    /**
+     * Initializes an instance of a DependencyClassLoader.
+     * @param parentClassLoader the parent class loader to chain with.
+     * @param loaders the set of loaders of all jars.
+     * @param jarLoaders the loaders of the jars of the dependency.
+     */
+    public DependencyClassLoader(ClassLoader parentClassLoader, JarClassLoaders loaders,
+                                 List<JarClassLoader> jarLoaders) {
+      super(parentClassLoader);
+      _loaders = loaders;
+      _jarLoaders = jarLoaders;
+    }
+
+    @Override
+    protected Class<?> findClass(String name) throws ClassNotFoundException {
+      String typeName = name.replace('.', '/');
+      for (JarClassLoader loader: _jarLoaders) {
+        if (loader.containsType(typeName)) {
+          return _loaders.loadClass(name);
+        }
+      }
+
+      throw new ClassNotFoundException(name);
+    }
+
+    @Override
+    protected URL findResource(String name) {
+      for (JarClassLoader loader: _jarLoaders) {
+        URL url = loader.findResource(name);
+        if (url != null) {
+          return url;
+        }
+      }
+
+      return null;
+    }
+
+    @Override
+    protected Enumeration<URL> findResources(String name) throws IOException {
+      List<URL> urls = new ArrayList<URL>();
+      for (JarClassLoader loader: _jarLoaders) {
+        urls.addAll(Collections.list(loader.findResources(name)));
+      }
+
+      return Collections.enumeration(urls);
+    }
+  }
+}
@@ -3,15 +3,23 @@
 
 package ijava.shell;
 
-import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * Base class for class loaders that load classes from in-memory byte arrays.
+ * 
+ * Loaders are registered as parallel capable, so class loading is synchronized on a per-class
+ * name lock rather than the loader as a whole. Derived loaders must register themselves as well
+ * for this to take effect.
  */
 public abstract class JavaByteCodeLoader extends ClassLoader {
 
   private final long _id;
-  private final HashMap<String, Class<?>> _loadedClasses;
+  private final ConcurrentHashMap<String, Class<?>> _loadedClasses;
+
+  static {
+    ClassLoader.registerAsParallelCapable();
+  }
 
   /**
    * Initializes an instance of a ByteCodeClassLoader.
@@ -21,7 +29,7 @@ public abstract class JavaByteCodeLoader extends ClassLoader {
   protected JavaByteCodeLoader(ClassLoader parentClassLoader, long id) {
     super(parentClassLoader);
     _id = id;
-    _loadedClasses = new HashMap<String, Class<?>>();
+    _loadedClasses = new ConcurrentHashMap<String, Class<?>>();
   }
 
   public long getId() {
@@ -30,29 +38,39 @@ public abstract class JavaByteCodeLoader extends ClassLoader {
 
   protected abstract byte[] getByteCode(String name);
 
+  /**
+   * Invoked once a class has been defined from the byte code returned by getByteCode, so that
+   * derived loaders can release the byte code.
+   * @param name the name of the class that was defined.
+   */
+  protected void onClassDefined(String name) {
+  }
+
   /**
    * {@link ClassLoader}
    */
   @Override
-  protected synchronized Class<?> loadClass(String name, boolean resolve)
+  protected Class<?> loadClass(String name, boolean resolve)
       throws ClassNotFoundException {
     // This method is overridden even though the docs suggest overriding findClass instead, so
     // that class lookup is satisfied by the most recent class loader, i.e. deepest in the tree
     // of class loaders, rather than use the default of starting at the top.
 
-    Class<?> result = findLoadedClass(name);
-    if (result != null) {
-      return result;
-    }
+    Class<?> result = _loadedClasses.get(name);
+    if (result == null) {
+      synchronized (getClassLoadingLock(name)) {
+        result = findLoadedClass(name);
+        if (result == null) {
+          byte[] bytes = getByteCode(name);
+          if (bytes != null) {
+            result = defineClass(name, bytes, 0, bytes.length);
+            onClassDefined(name);
+          }
+        }
 
-    if (_loadedClasses.containsKey(name)) {
-      result = _loadedClasses.get(name);
-    }
-    else {
-      byte[] bytes = getByteCode(name);
-      if (bytes != null) {
-        result = defineClass(name, bytes, 0, bytes.length);
-        _loadedClasses.put(name, result);
+        if (result != null) {
+          _loadedClasses.put(name, result);
+        }
       }
     }
 
@@ -28,9 +28,12 @@ public final class JavaCommands {
     @Override
     public Object evaluate(Options options, long evaluationID,
                            Map<String, Object> metadata) throws Exception {
+      List<URI> uris = new ArrayList<URI>();
       for (String uri: options.dependencies) {
-        getShell().addDependency(URI.create(uri));
+        uris.add(URI.create(uri));
       }
+
+      getShell().addDependencies(uris);
       return null;
     }
 
@@ -0,0 +1,857 @@
+// JavaInterpreter.java
+//
+
+package ijava.shell;
+
+import java.lang.invoke.*;
+import java.lang.reflect.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Provides a fast path for evaluating trivial expressions, such as variable references, literals,
+ * field reads and simple method invocation chains, directly against shell state without
+ * compiling them.
+ *
+ * Only expressions whose meaning can be determined unambiguously are interpreted. Anything else,
+ * including expressions that would fail to compile, is left to the compiler, so that results and
+ * errors are the same either way.
+ */
+public final class JavaInterpreter {
+
+  /**
+   * The result returned when an expression could not be interpreted.
+   */
+  public final static Object NotInterpreted = new Object();
+
+  private final static Object NullType = new Object();
+  private final static Map<Class<?>, Class<?>> Primitives;
+  private final static Map<Class<?>, Set<Class<?>>> PrimitiveWidenings;
+
+  private final InteractiveShell _shell;
+  private final HashMap<String, Class<?>> _resolvedTypes;
+  private final ClassValue<ConcurrentHashMap<String, MemberHandle>> _members;
+
+  static {
+    HashMap<Class<?>, Class<?>> primitives = new HashMap<Class<?>, Class<?>>();
+    primitives.put(Boolean.class, boolean.class);
+    primitives.put(Byte.class, byte.class);
+    primitives.put(Character.class, char.class);
+    primitives.put(Short.class, short.class);
+    primitives.put(Integer.class, int.class);
+    primitives.put(Long.class, long.class);
+    primitives.put(Float.class, float.class);
+    primitives.put(Double.class, double.class);
+
+    HashMap<Class<?>, Set<Class<?>>> widenings = new HashMap<Class<?>, Set<Class<?>>>();
+    widenings.put(boolean.class, JavaInterpreter.types(boolean.class));
+    widenings.put(byte.class, JavaInterpreter.types(byte.class, short.class, int.class,
+                                                     long.class, float.class, double.class));
+    widenings.put(short.class, JavaInterpreter.types(short.class, int.class, long.class,
+                                                      float.class, double.class));
+    widenings.put(char.class, JavaInterpreter.types(char.class, int.class, long.class,
+                                                     float.class, double.class));
+    widenings.put(int.class, JavaInterpreter.types(int.class, long.class, float.class,
+                                                    double.class));
+    widenings.put(long.class, JavaInterpreter.types(long.class, float.class, double.class));
+    widenings.put(float.class, JavaInterpreter.types(float.class, double.class));
+    widenings.put(double.class, JavaInterpreter.types(double.class));
+
+    Primitives = primitives;
+    PrimitiveWidenings = widenings;
+  }
+
+  /**
+   * Initializes an instance of a JavaInterpreter with the shell whose state is used to evaluate
+   * expressions.
+   * @param shell the shell containing the state to interpret expressions against.
+   */
+  public JavaInterpreter(InteractiveShell shell) {
+    _shell = shell;
+    _resolvedTypes = new HashMap<String, Class<?>>();
+    _members = new ClassValue<ConcurrentHashMap<String, MemberHandle>>() {
+      @Override
+      protected ConcurrentHashMap<String, MemberHandle> computeValue(Class<?> type) {
+        return new ConcurrentHashMap<String, MemberHandle>();
+      }
+    };
+  }
+
+  private static Set<Class<?>> types(Class<?>... types) {
+    return new HashSet<Class<?>>(Arrays.asList(types));
+  }
+
+  /**
+   * Discards any cached type resolution, for example, when imports or types declared in the
+   * shell change.
+   */
+  public void invalidate() {
+    _resolvedTypes.clear();
+  }
+
+  /**
+   * Attempts to interpret the specified code as a trivial expression.
+   * @param code the code to interpret.
+   * @return the value of the expression, or NotInterpreted if the code is not a trivial
+   *         expression, and must be compiled instead.
+   * @throws Exception if the evaluation of the expression raised an exception.
+   */
+  public Object interpret(String code) throws Exception {
+    Parser parser = new Parser(code);
+
+    Term term = parser.parseExpression();
+    if ((term == null) || !parser.atEnd()) {
+      return JavaInterpreter.NotInterpreted;
+    }
+
+    try {
+      // Resolve all types and members up-front, so that evaluation never has to bail out
+      // after some part of the expression has already been evaluated.
+      term.getType();
+
+      return term.getValue();
+    }
+    catch (UninterpretableException e) {
+      return JavaInterpreter.NotInterpreted;
+    }
+  }
+
+  /**
+   * Checks if a value of one static type can be passed in for a parameter of another type, using
+   * widening, boxing and unboxing conversions.
+   * @param type the static type of the value, or NullType for the null literal.
+   * @param parameterType the type of the parameter.
+   * @return true if the value can be passed in.
+   */
+  private static boolean isApplicable(Object type, Class<?> parameterType) {
+    if (type == JavaInterpreter.NullType) {
+      return !parameterType.isPrimitive();
+    }
+
+    Class<?> valueType = (Class<?>)type;
+    if (valueType.isPrimitive()) {
+      if (parameterType.isPrimitive()) {
+        return JavaInterpreter.PrimitiveWidenings.get(valueType).contains(parameterType);
+      }
+
+      return parameterType.isAssignableFrom(JavaInterpreter.box(valueType));
+    }
+
+    if (parameterType.isPrimitive()) {
+      Class<?> primitiveType = JavaInterpreter.Primitives.get(valueType);
+      return (primitiveType != null) &&
+          JavaInterpreter.PrimitiveWidenings.get(primitiveType).contains(parameterType);
+    }
+
+    return parameterType.isAssignableFrom(valueType);
+  }
+
+  private static Class<?> box(Class<?> primitiveType) {
+    for (Map.Entry<Class<?>, Class<?>> entry: JavaInterpreter.Primitives.entrySet()) {
+      if (entry.getValue() == primitiveType) {
+        return entry.getKey();
+      }
+    }
+
+    return primitiveType;
+  }
+
+  /**
+   * Converts a boxed primitive value to the boxed form of a wider primitive parameter type.
+   * @param value the value to convert.
+   * @param parameterType the type of the parameter the value is passed in for.
+   * @return the converted value.
+   */
+  private static Object convert(Object value, Class<?> parameterType) {
+    if (!parameterType.isPrimitive() || (value == null)) {
+      return value;
+    }
+
+    if (value instanceof Character) {
+      value = Integer.valueOf(((Character)value).charValue());
+      if (parameterType == char.class) {
+        return Character.valueOf((char)((Integer)value).intValue());
+      }
+    }
+
+    if (value instanceof Number) {
+      Number number = (Number)value;
+      if (parameterType == long.class) {
+        return number.longValue();
+      }
+      else if (parameterType == float.class) {
+        return number.floatValue();
+      }
+      else if (parameterType == double.class) {
+        return number.doubleValue();
+      }
+      else if (parameterType == int.class) {
+        return number.intValue();
+      }
+      else if (parameterType == short.class) {
+        return number.shortValue();
+      }
+    }
+
+    return value;
+  }
+
+  /**
+   * Gets the type to use as the static type of a value resulting from a field or method. Types
+   * that depend on type parameters are not resolved, and result in null.
+   * @param type the declared type.
+   * @return the resulting class, or null if it cannot be determined.
+   */
+  private static Class<?> getStaticType(Type type) {
+    if (type instanceof Class<?>) {
+      return (Class<?>)type;
+    }
+    else if (type instanceof ParameterizedType) {
+      return (Class<?>)((ParameterizedType)type).getRawType();
+    }
+
+    return null;
+  }
+
+  /**
+   * Resolves the type of a variable declared in the shell.
+   * @param name the name of the variable.
+   * @return the resolved class.
+   * @throws UninterpretableException if the type cannot be resolved unambiguously.
+   */
+  private Class<?> resolveVariableType(String name) throws UninterpretableException {
+    String typeName = _shell.getState().getFieldType(name);
+    if (typeName == null) {
+      throw new UninterpretableException();
+    }
+
+    int typeArgumentsIndex = typeName.indexOf('<');
+    if (typeArgumentsIndex > 0) {
+      typeName = typeName.substring(0, typeArgumentsIndex);
+    }
+    typeName = typeName.trim();
+
+    if (_resolvedTypes.containsKey(typeName)) {
+      Class<?> type = _resolvedTypes.get(typeName);
+      if (type == null) {
+        throw new UninterpretableException();
+      }
+
+      return type;
+    }
+
+    Class<?> type = resolveType(typeName);
+    _resolvedTypes.put(typeName, type);
+
+    if (type == null) {
+      throw new UninterpretableException();
+    }
+    return type;
+  }
+
+  /**
+   * Resolves a type name the way it would be resolved within a compiled snippet, i.e. using the
+   * imports declared in the shell.
+   * @param typeName the name of the type.
+   * @return the resolved class, or null if the name could not be resolved unambiguously.
+   */
+  private Class<?> resolveType(String typeName) {
+    if (typeName.indexOf('[') >= 0) {
+      return null;
+    }
+
+    switch (typeName) {
+      case "boolean": return boolean.class;
+      case "byte": return byte.class;
+      case "char": return char.class;
+      case "short": return short.class;
+      case "int": return int.class;
+      case "long": return long.class;
+      case "float": return float.class;
+      case "double": return double.class;
+      default: break;
+    }
+
+    if (typeName.indexOf('.') >= 0) {
+      return _shell.getType(typeName);
+    }
+
+    // Single type imports take precedence, followed by types declared in the shell (which are
+    // in the same package as the snippet), followed by on-demand imports.
+    Set<String> imports = _shell.getImportNames();
+    for (String importName : imports) {
+      if (importName.endsWith("." + typeName)) {
+        return _shell.getType(importName);
+      }
+    }
+
+    if (_shell.getTypeNames().contains(typeName)) {
+      return _shell.getType(typeName);
+    }
+
+    Class<?> resolvedType = _shell.getType("java.lang." + typeName);
+    for (String importName : imports) {
+      if (importName.endsWith(".*")) {
+        String packageName = importName.substring(0, importName.length() - 1);
+        Class<?> type = _shell.getType(packageName + typeName);
+
+        if (type != null) {
+          if ((resolvedType != null) && (resolvedType != type)) {
+            // Ambiguous reference
+            return null;
+          }
+          resolvedType = type;
+        }
+      }
+    }
+
+    return resolvedType;
+  }
+
+  /**
+   * Resolves a public field or method of a type into a cached method handle.
+   * @param type the static type that declares the member.
+   * @param name the name of the member.
+   * @param argumentTypes the static types of arguments, or null for a field reference.
+   * @return the resolved member.
+   * @throws UninterpretableException if the member cannot be resolved unambiguously.
+   */
+  private MemberHandle resolveMember(Class<?> type, String name, Object[] argumentTypes)
+      throws UninterpretableException {
+    StringBuilder keyBuilder = new StringBuilder(name);
+    if (argumentTypes != null) {
+      keyBuilder.append('(');
+      for (Object argumentType : argumentTypes) {
+        keyBuilder.append(argumentType == JavaInterpreter.NullType ?
+                              "null" : ((Class<?>)argumentType).getName());
+        keyBuilder.append(',');
+      }
+    }
+    String key = keyBuilder.toString();
+
+    ConcurrentHashMap<String, MemberHandle> members = _members.get(type);
+    MemberHandle member = members.get(key);
+    if (member == null) {
+      member = (argumentTypes == null) ? createFieldHandle(type, name) :
+                                         createMethodHandle(type, name, argumentTypes);
+      members.put(key, member);
+    }
+
+    if (member.getHandle() == null) {
+      throw new UninterpretableException();
+    }
+    return member;
+  }
+
+  private MemberHandle createFieldHandle(Class<?> type, String name) {
+    try {
+      Field field = type.getField(name);
+      MethodHandle handle = MethodHandles.publicLookup().unreflectGetter(field);
+
+      return new MemberHandle(handle, Modifier.isStatic(field.getModifiers()), null,
+                              JavaInterpreter.getStaticType(field.getGenericType()));
+    }
+    catch (NoSuchFieldException | IllegalAccessException e) {
+      return new MemberHandle(null, false, null, null);
+    }
+  }
+
+  private MemberHandle createMethodHandle(Class<?> type, String name, Object[] argumentTypes) {
+    List<Method> methods = new ArrayList<Method>(Arrays.asList(type.getMethods()));
+    if (type.isInterface()) {
+      methods.addAll(Arrays.asList(Object.class.getMethods()));
+    }
+
+    // Find the applicable methods, keeping only the one with the most specific return type,
+    // when the same signature is declared multiple times in the type hierarchy.
+    Map<List<Class<?>>, Method> candidates = new HashMap<List<Class<?>>, Method>();
+    for (Method method : methods) {
+      if (!method.getName().equals(name) || method.isBridge() || method.isVarArgs()) {
+        continue;
+      }
+
+      Class<?>[] parameterTypes = method.getParameterTypes();
+      if (parameterTypes.length != argumentTypes.length) {
+        continue;
+      }
+
+      boolean applicable = true;
+      for (int i = 0; i < parameterTypes.length; i++) {
+        if (!JavaInterpreter.isApplicable(argumentTypes[i], parameterTypes[i])) {
+          applicable = false;
+          break;
+        }
+      }
+
+      if (applicable) {
+        List<Class<?>> signature = Arrays.asList(parameterTypes);
+        Method existingMethod = candidates.get(signature);
+        if ((existingMethod == null) ||
+            existingMethod.getReturnType().isAssignableFrom(method.getReturnType())) {
+          candidates.put(signature, method);
+        }
+      }
+    }
+
+    if (candidates.size() != 1) {
+      // Either no method was found, or overload resolution is required, which is left to
+      // the compiler.
+      return new MemberHandle(null, false, null, null);
+    }
+
+    Method method = candidates.values().iterator().next();
+    if (method.getReturnType() == void.class) {
+      return new MemberHandle(null, false, null, null);
+    }
+
+    try {
+      MethodHandle handle = MethodHandles.publicLookup().unreflect(method);
+      return new MemberHandle(handle, Modifier.isStatic(method.getModifiers()),
+                              method.getParameterTypes(),
+                              JavaInterpreter.getStaticType(method.getGenericReturnType()));
+    }
+    catch (IllegalAccessException e) {
+      return new MemberHandle(null, false, null, null);
+    }
+  }
+
+  private static Object invoke(MethodHandle handle, List<Object> arguments) throws Exception {
+    try {
+      return handle.invokeWithArguments(arguments);
+    }
+    catch (Exception | Error e) {
+      throw e;
+    }
+    catch (Throwable t) {
+      throw new UndeclaredThrowableException(t);
+    }
+  }
+
+
+  /**
+   * Thrown when an expression turns out to not be interpretable during evaluation.
+   */
+  @SuppressWarnings("serial")
+  private static final class UninterpretableException extends Exception {
+  }
+
+
+  /**
+   * A resolved field or method, along with the information needed to invoke it.
+   */
+  private static final class MemberHandle {
+
+    private final MethodHandle _handle;
+    private final boolean _static;
+    private final Class<?>[] _parameterTypes;
+    private final Class<?> _type;
+
+    public MemberHandle(MethodHandle handle, boolean isStatic, Class<?>[] parameterTypes,
+                        Class<?> type) {
+      _handle = handle;
+      _static = isStatic;
+      _parameterTypes = parameterTypes;
+      _type = type;
+    }
+
+    public MethodHandle getHandle() {
+      return _handle;
+    }
+
+    public Class<?>[] getParameterTypes() {
+      return _parameterTypes;
+    }
+
+    public Class<?> getType() {
+      return _type;
+    }
+
+    public boolean isStatic() {
+      return _static;
+    }
+  }
+
+
+  /**
+   * A node in an interpreted expression.
+   */
+  private abstract class Term {
+
+    /**
+     * Gets the static type of the expression.
+     * @return the static type, NullType for the null literal, or null if the type is unknown.
+     */
+    public abstract Object getType() throws UninterpretableException;
+
+    /**
+     * Evaluates the expression.
+     * @return the resulting value.
+     */
+    public abstract Object getValue() throws Exception;
+  }
+
+
+  /**
+   * A literal value.
+   */
+  private final class LiteralTerm extends Term {
+
+    private final Object _value;
+    private final Object _type;
+
+    public LiteralTerm(Object value, Object type) {
+      _value = value;
+      _type = type;
+    }
+
+    @Override
+    public Object getType() {
+      return _type;
+    }
+
+    @Override
+    public Object getValue() {
+      return _value;
+    }
+  }
+
+
+  /**
+   * A reference to a variable declared in the shell.
+   */
+  private final class VariableTerm extends Term {
+
+    private final String _name;
+
+    public VariableTerm(String name) {
+      _name = name;
+    }
+
+    @Override
+    public Object getType() throws UninterpretableException {
+      Class<?> type = resolveVariableType(_name);
+
+      // Values that are missing or no longer match the declared type are left to the compiled
+      // path, which knows how to handle stale state.
+      Object value = _shell.getState().getValue(_name);
+      if (value == null) {
+        if (type.isPrimitive()) {
+          throw new UninterpretableException();
+        }
+      }
+      else if (!JavaInterpreter.box(type).isInstance(value)) {
+        throw new UninterpretableException();
+      }
+
+      return type;
+    }
+
+    @Override
+    public Object getValue() {
+      return _shell.getState().getValue(_name);
+    }
+  }
+
+
+  /**
+   * A field read or method invocation on the result of another expression.
+   */
+  private final class MemberTerm extends Term {
+
+    private final Term _target;
+    private final String _name;
+    private final List<Term> _arguments;
+
+    private MemberHandle _member;
+
+    public MemberTerm(Term target, String name, List<Term> arguments) {
+      _target = target;
+      _name = name;
+      _arguments = arguments;
+    }
+
+    private MemberHandle getMember() throws UninterpretableException {
+      if (_member == null) {
+        Object targetType = _target.getType();
+        if (!(targetType instanceof Class<?>) || ((Class<?>)targetType).isPrimitive()) {
+          throw new UninterpretableException();
+        }
+
+        Object[] argumentTypes = null;
+        if (_arguments != null) {
+          argumentTypes = new Object[_arguments.size()];
+          for (int i = 0; i < argumentTypes.length; i++) {
+            argumentTypes[i] = _arguments.get(i).getType();
+            if (argumentTypes[i] == null) {
+              throw new UninterpretableException();
+            }
+          }
+        }
+
+        _member = resolveMember((Class<?>)targetType, _name, argumentTypes);
+      }
+
+      return _member;
+    }
+
+    @Override
+    public Object getType() throws UninterpretableException {
+      return getMember().getType();
+    }
+
+    @Override
+    public Object getValue() throws Exception {
+      MemberHandle member = getMember();
+
+      List<Object> argumentValues = new ArrayList<Object>();
+      Object target = _target.getValue();
+      if (!member.isStatic()) {
+        if (target == null) {
+          throw new NullPointerException();
+        }
+        argumentValues.add(target);
+      }
+
+      if (_arguments != null) {
+        Class<?>[] parameterTypes = member.getParameterTypes();
+        for (int i = 0; i < parameterTypes.length; i++) {
+          argumentValues.add(JavaInterpreter.convert(_arguments.get(i).getValue(),
+                                                     parameterTypes[i]));
+        }
+      }
+
+      return JavaInterpreter.invoke(member.getHandle(), argumentValues);
+    }
+  }
+
+
+  /**
+   * Parses the supported subset of expressions, i.e. literals and variable references, followed
+   * by a chain of field references and method invocations.
+   */
+  private final class Parser {
+
+    private final String _code;
+    private int _position;
+
+    public Parser(String code) {
+      _code = code;
+      _position = 0;
+    }
+
+    public boolean atEnd() {
+      skipWhitespace();
+      return _position == _code.length();
+    }
+
+    private boolean accept(char c) {
+      skipWhitespace();
+      if ((_position < _code.length()) && (_code.charAt(_position) == c)) {
+        _position++;
+        return true;
+      }
+
+      return false;
+    }
+
+    private void skipWhitespace() {
+      while ((_position < _code.length()) && Character.isWhitespace(_code.charAt(_position))) {
+        _position++;
+      }
+    }
+
+    /**
+     * Parses an expression.
+     * @return the parsed expression, or null if the code is not a supported expression.
+     */
+    public Term parseExpression() {
+      Term term = parsePrimary();
+
+      while ((term != null) && accept('.')) {
+        String name = parseIdentifier();
+        if (name == null) {
+          return null;
+        }
+
+        List<Term> arguments = null;
+        if (accept('(')) {
+          arguments = new ArrayList<Term>();
+          if (!accept(')')) {
+            do {
+              Term argument = parseExpression();
+              if (argument == null) {
+                return null;
+              }
+              arguments.add(argument);
+            } while (accept(','));
+
+            if (!accept(')')) {
+              return null;
+            }
+          }
+        }
+
+        term = new MemberTerm(term, name, arguments);
+      }
+
+      return term;
+    }
+
+    private String parseIdentifier() {
+      skipWhitespace();
+
+      int start = _position;
+      if ((_position < _code.length()) &&
+          Character.isJavaIdentifierStart(_code.charAt(_position))) {
+        _position++;
+        while ((_position < _code.length()) &&
+               Character.isJavaIdentifierPart(_code.charAt(_position))) {
+          _position++;
+        }
+      }
+
+      if (start == _position) {
+        return null;
+      }
+      return _code.substring(start, _position);
+    }
+
+    private Term parsePrimary() {
+      skipWhitespace();
+      if (_position == _code.length()) {
+        return null;
+      }
+
+      char c = _code.charAt(_position);
+      if (Character.isDigit(c)) {
+        return parseNumber();
+      }
+      else if ((c == '"') || (c == '\'')) {
+        return parseText(c);
+      }
+
+      String name = parseIdentifier();
+      if (name == null) {
+        return null;
+      }
+
+      switch (name) {
+        case "true": return new LiteralTerm(Boolean.TRUE, boolean.class);
+        case "false": return new LiteralTerm(Boolean.FALSE, boolean.class);
+        case "null": return new LiteralTerm(null, JavaInterpreter.NullType);
+        default: break;
+      }
+
+      if (!_shell.getState().getFields().contains(name)) {
+        // Anything other than a variable, such as type names, methods or keywords.
+        return null;
+      }
+
+      skipWhitespace();
+      if ((_position < _code.length()) && (_code.charAt(_position) == '(')) {
+        return null;
+      }
+
+      return new VariableTerm(name);
+    }
+
+    private Term parseNumber() {
+      int start = _position;
+      while ((_position < _code.length()) && Character.isDigit(_code.charAt(_position))) {
+        _position++;
+      }
+
+      boolean decimal = false;
+      if ((_position < _code.length()) && (_code.charAt(_position) == '.') &&
+          ((_position + 1) < _code.length()) && Character.isDigit(_code.charAt(_position + 1))) {
+        decimal = true;
+        _position++;
+        while ((_position < _code.length()) && Character.isDigit(_code.charAt(_position))) {
+          _position++;
+        }
+      }
+
+      String digits = _code.substring(start, _position);
+      if ((digits.length() > 1) && (digits.charAt(0) == '0') && !decimal) {
+        // Octal literals are left to the compiler.
+        return null;
+      }
+
+      char suffix = (_position < _code.length()) ? _code.charAt(_position) : ' ';
+      if (Character.isJavaIdentifierPart(suffix)) {
+        _position++;
+      }
+
+      try {
+        switch (suffix) {
+          case 'L':
+          case 'l':
+            return decimal ? null : new LiteralTerm(Long.parseLong(digits), long.class);
+          case 'F':
+          case 'f':
+            return new LiteralTerm(Float.parseFloat(digits), float.class);
+          case 'D':
+          case 'd':
+            return new LiteralTerm(Double.parseDouble(digits), double.class);
+          default:
+            if (Character.isJavaIdentifierPart(suffix)) {
+              return null;
+            }
+            if (decimal) {
+              return new LiteralTerm(Double.parseDouble(digits), double.class);
+            }
+            return new LiteralTerm(Integer.parseInt(digits), int.class);
+        }
+      }
+      catch (NumberFormatException e) {
+        return null;
+      }
+    }
+
+    private Term parseText(char quote) {
+      StringBuilder sb = new StringBuilder();
+
+      _position++;
+      while (_position < _code.length()) {
+        char c = _code.charAt(_position++);
+        if (c == quote) {
+          if (quote == '\'') {
+            if (sb.length() != 1) {
+              return null;
+            }
+            return new LiteralTerm(sb.charAt(0), char.class);
+          }
+          return new LiteralTerm(sb.toString(), String.class);
+        }
+        else if ((c == '\n') || (c == '\r')) {
+          return null;
+        }
+        else if (c == '\\') {
+          if (_position == _code.length()) {
+            return null;
+          }
+
+          c = _code.charAt(_position++);
+          switch (c) {
+            case 'n': sb.append('\n'); break;
+            case 't': sb.append('\t'); break;
+            case 'r': sb.append('\r'); break;
+            case 'b': sb.append('\b'); break;
+            case 'f': sb.append('\f'); break;
+            case '\\': sb.append('\\'); break;
+            case '\'': sb.append('\''); break;
+            case '"': sb.append('"'); break;
+            default:
+              // Octal and unicode escapes are left to the compiler.
+              return null;
+          }
+        }
+        else {
+          sb.append(c);
+        }
+      }
+
+      return null;
+    }
+  }
+}
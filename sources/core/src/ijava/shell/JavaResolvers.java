@@ -7,6 +7,7 @@ import java.io.*;
 import java.net.*;
 import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.*;
 import ijava.extensibility.*;
 
 /**
@@ -14,13 +15,40 @@ import ijava.extensibility.*;
  */
 public final class JavaResolvers {
 
+  private final static ExecutorService Executor =
+      Executors.newCachedThreadPool(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+          Thread thread = new Thread(runnable, "ijava-resolver");
+          thread.setDaemon(true);
+
+          return thread;
+        }
+      });
+
   private JavaResolvers() {
   }
 
+  /**
+   * Creates an already completed future for results that are available synchronously.
+   * @param result the result of the future.
+   * @return the completed future.
+   */
+  private static <T> Future<T> createCompletedFuture(T result) {
+    FutureTask<T> future = new FutureTask<T>(new Runnable() {
+      @Override
+      public void run() {
+      }
+    }, result);
+    future.run();
+
+    return future;
+  }
+
   /**
    * Resolves dependencies representing jar files.
    */
-  public static final class FileResolver implements DependencyResolver {
+  public static final class FileResolver implements AsyncDependencyResolver {
 
     /**
      * {@link DependencyResolver}
@@ -45,18 +73,61 @@ public final class JavaResolvers {
 
       return Arrays.asList(file.getPath());
     }
+
+    /**
+     * {@link AsyncDependencyResolver}
+     */
+    @Override
+    public Future<List<String>> resolveAsync(URI uri, DependencyProgress progress)
+        throws IllegalArgumentException {
+      // Resolving a file is cheap enough to simply complete synchronously.
+      List<String> jars = resolve(uri);
+      progress.artifactResolved(jars.get(0));
+
+      return JavaResolvers.createCompletedFuture(jars);
+    }
   }
 
   /**
    * Resolves dependencies representing Maven artifacts.
    */
-  public static final class MavenResolver implements DependencyResolver {
+  public static final class MavenResolver implements AsyncDependencyResolver {
+
+    private final MavenRepository _repository;
+
+    /**
+     * Initializes an instance of a MavenResolver.
+     */
+    public MavenResolver() {
+      _repository = new MavenRepository();
+    }
 
     /**
      * {@link DependencyResolver}
      */
     @Override
     public List<String> resolve(URI uri) throws IllegalArgumentException {
+      return createResolution(uri, null).call();
+    }
+
+    /**
+     * {@link AsyncDependencyResolver}
+     */
+    @Override
+    public Future<List<String>> resolveAsync(URI uri, DependencyProgress progress)
+        throws IllegalArgumentException {
+      return JavaResolvers.Executor.submit(createResolution(uri, progress));
+    }
+
+    /**
+     * Validates a maven artifact reference, and creates the task to resolve it.
+     * @param uri the maven artifact reference.
+     * @param progress the optional listener to notify of progress.
+     * @return the task that performs the resolution.
+     * @throws IllegalArgumentException if the reference is invalid.
+     */
+    private Resolution createResolution(URI uri, DependencyProgress progress)
+        throws IllegalArgumentException {
       String[] pathParts = uri.getPath().split("/");
       if (pathParts.length != 4) {
         throw new IllegalArgumentException("Invalid maven artifact reference. " +
@@ -70,8 +141,37 @@ public final class JavaResolvers {
       String query = uri.getRawQuery();
       boolean transitive = (query == null) || !query.equals("transitive=false");
 
-      MavenRepository repository = new MavenRepository();
-      List<String> jars = repository.resolveArtifact(groupId, artifactId, version, transitive);
+      return new Resolution(_repository, groupId, artifactId, version, transitive, progress);
+    }
+  }
+
+
+  /**
+   * A pending resolution of a maven artifact.
+   */
+  private static final class Resolution implements Callable<List<String>> {
+
+    private final MavenRepository _repository;
+    private final String _groupId;
+    private final String _artifactId;
+    private final String _version;
+    private final boolean _transitive;
+    private final DependencyProgress _progress;
+
+    public Resolution(MavenRepository repository, String groupId, String artifactId,
+                      String version, boolean transitive, DependencyProgress progress) {
+      _repository = repository;
+      _groupId = groupId;
+      _artifactId = artifactId;
+      _version = version;
+      _transitive = transitive;
+      _progress = progress;
+    }
+
+    @Override
+    public List<String> call() throws IllegalArgumentException {
+      List<String> jars = _repository.resolveArtifact(_groupId, _artifactId, _version,
+                                                      _transitive, _progress);
 
       if ((jars == null) || (jars.size() == 0)) {
         throw new IllegalArgumentException("Could not resolve the specified maven artifact.");
@@ -0,0 +1,147 @@
+// JavaTypeRedefiner.java
+//
+
+package ijava.shell;
+
+import java.lang.instrument.*;
+import java.util.*;
+import org.eclipse.jdt.internal.compiler.classfmt.*;
+import org.eclipse.jdt.internal.compiler.env.*;
+
+/**
+ * Redefines types declared in the shell in-place, using java.lang.instrument, when a new
+ * definition of a type only changes method bodies. This allows existing instances of the type
+ * to remain valid and pick up the new behavior.
+ */
+public final class JavaTypeRedefiner {
+
+  private static Instrumentation Instrumentation;
+
+  private JavaTypeRedefiner() {
+  }
+
+  /**
+   * Initializes redefinition support with the instrumentation provided to a java agent.
+   * @param instrumentation the instrumentation services for the current process.
+   */
+  public static void initialize(Instrumentation instrumentation) {
+    JavaTypeRedefiner.Instrumentation = instrumentation;
+  }
+
+  /**
+   * Whether redefinition of types is supported in the current process.
+   * @return true if the process was started with instrumentation that can redefine classes.
+   */
+  public static boolean isSupported() {
+    return (JavaTypeRedefiner.Instrumentation != null) &&
+        JavaTypeRedefiner.Instrumentation.isRedefineClassesSupported();
+  }
+
+  /**
+   * Attempts to redefine a set of types in-place. Either all types are redefined, or none are.
+   * @param classLoader the class loader used to lookup the existing types.
+   * @param existingTypes the byte code of the existing types, keyed by name.
+   * @param types the new byte code of the types to be redefined, keyed by name.
+   * @return true if the types were redefined; false if the types cannot be redefined, for example
+   *         because the change affects the schema of a type rather than just method bodies.
+   */
+  public static boolean redefine(ClassLoader classLoader, Map<String, byte[]> existingTypes,
+                                 Map<String, byte[]> types) {
+    if (!JavaTypeRedefiner.isSupported()) {
+      return false;
+    }
+
+    List<ClassDefinition> definitions = new ArrayList<ClassDefinition>();
+    try {
+      for (Map.Entry<String, byte[]> typeEntry : types.entrySet()) {
+        String name = typeEntry.getKey();
+        byte[] bytes = typeEntry.getValue();
+
+        byte[] existingBytes = existingTypes.get(name);
+        if ((existingBytes == null) || !JavaTypeRedefiner.isCompatible(existingBytes, bytes)) {
+          return false;
+        }
+
+        Class<?> existingClass = classLoader.loadClass(name);
+        if (!(existingClass.getClassLoader() instanceof JavaByteCodeLoader)) {
+          return false;
+        }
+
+        definitions.add(new ClassDefinition(existingClass, bytes));
+      }
+
+      JavaTypeRedefiner.Instrumentation.redefineClasses(
+          definitions.toArray(new ClassDefinition[definitions.size()]));
+      return true;
+    }
+    catch (Exception e) {
+      InteractiveShell.Log.exception(e, "Unable to redefine types %s", types.keySet());
+      return false;
+    }
+    catch (LinkageError e) {
+      InteractiveShell.Log.error("Unable to redefine types %s: %s", types.keySet(), e);
+      return false;
+    }
+  }
+
+  /**
+   * Determines if a new definition of a type only differs from the existing definition in
+   * method bodies, i.e. it does not change the type's hierarchy, modifiers, fields or method
+   * signatures.
+   * @param existingBytes the byte code of the existing type.
+   * @param bytes the byte code of the new type.
+   * @return true if the new definition can be used to redefine the existing type.
+   */
+  private static boolean isCompatible(byte[] existingBytes, byte[] bytes)
+      throws ClassFormatException {
+    ClassFileReader existingReader = new ClassFileReader(existingBytes, null);
+    ClassFileReader reader = new ClassFileReader(bytes, null);
+
+    return (existingReader.getModifiers() == reader.getModifiers()) &&
+        Arrays.equals(existingReader.getSuperclassName(), reader.getSuperclassName()) &&
+        JavaTypeRedefiner.getSchema(existingReader.getInterfaceNames())
+            .equals(JavaTypeRedefiner.getSchema(reader.getInterfaceNames())) &&
+        JavaTypeRedefiner.getSchema(existingReader.getFields())
+            .equals(JavaTypeRedefiner.getSchema(reader.getFields())) &&
+        JavaTypeRedefiner.getSchema(existingReader.getMethods())
+            .equals(JavaTypeRedefiner.getSchema(reader.getMethods()));
+  }
+
+  private static List<String> getSchema(char[][] names) {
+    List<String> schema = new ArrayList<String>();
+    if (names != null) {
+      for (char[] name : names) {
+        schema.add(new String(name));
+      }
+    }
+
+    return schema;
+  }
+
+  private static Set<String> getSchema(IBinaryField[] fields) {
+    Set<String> schema = new HashSet<String>();
+    if (fields != null) {
+      for (IBinaryField field : fields) {
+        schema.add(String.format("%s %s %d %s",
+                                 new String(field.getName()), new String(field.getTypeName()),
+                                 field.getModifiers(), field.getConstant()));
+      }
+    }
+
+    return schema;
+  }
+
+  private static Set<String> getSchema(IBinaryMethod[] methods) {
+    Set<String> schema = new HashSet<String>();
+    if (methods != null) {
+      for (IBinaryMethod method : methods) {
+        schema.add(String.format("%s%s %d",
+                                 new String(method.getSelector()),
+                                 new String(method.getMethodDescriptor()),
+                                 method.getModifiers()));
+      }
+    }
+
+    return schema;
+  }
+}
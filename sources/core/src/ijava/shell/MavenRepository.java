@@ -5,163 +5,1188 @@ package ijava.shell;
 
 import java.io.*;
 import java.nio.file.*;
+import java.security.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.regex.*;
+import javax.xml.parsers.*;
+import org.w3c.dom.*;
+import ijava.extensibility.*;
 
 /**
- * Provides the ability to resolve maven artifacts.
- * 
+ * Provides the ability to resolve maven artifacts. Project files (POMs) are read directly from
+ * a local repository, and the transitive runtime closure of an artifact is computed in-process,
+ * following maven's rules for parent inheritance, properties, dependency management (including
+ * imported BOMs), scopes, exclusions, optional dependencies and nearest-wins conflict resolution.
+ * As with maven, the dependency management of the artifact being resolved also applies to its
+ * transitive dependencies. Files missing in the local repository are fetched using a
+ * MavenTransport, verified against their published checksums, and stored into the local
+ * repository.
+ *
+ * Instances are safe to use from multiple threads, and multiple processes can share the same
+ * local repository.
+ *
+ * Version ranges are resolved to the highest release within them, listed in the repository
+ * metadata of the artifact, or installed in the local repository.
+ *
  * TODO: Support maven repositories other than maven central.
- * TODO: Support resolving maven artifacts without transitive closure.
  */
 public final class MavenRepository {
 
-  private static final String POM_TEMPLATE =
-      "<project xmlns='http://maven.apache.org/POM/4.0.0' " +
-          "xmlns:xsi='http://www.w3.org/2001/XMLSchema-instance' " +
-          "xsi:schemaLocation='http://maven.apache.org/POM/4.0.0 http://maven.apache.org/xsd/maven-4.0.0.xsd'>\n" +
-          "  <modelVersion>4.0.0</modelVersion>\n" +
-          "  <groupId>ijava</groupId>\n" +
-          "  <artifactId>temp</artifactId>\n" +
-          "  <version>1</version>\n" +
-          "  <dependencies>\n" +
-          "    <dependency>\n" +
-          "      <groupId>%s</groupId>\n" +
-          "      <artifactId>%s</artifactId>\n" +
-          "      <version>%s</version>\n" +
-          "    </dependency>\n" +
-          "  </dependencies>\n" +
-          "</project>\n";
+  private static final String MavenCentral = "https://repo1.maven.org/maven2";
+  private static final Pattern PropertyPattern = Pattern.compile("\\$\\{([^}]+)\\}");
+  private static final Pattern RangePattern = Pattern.compile("([\\[(])([^\\])]*)([\\])])");
+  private static final Pattern VersionItemPattern = Pattern.compile("[0-9]+|[^0-9.\\-]+");
+  private static final List<String> Qualifiers =
+      Arrays.asList("alpha", "beta", "milestone", "rc", "snapshot", "", "sp");
+  private static final int MaxParentDepth = 32;
+  private static final String[][] ChecksumAlgorithms = {
+    { "sha1", "SHA-1" },
+    { "md5", "MD5" }
+  };
 
-  private static final String MavenCentral = "central::default::http://repo1.maven.apache.org/maven2";
-  private static final String MavenProject = "/tmp/ijava/maven/pom.xml";
-  private static final String MavenTarget = "org.apache.maven.plugins:maven-dependency-plugin:2.8:resolve";
-  private static final String MavenRepo;
-  private static final String MavenPath;
+  private final Path _localRepository;
+  private final MavenTransport _transport;
+  private final ConcurrentHashMap<String, Model> _models;
+  private final ConcurrentHashMap<String, List<String>> _versions;
 
-  static {
-    MavenRepo = MavenRepository.findMavenRepository();
-    MavenPath = MavenRepository.findMavenExecutable();
+  /**
+   * Initializes an instance of a MavenRepository using the user's local repository, and maven
+   * central as the remote repository.
+   */
+  public MavenRepository() {
+    this(MavenRepository.findMavenRepository(),
+         new MavenTransports.HttpTransport(MavenRepository.MavenCentral));
   }
 
   /**
-   * Creates the pom.xml file required by maven when resolving dependencies.
-   * @param xml the XML content of the project file.
-   * @throws IOException if there was an error creating the project file.
+   * Initializes an instance of a MavenRepository.
+   * @param localRepository the path to the local repository.
+   * @param transport the transport used to fetch files missing in the local repository.
    */
-  private void createProjectFile(String xml) throws IOException {
-    Path projectFile = Paths.get(MavenRepository.MavenProject);
-    Path projectDirectory = projectFile.getParent();
+  public MavenRepository(Path localRepository, MavenTransport transport) {
+    _localRepository = localRepository;
+    _transport = transport;
+    _models = new ConcurrentHashMap<String, Model>();
+    _versions = new ConcurrentHashMap<String, List<String>>();
+  }
+
+  /**
+   * Locates the maven local repository.
+   * @return the path to the local repository.
+   */
+  private static Path findMavenRepository() {
+    String localRepository = System.getProperty("maven.repo.local");
+    if ((localRepository != null) && !localRepository.isEmpty()) {
+      return Paths.get(localRepository);
+    }
 
-    Files.createDirectories(projectDirectory);
-    Files.write(projectFile, xml.getBytes(), StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+    return Paths.get(System.getProperty("user.home"), ".m2", "repository");
   }
 
   /**
-   * Locates the maven executable on the path.
-   * @return the full path to the maven executable.
+   * Resolves the specified artifact, including its dependencies. The approach taken:
+   * - Load the effective project model of each artifact, i.e. with parent models, imported BOMs
+   *   and properties applied.
+   * - Walk the dependency graph breadth-first, so the nearest declaration of an artifact wins,
+   *   skipping test, provided and system scoped, optional and excluded dependencies. The
+   *   dependency management of the root artifact overrides the versions, scopes and exclusions
+   *   of transitive dependencies.
+   * - Resolve the jars of the resulting artifacts in the local repository, fetching them
+   *   if needed.
+   * @param groupId the maven group of the artifact.
+   * @param artifactId the maven id of the artifact.
+   * @param version the version of the artifact.
+   * @param transitive whether to resolve the artifact and its dependencies in addition.
+   * @return the list of jars that are the result of a resolve.
    */
-  private static String findMavenExecutable() {
-    String[] pathList = System.getenv("PATH").split(File.pathSeparator);
+  public List<String> resolveArtifact(String groupId, String artifactId, String version,
+                                      boolean transitive) {
+    return resolveArtifact(groupId, artifactId, version, transitive, null);
+  }
+
+  /**
+   * Resolves the specified artifact, including its dependencies, while reporting progress.
+   * @param groupId the maven group of the artifact.
+   * @param artifactId the maven id of the artifact.
+   * @param version the version of the artifact.
+   * @param transitive whether to resolve the artifact and its dependencies in addition.
+   * @param progress the optional listener to notify as artifacts are resolved and fetched.
+   * @return the list of jars that are the result of a resolve.
+   */
+  public List<String> resolveArtifact(String groupId, String artifactId, String version,
+                                      boolean transitive, DependencyProgress progress) {
+    Artifact root = new Artifact(groupId, artifactId,
+                                 resolveVersion(groupId, artifactId, version));
+
+    List<String> jars = new ArrayList<String>();
+    Set<String> resolvedKeys = new HashSet<String>();
+    Map<String, Artifact> rootManagement = null;
+
+    LinkedList<DependencyNode> pendingNodes = new LinkedList<DependencyNode>();
+    pendingNodes.add(new DependencyNode(root, new HashSet<String>()));
+    resolvedKeys.add(root.getKey());
+
+    while (!pendingNodes.isEmpty()) {
+      DependencyNode node = pendingNodes.removeFirst();
+      Artifact artifact = node.getArtifact();
+
+      String jar = resolveJar(artifact, progress);
+      if (jar != null) {
+        jars.add(jar);
+      }
+
+      if (progress != null) {
+        progress.artifactResolved(artifact.toString());
+      }
+
+      if (!transitive) {
+        continue;
+      }
+
+      Model model = getModel(artifact.getGroupId(), artifact.getArtifactId(),
+                             artifact.getVersion());
+      if (model == null) {
+        // Like maven, treat a missing project file as an artifact without dependencies.
+        InteractiveShell.Log.warn("The POM for %s is missing; no dependency information.",
+                                  artifact);
+        continue;
+      }
+
+      boolean rootNode = (rootManagement == null);
+      if (rootNode) {
+        rootManagement = model.getManagedDependencies();
+      }
+
+      for (Artifact dependency : model.getDependencies().values()) {
+        if (!rootNode) {
+          dependency = dependency.override(rootManagement.get(dependency.getKey()));
+        }
+
+        String scope = dependency.getScope();
+        if (dependency.isOptional() ||
+            !(scope.equals("compile") || scope.equals("runtime"))) {
+          continue;
+        }
+
+        if (node.isExcluded(dependency) || !resolvedKeys.add(dependency.getKey())) {
+          continue;
+        }
+
+        if (dependency.getVersion() == null) {
+          throw new IllegalStateException("Unable to determine the version of " +
+              dependency + ", referenced by " + artifact + ".");
+        }
+
+        dependency = dependency.withVersion(
+            resolveVersion(dependency.getGroupId(), dependency.getArtifactId(),
+                           dependency.getVersion()));
 
-    for (String pathPart : pathList) {
-      Path mavenFilePath = Paths.get(pathPart, "mvn");
+        Set<String> exclusions = new HashSet<String>(node.getExclusions());
+        exclusions.addAll(dependency.getExclusions());
 
-      if (Files.exists(mavenFilePath) && Files.isExecutable(mavenFilePath)) {
-        return mavenFilePath.toString();
+        pendingNodes.add(new DependencyNode(dependency, exclusions));
       }
     }
 
-    return null;
+    return jars;
   }
 
   /**
-   * Locates the maven local repository cache.
-   * @return the full path to the maven executable.
+   * Gets the local path of an artifact's jar, fetching it into the local repository if needed.
+   * @param artifact the artifact to lookup.
+   * @param progress the optional listener to notify of fetched data.
+   * @return the path to the jar, or null if the artifact is not packaged as a jar.
    */
-  private static String findMavenRepository() {
-    Path mavenRepoPath = Paths.get(System.getProperty("user.home"), ".m2", "repository");
+  private String resolveJar(Artifact artifact, DependencyProgress progress) {
+    String extension = artifact.getExtension();
+    if (extension == null) {
+      return null;
+    }
 
-    if (Files.exists(mavenRepoPath) && Files.isDirectory(mavenRepoPath)) {
-      return mavenRepoPath.toString();
+    String path = artifact.getPath(artifact.getClassifier(), extension);
+    Path jarPath = resolveFile(path, progress);
+    if (jarPath == null) {
+      if (artifact.getType().equals("jar") && (artifact.getClassifier() == null)) {
+        // Projects with pom packaging can be referenced as dependencies with the default
+        // type; these have no jar.
+        Model model = getModel(artifact.getGroupId(), artifact.getArtifactId(),
+                               artifact.getVersion());
+        if ((model != null) && model.getPackaging().equals("pom")) {
+          return null;
+        }
+      }
+
+      throw new IllegalStateException("Unable to resolve maven artifact " + artifact + ".");
     }
 
-    return null;
+    return jarPath.toString();
   }
 
   /**
-   * Resolves the specified artifact, including its dependencies. The approach taken:
-   * - Create a stub pom.xml with artifact to resolve listed as a dependency.
-   * - Invoke maven with the dependency:resolve target
-   * - Parse the output for the resulting jars, and resolve their locations in the local maven
-   *   cache.
-   * @param groupId the maven group of the artifact.
-   * @param artifactId the maven id of the artifact.
-   * @param version the version of the artifact.
-   * @param transitive whether to resolve the artifact and its dependencies in addition.
-   * @return the list of jars that are the result of a resolve.
+   * Gets the local path of a file in the repository, fetching it into the local repository
+   * if needed. The file is written to a temporary file first, and then moved into place, so
+   * concurrent resolutions never observe partially written files.
+   * @param path the path of the file relative to the root of the repository.
+   * @param progress the optional listener to notify of fetched data.
+   * @return the local path, or null if the file does not exist.
    */
-  public List<String> resolveArtifact(String groupId, String artifactId, String version,
-                                      boolean transitive) {
-    if (MavenRepository.MavenPath == null) {
-      throw new IllegalStateException("Unable to find maven to resolve maven artifact.");
+  private Path resolveFile(String path, DependencyProgress progress) {
+    Path localPath = _localRepository.resolve(path);
+    if (Files.isRegularFile(localPath)) {
+      return localPath;
     }
 
-    // Create the stub pom.xml
+    if (_transport == null) {
+      return null;
+    }
+
+    Path tempPath = null;
     try {
-      String projectModel = String.format(MavenRepository.POM_TEMPLATE,
-                                          groupId, artifactId, version);
-      createProjectFile(projectModel);
+      Files.createDirectories(localPath.getParent());
+      tempPath = Files.createTempFile(localPath.getParent(),
+                                      localPath.getFileName().toString(), ".part");
+
+      if (!_transport.fetch(path, tempPath, progress)) {
+        return null;
+      }
+      verifyChecksum(path, tempPath);
+
+      try {
+        Files.move(tempPath, localPath, StandardCopyOption.ATOMIC_MOVE);
+      }
+      catch (AtomicMoveNotSupportedException e) {
+        Files.move(tempPath, localPath, StandardCopyOption.REPLACE_EXISTING);
+      }
+      return localPath;
     }
-    catch (Exception e) {
-      throw new IllegalStateException("Unable to create maven project to resolve maven artifact.");
+    catch (FileAlreadyExistsException e) {
+      // Another resolution completed fetching the same file.
+      return localPath;
+    }
+    catch (IOException e) {
+      throw new IllegalStateException("Unable to fetch " + path + " from maven repository.", e);
     }
+    finally {
+      if (tempPath != null) {
+        try {
+          Files.deleteIfExists(tempPath);
+        }
+        catch (IOException e) {
+        }
+      }
+    }
+  }
 
-    List<String> jars = new ArrayList<String>();
-    try {
-      String[] mavenCommand = new String[] {
-        MavenRepository.MavenPath,
-        MavenRepository.MavenTarget,
-        "-DremoteRepositories=" + MavenRepository.MavenCentral,
-        "-DexcludeTransitive=" + !transitive,
-        "-DincludeScope=runtime",
-        "--file", MavenRepository.MavenProject
-      };
-
-      // Run maven, specifically for the dependency:resolve target
-      Process process = Runtime.getRuntime().exec(mavenCommand);
-      BufferedReader processOutputReader =
-          new BufferedReader(new InputStreamReader(process.getInputStream()));
-
-      // Parse the resulting maven spew and resolve jar paths listed for the runtime scope
-      String line;
-      while ((line = processOutputReader.readLine()) != null) {
-        if (!line.startsWith("[INFO]    ") || !line.endsWith(":compile")) {
+  /**
+   * Verifies a fetched file against the checksum published alongside it in the remote
+   * repository, preferring SHA-1 over MD5. Like maven's default checksum policy, a file without
+   * any published checksum is accepted with a warning.
+   * @param path the path of the file relative to the root of the repository.
+   * @param file the local copy of the fetched file.
+   * @throws IOException if there was an error fetching a checksum.
+   */
+  private void verifyChecksum(String path, Path file) throws IOException {
+    for (String[] algorithm : MavenRepository.ChecksumAlgorithms) {
+      Path checksumPath = Files.createTempFile(file.getParent(), file.getFileName().toString(),
+                                               "." + algorithm[0]);
+      try {
+        if (!_transport.fetch(path + "." + algorithm[0], checksumPath, /* progress */ null)) {
           continue;
         }
 
-        String[] lineParts = line.substring(10).split(":");
-        if ((lineParts.length != 5) || !lineParts[2].equals("jar")) {
+        // Checksum files contain the hex digest, optionally followed by the file name.
+        String content = new String(Files.readAllBytes(checksumPath), "UTF-8").trim();
+        String expectedChecksum = content.split("\\s+")[0].toLowerCase();
+        String checksum = MavenRepository.computeChecksum(file, algorithm[1]);
+
+        if (!checksum.equals(expectedChecksum)) {
+          throw new IllegalStateException(String.format(
+              "The %s checksum of %s is %s rather than the published %s.",
+              algorithm[1], path, checksum, expectedChecksum));
+        }
+        return;
+      }
+      finally {
+        Files.deleteIfExists(checksumPath);
+      }
+    }
+
+    InteractiveShell.Log.warn("No checksum is published for %s; it was not verified.", path);
+  }
+
+  private static String computeChecksum(Path file, String algorithm) throws IOException {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance(algorithm);
+    }
+    catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+
+    InputStream stream = Files.newInputStream(file);
+    try {
+      byte[] buffer = new byte[8192];
+      int count;
+      while ((count = stream.read(buffer)) > 0) {
+        digest.update(buffer, 0, count);
+      }
+    }
+    finally {
+      stream.close();
+    }
+
+    StringBuilder sb = new StringBuilder();
+    for (byte b : digest.digest()) {
+      sb.append(String.format("%02x", b));
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Gets the effective model of a project, i.e. with inherited information, properties, and
+   * dependency management applied.
+   * @param groupId the maven group of the project.
+   * @param artifactId the maven id of the project.
+   * @param version the version of the project.
+   * @return the effective model, or null if the project file does not exist.
+   */
+  private Model getModel(String groupId, String artifactId, String version) {
+    return getModel(groupId, artifactId, version, 0);
+  }
+
+  /**
+   * Gets the effective model of a project, imported as a BOM at the specified depth, so that
+   * cyclic imports are reported rather than recursing indefinitely.
+   */
+  private Model getModel(String groupId, String artifactId, String version, int depth) {
+    String key = groupId + ":" + artifactId + ":" + version;
+
+    Model model = _models.get(key);
+    if (model == null) {
+      model = loadInheritedModel(groupId, artifactId, version, 0);
+      if (model == null) {
+        return null;
+      }
+
+      model.interpolate();
+      importDependencyManagement(key, model, depth);
+      model.applyDependencyManagement();
+
+      Model existingModel = _models.putIfAbsent(key, model);
+      if (existingModel != null) {
+        model = existingModel;
+      }
+    }
+
+    return model;
+  }
+
+  /**
+   * Loads the model of a project merged with the models of its parents, without any
+   * interpolation applied yet, since properties are resolved against the merged model.
+   */
+  private Model loadInheritedModel(String groupId, String artifactId, String version, int depth) {
+    if (depth > MavenRepository.MaxParentDepth) {
+      throw new IllegalStateException("The parent hierarchy of " +
+          groupId + ":" + artifactId + ":" + version + " is too deep.");
+    }
+
+    Artifact project = new Artifact(groupId, artifactId, version);
+    Path pomPath = resolveFile(project.getPath(null, "pom"), /* progress */ null);
+    if (pomPath == null) {
+      return null;
+    }
+
+    Model model = Model.read(pomPath);
+
+    Artifact parent = model.getParent();
+    if (parent != null) {
+      String parentVersion = resolveVersion(parent.getGroupId(), parent.getArtifactId(),
+                                            parent.getVersion());
+      Model parentModel = loadInheritedModel(parent.getGroupId(), parent.getArtifactId(),
+                                             parentVersion, depth + 1);
+      if (parentModel == null) {
+        throw new IllegalStateException("Unable to resolve parent " + parent + " of " +
+            project + ".");
+      }
+
+      model.inherit(parentModel);
+    }
+
+    return model;
+  }
+
+  /**
+   * Merges the dependency management of BOMs imported into a model.
+   */
+  private void importDependencyManagement(String key, Model model, int depth) {
+    if (depth > MavenRepository.MaxParentDepth) {
+      throw new IllegalStateException("The BOM imports of " + key + " are too deep, or cyclic.");
+    }
+
+    Map<String, Artifact> managedDependencies = model.getManagedDependencies();
+    for (Artifact managedDependency : new ArrayList<Artifact>(managedDependencies.values())) {
+      if (!"import".equals(managedDependency.getScope()) ||
+          !managedDependency.getType().equals("pom")) {
+        continue;
+      }
+
+      managedDependencies.remove(managedDependency.getKey());
+
+      String bomVersion = resolveVersion(managedDependency.getGroupId(),
+                                         managedDependency.getArtifactId(),
+                                         managedDependency.getVersion());
+      Model bomModel = getModel(managedDependency.getGroupId(), managedDependency.getArtifactId(),
+                                bomVersion, depth + 1);
+      if (bomModel == null) {
+        throw new IllegalStateException("Unable to resolve imported BOM " +
+            managedDependency + ".");
+      }
+
+      // Declarations in the importing model win over those in the imported BOMs.
+      for (Artifact importedDependency : bomModel.getManagedDependencies().values()) {
+        if (!managedDependencies.containsKey(importedDependency.getKey())) {
+          managedDependencies.put(importedDependency.getKey(), importedDependency);
+        }
+      }
+    }
+  }
+
+  /**
+   * Resolves a version specification to a single version. As with maven, a range, such as
+   * "[1.0,2.0)", or a set of ranges, such as "[1.0,1.2),(1.2,2.0]", is resolved to the highest
+   * version within it, other than snapshots, amongst those listed in the repository metadata of
+   * the artifact, and those installed in the local repository.
+   * @param groupId the maven group of the artifact.
+   * @param artifactId the maven id of the artifact.
+   * @param version the version specification.
+   * @return the resolved version.
+   */
+  private String resolveVersion(String groupId, String artifactId, String version) {
+    if ((version == null) || !(version.startsWith("[") || version.startsWith("("))) {
+      return version;
+    }
+
+    List<String[]> ranges = new ArrayList<String[]>();
+    Matcher matcher = MavenRepository.RangePattern.matcher(version);
+    int end = 0;
+    while (matcher.find() && (matcher.start() == end)) {
+      String[] bounds = matcher.group(2).split(",", -1);
+      if (bounds.length == 1) {
+        if (!matcher.group(1).equals("[") || !matcher.group(3).equals("]")) {
+          break;
+        }
+        bounds = new String[] { bounds[0], bounds[0] };
+      }
+      else if (bounds.length != 2) {
+        break;
+      }
+
+      ranges.add(new String[] { matcher.group(1), bounds[0].trim(), bounds[1].trim(),
+                                matcher.group(3) });
+
+      end = matcher.end();
+      if ((end < version.length()) && (version.charAt(end) == ',')) {
+        end++;
+      }
+    }
+    if (ranges.isEmpty() || (end != version.length())) {
+      throw new IllegalStateException("Invalid version range " + version + ".");
+    }
+
+    // An exact version needs no lookup, e.g. when pinned as "[1.0]".
+    String[] firstRange = ranges.get(0);
+    if ((ranges.size() == 1) && firstRange[1].equals(firstRange[2])) {
+      return firstRange[1];
+    }
+
+    String selectedVersion = null;
+    for (String candidateVersion : getVersions(groupId, artifactId)) {
+      if (candidateVersion.endsWith("-SNAPSHOT") ||
+          ((selectedVersion != null) &&
+           (MavenRepository.compareVersions(candidateVersion, selectedVersion) <= 0))) {
+        continue;
+      }
+
+      for (String[] range : ranges) {
+        if (MavenRepository.isInRange(candidateVersion, range)) {
+          selectedVersion = candidateVersion;
+          break;
+        }
+      }
+    }
+
+    if (selectedVersion == null) {
+      throw new IllegalStateException("No version of " + groupId + ":" + artifactId +
+          " within " + version + " is available.");
+    }
+    return selectedVersion;
+  }
+
+  private static boolean isInRange(String version, String[] range) {
+    if (!range[1].isEmpty()) {
+      int comparison = MavenRepository.compareVersions(version, range[1]);
+      if ((comparison < 0) || ((comparison == 0) && range[0].equals("("))) {
+        return false;
+      }
+    }
+    if (!range[2].isEmpty()) {
+      int comparison = MavenRepository.compareVersions(version, range[2]);
+      if ((comparison > 0) || ((comparison == 0) && range[3].equals(")"))) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  /**
+   * Gets the known versions of an artifact, listed in its repository metadata, which is fetched
+   * once per instance rather than stored, since it changes as versions are published, along
+   * with those installed in the local repository.
+   */
+  private List<String> getVersions(String groupId, String artifactId) {
+    String key = groupId + ":" + artifactId;
+
+    List<String> versions = _versions.get(key);
+    if (versions != null) {
+      return versions;
+    }
+
+    Set<String> versionSet = new LinkedHashSet<String>();
+    Path localPath = _localRepository.resolve(groupId.replace('.', '/')).resolve(artifactId);
+
+    if (_transport != null) {
+      String path = groupId.replace('.', '/') + "/" + artifactId + "/maven-metadata.xml";
+      Path tempPath = null;
+      try {
+        Files.createDirectories(localPath);
+        tempPath = Files.createTempFile(localPath, "maven-metadata", ".part");
+
+        if (_transport.fetch(path, tempPath, /* progress */ null)) {
+          verifyChecksum(path, tempPath);
+
+          Element versioningElement =
+              MavenRepository.getElement(MavenRepository.readXml(tempPath), "versioning");
+          Element versionsElement = (versioningElement != null) ?
+              MavenRepository.getElement(versioningElement, "versions") : null;
+          if (versionsElement != null) {
+            for (Element versionElement : MavenRepository.getElements(versionsElement,
+                                                                      "version")) {
+              versionSet.add(versionElement.getTextContent().trim());
+            }
+          }
+        }
+      }
+      catch (IOException e) {
+        throw new IllegalStateException("Unable to fetch " + path + " from maven repository.",
+                                        e);
+      }
+      finally {
+        if (tempPath != null) {
+          try {
+            Files.deleteIfExists(tempPath);
+          }
+          catch (IOException e) {
+          }
+        }
+      }
+    }
+
+    File[] versionDirectories = localPath.toFile().listFiles();
+    if (versionDirectories != null) {
+      for (File versionDirectory : versionDirectories) {
+        String version = versionDirectory.getName();
+        if (new File(versionDirectory, artifactId + "-" + version + ".pom").isFile()) {
+          versionSet.add(version);
+        }
+      }
+    }
+
+    versions = new ArrayList<String>(versionSet);
+    List<String> existingVersions = _versions.putIfAbsent(key, versions);
+    return (existingVersions != null) ? existingVersions : versions;
+  }
+
+  /**
+   * Compares two versions, following maven's ordering: versions are split into numeric and
+   * qualifier items, numbers are compared numerically, known qualifiers are ordered as
+   * alpha < beta < milestone < rc < snapshot < release < sp, and are lower than numbers.
+   */
+  private static int compareVersions(String version1, String version2) {
+    List<Object> items1 = MavenRepository.getVersionItems(version1);
+    List<Object> items2 = MavenRepository.getVersionItems(version2);
+
+    for (int i = 0; i < Math.max(items1.size(), items2.size()); i++) {
+      Object item1 = (i < items1.size()) ? items1.get(i) : null;
+      Object item2 = (i < items2.size()) ? items2.get(i) : null;
+
+      // Missing items are equivalent to 0, or to a release when compared to a qualifier.
+      if (item1 == null) {
+        item1 = (item2 instanceof Long) ? (Object)0L : "";
+      }
+      if (item2 == null) {
+        item2 = (item1 instanceof Long) ? (Object)0L : "";
+      }
+
+      int comparison;
+      if ((item1 instanceof Long) && (item2 instanceof Long)) {
+        comparison = ((Long)item1).compareTo((Long)item2);
+      }
+      else if (item1 instanceof Long) {
+        comparison = 1;
+      }
+      else if (item2 instanceof Long) {
+        comparison = -1;
+      }
+      else {
+        comparison = MavenRepository.compareQualifiers((String)item1, (String)item2);
+      }
+
+      if (comparison != 0) {
+        return comparison;
+      }
+    }
+
+    return 0;
+  }
+
+  private static int compareQualifiers(String qualifier1, String qualifier2) {
+    int index1 = MavenRepository.Qualifiers.indexOf(qualifier1);
+    int index2 = MavenRepository.Qualifiers.indexOf(qualifier2);
+
+    // Unknown qualifiers follow known ones, and are ordered lexically.
+    if (index1 < 0) {
+      index1 = MavenRepository.Qualifiers.size();
+    }
+    if (index2 < 0) {
+      index2 = MavenRepository.Qualifiers.size();
+    }
+
+    return (index1 != index2) ? (index1 - index2) : qualifier1.compareTo(qualifier2);
+  }
+
+  private static List<Object> getVersionItems(String version) {
+    List<Object> items = new ArrayList<Object>();
+
+    Matcher matcher = MavenRepository.VersionItemPattern.matcher(version.toLowerCase());
+    while (matcher.find()) {
+      String item = matcher.group();
+      if (Character.isDigit(item.charAt(0))) {
+        try {
+          items.add(Long.parseLong(item));
           continue;
         }
+        catch (NumberFormatException e) {
+          // Too large to be a meaningful number; compared as a qualifier instead.
+        }
+      }
 
-        String resolvedGroupId = lineParts[0];
-        String resolvedArtifactId = lineParts[1];
-        String resolvedVersion = lineParts[3];
+      switch (item) {
+        case "a":
+          item = "alpha";
+          break;
+        case "b":
+          item = "beta";
+          break;
+        case "m":
+          item = "milestone";
+          break;
+        case "cr":
+          item = "rc";
+          break;
+        case "ga":
+        case "final":
+        case "release":
+          item = "";
+          break;
+      }
+      items.add(item);
+    }
 
-        Path jarPath = Paths.get(MavenRepository.MavenRepo,
-                                 resolvedGroupId.replace('.', File.separatorChar),
-                                 resolvedArtifactId,
-                                 resolvedVersion,
-                                 resolvedArtifactId + "-" + resolvedVersion + ".jar");
-        jars.add(jarPath.toString());
+    return items;
+  }
+
+
+  /**
+   * A reference to an artifact, as declared in a project file.
+   */
+  private static final class Artifact {
+
+    private String _groupId;
+    private String _artifactId;
+    private String _version;
+    private String _type;
+    private String _classifier;
+    private String _scope;
+    private String _optional;
+    private final Set<String> _exclusions;
+
+    public Artifact(String groupId, String artifactId, String version) {
+      _groupId = groupId;
+      _artifactId = artifactId;
+      _version = version;
+      _type = "jar";
+      _exclusions = new HashSet<String>();
+    }
+
+    public String getArtifactId() {
+      return _artifactId;
+    }
+
+    public String getClassifier() {
+      return _classifier;
+    }
+
+    public Set<String> getExclusions() {
+      return _exclusions;
+    }
+
+    /**
+     * Gets the file extension associated with the artifact type.
+     * @return the extension, or null if the artifact type is not represented by a jar.
+     */
+    public String getExtension() {
+      switch (_type) {
+        case "jar":
+        case "bundle":
+        case "ejb":
+        case "maven-plugin":
+        case "test-jar":
+          return "jar";
+        default:
+          return null;
       }
+    }
+
+    public String getGroupId() {
+      return _groupId;
+    }
+
+    /**
+     * Gets the key identifying the artifact, independent of version, used for dependency
+     * management and conflict resolution.
+     * @return the key associated with the artifact.
+     */
+    public String getKey() {
+      return _groupId + ":" + _artifactId + ":" + _type +
+          ((_classifier != null) ? ":" + _classifier : "");
+    }
+
+    public String getPath(String classifier, String extension) {
+      return _groupId.replace('.', '/') + "/" + _artifactId + "/" + _version + "/" +
+          _artifactId + "-" + _version + ((classifier != null) ? "-" + classifier : "") +
+          "." + extension;
+    }
 
-      processOutputReader.close();
+    public String getScope() {
+      return _scope;
+    }
+
+    public String getType() {
+      return _type;
+    }
+
+    public String getVersion() {
+      return _version;
+    }
+
+    public boolean isOptional() {
+      return "true".equals(_optional);
+    }
+
+    /**
+     * Fills in any information not explicitly declared from a managed declaration.
+     * @param managedArtifact the managed declaration, if any.
+     */
+    public void applyManagement(Artifact managedArtifact) {
+      if (managedArtifact != null) {
+        if (_version == null) {
+          _version = managedArtifact.getVersion();
+        }
+        if (_scope == null) {
+          _scope = managedArtifact.getScope();
+        }
+        if (_exclusions.isEmpty()) {
+          _exclusions.addAll(managedArtifact.getExclusions());
+        }
+      }
+
+      if (_scope == null) {
+        _scope = "compile";
+      }
+    }
+
+    /**
+     * Creates a copy of the artifact, with the version, scope and exclusions of a managed
+     * declaration applied over any declared ones, as is done for transitive dependencies using
+     * the dependency management of the artifact being resolved.
+     * @param managedArtifact the managed declaration, if any.
+     * @return the resulting artifact.
+     */
+    public Artifact override(Artifact managedArtifact) {
+      if (managedArtifact == null) {
+        return this;
+      }
+
+      Artifact artifact = new Artifact(_groupId, _artifactId, _version);
+      artifact._type = _type;
+      artifact._classifier = _classifier;
+      artifact._scope = _scope;
+      artifact._optional = _optional;
+      artifact._exclusions.addAll(_exclusions);
+
+      if (managedArtifact.getVersion() != null) {
+        artifact._version = managedArtifact.getVersion();
+      }
+      if (managedArtifact.getScope() != null) {
+        artifact._scope = managedArtifact.getScope();
+      }
+      artifact._exclusions.addAll(managedArtifact.getExclusions());
+
+      return artifact;
+    }
+
+    /**
+     * Creates a copy of the artifact with the specified version, such as the version that a
+     * declared version range resolves to.
+     * @param version the version of the copy.
+     * @return the resulting artifact.
+     */
+    public Artifact withVersion(String version) {
+      if ((version == null) || version.equals(_version)) {
+        return this;
+      }
+
+      Artifact artifact = new Artifact(_groupId, _artifactId, version);
+      artifact._type = _type;
+      artifact._classifier = _classifier;
+      artifact._scope = _scope;
+      artifact._optional = _optional;
+      artifact._exclusions.addAll(_exclusions);
+
+      return artifact;
+    }
+
+    public void interpolate(Map<String, String> properties) {
+      _groupId = MavenRepository.interpolate(_groupId, properties);
+      _artifactId = MavenRepository.interpolate(_artifactId, properties);
+      _version = MavenRepository.interpolate(_version, properties);
+      _type = MavenRepository.interpolate(_type, properties);
+      _classifier = MavenRepository.interpolate(_classifier, properties);
+      _scope = MavenRepository.interpolate(_scope, properties);
+      _optional = MavenRepository.interpolate(_optional, properties);
+
+      if (_type.equals("test-jar")) {
+        _classifier = "tests";
+      }
+    }
+
+    public static Artifact read(Element element) {
+      Artifact artifact = new Artifact(MavenRepository.getText(element, "groupId"),
+                                       MavenRepository.getText(element, "artifactId"),
+                                       MavenRepository.getText(element, "version"));
+
+      String type = MavenRepository.getText(element, "type");
+      if (type != null) {
+        artifact._type = type;
+      }
+      artifact._classifier = MavenRepository.getText(element, "classifier");
+      artifact._scope = MavenRepository.getText(element, "scope");
+      artifact._optional = MavenRepository.getText(element, "optional");
+
+      Element exclusionsElement = MavenRepository.getElement(element, "exclusions");
+      if (exclusionsElement != null) {
+        for (Element exclusionElement : MavenRepository.getElements(exclusionsElement,
+                                                                    "exclusion")) {
+          artifact._exclusions.add(MavenRepository.getText(exclusionElement, "groupId") + ":" +
+                                   MavenRepository.getText(exclusionElement, "artifactId"));
+        }
+      }
+
+      return artifact;
+    }
+
+    @Override
+    public String toString() {
+      return _groupId + ":" + _artifactId + ":" + _version;
+    }
+  }
+
+
+  /**
+   * The information about a project relevant to dependency resolution.
+   */
+  private static final class Model {
+
+    private String _groupId;
+    private String _artifactId;
+    private String _version;
+    private String _packaging;
+    private Artifact _parent;
+
+    private final Map<String, String> _properties;
+    private final Map<String, Artifact> _managedDependencies;
+    private final Map<String, Artifact> _dependencies;
+
+    private Model() {
+      _properties = new HashMap<String, String>();
+      _managedDependencies = new LinkedHashMap<String, Artifact>();
+      _dependencies = new LinkedHashMap<String, Artifact>();
+    }
+
+    public Map<String, Artifact> getDependencies() {
+      return _dependencies;
+    }
+
+    public Map<String, Artifact> getManagedDependencies() {
+      return _managedDependencies;
+    }
+
+    public String getPackaging() {
+      return (_packaging != null) ? _packaging : "jar";
+    }
+
+    public Artifact getParent() {
+      return _parent;
+    }
+
+    public void applyDependencyManagement() {
+      for (Artifact dependency : _dependencies.values()) {
+        dependency.applyManagement(_managedDependencies.get(dependency.getKey()));
+      }
+    }
+
+    /**
+     * Merges inherited information from the parent model, with declarations in this model taking
+     * precedence.
+     * @param parentModel the merged model of the parent project.
+     */
+    public void inherit(Model parentModel) {
+      if (_groupId == null) {
+        _groupId = _parent.getGroupId();
+      }
+      if (_version == null) {
+        _version = _parent.getVersion();
+      }
+
+      for (Map.Entry<String, String> entry : parentModel._properties.entrySet()) {
+        if (!_properties.containsKey(entry.getKey())) {
+          _properties.put(entry.getKey(), entry.getValue());
+        }
+      }
+
+      MavenRepository.inherit(_managedDependencies, parentModel._managedDependencies);
+      MavenRepository.inherit(_dependencies, parentModel._dependencies);
+    }
+
+    /**
+     * Resolves property references within the model.
+     */
+    public void interpolate() {
+      Map<String, String> properties = new HashMap<String, String>(_properties);
+      for (String prefix : new String[] { "project.", "pom.", "" }) {
+        properties.put(prefix + "groupId", _groupId);
+        properties.put(prefix + "artifactId", _artifactId);
+        properties.put(prefix + "version", _version);
+      }
+      if (_parent != null) {
+        properties.put("project.parent.groupId", _parent.getGroupId());
+        properties.put("project.parent.version", _parent.getVersion());
+        properties.put("parent.version", _parent.getVersion());
+      }
+
+      _groupId = MavenRepository.interpolate(_groupId, properties);
+      _version = MavenRepository.interpolate(_version, properties);
+
+      MavenRepository.interpolate(_managedDependencies, properties);
+      MavenRepository.interpolate(_dependencies, properties);
+    }
+
+    public static Model read(Path pomPath) {
+      Element projectElement = MavenRepository.readXml(pomPath);
+
+      Model model = new Model();
+      model._groupId = MavenRepository.getText(projectElement, "groupId");
+      model._artifactId = MavenRepository.getText(projectElement, "artifactId");
+      model._version = MavenRepository.getText(projectElement, "version");
+      model._packaging = MavenRepository.getText(projectElement, "packaging");
+
+      Element parentElement = MavenRepository.getElement(projectElement, "parent");
+      if (parentElement != null) {
+        model._parent = Artifact.read(parentElement);
+      }
+
+      Element propertiesElement = MavenRepository.getElement(projectElement, "properties");
+      if (propertiesElement != null) {
+        for (Element propertyElement : MavenRepository.getElements(propertiesElement, null)) {
+          model._properties.put(propertyElement.getTagName(),
+                                propertyElement.getTextContent().trim());
+        }
+      }
+
+      Element managementElement =
+          MavenRepository.getElement(projectElement, "dependencyManagement");
+      if (managementElement != null) {
+        MavenRepository.readDependencies(managementElement, model._managedDependencies);
+      }
+      MavenRepository.readDependencies(projectElement, model._dependencies);
+
+      return model;
+    }
+
+    @Override
+    public String toString() {
+      return _groupId + ":" + _artifactId + ":" + _version;
+    }
+  }
+
+
+  /**
+   * A node in the dependency graph being resolved.
+   */
+  private static final class DependencyNode {
+
+    private final Artifact _artifact;
+    private final Set<String> _exclusions;
+
+    public DependencyNode(Artifact artifact, Set<String> exclusions) {
+      _artifact = artifact;
+      _exclusions = exclusions;
+    }
+
+    public Artifact getArtifact() {
+      return _artifact;
+    }
+
+    public Set<String> getExclusions() {
+      return _exclusions;
+    }
+
+    public boolean isExcluded(Artifact artifact) {
+      String groupId = artifact.getGroupId();
+      String artifactId = artifact.getArtifactId();
+
+      return _exclusions.contains(groupId + ":" + artifactId) ||
+          _exclusions.contains(groupId + ":*") ||
+          _exclusions.contains("*:" + artifactId) ||
+          _exclusions.contains("*:*");
+    }
+  }
+
+
+  private static void inherit(Map<String, Artifact> artifacts,
+                              Map<String, Artifact> parentArtifacts) {
+    // Like maven, declarations in the child come first, followed by inherited declarations
+    // that the child does not override.
+    for (Map.Entry<String, Artifact> entry : parentArtifacts.entrySet()) {
+      if (!artifacts.containsKey(entry.getKey())) {
+        artifacts.put(entry.getKey(), entry.getValue());
+      }
+    }
+  }
+
+  private static String interpolate(String value, Map<String, String> properties) {
+    if ((value == null) || (value.indexOf("${") < 0)) {
+      return value;
+    }
+
+    // Properties can reference other properties, so keep going until nothing changes, bounded
+    // to protect against cyclic references.
+    for (int i = 0; i < 10; i++) {
+      Matcher matcher = MavenRepository.PropertyPattern.matcher(value);
+      StringBuffer sb = new StringBuffer();
+
+      boolean replaced = false;
+      while (matcher.find()) {
+        String propertyValue = properties.get(matcher.group(1));
+        if (propertyValue == null) {
+          propertyValue = System.getProperty(matcher.group(1));
+        }
+
+        if (propertyValue != null) {
+          replaced = true;
+          matcher.appendReplacement(sb, Matcher.quoteReplacement(propertyValue));
+        }
+        else {
+          matcher.appendReplacement(sb, Matcher.quoteReplacement(matcher.group()));
+        }
+      }
+      matcher.appendTail(sb);
+
+      value = sb.toString();
+      if (!replaced) {
+        break;
+      }
+    }
+
+    return value;
+  }
+
+  private static void interpolate(Map<String, Artifact> artifacts,
+                                  Map<String, String> properties) {
+    List<Artifact> interpolatedArtifacts = new ArrayList<Artifact>(artifacts.values());
+
+    // Keys may change once properties are resolved.
+    artifacts.clear();
+    for (Artifact artifact : interpolatedArtifacts) {
+      artifact.interpolate(properties);
+      artifacts.put(artifact.getKey(), artifact);
+    }
+  }
+
+  private static void readDependencies(Element element, Map<String, Artifact> artifacts) {
+    Element dependenciesElement = MavenRepository.getElement(element, "dependencies");
+    if (dependenciesElement != null) {
+      for (Element dependencyElement : MavenRepository.getElements(dependenciesElement,
+                                                                   "dependency")) {
+        Artifact artifact = Artifact.read(dependencyElement);
+        artifacts.put(artifact.getKey(), artifact);
+      }
+    }
+  }
+
+  private static Element readXml(Path path) {
+    try {
+      DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+      factory.setExpandEntityReferences(false);
+      factory.setFeature("http://apache.org/xml/features/nonvalidating/load-external-dtd",
+                         false);
+
+      return factory.newDocumentBuilder().parse(path.toFile()).getDocumentElement();
     }
     catch (Exception e) {
-      throw new IllegalStateException("Unable to find maven to resolve maven artifacts.");
+      throw new IllegalStateException("Unable to read maven file " + path + ".", e);
     }
+  }
 
-    return jars;
+  private static Element getElement(Element element, String name) {
+    List<Element> elements = MavenRepository.getElements(element, name);
+    return elements.isEmpty() ? null : elements.get(0);
+  }
+
+  private static List<Element> getElements(Element element, String name) {
+    List<Element> elements = new ArrayList<Element>();
+
+    NodeList childNodes = element.getChildNodes();
+    for (int i = 0; i < childNodes.getLength(); i++) {
+      Node childNode = childNodes.item(i);
+      if ((childNode instanceof Element) &&
+          ((name == null) || name.equals(((Element)childNode).getTagName()))) {
+        elements.add((Element)childNode);
+      }
+    }
+
+    return elements;
+  }
+
+  private static String getText(Element element, String name) {
+    Element childElement = MavenRepository.getElement(element, name);
+    if (childElement == null) {
+      return null;
+    }
+
+    return childElement.getTextContent().trim();
   }
 }
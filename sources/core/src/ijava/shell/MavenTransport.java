@@ -0,0 +1,25 @@
+// MavenTransport.java
+//
+
+package ijava.shell;
+
+import java.io.*;
+import java.nio.file.*;
+import ijava.extensibility.*;
+
+/**
+ * Fetches files from a remote maven repository, so they can be stored in the local repository.
+ */
+public interface MavenTransport {
+
+  /**
+   * Fetches a file from the remote repository.
+   * @param path the path of the file, relative to the root of the repository, for example
+   *             "group/artifact/version/artifact-version.pom".
+   * @param target the local file to write the content into.
+   * @param progress the optional listener to notify of data as it is read.
+   * @return true if the file was fetched; false if the remote repository does not contain it.
+   * @throws IOException if there was an error fetching the file.
+   */
+  boolean fetch(String path, Path target, DependencyProgress progress) throws IOException;
+}
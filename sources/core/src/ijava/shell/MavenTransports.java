@@ -0,0 +1,134 @@
+// MavenTransports.java
+//
+
+package ijava.shell;
+
+import java.io.*;
+import java.net.*;
+import java.nio.file.*;
+import ijava.extensibility.*;
+
+/**
+ * Standard transports used to fetch files from remote maven repositories.
+ */
+public final class MavenTransports {
+
+  private final static int BUFFER_SIZE = 8192;
+
+  private MavenTransports() {
+  }
+
+  /**
+   * Copies a stream into a file, notifying a progress listener as data is read.
+   * @param stream the stream to read from.
+   * @param target the file to write into.
+   * @param progress the optional listener to notify of data as it is read.
+   * @throws IOException if there was an error copying the data.
+   */
+  private static void copy(InputStream stream, Path target, DependencyProgress progress)
+      throws IOException {
+    OutputStream outputStream = Files.newOutputStream(target);
+    try {
+      byte[] buffer = new byte[MavenTransports.BUFFER_SIZE];
+      int count;
+      while ((count = stream.read(buffer)) > 0) {
+        outputStream.write(buffer, 0, count);
+        if (progress != null) {
+          progress.bytesRead(count);
+        }
+      }
+    }
+    finally {
+      outputStream.close();
+    }
+  }
+
+  /**
+   * Fetches files from a repository served over HTTP, such as maven central.
+   */
+  public static final class HttpTransport implements MavenTransport {
+
+    private final static int TIMEOUT = 30 * 1000;
+
+    private final String _url;
+
+    /**
+     * Initializes an instance of an HttpTransport.
+     * @param url the base URL of the remote repository.
+     */
+    public HttpTransport(String url) {
+      _url = url.endsWith("/") ? url : url + "/";
+    }
+
+    /**
+     * {@link MavenTransport}
+     */
+    @Override
+    public boolean fetch(String path, Path target, DependencyProgress progress)
+        throws IOException {
+      HttpURLConnection connection = (HttpURLConnection)new URL(_url + path).openConnection();
+      connection.setConnectTimeout(HttpTransport.TIMEOUT);
+      connection.setReadTimeout(HttpTransport.TIMEOUT);
+
+      try {
+        int status = connection.getResponseCode();
+        if (status == HttpURLConnection.HTTP_NOT_FOUND) {
+          return false;
+        }
+        else if (status != HttpURLConnection.HTTP_OK) {
+          throw new IOException(String.format("Unable to fetch %s%s (HTTP %d).",
+                                              _url, path, status));
+        }
+
+        InputStream stream = connection.getInputStream();
+        try {
+          MavenTransports.copy(stream, target, progress);
+        }
+        finally {
+          stream.close();
+        }
+        return true;
+      }
+      finally {
+        connection.disconnect();
+      }
+    }
+  }
+
+  /**
+   * Fetches files from a repository laid out in a local directory.
+   */
+  public static final class FileTransport implements MavenTransport {
+
+    private final Path _root;
+
+    /**
+     * Initializes an instance of a FileTransport.
+     * @param root the root directory of the repository.
+     */
+    public FileTransport(Path root) {
+      _root = root;
+    }
+
+    /**
+     * {@link MavenTransport}
+     */
+    @Override
+    public boolean fetch(String path, Path target, DependencyProgress progress)
+        throws IOException {
+      Path source = _root.resolve(path);
+      if (!Files.isRegularFile(source)) {
+        return false;
+      }
+
+      InputStream stream = Files.newInputStream(source);
+      try {
+        MavenTransports.copy(stream, target, progress);
+      }
+      finally {
+        stream.close();
+      }
+      return true;
+    }
+  }
+}
@@ -0,0 +1,123 @@
+// ShellWarmup.java
+//
+
+package ijava.shell;
+
+import java.net.*;
+import java.util.*;
+import ijava.extensibility.*;
+
+/**
+ * Warms up the code paths used to evaluate code, by parsing, rewriting and compiling a corpus
+ * of representative snippets in a scratch shell, so that the first code evaluated by the user
+ * doesn't pay the cost of loading and interpreting the compiler cold. Nothing is evaluated,
+ * so warming up has no visible side effects.
+ */
+public final class ShellWarmup implements Runnable {
+
+  private final static int ROUNDS = 3;
+
+  private final static String[] Corpus = new String[] {
+    "import java.util.regex.*;",
+    "1 + 2",
+    "\"Hello \" + \"World\"",
+    "Integer.toHexString(255).toUpperCase()",
+    "int count = 10;",
+    "String message = String.format(\"%d items\", 10);\nint length = message.length();",
+    "List<String> items = new ArrayList<String>();\n" +
+        "for (int i = 0; i < 10; i++) {\n  items.add(String.valueOf(i));\n}\n" +
+        "Collections.sort(items);",
+    "Map<String, Integer> counts = new HashMap<String, Integer>();\n" +
+        "counts.put(\"a\", 1);",
+    "int square(int x) {\n  return x * x;\n}",
+    "Object[] values = new Object[] { 1, 2.0, \"3\", null };\nint length = values.length;",
+    "try {\n  throw new IOException(\"error\");\n}\ncatch (IOException e) {\n  e.getMessage();\n}",
+    "DateTime.now().getYear()",
+    "package warmup;\n\n" +
+        "public class Point implements Comparable<Point> {\n" +
+        "  private final int _x;\n  private final int _y;\n\n" +
+        "  public Point(int x, int y) {\n    _x = x;\n    _y = y;\n  }\n\n" +
+        "  @Override\n  public int compareTo(Point other) {\n" +
+        "    return Integer.compare(_x * _x + _y * _y,\n" +
+        "                           other._x * other._x + other._y * other._y);\n" +
+        "  }\n\n" +
+        "  @Override\n  public String toString() {\n" +
+        "    return \"(\" + _x + \", \" + _y + \")\";\n  }\n" +
+        "}\n"
+  };
+
+  private final URL _appURL;
+
+  private ShellWarmup(URL appURL) {
+    _appURL = appURL;
+  }
+
+  /**
+   * Starts warming up in the background, at a low priority.
+   * @param appURL the URL of the application, to be used to resolve runtime jars.
+   */
+  public static void start(URL appURL) {
+    Thread thread = new Thread(new ShellWarmup(appURL), "ijava-warmup");
+    thread.setDaemon(true);
+    thread.setPriority(Thread.MIN_PRIORITY);
+    thread.start();
+  }
+
+  /**
+   * Evaluates the corpus of snippets in a shell, including executing the resulting code. This
+   * is used by training runs of the kernel, which exercise the code paths used to evaluate code
+   * without the expectation of being side effect free.
+   * @param shell the shell to evaluate the corpus in.
+   * @return the number of snippets that could not be evaluated.
+   */
+  public static int evaluate(InteractiveShell shell) {
+    int errors = 0;
+
+    long evaluationID = 1;
+    for (String code: ShellWarmup.Corpus) {
+      try {
+        shell.evaluate(code, evaluationID++, new HashMap<String, Object>());
+      }
+      catch (Exception e) {
+        InteractiveShell.Log.warn("Unable to evaluate training snippet:\n%s\n%s",
+                                  code, e.getMessage());
+        errors++;
+      }
+    }
+
+    return errors;
+  }
+
+  /**
+   * {@link Runnable}
+   */
+  @Override
+  public void run() {
+    long startTime = System.currentTimeMillis();
+
+    InteractiveShell shell = new InteractiveShell();
+    try {
+      shell.initialize(_appURL,
+                       new ArrayList<String>(), new ArrayList<String>(), new ArrayList<String>());
+    }
+    catch (Exception e) {
+      InteractiveShell.Log.exception(e, "Unable to initialize the shell for warming up.");
+      return;
+    }
+
+    long evaluationID = 1;
+    for (int i = 0; i < ShellWarmup.ROUNDS; i++) {
+      for (String code: ShellWarmup.Corpus) {
+        try {
+          shell.compileCode(code, evaluationID++);
+        }
+        catch (EvaluationError e) {
+          InteractiveShell.Log.debug("Unable to compile warm up snippet:\n%s\n%s",
+                                     code, e.getMessage());
+        }
+      }
+    }
+
+    InteractiveShell.Log.info("Shell warmed up in %d ms.", System.currentTimeMillis() - startTime);
+  }
+}
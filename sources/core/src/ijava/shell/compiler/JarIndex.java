@@ -0,0 +1,544 @@
+// JarIndex.java
+//
+
+package ijava.shell.compiler;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.nio.file.attribute.*;
+import java.security.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.*;
+import org.eclipse.jdt.internal.compiler.classfmt.*;
+
+/**
+ * An index of the packages and types contained in a jar, so that lookups performed during
+ * compilation can be answered without scanning the jar. The jar itself is only opened when the
+ * bytes of a type it contains are needed.
+ *
+ * Indexes are built once, and saved to disk, keyed by the path, size and modification time of
+ * the jar. The saved index is a read-only file containing sorted tables of names, which is
+ * memory-mapped and searched in place, so that all the processes on a machine that reference
+ * the same jar share a single copy of its index. The directory containing indexes can be
+ * shared across users with the ijava.index system property, or set with setIndexDirectory.
+ *
+ * Indexes are also shared within the process, keyed by the path of the jar. Once a jar changes,
+ * its existing index is replaced, and the jar opened through it is closed.
+ *
+ * The format of an index is as follows (all values are big-endian):
+ * - header: magic, version, jar size, jar modification time, jar path
+ * - counts of packages and types, followed by tables of offsets to their names, in sorted order
+ * - names, each as a length-prefixed UTF-8 string
+ *
+ * The jar path in the header is a length-prefixed UTF-8 string as well. Saved indexes whose
+ * header does not match the jar, or whose tables do not fit within the file, are rebuilt.
+ */
+public final class JarIndex {
+
+  private final static int MAGIC = 0x494a4958;
+  private final static int VERSION = 3;
+
+  private final static ConcurrentHashMap<String, JarIndex> Indexes =
+      new ConcurrentHashMap<String, JarIndex>();
+  private static volatile Path IndexDirectory = JarIndex.findIndexDirectory();
+
+  private final String _path;
+  private final long _size;
+  private final long _modified;
+  private final ByteBuffer _data;
+  private final int _packageCount;
+  private final int _packageTable;
+  private final int _typeCount;
+  private final int _typeTable;
+
+  private ZipFile _zipFile;
+  private boolean _closed;
+
+  private JarIndex(String path, long size, long modified, ByteBuffer data, int tablesOffset) {
+    _path = path;
+    _size = size;
+    _modified = modified;
+    _data = data;
+
+    _packageCount = data.getInt(tablesOffset);
+    _typeCount = data.getInt(tablesOffset + 4);
+    _packageTable = tablesOffset + 8;
+    _typeTable = _packageTable + _packageCount * 4;
+  }
+
+  private static Path findIndexDirectory() {
+    String indexDirectory = System.getProperty("ijava.index");
+    if ((indexDirectory != null) && !indexDirectory.isEmpty()) {
+      return Paths.get(indexDirectory);
+    }
+
+    return Paths.get(System.getProperty("user.home"), ".ijava", "cache", "index");
+  }
+
+  /**
+   * Gets the directory that indexes are saved into and loaded from.
+   * @return the path of the directory.
+   */
+  public static Path getIndexDirectory() {
+    return JarIndex.IndexDirectory;
+  }
+
+  /**
+   * Sets the directory that indexes are saved into and loaded from. This only affects indexes
+   * that are subsequently built or loaded.
+   * @param indexDirectory the path of the directory.
+   */
+  public static void setIndexDirectory(Path indexDirectory) {
+    JarIndex.IndexDirectory = indexDirectory;
+  }
+
+  /**
+   * Gets the index of the specified jar, loading it from disk or building it as needed.
+   * @param path the path to the jar.
+   * @return the index of the jar, or null if the jar does not exist or could not be read.
+   */
+  public static JarIndex getIndex(String path) {
+    File file = new File(path);
+    if (!file.isFile()) {
+      JarIndex.evict(path, JarIndex.Indexes.get(path));
+      return null;
+    }
+
+    long size = file.length();
+    long modified = file.lastModified();
+
+    while (true) {
+      JarIndex index = JarIndex.Indexes.get(path);
+      if ((index != null) && (index._size == size) && (index._modified == modified)) {
+        return index;
+      }
+
+      JarIndex newIndex = JarIndex.loadIndex(path, size, modified);
+      if (newIndex == null) {
+        JarIndex.evict(path, index);
+        return null;
+      }
+
+      if (index == null) {
+        if (JarIndex.Indexes.putIfAbsent(path, newIndex) == null) {
+          return newIndex;
+        }
+      }
+      else if (JarIndex.Indexes.replace(path, index, newIndex)) {
+        index.close();
+        return newIndex;
+      }
+
+      // Another thread updated the index concurrently, so start over. The discarded index has
+      // not opened its jar, so there is nothing to release.
+    }
+  }
+
+  private static void evict(String path, JarIndex index) {
+    if ((index != null) && JarIndex.Indexes.remove(path, index)) {
+      index.close();
+    }
+  }
+
+  /**
+   * Gets the path of the indexed jar.
+   * @return the path to the jar.
+   */
+  public String getPath() {
+    return _path;
+  }
+
+  /**
+   * Determines whether the jar contains a package.
+   * @param packageName the name of the package, using '/' as the separator.
+   * @return true if the jar contains entries within the package or its sub-packages.
+   */
+  public boolean containsPackage(String packageName) {
+    return JarIndex.contains(_data, _packageTable, _packageCount, packageName);
+  }
+
+  /**
+   * Determines whether the jar contains a type.
+   * @param typeName the binary name of the type, using '/' as the separator.
+   * @return true if the jar contains the type.
+   */
+  public boolean containsType(String typeName) {
+    return JarIndex.contains(_data, _typeTable, _typeCount, typeName);
+  }
+
+  /**
+   * Reads a type contained in the jar.
+   * @param typeName the binary name of the type, using '/' as the separator.
+   * @return the class file reader for the type, or null if it is not contained in the jar, or
+   *         the index has been replaced since the jar changed.
+   */
+  public ClassFileReader readType(String typeName) {
+    if (!containsType(typeName)) {
+      return null;
+    }
+
+    try {
+      return ClassFileReader.read(getZipFile(), typeName + ".class");
+    }
+    catch (Exception e) {
+      return null;
+    }
+  }
+
+  /**
+   * Performs a binary search for a name within a sorted table of names. The buffer is only
+   * accessed using absolute reads, so it can be searched from multiple threads.
+   */
+  private static boolean contains(ByteBuffer data, int table, int count, String name) {
+    byte[] key = name.getBytes(StandardCharsets.UTF_8);
+
+    int low = 0;
+    int high = count - 1;
+    while (low <= high) {
+      int middle = (low + high) >>> 1;
+      int comparison = JarIndex.compare(data, data.getInt(table + middle * 4), key);
+
+      if (comparison < 0) {
+        low = middle + 1;
+      }
+      else if (comparison > 0) {
+        high = middle - 1;
+      }
+      else {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  private static int compare(ByteBuffer data, int offset, byte[] key) {
+    int length = data.getShort(offset) & 0xffff;
+    offset += 2;
+
+    int commonLength = Math.min(length, key.length);
+    for (int i = 0; i < commonLength; i++) {
+      int comparison = (data.get(offset + i) & 0xff) - (key[i] & 0xff);
+      if (comparison != 0) {
+        return comparison;
+      }
+    }
+
+    return length - key.length;
+  }
+
+  private static int compare(byte[] name1, byte[] name2) {
+    int commonLength = Math.min(name1.length, name2.length);
+    for (int i = 0; i < commonLength; i++) {
+      int comparison = (name1[i] & 0xff) - (name2[i] & 0xff);
+      if (comparison != 0) {
+        return comparison;
+      }
+    }
+
+    return name1.length - name2.length;
+  }
+
+  private synchronized ZipFile getZipFile() throws IOException {
+    if (_closed) {
+      throw new IOException("The index of " + _path + " is no longer current.");
+    }
+
+    if (_zipFile == null) {
+      _zipFile = new ZipFile(_path);
+    }
+    return _zipFile;
+  }
+
+  /**
+   * Closes the jar opened through this index, once the index has been replaced. Types can no
+   * longer be read through the index after this point.
+   */
+  private synchronized void close() {
+    _closed = true;
+
+    if (_zipFile != null) {
+      try {
+        _zipFile.close();
+      }
+      catch (IOException e) {
+      }
+      _zipFile = null;
+    }
+  }
+
+  /**
+   * Loads the saved index of a jar, or builds and saves it, if there is no valid saved index.
+   * @param path the path to the jar.
+   * @param size the size of the jar.
+   * @param modified the modification time of the jar.
+   * @return the index of the jar, or null if the jar could not be read.
+   */
+  static JarIndex loadIndex(String path, long size, long modified) {
+    Path indexPath = JarIndex.getIndexPath(path);
+
+    if (Files.isRegularFile(indexPath)) {
+      try {
+        JarIndex index = JarIndex.mapIndex(indexPath, path, size, modified);
+        if (index != null) {
+          return index;
+        }
+      }
+      catch (IOException e) {
+        // Ignore, and rebuild the index instead.
+      }
+    }
+
+    byte[] data;
+    try {
+      data = JarIndex.buildIndex(path, size, modified);
+    }
+    catch (IOException e) {
+      return null;
+    }
+
+    if (JarIndex.writeIndex(indexPath, data)) {
+      try {
+        JarIndex index = JarIndex.mapIndex(indexPath, path, size, modified);
+        if (index != null) {
+          return index;
+        }
+      }
+      catch (IOException e) {
+      }
+    }
+
+    // If the index could not be saved, then simply use it from memory.
+    return JarIndex.createIndex(ByteBuffer.wrap(data), path, size, modified);
+  }
+
+  /**
+   * Builds the index of a jar, in the format that is saved to disk.
+   */
+  private static byte[] buildIndex(String path, long size, long modified) throws IOException {
+    Set<String> packages = new HashSet<String>();
+    Set<String> types = new HashSet<String>();
+
+    ZipFile zipFile = new ZipFile(path);
+    try {
+      Enumeration<? extends ZipEntry> entries = zipFile.entries();
+      while (entries.hasMoreElements()) {
+        String name = entries.nextElement().getName();
+        if (name.endsWith(".class")) {
+          types.add(name.substring(0, name.length() - 6));
+        }
+
+        // Every directory containing an entry is a package, along with its parent directories.
+        int separatorIndex = name.lastIndexOf('/');
+        while (separatorIndex > 0) {
+          if (!packages.add(name.substring(0, separatorIndex))) {
+            break;
+          }
+          separatorIndex = name.lastIndexOf('/', separatorIndex - 1);
+        }
+      }
+    }
+    finally {
+      zipFile.close();
+    }
+
+    List<byte[]> packageNames = JarIndex.sortNames(packages);
+    List<byte[]> typeNames = JarIndex.sortNames(types);
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream stream = new DataOutputStream(bytes);
+
+    stream.writeInt(JarIndex.MAGIC);
+    stream.writeInt(JarIndex.VERSION);
+    stream.writeLong(size);
+    stream.writeLong(modified);
+
+    byte[] pathBytes = path.getBytes(StandardCharsets.UTF_8);
+    stream.writeShort(pathBytes.length);
+    stream.write(pathBytes);
+
+    // The names follow the header and the two tables of offsets.
+    int offset = stream.size() + 8 + (packageNames.size() + typeNames.size()) * 4;
+
+    stream.writeInt(packageNames.size());
+    stream.writeInt(typeNames.size());
+    for (byte[] name : packageNames) {
+      stream.writeInt(offset);
+      offset += 2 + name.length;
+    }
+    for (byte[] name : typeNames) {
+      stream.writeInt(offset);
+      offset += 2 + name.length;
+    }
+
+    for (byte[] name : packageNames) {
+      stream.writeShort(name.length);
+      stream.write(name);
+    }
+    for (byte[] name : typeNames) {
+      stream.writeShort(name.length);
+      stream.write(name);
+    }
+
+    stream.close();
+    return bytes.toByteArray();
+  }
+
+  private static List<byte[]> sortNames(Set<String> names) {
+    List<byte[]> sortedNames = new ArrayList<byte[]>();
+    for (String name : names) {
+      sortedNames.add(name.getBytes(StandardCharsets.UTF_8));
+    }
+
+    Collections.sort(sortedNames, new Comparator<byte[]>() {
+      @Override
+      public int compare(byte[] name1, byte[] name2) {
+        return JarIndex.compare(name1, name2);
+      }
+    });
+
+    return sortedNames;
+  }
+
+  /**
+   * Creates an index over its saved data, after validating that it corresponds to the
+   * current version of the jar.
+   */
+  private static JarIndex createIndex(ByteBuffer data, String path, long size, long modified) {
+    try {
+      if ((data.getInt(0) != JarIndex.MAGIC) || (data.getInt(4) != JarIndex.VERSION) ||
+          (data.getLong(8) != size) || (data.getLong(16) != modified)) {
+        return null;
+      }
+
+      int pathLength = data.getShort(24) & 0xffff;
+      byte[] pathBytes = new byte[pathLength];
+      for (int i = 0; i < pathLength; i++) {
+        pathBytes[i] = data.get(26 + i);
+      }
+      if (!new String(pathBytes, StandardCharsets.UTF_8).equals(path)) {
+        return null;
+      }
+
+      int tablesOffset = 26 + pathLength;
+      if (!JarIndex.isValid(data, tablesOffset)) {
+        return null;
+      }
+
+      return new JarIndex(path, size, modified, data, tablesOffset);
+    }
+    catch (IndexOutOfBoundsException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Validates that the tables of an index, and all the names they reference, lie within the
+   * index, so that lookups never read beyond its end, even if the saved index is truncated or
+   * otherwise corrupt.
+   */
+  private static boolean isValid(ByteBuffer data, int tablesOffset) {
+    int limit = data.limit();
+    if (tablesOffset + 8 > limit) {
+      return false;
+    }
+
+    long packageCount = data.getInt(tablesOffset);
+    long typeCount = data.getInt(tablesOffset + 4);
+    if ((packageCount < 0) || (typeCount < 0)) {
+      return false;
+    }
+
+    long namesOffset = tablesOffset + 8 + (packageCount + typeCount) * 4;
+    if (namesOffset > limit) {
+      return false;
+    }
+
+    for (int entry = tablesOffset + 8; entry < namesOffset; entry += 4) {
+      long offset = data.getInt(entry);
+      if ((offset < namesOffset) || (offset + 2 > limit) ||
+          (offset + 2 + (data.getShort((int)offset) & 0xffff) > limit)) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  private static JarIndex mapIndex(Path indexPath, String path, long size, long modified)
+      throws IOException {
+    FileChannel channel = FileChannel.open(indexPath, StandardOpenOption.READ);
+    try {
+      // The mapping remains valid after the channel is closed.
+      ByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      return JarIndex.createIndex(data, path, size, modified);
+    }
+    finally {
+      channel.close();
+    }
+  }
+
+  /**
+   * Saves an index to disk. The index is written to a temporary file first, and then moved into
+   * place, so that concurrent processes never observe (or map) partially written indexes.
+   * @return true if the index was saved; false otherwise.
+   */
+  private static boolean writeIndex(Path indexPath, byte[] data) {
+    Path tempPath = null;
+    try {
+      Files.createDirectories(indexPath.getParent());
+      tempPath = Files.createTempFile(indexPath.getParent(),
+                                      indexPath.getFileName().toString(), ".part");
+      Files.write(tempPath, data);
+
+      // Indexes are read-only once written, and may be shared with other users.
+      try {
+        Files.setPosixFilePermissions(tempPath, PosixFilePermissions.fromString("rw-r--r--"));
+      }
+      catch (UnsupportedOperationException e) {
+      }
+
+      try {
+        Files.move(tempPath, indexPath, StandardCopyOption.ATOMIC_MOVE);
+      }
+      catch (AtomicMoveNotSupportedException e) {
+        Files.move(tempPath, indexPath, StandardCopyOption.REPLACE_EXISTING);
+      }
+      return true;
+    }
+    catch (IOException e) {
+      return false;
+    }
+    finally {
+      if (tempPath != null) {
+        try {
+          Files.deleteIfExists(tempPath);
+        }
+        catch (IOException e) {
+        }
+      }
+    }
+  }
+
+  private static Path getIndexPath(String path) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-1");
+      byte[] hash = digest.digest(path.getBytes(StandardCharsets.UTF_8));
+
+      StringBuilder sb = new StringBuilder();
+      for (byte b : hash) {
+        sb.append(String.format("%02x", b));
+      }
+      sb.append(".idx");
+
+      return JarIndex.IndexDirectory.resolve(sb.toString());
+    }
+    catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
@@ -0,0 +1,84 @@
+// JarNameEnvironment.java
+//
+
+package ijava.shell.compiler;
+
+import java.util.*;
+import org.eclipse.jdt.core.compiler.*;
+import org.eclipse.jdt.internal.compiler.classfmt.*;
+import org.eclipse.jdt.internal.compiler.env.*;
+
+/**
+ * Resolves types and packages referenced during compilation against a set of jars, using their
+ * indexes. Lookups of names not contained in any jar are answered without opening any jar, and
+ * lookups of contained types only read from the one jar containing the type.
+ */
+public final class JarNameEnvironment implements INameEnvironment {
+
+  private final List<JarIndex> _indexes;
+
+  /**
+   * Initializes an instance of a JarNameEnvironment.
+   * @param jars the paths of the jars to resolve names against, in order of precedence. Jars
+   *             that do not exist are skipped.
+   */
+  public JarNameEnvironment(Collection<String> jars) {
+    _indexes = new ArrayList<JarIndex>();
+    for (String jar : jars) {
+      JarIndex index = JarIndex.getIndex(jar);
+      if (index != null) {
+        _indexes.add(index);
+      }
+    }
+  }
+
+  private NameEnvironmentAnswer lookupType(String typeName) {
+    for (JarIndex index : _indexes) {
+      ClassFileReader reader = index.readType(typeName);
+      if (reader != null) {
+        return new NameEnvironmentAnswer(reader, null);
+      }
+    }
+
+    return null;
+  }
+
+  /**
+   * {@link INameEnvironment}
+   */
+  @Override
+  public void cleanup() {
+    // Nothing to do here, as jars are shared across compilations.
+  }
+
+  /**
+   * {@link INameEnvironment}
+   */
+  @Override
+  public NameEnvironmentAnswer findType(char[][] compoundTypeName) {
+    return lookupType(new String(CharOperation.concatWith(compoundTypeName, '/')));
+  }
+
+  /**
+   * {@link INameEnvironment}
+   */
+  @Override
+  public NameEnvironmentAnswer findType(char[] typeName, char[][] packageName) {
+    return lookupType(new String(CharOperation.concatWith(packageName, typeName, '/')));
+  }
+
+  /**
+   * {@link INameEnvironment}
+   */
+  @Override
+  public boolean isPackage(char[][] parentPackageName, char[] packageName) {
+    String name = new String(CharOperation.concatWith(parentPackageName, packageName, '/'));
+    for (JarIndex index : _indexes) {
+      if (index.containsPackage(name)) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+}
@@ -0,0 +1,108 @@
+// LanguageLevel.java
+//
+
+package ijava.shell.compiler;
+
+import org.eclipse.jdt.core.*;
+import org.eclipse.jdt.core.dom.*;
+import org.eclipse.jdt.internal.compiler.impl.*;
+
+/**
+ * Indicates the Java language level snippets are parsed and compiled at, which determines both
+ * the source syntax allowed, and the version of the class files generated.
+ */
+public enum LanguageLevel {
+
+  /**
+   * Represents Java 7.
+   */
+  // JLS4 is deprecated in favor of JLS8, but remains the level that parses only Java 7 syntax.
+  @SuppressWarnings("deprecation")
+  Java7(JavaCore.VERSION_1_7, AST.JLS4),
+
+  /**
+   * Represents Java 8, which adds lambdas, method references and default methods.
+   */
+  Java8(JavaCore.VERSION_1_8, AST.JLS8);
+
+  private final String _version;
+  private final int _astLevel;
+
+  private LanguageLevel(String version, int astLevel) {
+    _version = version;
+    _astLevel = astLevel;
+  }
+
+  /**
+   * Gets the highest language level supported by both the compiler and the current runtime.
+   * @return the default language level.
+   */
+  public static LanguageLevel getDefault() {
+    LanguageLevel defaultLevel = LanguageLevel.Java7;
+    for (LanguageLevel level: LanguageLevel.values()) {
+      if (level.isSupported()) {
+        defaultLevel = level;
+      }
+    }
+
+    return defaultLevel;
+  }
+
+  /**
+   * Parses a language level, specified as a version such as 1.8, or simply 8.
+   * @param version the version to parse.
+   * @return the corresponding language level, or null if the version is not supported by the
+   *   compiler.
+   */
+  public static LanguageLevel parse(String version) {
+    if (!version.startsWith("1.")) {
+      version = "1." + version;
+    }
+
+    for (LanguageLevel level: LanguageLevel.values()) {
+      if (level._version.equals(version)) {
+        return level;
+      }
+    }
+
+    return null;
+  }
+
+  /**
+   * Gets the version string used within compiler options.
+   * @return the version string, such as 1.8.
+   */
+  public String getVersion() {
+    return _version;
+  }
+
+  /**
+   * Gets the level of the AST API used to parse code at this language level.
+   * @return the AST level.
+   */
+  public int getASTLevel() {
+    return _astLevel;
+  }
+
+  /**
+   * Gets whether class files generated for this language level can be loaded by the current
+   * runtime.
+   * @return true if the runtime is at least at this language level.
+   */
+  public boolean isSupported() {
+    String runtimeVersion = System.getProperty("java.specification.version");
+    if (!runtimeVersion.startsWith("1.")) {
+      // Java 9 and above use a single number as the version, which is newer than any of the
+      // levels supported by the compiler.
+      return true;
+    }
+
+    return CompilerOptions.versionToJdkLevel(runtimeVersion) >=
+        CompilerOptions.versionToJdkLevel(_version);
+  }
+
+  @Override
+  public String toString() {
+    return _version;
+  }
+}
@@ -13,6 +13,7 @@ public final class SnippetCompilation {
   private final Set<String> _packages;
   private final Map<String, byte[]> _types;
   private final List<String> _errors;
+  private final Set<String> _references;
 
   /**
    * Initializes a SnippetCompilation instance.
@@ -21,9 +22,22 @@ public final class SnippetCompilation {
    * @param errors the resulting set of errors.
    */
   public SnippetCompilation(Set<String> packages, Map<String, byte[]> types, List<String> errors) {
+    this(packages, types, errors, new HashSet<String>());
+  }
+
+  /**
+   * Initializes a SnippetCompilation instance.
+   * @param packages the resulting set of package names (if any).
+   * @param types the resulting set of types.
+   * @param errors the resulting set of errors.
+   * @param references the resulting set of referenced names.
+   */
+  public SnippetCompilation(Set<String> packages, Map<String, byte[]> types, List<String> errors,
+                            Set<String> references) {
     _packages = packages;
     _types = types;
     _errors = errors;
+    _references = references;
   }
 
   /**
@@ -42,6 +56,15 @@ public final class SnippetCompilation {
     return _types;
   }
 
+  /**
+   * Gets the set of simple names the compiled code references, which includes the simple names
+   * of all referenced types.
+   * @return a set of simple names.
+   */
+  public Set<String> getReferences() {
+    return _references;
+  }
+
   /**
    * Gets the set of packages resulting from compilation.
    * @return a set of declared package names.
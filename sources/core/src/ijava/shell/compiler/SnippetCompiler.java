@@ -18,7 +18,7 @@ import org.eclipse.jdt.internal.compiler.problem.*;
  */
 public final class SnippetCompiler implements ICompilerRequestor, INameEnvironment {
 
-  private final static CompilerOptions Options;
+  private final static Map<LanguageLevel, CompilerOptions> Options;
 
   private final Set<String> _referencedJars;
   private final Set<String> _definedPackages;
@@ -27,45 +27,62 @@ public final class SnippetCompiler implements ICompilerRequestor, INameEnvironme
   private final Compiler _compiler;
   private final INameEnvironment _references;
 
-  private final Map<String, byte[]> _types;
-  private final Set<String> _packages;
-  private final List<String> _errors;
+  private final Map<String, SnippetCompilation> _compilations;
 
   static {
-    HashMap<String, String> optionSet = new HashMap<String, String>();
-    optionSet.put(CompilerOptions.OPTION_TargetPlatform, CompilerOptions.VERSION_1_7);
-    optionSet.put(CompilerOptions.OPTION_Source, CompilerOptions.VERSION_1_7);
-    optionSet.put(CompilerOptions.OPTION_Compliance, CompilerOptions.VERSION_1_7);
+    Options = new EnumMap<LanguageLevel, CompilerOptions>(LanguageLevel.class);
+    for (LanguageLevel level: LanguageLevel.values()) {
+      HashMap<String, String> optionSet = new HashMap<String, String>();
+      optionSet.put(CompilerOptions.OPTION_TargetPlatform, level.getVersion());
+      optionSet.put(CompilerOptions.OPTION_Source, level.getVersion());
+      optionSet.put(CompilerOptions.OPTION_Compliance, level.getVersion());
+
+      // Reference information is used to determine whether compiling snippets together is
+      // equivalent to compiling them one at a time.
+      CompilerOptions options = new CompilerOptions(optionSet);
+      options.produceReferenceInfo = true;
+
+      Options.put(level, options);
+    }
+  }
 
-    Options = new CompilerOptions(optionSet);
+  /**
+   * Initializes an instance of a SnippetCompiler with the shell that is performing the
+   * compilation, at the default language level.
+   * @param jars the set of jars referenced during compilation.
+   * @param packages the set of previously defined packages.
+   * @param types the set of previously defined types.
+   */
+  public SnippetCompiler(Set<String> jars, Set<String> packages, Map<String, byte[]> types) {
+    this(jars, packages, types, LanguageLevel.getDefault());
   }
 
   /**
    * Initializes an instance of a SnippetCompiler with the shell that is performing the
    * compilation.
+   * @param jars the set of jars referenced during compilation.
    * @param packages the set of previously defined packages.
    * @param types the set of previously defined types.
+   * @param languageLevel the language level to compile snippets at.
    */
-  public SnippetCompiler(Set<String> jars, Set<String> packages, Map<String, byte[]> types) {
+  public SnippetCompiler(Set<String> jars, Set<String> packages, Map<String, byte[]> types,
+                         LanguageLevel languageLevel) {
     _referencedJars = jars;
     _definedPackages = packages;
     _definedTypes = types;
 
-    _references = new FileSystem(_referencedJars.toArray(new String[_referencedJars.size()]),
-                                 null, "UTF-8");
+    _references = new JarNameEnvironment(_referencedJars);
 
     INameEnvironment nameEnvironment = this;
     ICompilerRequestor compilerRequestor = this;
     IErrorHandlingPolicy errorHandling = DefaultErrorHandlingPolicies.exitAfterAllProblems();
     IProblemFactory problemFactory = new DefaultProblemFactory();
-    CompilerOptions options = SnippetCompiler.Options;
+    CompilerOptions options = SnippetCompiler.Options.get(languageLevel);
 
     _compiler = new Compiler(nameEnvironment, errorHandling, options, compilerRequestor,
                              problemFactory);
 
-    _types = new HashMap<String, byte[]>();
-    _packages = new HashSet<String>();
-    _errors = new ArrayList<String>();
+    _compilations = new HashMap<String, SnippetCompilation>();
   }
 
   /**
@@ -74,14 +91,52 @@ public final class SnippetCompiler implements ICompilerRequestor, INameEnvironme
    * @return the resulting SnippetCompilation object.
    */
   public SnippetCompilation compile(Snippet snippet) {
-    ICompilationUnit[] units = new ICompilationUnit[] {
-      new CompilationUnit(snippet.getRewrittenCode().toCharArray(),
-                          snippet.getClassName() + ".java",
-                          null)
-    };
+    return compile(Collections.singletonList(snippet)).get(0);
+  }
+
+  /**
+   * Compiles the specified set of snippets together, in a single compiler pass. The snippets can
+   * reference each other, and must result in distinct file names.
+   * @param snippets the list of snippets to compile.
+   * @return the list of resulting SnippetCompilation objects, in the same order as the snippets.
+   */
+  public List<SnippetCompilation> compile(List<Snippet> snippets) {
+    List<SnippetCompilation> compilations = new ArrayList<SnippetCompilation>();
+    ICompilationUnit[] units = new ICompilationUnit[snippets.size()];
+
+    for (int i = 0; i < units.length; i++) {
+      Snippet snippet = snippets.get(i);
+      String fileName = SnippetCompiler.getFileName(snippet);
+
+      SnippetCompilation compilation =
+          new SnippetCompilation(new HashSet<String>(), new HashMap<String, byte[]>(),
+                                 new ArrayList<String>(), new HashSet<String>());
+      compilations.add(compilation);
+      _compilations.put(fileName, compilation);
+
+      units[i] = new CompilationUnit(snippet.getRewrittenCode().toCharArray(), fileName, null);
+    }
 
     _compiler.compile(units);
-    return new SnippetCompilation(_packages, _types, _errors);
+    _compilations.clear();
+
+    return compilations;
+  }
+
+  /**
+   * Gets the name of the file used to represent a snippet during compilation, which is unique
+   * for each package and class name combination.
+   * @param snippet the snippet to be compiled.
+   * @return the file name to use for the snippet.
+   */
+  public static String getFileName(Snippet snippet) {
+    String fileName = snippet.getClassName() + ".java";
+    if ((snippet.getType() == SnippetType.CompilationUnit) &&
+        (snippet.getPackageName() != null)) {
+      fileName = snippet.getPackageName().replace('.', '/') + "/" + fileName;
+    }
+
+    return fileName;
   }
 
   private NameEnvironmentAnswer lookupType(String name) {
@@ -103,28 +158,42 @@ public final class SnippetCompiler implements ICompilerRequestor, INameEnvironme
    */
   @Override
   public void acceptResult(CompilationResult result) {
+    SnippetCompilation compilation = _compilations.get(new String(result.getFileName()));
+    List<String> errors = compilation.getErrors();
+
     if (result.hasProblems()) {
       for (IProblem problem : result.getProblems()) {
         if (problem.isError()) {
           String error = String.format("[%d]: %s",
                                        problem.getSourceLineNumber(), problem.getMessage());
-          _errors.add(error);
+          errors.add(error);
         }
       }
 
-      if (_errors.size() != 0) {
+      if (errors.size() != 0) {
         return;
       }
     }
 
+    if (result.simpleNameReferences != null) {
+      for (char[] name : result.simpleNameReferences) {
+        compilation.getReferences().add(new String(name));
+      }
+    }
+    if (result.qualifiedReferences != null) {
+      for (char[][] name : result.qualifiedReferences) {
+        compilation.getReferences().add(new String(name[name.length - 1]));
+      }
+    }
+
     for (ClassFile classFile : result.getClassFiles()) {
       String name = new String(CharOperation.concatWith(classFile.getCompoundName(), '.'));
-      _types.put(name, classFile.getBytes());
+      compilation.getTypes().put(name, classFile.getBytes());
 
       int packageSeparatorIndex = name.lastIndexOf('.');
       if (packageSeparatorIndex > 0) {
         String packageName = name.substring(0, packageSeparatorIndex);
-        _packages.add(packageName);
+        compilation.getPackages().add(packageName);
       }
     }
   }
@@ -31,6 +31,23 @@ public final class SnippetParser {
   private final static String ERROR_NOT_SUPPORTED =
       "Unsupported class member declaration.";
 
+  private final LanguageLevel _languageLevel;
+
+  /**
+   * Initializes an instance of a SnippetParser that parses code at the default language level.
+   */
+  public SnippetParser() {
+    this(LanguageLevel.getDefault());
+  }
+
+  /**
+   * Initializes an instance of a SnippetParser.
+   * @param languageLevel the language level to parse code at.
+   */
+  public SnippetParser(LanguageLevel languageLevel) {
+    _languageLevel = languageLevel;
+  }
+
   /**
    * Parse the specified string of code into a Snippet.
    * @param code the text to be parsed.
@@ -98,8 +115,8 @@ public final class SnippetParser {
    * @return the resulting AST.
    */
   private ASTNode parseCode(String code, SnippetType attemptedCodeType) {
-    // Create a parser that supports code written to Java 1.7.
-    ASTParser parser = ASTParser.newParser(AST.JLS4);
+    // Create a parser that supports code written to the language level of the shell.
+    ASTParser parser = ASTParser.newParser(_languageLevel.getASTLevel());
 
     switch (attemptedCodeType) {
       case CompilationUnit:
@@ -123,7 +140,7 @@ public final class SnippetParser {
     }
 
     Map<?, ?> parserOptions = JavaCore.getOptions();
-    JavaCore.setComplianceOptions(JavaCore.VERSION_1_7, parserOptions);
+    JavaCore.setComplianceOptions(_languageLevel.getVersion(), parserOptions);
 
     parser.setSource(code.toCharArray());
     parser.setCompilerOptions(parserOptions);
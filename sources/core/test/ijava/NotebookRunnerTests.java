@@ -0,0 +1,183 @@
+// NotebookRunnerTests.java
+//
+
+package ijava;
+
+import java.io.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import org.junit.*;
+import com.fasterxml.jackson.jr.ob.*;
+
+public final class NotebookRunnerTests {
+
+  private static Path createNotebook(Path directory, String json) throws IOException {
+    return NotebookRunnerTests.createNotebook(directory, "test.ipynb", json);
+  }
+
+  private static Path createNotebook(Path directory, String name, String json)
+      throws IOException {
+    Path path = directory.resolve(name);
+    Files.write(path, json.replace('\'', '"').getBytes(StandardCharsets.UTF_8));
+
+    return path;
+  }
+
+  private static NotebookRunner createRunner(String... args) throws Exception {
+    NotebookRunnerOptions options = NotebookRunnerOptions.parse(args);
+    return new NotebookRunner(new File(".").toURI().toURL(), options);
+  }
+
+  private static List<Map<String, Object>> getCells(Path path) throws IOException {
+    String json = new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+    Map<String, Object> notebook = JSON.std.mapFrom(json);
+
+    if (notebook.containsKey("worksheets")) {
+      notebook = NotebookRunnerTests.getList(notebook, "worksheets").get(0);
+    }
+    return NotebookRunnerTests.getList(notebook, "cells");
+  }
+
+  private static List<Map<String, Object>> getOutputs(Map<String, Object> cell) {
+    return NotebookRunnerTests.getList(cell, "outputs");
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Map<String, Object> getMap(Map<String, Object> map, String key) {
+    return (Map<String, Object>)map.get(key);
+  }
+
+  @SuppressWarnings("unchecked")
+  private static List<Map<String, Object>> getList(Map<String, Object> map, String key) {
+    return (List<Map<String, Object>>)map.get(key);
+  }
+
+  @Test
+  public void testRunV3Notebook() throws Exception {
+    Path directory = Files.createTempDirectory("notebooks");
+    Path outputDirectory = Files.createTempDirectory("output");
+    Path path = NotebookRunnerTests.createNotebook(directory,
+        "{ 'nbformat': 3, 'nbformat_minor': 0, 'metadata': {}, 'worksheets': [ { 'cells': [" +
+        "  { 'cell_type': 'markdown', 'metadata': {}, 'source': [ 'Title' ] }," +
+        "  { 'cell_type': 'code', 'metadata': {}, 'outputs': [], 'prompt_number': 7," +
+        "    'input': [ 'package a;\\n', 'public class A {\\n', '}\\n' ] }," +
+        "  { 'cell_type': 'code', 'metadata': {}, 'outputs': []," +
+        "    'input': [ '%%html\\n', '<b>Hi</b>' ] }," +
+        "  { 'cell_type': 'code', 'metadata': {}, 'outputs': [], 'input': [ '42' ] }" +
+        "] } ] }");
+
+    NotebookRunner runner = NotebookRunnerTests.createRunner("--output:" + outputDirectory,
+                                                             path.toString());
+    Assert.assertTrue(runner.run(path));
+
+    List<Map<String, Object>> cells =
+        NotebookRunnerTests.getCells(outputDirectory.resolve("test.ipynb"));
+    Assert.assertEquals(4, cells.size());
+
+    Map<String, Object> typeCell = cells.get(1);
+    Assert.assertEquals(1, typeCell.get("prompt_number"));
+    Assert.assertEquals("CompilationUnit",
+                        NotebookRunnerTests.getMap(typeCell, "metadata").get("ijava.snippet.type"));
+
+    // Mime types are mapped to the keys used by the version 3 format.
+    Map<String, Object> htmlOutput = NotebookRunnerTests.getOutputs(cells.get(2)).get(0);
+    Assert.assertEquals("display_data", htmlOutput.get("output_type"));
+    Assert.assertEquals(Arrays.asList("<b>Hi</b>"), htmlOutput.get("html"));
+
+    Map<String, Object> valueCell = cells.get(3);
+    Assert.assertEquals(3, valueCell.get("prompt_number"));
+
+    Map<String, Object> valueOutput = NotebookRunnerTests.getOutputs(valueCell).get(0);
+    Assert.assertEquals(Arrays.asList("42"), valueOutput.get("text"));
+
+    // The input notebook is left as is.
+    Assert.assertEquals(7, NotebookRunnerTests.getCells(path).get(1).get("prompt_number"));
+  }
+
+  @Test
+  public void testRunV4NotebookWithErrors() throws Exception {
+    Path directory = Files.createTempDirectory("notebooks");
+    String json =
+        "{ 'nbformat': 4, 'nbformat_minor': 0, 'metadata': {}, 'cells': [" +
+        "  { 'cell_type': 'code', 'metadata': {}, 'outputs': [], 'execution_count': null," +
+        "    'source': 'undefinedVariable + 1' }," +
+        "  { 'cell_type': 'code', 'metadata': {}, 'execution_count': 3," +
+        "    'outputs': [ { 'output_type': 'stream', 'name': 'stdout', 'text': 'Stale' } ]," +
+        "    'source': '\\'Done\\'' }" +
+        "] }";
+
+    Path path = NotebookRunnerTests.createNotebook(directory, json);
+    Assert.assertFalse(NotebookRunnerTests.createRunner(path.toString()).run(path));
+
+    List<Map<String, Object>> cells = NotebookRunnerTests.getCells(path);
+    Map<String, Object> errorOutput = NotebookRunnerTests.getOutputs(cells.get(0)).get(0);
+    Assert.assertEquals("stderr", errorOutput.get("name"));
+
+    // Cells after the error are cleared, but not executed.
+    Assert.assertTrue(NotebookRunnerTests.getOutputs(cells.get(1)).isEmpty());
+    Assert.assertNull(cells.get(1).get("execution_count"));
+
+    // Unless errors are allowed.
+    path = NotebookRunnerTests.createNotebook(directory, json);
+    Assert.assertFalse(NotebookRunnerTests.createRunner("--allowErrors", path.toString())
+                                          .run(path));
+
+    cells = NotebookRunnerTests.getCells(path);
+    Map<String, Object> dataOutput = NotebookRunnerTests.getOutputs(cells.get(1)).get(0);
+    Assert.assertEquals(Arrays.asList("Done"),
+                        NotebookRunnerTests.getMap(dataOutput, "data").get("text/plain"));
+    Assert.assertEquals(2, cells.get(1).get("execution_count"));
+  }
+
+  @Test
+  public void testParallelRuns() throws Exception {
+    Path directory = Files.createTempDirectory("notebooks");
+    final NotebookRunner runner = NotebookRunnerTests.createRunner("--parallel:4", "--timeout:60",
+                                                                   directory.toString());
+
+    List<Path> paths = new ArrayList<Path>();
+    for (int i = 0; i < 8; i++) {
+      paths.add(NotebookRunnerTests.createNotebook(directory, "test" + i + ".ipynb",
+          "{ 'nbformat': 4, 'nbformat_minor': 0, 'metadata': {}, 'cells': [" +
+          "  { 'cell_type': 'code', 'metadata': {}, 'outputs': [], 'source': '" + i + "' }," +
+          "  { 'cell_type': 'code', 'metadata': {}, 'outputs': []," +
+          "    'source': '%restore --path missing" + i + ".ijc' }" +
+          "] }"));
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+    for (final Path path: paths) {
+      results.add(executor.submit(new Callable<Boolean>() {
+        @Override
+        public Boolean call() {
+          return runner.run(path);
+        }
+      }));
+    }
+    for (Future<Boolean> result: results) {
+      Assert.assertFalse(result.get());
+    }
+    executor.shutdown();
+
+    // Each notebook has its own results, and its own error output, even though the standard
+    // streams are shared across the notebooks being executed concurrently.
+    for (int i = 0; i < paths.size(); i++) {
+      List<Map<String, Object>> cells = NotebookRunnerTests.getCells(paths.get(i));
+
+      Map<String, Object> dataOutput = NotebookRunnerTests.getOutputs(cells.get(0)).get(0);
+      Assert.assertEquals(Arrays.asList(String.valueOf(i)),
+                          NotebookRunnerTests.getMap(dataOutput, "data").get("text/plain"));
+
+      Map<String, Object> errorOutput = NotebookRunnerTests.getOutputs(cells.get(1)).get(0);
+      Assert.assertEquals("stderr", errorOutput.get("name"));
+      String errorText = errorOutput.get("text").toString();
+      Assert.assertTrue(errorText.contains("missing" + i));
+      for (int j = 0; j < paths.size(); j++) {
+        Assert.assertTrue((i == j) || !errorText.contains("missing" + j + ".ijc"));
+      }
+    }
+  }
+}
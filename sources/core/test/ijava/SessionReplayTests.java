@@ -0,0 +1,122 @@
+// SessionReplayTests.java
+//
+
+package ijava;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import org.junit.*;
+import org.zeromq.*;
+import org.zeromq.ZMQ.*;
+import ijava.extensibility.*;
+import ijava.kernel.*;
+import ijava.kernel.protocol.*;
+
+public final class SessionReplayTests {
+
+  private final static long TIMEOUT = 10000;
+
+  private static Evaluator createEvaluator(final boolean upperCase) {
+    return new Evaluator() {
+      @Override
+      public Object evaluate(String data, long evaluationID, Map<String, Object> metadata) {
+        System.out.print("Evaluating " + evaluationID);
+        return upperCase ? data.toUpperCase() : data;
+      }
+    };
+  }
+
+  private static Path recordSession(Path directory) throws Exception {
+    Context context = ZMQ.context(1);
+    SessionOptions options = SessionOptions.createInProcess("recorded");
+    final Session session =
+        new Session(options, SessionReplayTests.createEvaluator(true), context);
+    Path path = session.startRecording(directory);
+
+    Thread sessionThread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        session.start();
+      }
+    });
+    sessionThread.start();
+
+    LoopbackClient client = new LoopbackClient(context, options);
+    try {
+      client.waitForKernel(SessionReplayTests.TIMEOUT);
+      client.execute("first", SessionReplayTests.TIMEOUT);
+      client.execute("second", SessionReplayTests.TIMEOUT);
+    }
+    finally {
+      client.close();
+      session.stop();
+      sessionThread.join(SessionReplayTests.TIMEOUT);
+      context.term();
+    }
+
+    return path;
+  }
+
+  @Test
+  public void testRecordAndReplay() throws Exception {
+    Path directory = Files.createTempDirectory("recordings");
+    List<MessageRecorder.Record> records =
+        MessageRecorder.read(SessionReplayTests.recordSession(directory));
+
+    List<String> incomingTypes = new ArrayList<String>();
+    List<String> outgoingTypes = new ArrayList<String>();
+    for (MessageRecorder.Record record: records) {
+      (record.isIncoming() ? incomingTypes : outgoingTypes).add(record.getType());
+    }
+    Assert.assertTrue(incomingTypes.contains(Message.ExecuteRequest));
+    Assert.assertTrue(outgoingTypes.contains(Message.ExecuteResponse));
+    Assert.assertTrue(outgoingTypes.contains(Message.DisplayData));
+    Assert.assertTrue(outgoingTypes.contains(Message.Stream));
+
+    // Replaying against an equivalent kernel results in the same replies and outputs.
+    SessionReplay replay = new SessionReplay(records, /* speed */ 0, SessionReplayTests.TIMEOUT);
+    ByteArrayOutputStream report = new ByteArrayOutputStream();
+    boolean matched = replay.compare(replay.replay(SessionReplayTests.createEvaluator(true)),
+                                     new PrintStream(report, true, "UTF-8"));
+    Assert.assertTrue(report.toString("UTF-8"), matched);
+    Assert.assertTrue(report.toString("UTF-8").contains("0 with differences"));
+
+    // Whereas differences in outputs are reported.
+    report = new ByteArrayOutputStream();
+    matched = replay.compare(replay.replay(SessionReplayTests.createEvaluator(false)),
+                             new PrintStream(report, true, "UTF-8"));
+    Assert.assertFalse(report.toString("UTF-8"), matched);
+    Assert.assertTrue(report.toString("UTF-8").contains("2 with differences"));
+    Assert.assertTrue(report.toString("UTF-8").contains("FIRST"));
+  }
+
+  @Test
+  public void testTruncatedRecording() throws Exception {
+    Path path = Files.createTempFile("recording", ".gz");
+    try {
+      // Records are readable as they are written, without the recording being closed.
+      MessageRecorder recorder = MessageRecorder.create(path);
+      for (int i = 0; i < 3; i++) {
+        recorder.record(/* incoming */ false, MessageChannel.Output,
+                        Messages.KernelStatus.createIdleStatus());
+      }
+      Assert.assertEquals(3, MessageRecorder.read(path).size());
+
+      // A recording cut off part way through a record is read up to the preceding record.
+      recorder.record(/* incoming */ false, MessageChannel.Output,
+                      Messages.KernelStatus.createIdleStatus());
+      byte[] bytes = Files.readAllBytes(path);
+      Files.write(path, Arrays.copyOf(bytes, bytes.length - 8));
+
+      List<MessageRecorder.Record> records = MessageRecorder.read(path);
+      Assert.assertEquals(3, records.size());
+      Assert.assertEquals(Message.Status, records.get(2).getType());
+
+      recorder.close();
+    }
+    finally {
+      Files.delete(path);
+    }
+  }
+}
@@ -0,0 +1,157 @@
+// EvaluationWatchdogTests.java
+//
+
+package ijava.kernel;
+
+import java.util.*;
+import org.junit.*;
+
+public final class EvaluationWatchdogTests {
+
+  private final static long TIMEOUT = 10000;
+
+  private static Set<Thread> getWatchdogThreads() {
+    Set<Thread> threads = new HashSet<Thread>();
+    for (Thread thread: Thread.getAllStackTraces().keySet()) {
+      if (thread.getName().equals("ijava-watchdog")) {
+        threads.add(thread);
+      }
+    }
+
+    return threads;
+  }
+
+  private static List<byte[]> allocate(int count) {
+    List<byte[]> blocks = new ArrayList<byte[]>();
+    for (int i = 0; i < count; i++) {
+      blocks.add(new byte[1024 * 1024]);
+    }
+    return blocks;
+  }
+
+  @Test
+  public void testUsage() {
+    EvaluationWatchdog watchdog = new EvaluationWatchdog();
+    Map<String, Object> metadata = new HashMap<String, Object>();
+
+    watchdog.begin(EvaluationLimits.None);
+    EvaluationWatchdogTests.allocate(8);
+    Assert.assertNull(watchdog.end(metadata));
+
+    Assert.assertTrue(metadata.containsKey(EvaluationWatchdog.WallTimeKey));
+    Assert.assertTrue(metadata.containsKey(EvaluationWatchdog.CpuTimeKey));
+    Assert.assertTrue((Long)metadata.get(EvaluationWatchdog.AllocationKey) >= 8 * 1024 * 1024);
+  }
+
+  @Test
+  public void testTimeLimit() {
+    EvaluationWatchdog watchdog = new EvaluationWatchdog();
+
+    long startTime = System.currentTimeMillis();
+    watchdog.begin(new EvaluationLimits(0, /* wallTime */ 100, 0));
+    try {
+      Thread.sleep(EvaluationWatchdogTests.TIMEOUT);
+      Assert.fail("Expected the sleep to be interrupted.");
+    }
+    catch (InterruptedException e) {
+    }
+    String violation = watchdog.end(new HashMap<String, Object>());
+
+    Assert.assertTrue(System.currentTimeMillis() - startTime < EvaluationWatchdogTests.TIMEOUT);
+    Assert.assertTrue(violation, violation.contains("time limit of 100 ms"));
+    Assert.assertFalse(Thread.currentThread().isInterrupted());
+  }
+
+  @Test
+  public void testCpuTimeLimit() {
+    EvaluationWatchdog watchdog = new EvaluationWatchdog();
+
+    long endTime = System.currentTimeMillis() + EvaluationWatchdogTests.TIMEOUT;
+    watchdog.begin(new EvaluationLimits(/* cpuTime */ 100, 0, 0));
+    long counter = 0;
+    while (!Thread.currentThread().isInterrupted() && (System.currentTimeMillis() < endTime)) {
+      counter++;
+    }
+    Assert.assertTrue(Thread.currentThread().isInterrupted());
+
+    // The interruption is cleared even if the evaluated code did not observe it.
+    String violation = watchdog.end(new HashMap<String, Object>());
+    Assert.assertTrue(violation, violation.contains("CPU time limit of 100 ms"));
+    Assert.assertFalse(Thread.currentThread().isInterrupted());
+    Assert.assertTrue(counter > 0);
+  }
+
+  @Test
+  public void testAllocationLimit() {
+    EvaluationWatchdog watchdog = new EvaluationWatchdog();
+
+    watchdog.begin(new EvaluationLimits(0, 0, /* allocation */ 16 * 1024 * 1024));
+    EvaluationWatchdogTests.allocate(32);
+    String violation = watchdog.end(new HashMap<String, Object>());
+
+    // Exceeding a limit is reported, even if it is only detected once the evaluation completes.
+    Assert.assertTrue(violation, violation.contains("allocation limit"));
+    Assert.assertFalse(Thread.currentThread().isInterrupted());
+  }
+
+  @Test
+  public void testMetadataLimits() {
+    EvaluationLimits limits = new EvaluationLimits(1000, 2000, 0);
+
+    Map<String, Object> metadata = new HashMap<String, Object>();
+    metadata.put(EvaluationLimits.CpuTimeKey, 50);
+    metadata.put(EvaluationLimits.AllocationKey, 1024L);
+
+    EvaluationLimits cellLimits = limits.override(metadata);
+    Assert.assertEquals(50L, cellLimits.getCpuTime());
+    Assert.assertEquals(2000L, cellLimits.getWallTime());
+    Assert.assertEquals(1024L, cellLimits.getAllocation());
+
+    Assert.assertFalse(EvaluationLimits.None.isLimited());
+    Assert.assertTrue(cellLimits.isLimited());
+  }
+
+  @Test
+  public void testMetadataCannotRelaxLimits() {
+    EvaluationLimits limits = new EvaluationLimits(1000, 2000, 4096);
+
+    // Metadata can neither raise nor remove the limits set for the kernel.
+    Map<String, Object> metadata = new HashMap<String, Object>();
+    metadata.put(EvaluationLimits.CpuTimeKey, 0);
+    metadata.put(EvaluationLimits.WallTimeKey, 5000);
+    metadata.put(EvaluationLimits.AllocationKey, -1);
+
+    EvaluationLimits cellLimits = limits.override(metadata);
+    Assert.assertEquals(1000L, cellLimits.getCpuTime());
+    Assert.assertEquals(2000L, cellLimits.getWallTime());
+    Assert.assertEquals(4096L, cellLimits.getAllocation());
+  }
+
+  @Test
+  public void testStop() throws Exception {
+    Set<Thread> existingThreads = EvaluationWatchdogTests.getWatchdogThreads();
+
+    EvaluationWatchdog watchdog = new EvaluationWatchdog();
+    watchdog.begin(new EvaluationLimits(0, /* wallTime */ 1000, 0));
+    watchdog.end(null);
+
+    Set<Thread> threads = EvaluationWatchdogTests.getWatchdogThreads();
+    threads.removeAll(existingThreads);
+    Assert.assertEquals(1, threads.size());
+
+    Thread thread = threads.iterator().next();
+    watchdog.stop();
+    thread.join(EvaluationWatchdogTests.TIMEOUT);
+    Assert.assertFalse(thread.isAlive());
+
+    // Evaluations are still tracked once the watchdog is stopped, without restarting it.
+    Map<String, Object> metadata = new HashMap<String, Object>();
+    watchdog.begin(new EvaluationLimits(0, /* wallTime */ 1000, 0));
+    Assert.assertNull(watchdog.end(metadata));
+    Assert.assertTrue(metadata.containsKey(EvaluationWatchdog.WallTimeKey));
+
+    threads = EvaluationWatchdogTests.getWatchdogThreads();
+    threads.removeAll(existingThreads);
+    Assert.assertTrue(threads.isEmpty());
+  }
+}
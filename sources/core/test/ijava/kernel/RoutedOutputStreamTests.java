@@ -0,0 +1,202 @@
+// RoutedOutputStreamTests.java
+//
+
+package ijava.kernel;
+
+import java.io.*;
+import java.util.concurrent.*;
+import org.junit.*;
+import ijava.extensibility.*;
+
+public final class RoutedOutputStreamTests {
+
+  private static void write(String text) {
+    try {
+      RoutedOutputStream.getOutput().write(text.getBytes("UTF-8"));
+    }
+    catch (IOException e) {
+      Assert.fail(e.getMessage());
+    }
+  }
+
+  private static Thread startWriter(final String text, final CountDownLatch signal) {
+    Thread thread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          signal.await();
+        }
+        catch (InterruptedException e) {
+          return;
+        }
+
+        RoutedOutputStreamTests.write(text);
+      }
+    });
+    thread.start();
+
+    return thread;
+  }
+
+  @Test
+  public void testInheritedStreams() throws Exception {
+    ByteArrayOutputStream first = new ByteArrayOutputStream();
+    ByteArrayOutputStream second = new ByteArrayOutputStream();
+    CountDownLatch signal = new CountDownLatch(1);
+
+    RoutedOutputStream.getOutput().setStream(first);
+    Thread firstThread = RoutedOutputStreamTests.startWriter("first thread", signal);
+    RoutedOutputStreamTests.write("first");
+
+    RoutedOutputStream.getOutput().setStream(second);
+    Thread secondThread = RoutedOutputStreamTests.startWriter("second thread", signal);
+    RoutedOutputStreamTests.write("second");
+    RoutedOutputStream.getOutput().setStream(null);
+
+    // Threads write to the stream that was current when they were started, even once the stream
+    // is no longer current.
+    signal.countDown();
+    firstThread.join();
+    secondThread.join();
+
+    Assert.assertEquals("firstfirst thread", first.toString("UTF-8"));
+    Assert.assertEquals("secondsecond thread", second.toString("UTF-8"));
+  }
+
+  @Test
+  public void testConcurrentRoutedTasks() throws Exception {
+    final ByteArrayOutputStream defaultStream = new ByteArrayOutputStream();
+    final RoutedOutputStream routedStream = new RoutedOutputStream(defaultStream);
+    final ByteArrayOutputStream first = new ByteArrayOutputStream();
+    final ByteArrayOutputStream second = new ByteArrayOutputStream();
+    final CyclicBarrier barrier = new CyclicBarrier(2);
+
+    // The executor threads are created while the first stream is current, and the fork/join
+    // workers are shared, so neither determines which stream tasks write to.
+    routedStream.setStream(first);
+    final ExecutorService executor = OutputRoutes.wrap(Executors.newFixedThreadPool(1));
+    executor.submit(new Runnable() {
+      @Override
+      public void run() {
+      }
+    }).get();
+    routedStream.setStream(null);
+    final ForkJoinPool pool = new ForkJoinPool(2);
+
+    class Context implements Callable<Void> {
+
+      private final ByteArrayOutputStream _stream;
+      private final String _name;
+
+      public Context(ByteArrayOutputStream stream, String name) {
+        _stream = stream;
+        _name = name;
+      }
+
+      private Callable<Void> createWriter(final String text) {
+        return new Callable<Void>() {
+          @Override
+          public Void call() throws Exception {
+            routedStream.write(text.getBytes("UTF-8"));
+            return null;
+          }
+        };
+      }
+
+      @Override
+      public Void call() throws Exception {
+        routedStream.setStream(_stream);
+        barrier.await();
+
+        for (int i = 0; i < 10; i++) {
+          executor.submit(createWriter(_name)).get();
+          pool.submit(OutputRoutes.wrap(createWriter(_name))).get();
+        }
+
+        // Tasks that are not wrapped use the default stream on fork/join workers, when there is
+        // no evaluation in progress.
+        pool.submit(createWriter("unrouted")).get();
+        return null;
+      }
+    }
+
+    ExecutorService contexts = Executors.newFixedThreadPool(2);
+    try {
+      Future<Void> firstContext = contexts.submit(new Context(first, "a"));
+      Future<Void> secondContext = contexts.submit(new Context(second, "b"));
+      firstContext.get();
+      secondContext.get();
+    }
+    finally {
+      contexts.shutdown();
+      executor.shutdown();
+      pool.shutdown();
+    }
+
+    Assert.assertEquals("aaaaaaaaaaaaaaaaaaaa", first.toString("UTF-8"));
+    Assert.assertEquals("bbbbbbbbbbbbbbbbbbbb", second.toString("UTF-8"));
+    Assert.assertEquals("unroutedunrouted", defaultStream.toString("UTF-8"));
+  }
+
+  @Test
+  public void testForkJoinEvaluationStreams() throws Exception {
+    final ByteArrayOutputStream defaultStream = new ByteArrayOutputStream();
+    final RoutedOutputStream routedStream = new RoutedOutputStream(defaultStream);
+    ByteArrayOutputStream first = new ByteArrayOutputStream();
+    final ByteArrayOutputStream second = new ByteArrayOutputStream();
+
+    final Runnable writer = new Runnable() {
+      @Override
+      public void run() {
+        try {
+          routedStream.write('x');
+        }
+        catch (IOException e) {
+          Assert.fail(e.getMessage());
+        }
+      }
+    };
+    ForkJoinPool pool = new ForkJoinPool(2);
+    try {
+      // While a single evaluation is in progress, fork/join workers write to its streams.
+      routedStream.setStream(first);
+      OutputRoutes.beginEvaluation();
+      pool.submit(writer).get();
+
+      // Once another evaluation is in progress, it is unknown which one a task belongs to.
+      final CountDownLatch begun = new CountDownLatch(1);
+      final CountDownLatch written = new CountDownLatch(1);
+      Thread evaluation = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          routedStream.setStream(second);
+          OutputRoutes.beginEvaluation();
+          begun.countDown();
+          try {
+            written.await();
+          }
+          catch (InterruptedException e) {
+          }
+          OutputRoutes.endEvaluation();
+        }
+      });
+      evaluation.start();
+      begun.await();
+      pool.submit(writer).get();
+      written.countDown();
+      evaluation.join();
+
+      OutputRoutes.endEvaluation();
+      routedStream.setStream(null);
+      pool.submit(writer).get();
+    }
+    finally {
+      OutputRoutes.endEvaluation();
+      pool.shutdown();
+    }
+
+    Assert.assertEquals("x", first.toString("UTF-8"));
+    Assert.assertEquals("", second.toString("UTF-8"));
+    Assert.assertEquals("xx", defaultStream.toString("UTF-8"));
+  }
+}
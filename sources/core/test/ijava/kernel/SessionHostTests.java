@@ -0,0 +1,286 @@
+// SessionHostTests.java
+//
+
+package ijava.kernel;
+
+import java.io.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.nio.file.attribute.*;
+import java.util.*;
+import org.junit.*;
+import org.zeromq.*;
+import org.zeromq.ZMQ.*;
+import ijava.extensibility.*;
+import ijava.kernel.protocol.*;
+
+public final class SessionHostTests {
+
+  private final static String KEY = "control-key";
+
+  private Context _context;
+
+  @Before
+  public void setUp() {
+    _context = ZMQ.context(1);
+  }
+
+  @After
+  public void tearDown() {
+    _context.term();
+  }
+
+  private static int getFreePort() throws IOException {
+    java.net.ServerSocket socket = new java.net.ServerSocket(0);
+    try {
+      return socket.getLocalPort();
+    }
+    finally {
+      socket.close();
+    }
+  }
+
+  private static Path createConnectionFile(Path directory, int heartbeatPort) throws IOException {
+    String json = String.format(
+        "{ \"ip\": \"127.0.0.1\", \"transport\": \"tcp\", \"key\": \"\", " +
+        "\"signature_scheme\": \"hmac-sha256\", \"hb_port\": %d, \"control_port\": %d, " +
+        "\"shell_port\": %d, \"iopub_port\": %d, \"stdin_port\": %d }",
+        heartbeatPort,
+        SessionHostTests.getFreePort(), SessionHostTests.getFreePort(),
+        SessionHostTests.getFreePort(), SessionHostTests.getFreePort());
+
+    Path path = directory.resolve("kernel-" + heartbeatPort + ".json");
+    Files.write(path, json.getBytes(StandardCharsets.UTF_8));
+    return path;
+  }
+
+  private static SessionHost createHost() {
+    SessionHost host = new SessionHost(new SessionHost.EvaluatorFactory() {
+      @Override
+      public Evaluator createEvaluator() {
+        return new Evaluator() {
+          @Override
+          public Object evaluate(String data, long evaluationID, Map<String, Object> metadata) {
+            return data;
+          }
+        };
+      }
+    });
+    host.setControlKey(SessionHostTests.KEY);
+
+    return host;
+  }
+
+  private static Thread startHost(final SessionHost host, final int controlPort) {
+    Thread hostThread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        host.run(controlPort);
+      }
+    });
+    hostThread.start();
+
+    return hostThread;
+  }
+
+  private String request(int port, String... data) {
+    Socket socket = _context.socket(ZMQ.REQ);
+    try {
+      socket.setReceiveTimeOut(5000);
+      socket.setLinger(0);
+      socket.connect(String.format("tcp://127.0.0.1:%d", port));
+
+      for (int i = 0; i < data.length - 1; i++) {
+        socket.sendMore(data[i]);
+      }
+      socket.send(data[data.length - 1]);
+      return socket.recvStr();
+    }
+    finally {
+      socket.close();
+    }
+  }
+
+  private static String[] createRequest(String key, long timestamp, String connectionFile) {
+    String time = Long.toString(timestamp);
+    String nonce = UUID.randomUUID().toString();
+    String signature =
+        MessageSigner.create(key, "hmac-sha256").signature(time, nonce, connectionFile);
+
+    return new String[] { signature, time, nonce, connectionFile };
+  }
+
+  private String addSession(int controlPort, String connectionFile) {
+    return request(controlPort, SessionHostTests.createRequest(SessionHostTests.KEY,
+                                                               System.currentTimeMillis(),
+                                                               connectionFile));
+  }
+
+  @Test
+  public void testHostedSessions() throws Exception {
+    final List<Evaluator> evaluators = new ArrayList<Evaluator>();
+    final SessionHost host = new SessionHost(new SessionHost.EvaluatorFactory() {
+      @Override
+      public Evaluator createEvaluator() {
+        Evaluator evaluator = new Evaluator() {
+          @Override
+          public Object evaluate(String data, long evaluationID, Map<String, Object> metadata) {
+            return data;
+          }
+        };
+        evaluators.add(evaluator);
+        return evaluator;
+      }
+    });
+    host.setControlKey(SessionHostTests.KEY);
+
+    Path directory = Files.createTempDirectory("connections");
+    int heartbeatPort1 = SessionHostTests.getFreePort();
+    int heartbeatPort2 = SessionHostTests.getFreePort();
+    int controlPort = SessionHostTests.getFreePort();
+
+    Session session1 = host.addSession(SessionOptions.load(
+        SessionHostTests.createConnectionFile(directory, heartbeatPort1).toString()));
+
+    Thread hostThread = SessionHostTests.startHost(host, controlPort);
+
+    try {
+      // Sessions can be added via the control socket.
+      Path connectionFile2 = SessionHostTests.createConnectionFile(directory, heartbeatPort2);
+      Assert.assertEquals("ok", addSession(controlPort, connectionFile2.toString()));
+      Assert.assertTrue(addSession(controlPort, "missing.json").startsWith("error:"));
+
+      Assert.assertEquals(2, host.getSessionCount());
+      Assert.assertEquals(2, evaluators.size());
+      Assert.assertNotSame(evaluators.get(0), evaluators.get(1));
+
+      Assert.assertEquals("ping1", request(heartbeatPort1, "ping1"));
+      Assert.assertEquals("ping2", request(heartbeatPort2, "ping2"));
+
+      // Ending one session leaves the other running.
+      session1.endSession();
+      for (int i = 0; (i < 50) && (host.getSessionCount() != 1); i++) {
+        Thread.sleep(100);
+      }
+      Assert.assertEquals(1, host.getSessionCount());
+      Assert.assertEquals("ping2", request(heartbeatPort2, "ping2"));
+    }
+    finally {
+      host.stop();
+      hostThread.join(10000);
+    }
+
+    Assert.assertFalse(hostThread.isAlive());
+    Assert.assertEquals(0, host.getSessionCount());
+  }
+
+  @Test
+  public void testUnsignedControlRequests() throws Exception {
+    SessionHost host = SessionHostTests.createHost();
+
+    Path directory = Files.createTempDirectory("connections");
+    int heartbeatPort = SessionHostTests.getFreePort();
+    int controlPort = SessionHostTests.getFreePort();
+    String connectionFile =
+        SessionHostTests.createConnectionFile(directory, heartbeatPort).toString();
+
+    Thread hostThread = SessionHostTests.startHost(host, controlPort);
+    try {
+      // Requests without a signature, or signed with a different key, are rejected.
+      String[] otherRequest = SessionHostTests.createRequest("other-key",
+                                                             System.currentTimeMillis(),
+                                                             connectionFile);
+      String signature =
+          MessageSigner.create(SessionHostTests.KEY, "hmac-sha256").signature(connectionFile);
+      Assert.assertTrue(request(controlPort, connectionFile).startsWith("error:"));
+      Assert.assertTrue(request(controlPort, signature, connectionFile).startsWith("error:"));
+      Assert.assertTrue(request(controlPort, otherRequest).startsWith("error:"));
+      otherRequest[0] = "";
+      Assert.assertTrue(request(controlPort, otherRequest).startsWith("error:"));
+      Assert.assertEquals(0, host.getSessionCount());
+
+      Assert.assertEquals("ok", addSession(controlPort, connectionFile));
+      Assert.assertEquals(1, host.getSessionCount());
+    }
+    finally {
+      host.stop();
+      hostThread.join(10000);
+    }
+  }
+
+  @Test
+  public void testReplayedControlRequests() throws Exception {
+    SessionHost host = SessionHostTests.createHost();
+
+    Path directory = Files.createTempDirectory("connections");
+    int controlPort = SessionHostTests.getFreePort();
+    String connectionFile1 =
+        SessionHostTests.createConnectionFile(directory, SessionHostTests.getFreePort()).toString();
+    String connectionFile2 =
+        SessionHostTests.createConnectionFile(directory, SessionHostTests.getFreePort()).toString();
+
+    Thread hostThread = SessionHostTests.startHost(host, controlPort);
+    try {
+      // A correctly signed request can only be processed once.
+      String[] controlRequest = SessionHostTests.createRequest(SessionHostTests.KEY,
+                                                               System.currentTimeMillis(),
+                                                               connectionFile1);
+      Assert.assertEquals("ok", request(controlPort, controlRequest));
+      Assert.assertTrue(request(controlPort, controlRequest).startsWith("error:"));
+      Assert.assertEquals(1, host.getSessionCount());
+
+      // Requests signed long before, or after, they are received are rejected.
+      long hour = 60 * 60 * 1000;
+      String[] staleRequest = SessionHostTests.createRequest(SessionHostTests.KEY,
+                                                             System.currentTimeMillis() - hour,
+                                                             connectionFile2);
+      String[] futureRequest = SessionHostTests.createRequest(SessionHostTests.KEY,
+                                                              System.currentTimeMillis() + hour,
+                                                              connectionFile2);
+      Assert.assertTrue(request(controlPort, staleRequest).startsWith("error:"));
+      Assert.assertTrue(request(controlPort, futureRequest).startsWith("error:"));
+      Assert.assertEquals(1, host.getSessionCount());
+    }
+    finally {
+      host.stop();
+      hostThread.join(10000);
+    }
+  }
+
+  @Test
+  public void testControlKeyFile() throws Exception {
+    Path path = Files.createTempFile("host", ".key");
+    try {
+      Files.write(path, (SessionHostTests.KEY + "\n").getBytes(StandardCharsets.UTF_8));
+      if (!FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+        return;
+      }
+
+      Files.setPosixFilePermissions(path, PosixFilePermissions.fromString("rw-r--r--"));
+      try {
+        SessionHost.readControlKey(path);
+        Assert.fail("Expected a key file readable by other users to be rejected.");
+      }
+      catch (IOException e) {
+        Assert.assertTrue(e.getMessage().contains("only be accessible by its owner"));
+      }
+
+      Files.setPosixFilePermissions(path, PosixFilePermissions.fromString("rw-------"));
+      Assert.assertEquals(SessionHostTests.KEY, SessionHost.readControlKey(path));
+    }
+    finally {
+      Files.delete(path);
+    }
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testControlSocketRequiresKey() {
+    SessionHost host = new SessionHost(null);
+    try {
+      host.run(1);
+    }
+    finally {
+      host.stop();
+    }
+  }
+}
@@ -0,0 +1,124 @@
+// KernelLatencyTests.java
+//
+
+package ijava.kernel.protocol;
+
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import org.junit.*;
+import org.zeromq.*;
+import org.zeromq.ZMQ.*;
+import ijava.extensibility.*;
+import ijava.kernel.*;
+
+public final class KernelLatencyTests {
+
+  private final static int EXECUTIONS = 10;
+  private final static long TIMEOUT = 10000;
+
+  private Path _connectionFile;
+  private Context _context;
+  private Session _session;
+  private Thread _sessionThread;
+  private LoopbackClient _client;
+
+  @Before
+  public void setUp() throws Exception {
+    // The session and client communicate over inproc sockets in a shared context, so the
+    // measured latency is that of the kernel, rather than the network.
+    _connectionFile = Files.createTempFile("kernel", ".json");
+    String json =
+        "{ \"ip\": \"loopback\", \"transport\": \"inproc\", \"key\": \"secret\", " +
+        "\"signature_scheme\": \"hmac-sha256\", \"hb_port\": 1, \"control_port\": 2, " +
+        "\"shell_port\": 3, \"iopub_port\": 4, \"stdin_port\": 5 }";
+    Files.write(_connectionFile, json.getBytes(StandardCharsets.UTF_8));
+    SessionOptions options = SessionOptions.load(_connectionFile.toString());
+
+    Evaluator evaluator = new Evaluator() {
+      @Override
+      public Object evaluate(String data, long evaluationID, Map<String, Object> metadata) {
+        System.out.print("Evaluating " + evaluationID);
+        return data.toUpperCase();
+      }
+    };
+
+    _context = ZMQ.context(1);
+    _session = new Session(options, evaluator, _context);
+    _sessionThread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        _session.start();
+      }
+    });
+    _sessionThread.start();
+
+    _client = new LoopbackClient(_context, options);
+    _client.waitForKernel(KernelLatencyTests.TIMEOUT);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    _client.close();
+    _session.stop();
+    _sessionThread.join(KernelLatencyTests.TIMEOUT);
+    _context.term();
+    Files.deleteIfExists(_connectionFile);
+  }
+
+  private static long toMillis(long nanos) {
+    return TimeUnit.NANOSECONDS.toMillis(nanos);
+  }
+
+  @Test
+  public void testExecuteMessages() throws Exception {
+    LoopbackClient.Execution execution = _client.execute("hello", KernelLatencyTests.TIMEOUT);
+
+    Assert.assertEquals("ok", execution.getStatus());
+    Assert.assertTrue(execution.getOutput().startsWith("Evaluating "));
+    Assert.assertEquals("HELLO", execution.getData().get("text/plain"));
+
+    // Messages are published in order over iopub, and the reply is sent after the display data.
+    Assert.assertTrue(execution.getBusyTime() >= 0);
+    Assert.assertTrue(execution.getStreamTime() >= execution.getBusyTime());
+    Assert.assertTrue(execution.getDisplayDataTime() >= execution.getStreamTime());
+    Assert.assertTrue(execution.getIdleTime() >= execution.getDisplayDataTime());
+    Assert.assertTrue(execution.getReplyTime() >= 0);
+  }
+
+  /**
+   * Measures the time for the reply and the idle status of a sequence of executions. The worker
+   * is woken as requests are queued, and reports being idle as soon as it drains its queue, so
+   * the measured latency is that of processing requests, rather than of polling for them.
+   */
+  @Test
+  public void testExecuteLatency() throws Exception {
+    long[] replyTimes = new long[KernelLatencyTests.EXECUTIONS];
+    long[] idleTimes = new long[KernelLatencyTests.EXECUTIONS];
+    for (int i = 0; i < KernelLatencyTests.EXECUTIONS; i++) {
+      LoopbackClient.Execution execution =
+          _client.execute("request" + i, KernelLatencyTests.TIMEOUT);
+      Assert.assertEquals("REQUEST" + i, execution.getData().get("text/plain"));
+
+      replyTimes[i] = execution.getReplyTime();
+      idleTimes[i] = execution.getIdleTime();
+    }
+
+    Arrays.sort(replyTimes);
+    Arrays.sort(idleTimes);
+    System.out.println(String.format(
+        "execute_request latency over %d executions (ms): " +
+        "reply median %d, max %d; idle median %d, max %d",
+        KernelLatencyTests.EXECUTIONS,
+        KernelLatencyTests.toMillis(replyTimes[replyTimes.length / 2]),
+        KernelLatencyTests.toMillis(replyTimes[replyTimes.length - 1]),
+        KernelLatencyTests.toMillis(idleTimes[idleTimes.length / 2]),
+        KernelLatencyTests.toMillis(idleTimes[idleTimes.length - 1])));
+
+    // A generous bound, which still catches requests stalling within the kernel, e.g. waiting
+    // out the worker's polling interval, rather than being woken when requests are queued.
+    Assert.assertTrue(KernelLatencyTests.toMillis(idleTimes[idleTimes.length / 2]) < 250);
+    Assert.assertTrue(KernelLatencyTests.toMillis(idleTimes[idleTimes.length - 1]) < 5000);
+  }
+}
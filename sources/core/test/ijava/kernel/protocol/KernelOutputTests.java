@@ -0,0 +1,110 @@
+// KernelOutputTests.java
+//
+
+package ijava.kernel.protocol;
+
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+import org.junit.*;
+import org.zeromq.*;
+import org.zeromq.ZMQ.*;
+import ijava.kernel.*;
+import ijava.shell.*;
+import ijava.shell.compiler.*;
+
+public final class KernelOutputTests {
+
+  private final static long TIMEOUT = 30000;
+
+  private Path _connectionFile;
+  private Context _context;
+  private Session _session;
+  private Thread _sessionThread;
+  private LoopbackClient _client;
+
+  @Before
+  public void setUp() throws Exception {
+    _connectionFile = Files.createTempFile("kernel", ".json");
+    String json =
+        "{ \"ip\": \"output\", \"transport\": \"inproc\", \"key\": \"secret\", " +
+        "\"signature_scheme\": \"hmac-sha256\", \"hb_port\": 1, \"control_port\": 2, " +
+        "\"shell_port\": 3, \"iopub_port\": 4, \"stdin_port\": 5 }";
+    Files.write(_connectionFile, json.getBytes(StandardCharsets.UTF_8));
+    SessionOptions options = SessionOptions.load(_connectionFile.toString());
+
+    InteractiveShell shell = new InteractiveShell();
+    shell.initialize(InteractiveCapturesTests.createAppDirectory().toUri().toURL(),
+                     new ArrayList<String>(), new ArrayList<String>(), new ArrayList<String>());
+    shell.setLanguageLevel(LanguageLevel.Java8);
+
+    _context = ZMQ.context(1);
+    _session = new Session(options, shell, _context);
+    _sessionThread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        _session.start();
+      }
+    });
+    _sessionThread.start();
+
+    _client = new LoopbackClient(_context, options);
+    _client.waitForKernel(KernelOutputTests.TIMEOUT);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    _client.close();
+    _session.stop();
+    _sessionThread.join(KernelOutputTests.TIMEOUT);
+    _context.term();
+    Files.deleteIfExists(_connectionFile);
+  }
+
+  private String execute(String code) throws Exception {
+    LoopbackClient.Execution execution = _client.execute(code, KernelOutputTests.TIMEOUT);
+    Assert.assertEquals(execution.getOutput(), "ok", execution.getStatus());
+
+    return execution.getOutput();
+  }
+
+  private static Set<String> getLines(String output) {
+    return new HashSet<String>(Arrays.asList(output.trim().split("\\r?\\n")));
+  }
+
+  @Test
+  public void testForkJoinOutput() throws Exception {
+    // Output written by fork/join workers, which are shared across executions, is part of the
+    // output of the execution in progress.
+    Set<String> lines = KernelOutputTests.getLines(execute(
+        "java.util.stream.IntStream.range(0, 100).parallel().forEach(System.out::println);"));
+    for (int i = 0; i < 100; i++) {
+      Assert.assertTrue(Integer.toString(i), lines.contains(Integer.toString(i)));
+    }
+
+    execute("java.util.concurrent.ForkJoinPool pool = new java.util.concurrent.ForkJoinPool(2);");
+    Assert.assertEquals("worker\n",
+                        execute("pool.submit(() -> System.out.println(\"worker\")).get();"));
+  }
+
+  @Test
+  public void testCapturedExecutorOutput() throws Exception {
+    // The thread of an executor is created by the execution that first submits a task, so
+    // without capturing output, later tasks would write to the output of that execution.
+    execute("java.util.concurrent.ExecutorService executor = " +
+            "captureOutput(java.util.concurrent.Executors.newFixedThreadPool(1));");
+    execute("Runnable task = () -> System.out.println(\"task\");");
+
+    Assert.assertEquals("first\n",
+                        execute("executor.submit(() -> System.out.println(\"first\")).get();"));
+    Assert.assertEquals("second\n",
+                        execute("executor.submit(() -> System.out.println(\"second\")).get();"));
+
+    // Individual tasks can also be wrapped, e.g. when submitted to an existing executor.
+    execute("java.util.concurrent.ExecutorService plain = " +
+            "java.util.concurrent.Executors.newFixedThreadPool(1);");
+    execute("plain.submit(task).get();");
+    Assert.assertEquals("task\n", execute("plain.submit(captureOutput(task)).get();"));
+    execute("executor.shutdown(); plain.shutdown();");
+  }
+}
@@ -0,0 +1,278 @@
+// LoopbackClient.java
+//
+
+package ijava.kernel.protocol;
+
+import java.nio.charset.*;
+import java.util.*;
+import java.util.concurrent.*;
+import org.zeromq.*;
+import org.zeromq.ZMQ.*;
+import ijava.kernel.*;
+
+/**
+ * Implements a minimal kernel client, that connects to the shell and iopub sockets of a session
+ * (over the inproc or tcp transport), and speaks the signed wire protocol to execute code. It
+ * records when each of the messages resulting from an execution are received, so that the
+ * latency of the kernel can be measured without a notebook frontend.
+ */
+public final class LoopbackClient {
+
+  private final static int POLL_INTERVAL = 10;
+
+  private final MessageSigner _signer;
+  private final String _sessionId;
+
+  private final Socket _shellSocket;
+  private final Socket _ioPubSocket;
+  private final ZMQ.Poller _poller;
+
+  /**
+   * Creates an instance of a LoopbackClient, connected to the specified session.
+   * @param context the ZMQ context to create sockets with. This must be the context of the
+   *                session, when using the inproc transport.
+   * @param options the options describing the session to connect to.
+   */
+  public LoopbackClient(Context context, SessionOptions options) {
+    _signer = MessageSigner.create(options.getSignatureKey(), options.getSignatureScheme());
+    _sessionId = UUID.randomUUID().toString();
+
+    // As with frontends, the session id is used as the identity, since the kernel reads and
+    // writes identities as strings, and a generated binary identity wouldn't round-trip.
+    _shellSocket = context.socket(ZMQ.DEALER);
+    _shellSocket.setIdentity(_sessionId.getBytes(StandardCharsets.UTF_8));
+    _shellSocket.setLinger(0);
+    _shellSocket.connect(LoopbackClient.getAddress(options, options.getShellPort()));
+
+    _ioPubSocket = context.socket(ZMQ.SUB);
+    _ioPubSocket.setLinger(0);
+    _ioPubSocket.subscribe(new byte[0]);
+    _ioPubSocket.connect(LoopbackClient.getAddress(options, options.getIOPubPort()));
+
+    _poller = new ZMQ.Poller(2);
+    _poller.register(_shellSocket, ZMQ.Poller.POLLIN);
+    _poller.register(_ioPubSocket, ZMQ.Poller.POLLIN);
+  }
+
+  private static String getAddress(SessionOptions options, int port) {
+    return String.format("%s://%s:%d", options.getTransport(), options.getIP(), port);
+  }
+
+  /**
+   * Closes the sockets of the client.
+   */
+  public void close() {
+    _shellSocket.close();
+    _ioPubSocket.close();
+  }
+
+  /**
+   * Waits until the client is connected and subscribed to published messages, by executing
+   * empty requests until the resulting status messages are received. Messages published before
+   * a subscription has been established are dropped, and would otherwise be missed.
+   * @param timeout the time to wait for, in milliseconds.
+   * @throws TimeoutException if the kernel did not respond in time.
+   */
+  public void waitForKernel(long timeout) throws TimeoutException {
+    long endTime = System.currentTimeMillis() + timeout;
+    while (System.currentTimeMillis() < endTime) {
+      try {
+        Execution execution = execute("", Math.min(endTime - System.currentTimeMillis(), 2000));
+        if (execution.getBusyTime() >= 0) {
+          return;
+        }
+      }
+      catch (TimeoutException e) {
+        // The reply or status messages were missed; try again.
+      }
+    }
+
+    throw new TimeoutException("The kernel did not respond.");
+  }
+
+  /**
+   * Executes the specified code, and waits for the execution to complete, i.e. until both the
+   * reply and the idle status have been received.
+   * @param code the code to execute.
+   * @param timeout the time to wait for, in milliseconds.
+   * @return the resulting execution, including the received messages and their timings.
+   * @throws TimeoutException if the execution did not complete in time.
+   */
+  public Execution execute(String code, long timeout) throws TimeoutException {
+    Message request = createExecuteRequest(code);
+    Execution execution = new Execution();
+
+    long startTime = System.nanoTime();
+    long endTime = startTime + TimeUnit.MILLISECONDS.toNanos(timeout);
+    MessageIO.writeMessage(_shellSocket, _signer, request);
+
+    while (!execution.isCompleted()) {
+      long currentTime = System.nanoTime();
+      if (currentTime >= endTime) {
+        throw new TimeoutException("Timed out waiting for the execution of '" + code + "'.");
+      }
+
+      _poller.poll(LoopbackClient.POLL_INTERVAL);
+      if (_poller.pollin(0)) {
+        execution.receiveMessage(MessageIO.readMessage(_shellSocket, _signer, /* anyType */ true),
+                                 request, System.nanoTime() - startTime);
+      }
+      if (_poller.pollin(1)) {
+        execution.receiveMessage(MessageIO.readMessage(_ioPubSocket, _signer, /* anyType */ true),
+                                 request, System.nanoTime() - startTime);
+      }
+    }
+
+    return execution;
+  }
+
+  private Message createExecuteRequest(String code) {
+    Map<String, Object> header = new HashMap<String, Object>();
+    header.put("msg_id", UUID.randomUUID().toString().replace("-", ""));
+    header.put("msg_type", Message.ExecuteRequest);
+    header.put("session", _sessionId);
+    header.put("username", "loopback");
+
+    Map<String, Object> content = new HashMap<String, Object>();
+    content.put("code", code);
+    content.put("silent", false);
+    content.put("store_history", true);
+    content.put("allow_stdin", false);
+    content.put("user_expressions", new HashMap<String, Object>());
+
+    return new Messages.ExecuteRequest(null, header, new HashMap<String, Object>(),
+                                       new HashMap<String, Object>(), content);
+  }
+
+
+  /**
+   * Represents the messages received as a result of executing a request, along with the times
+   * they were received at, in nanoseconds relative to when the request was sent.
+   */
+  public static final class Execution {
+
+    private long _busyTime;
+    private long _streamTime;
+    private long _displayDataTime;
+    private long _replyTime;
+    private long _idleTime;
+
+    private final StringBuilder _output;
+    private Map<String, Object> _data;
+    private String _status;
+
+    private Execution() {
+      _busyTime = -1;
+      _streamTime = -1;
+      _displayDataTime = -1;
+      _replyTime = -1;
+      _idleTime = -1;
+
+      _output = new StringBuilder();
+    }
+
+    /**
+     * Gets the time the busy status was received at.
+     * @return the time in nanoseconds, or -1 if it was not received.
+     */
+    public long getBusyTime() {
+      return _busyTime;
+    }
+
+    /**
+     * Gets the time the first stream message was received at.
+     * @return the time in nanoseconds, or -1 if none was received.
+     */
+    public long getStreamTime() {
+      return _streamTime;
+    }
+
+    /**
+     * Gets the time the display data message was received at.
+     * @return the time in nanoseconds, or -1 if none was received.
+     */
+    public long getDisplayDataTime() {
+      return _displayDataTime;
+    }
+
+    /**
+     * Gets the time the execute reply was received at.
+     * @return the time in nanoseconds.
+     */
+    public long getReplyTime() {
+      return _replyTime;
+    }
+
+    /**
+     * Gets the time the idle status was received at.
+     * @return the time in nanoseconds.
+     */
+    public long getIdleTime() {
+      return _idleTime;
+    }
+
+    /**
+     * Gets the display data resulting from the execution.
+     * @return the display data as mime/value pairs, or null if there was none.
+     */
+    public Map<String, Object> getData() {
+      return _data;
+    }
+
+    /**
+     * Gets the text written to the output and error streams during the execution.
+     * @return the stream output.
+     */
+    public String getOutput() {
+      return _output.toString();
+    }
+
+    /**
+     * Gets the status of the execution, as indicated by the execute reply.
+     * @return the status of the execution.
+     */
+    public String getStatus() {
+      return _status;
+    }
+
+    private boolean isCompleted() {
+      return (_replyTime >= 0) && (_idleTime >= 0);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void receiveMessage(Message message, Message request, long time) {
+      if (message == null) {
+        return;
+      }
+
+      if (!request.getId().equals(message.getParentHeader().get("msg_id"))) {
+        return;
+      }
+
+      String type = message.getType();
+      if (type.equals(Message.Status)) {
+        String state = (String)message.getContent().get("execution_state");
+        if (state.equals("busy")) {
+          _busyTime = time;
+        }
+        else if (state.equals("idle")) {
+          _idleTime = time;
+        }
+      }
+      else if (type.equals(Message.Stream)) {
+        if (_streamTime < 0) {
+          _streamTime = time;
+        }
+        _output.append((String)message.getContent().get("data"));
+      }
+      else if (type.equals(Message.DisplayData)) {
+        _displayDataTime = time;
+        _data = (Map<String, Object>)message.getContent().get("data");
+      }
+      else if (type.equals(Message.ExecuteResponse)) {
+        _replyTime = time;
+        _status = (String)message.getContent().get("status");
+      }
+    }
+  }
+}
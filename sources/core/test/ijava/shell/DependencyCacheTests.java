@@ -0,0 +1,43 @@
+// DependencyCacheTests.java
+//
+
+package ijava.shell;
+
+import java.nio.file.*;
+import java.nio.file.attribute.*;
+import java.util.*;
+import org.junit.*;
+
+public final class DependencyCacheTests {
+
+  @Test
+  public void testCachedDependencies() throws Exception {
+    Path directory = Files.createTempDirectory("cache");
+    Path jarPath = directory.resolve("lib.jar");
+    Files.write(jarPath, new byte[] { 1, 2, 3 });
+
+    String key = "maven:///g/a/1";
+    List<String> jars = Arrays.asList(jarPath.toString());
+
+    DependencyCache cache = new DependencyCache(directory.resolve("entries"));
+    Assert.assertNull(cache.get(key));
+
+    cache.put(key, jars);
+    Assert.assertEquals(jars, cache.get(key));
+    Assert.assertNull(cache.get("maven:///g/a/2"));
+
+    // Entries are shared across instances, i.e. sessions.
+    Assert.assertEquals(jars, new DependencyCache(directory.resolve("entries")).get(key));
+
+    // Entries referencing jars that have changed are not used.
+    Files.write(jarPath, new byte[] { 1, 2, 3, 4 });
+    Assert.assertNull(cache.get(key));
+
+    cache.put(key, jars);
+    Files.setLastModifiedTime(jarPath, FileTime.fromMillis(0));
+    Assert.assertNull(cache.get(key));
+
+    Files.delete(jarPath);
+    Assert.assertNull(cache.get(key));
+  }
+}
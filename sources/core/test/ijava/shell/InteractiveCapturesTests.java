@@ -0,0 +1,98 @@
+// InteractiveCapturesTests.java
+//
+
+package ijava.shell;
+
+import java.io.*;
+import java.net.*;
+import java.nio.file.*;
+import java.nio.file.attribute.*;
+import java.util.*;
+import java.util.jar.*;
+import ijava.shell.compiler.*;
+import org.junit.*;
+
+public final class InteractiveCapturesTests {
+
+  private InteractiveShell _shell;
+
+  @Before
+  public void setUp() throws Exception {
+    _shell = new InteractiveShell();
+    _shell.initialize(InteractiveCapturesTests.createAppDirectory().toUri().toURL(),
+                      new ArrayList<String>(), new ArrayList<String>(), new ArrayList<String>());
+    _shell.setLanguageLevel(LanguageLevel.Java8);
+  }
+
+  /**
+   * Creates an application directory containing the jars code blocks are compiled against, from
+   * the classes on the test class path.
+   */
+  public static Path createAppDirectory() throws IOException {
+    Path directory = Files.createTempDirectory("app");
+    InteractiveCapturesTests.copyJar(ijava.JavaHelpers.class, directory.resolve("ijavart.jar"));
+    InteractiveCapturesTests.copyJar(org.joda.time.DateTime.class,
+                                     directory.resolve("joda-time.jar"));
+
+    return directory;
+  }
+
+  private static void copyJar(Class<?> type, Path jarPath) throws IOException {
+    Path location;
+    try {
+      location = Paths.get(type.getProtectionDomain().getCodeSource().getLocation().toURI());
+    }
+    catch (URISyntaxException e) {
+      throw new IOException(e);
+    }
+
+    if (Files.isRegularFile(location)) {
+      Files.copy(location, jarPath);
+      return;
+    }
+
+    // Classes built within the same build are in a directory, rather than a jar.
+    final Path classesPath = location;
+    final JarOutputStream stream = new JarOutputStream(Files.newOutputStream(jarPath));
+    try {
+      Files.walkFileTree(classesPath, new SimpleFileVisitor<Path>() {
+        @Override
+        public FileVisitResult visitFile(Path path, BasicFileAttributes attributes)
+            throws IOException {
+          String entryName = classesPath.relativize(path).toString().replace('\\', '/');
+          stream.putNextEntry(new JarEntry(entryName));
+          Files.copy(path, stream);
+          stream.closeEntry();
+
+          return FileVisitResult.CONTINUE;
+        }
+      });
+    }
+    finally {
+      stream.close();
+    }
+  }
+
+  private Object evaluate(String code, int evaluationID) throws Exception {
+    return _shell.evaluate(code, evaluationID, new HashMap<String, Object>());
+  }
+
+  @Test
+  public void testLambdaSeesReassignment() throws Exception {
+    evaluate("int count = 1;", 1);
+    evaluate("java.util.concurrent.Callable<Integer> read = () -> count;", 2);
+    evaluate("count = 5;", 3);
+
+    Assert.assertEquals(5, evaluate("read.call()", 4));
+  }
+
+  @Test
+  public void testLambdaWriteReachesState() throws Exception {
+    evaluate("int count = 1;", 1);
+    evaluate("Runnable increment = () -> count++;", 2);
+    evaluate("increment.run();", 3);
+
+    Assert.assertEquals(2, _shell.getVariable("count"));
+    Assert.assertEquals(2, evaluate("count", 4));
+  }
+}
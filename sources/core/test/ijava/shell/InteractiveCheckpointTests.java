@@ -0,0 +1,140 @@
+// InteractiveCheckpointTests.java
+//
+
+package ijava.shell;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import org.junit.*;
+
+public final class InteractiveCheckpointTests {
+
+  private static InteractiveShell createShell() throws Exception {
+    InteractiveShell shell = new InteractiveShell();
+    shell.initialize(new File(".").toURI().toURL(),
+                     new ArrayList<String>(), new ArrayList<String>(), new ArrayList<String>());
+    return shell;
+  }
+
+  private static void testCheckpoint(boolean compress) throws Exception {
+    InteractiveShell shell = InteractiveCheckpointTests.createShell();
+    shell.evaluate("package points;\n" +
+                   "public class Point implements java.io.Serializable {\n" +
+                   "  public final int x;\n" +
+                   "  public Point(int x) { this.x = x; }\n" +
+                   "}\n", 1, new HashMap<String, Object>());
+
+    Class<?> pointType = shell.getType("points.Point");
+    shell.declareVariable("point", "points.Point");
+    shell.setVariable("point", pointType.getConstructor(int.class).newInstance(42));
+    shell.declareVariable("count", "int");
+    shell.setVariable("count", 5);
+    shell.declareVariable("lock", "Object");
+    shell.setVariable("lock", new Object());
+    shell.getState().declareMethod("twice", "public int twice(int x) { return 2 * x; }");
+    shell.addImport("java.util.regex.*", /* staticImport */ false);
+
+    Path path = Files.createTempFile("checkpoint", ".ijc");
+    try {
+      String saveResult = (String)shell.evaluate("%checkpoint --path " + path +
+                                                 (compress ? " --compress" : ""),
+                                                 2, new HashMap<String, Object>());
+      Assert.assertTrue(saveResult.contains("2 values"));
+      Assert.assertTrue(saveResult.contains("lock"));
+
+      InteractiveShell restoredShell = InteractiveCheckpointTests.createShell();
+      String restoreResult = (String)restoredShell.evaluate("%restore --path " + path,
+                                                            1, new HashMap<String, Object>());
+      Assert.assertTrue(restoreResult.contains("1 types and 2 values"));
+
+      // Types are restored from byte code, and values are deserialized as instances of them.
+      Class<?> restoredType = restoredShell.getType("points.Point");
+      Assert.assertNotNull(restoredType);
+      Assert.assertNotSame(pointType, restoredType);
+
+      Object point = restoredShell.getVariable("point");
+      Assert.assertSame(restoredType, point.getClass());
+      Assert.assertEquals(42, restoredType.getField("x").get(point));
+
+      Assert.assertEquals(5, restoredShell.getVariable("count"));
+      Assert.assertTrue(restoredShell.getVariableNames().contains("lock"));
+      Assert.assertNull(restoredShell.getVariable("lock"));
+      Assert.assertEquals("Object", restoredShell.getState().getFieldType("lock"));
+
+      Assert.assertNotNull(restoredShell.getState().getMethod("twice"));
+      Assert.assertTrue(restoredShell.getImports().contains("import java.util.regex.*;"));
+      Assert.assertTrue(restoredShell.getImports().contains("import points.*;"));
+    }
+    finally {
+      Files.delete(path);
+    }
+  }
+
+  @Test
+  public void testCheckpoint() throws Exception {
+    InteractiveCheckpointTests.testCheckpoint(/* compress */ false);
+  }
+
+  @Test
+  public void testCompressedCheckpoint() throws Exception {
+    InteractiveCheckpointTests.testCheckpoint(/* compress */ true);
+  }
+
+  @Test
+  public void testPartiallySerializableValue() throws Exception {
+    InteractiveShell shell = InteractiveCheckpointTests.createShell();
+
+    // The list is serializable, but its contents are not, so it fails part way through being
+    // written, between two values that span several chunks.
+    char[] text = new char[20000];
+    Arrays.fill(text, 'x');
+    List<Object> items = new ArrayList<Object>();
+    items.add(new String(text));
+    items.add(new Object());
+
+    shell.declareVariable("first", "String");
+    shell.setVariable("first", new String(text));
+    shell.declareVariable("items", "java.util.List");
+    shell.setVariable("items", items);
+    shell.declareVariable("last", "int[]");
+    shell.setVariable("last", new int[] { 1, 2, 3 });
+
+    Path path = Files.createTempFile("checkpoint", ".ijc");
+    try {
+      String saveResult = InteractiveCheckpoint.save(shell, path, /* compress */ true);
+      Assert.assertTrue(saveResult, saveResult.contains("2 values"));
+      Assert.assertTrue(saveResult, saveResult.contains("could not be saved: items"));
+
+      InteractiveShell restoredShell = InteractiveCheckpointTests.createShell();
+      String restoreResult = InteractiveCheckpoint.restore(restoredShell, 1, path);
+      Assert.assertTrue(restoreResult, restoreResult.contains("2 values"));
+
+      Assert.assertEquals(new String(text), restoredShell.getVariable("first"));
+      Assert.assertNull(restoredShell.getVariable("items"));
+      Assert.assertTrue(Arrays.equals(new int[] { 1, 2, 3 },
+                                      (int[])restoredShell.getVariable("last")));
+    }
+    finally {
+      Files.delete(path);
+    }
+  }
+
+  @Test
+  public void testInvalidCheckpoint() throws Exception {
+    Path path = Files.createTempFile("checkpoint", ".ijc");
+    try {
+      Files.write(path, new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 });
+
+      InteractiveShell shell = InteractiveCheckpointTests.createShell();
+      InteractiveCheckpoint.restore(shell, 1, path);
+      Assert.fail("Expected the invalid checkpoint to be rejected.");
+    }
+    catch (IOException e) {
+      Assert.assertTrue(e.getMessage().contains("not a checkpoint"));
+    }
+    finally {
+      Files.delete(path);
+    }
+  }
+}
@@ -0,0 +1,89 @@
+// InteractiveClassesTests.java
+//
+
+package ijava.shell;
+
+import java.io.*;
+import java.util.*;
+import ijava.shell.compiler.*;
+import org.junit.*;
+
+public final class InteractiveClassesTests {
+
+  private static long getLoaderId(Class<?> type) {
+    return ((JavaByteCodeLoader)type.getClassLoader()).getId();
+  }
+
+  @Test
+  public void testPinnedLoaders() throws Exception {
+    InteractiveShell shell = new InteractiveShell();
+    shell.initialize(new File(".").toURI().toURL(),
+                     new ArrayList<String>(), new ArrayList<String>(), new ArrayList<String>());
+    shell.setLanguageLevel(LanguageLevel.Java8);
+
+    shell.evaluate("package pins; public class Item { }", 1, new HashMap<String, Object>());
+    shell.evaluate("package wraps; public class Wrap {\n" +
+                   "  public static Runnable wrap(final Object o) {\n" +
+                   "    return () -> o.hashCode();\n" +
+                   "  }\n" +
+                   "}\n", 2, new HashMap<String, Object>());
+
+    Class<?> itemType = shell.getType("pins.Item");
+    Class<?> wrapType = shell.getType("wraps.Wrap");
+    long itemLoader = InteractiveClassesTests.getLoaderId(itemType);
+    long wrapLoader = InteractiveClassesTests.getLoaderId(wrapType);
+
+    InteractiveClasses classes = shell.getClasses();
+    Assert.assertTrue(classes.getLiveLoaders().contains(itemLoader));
+    Assert.assertTrue(classes.getLiveLoaders().contains(wrapLoader));
+
+    // Items are referenced through a collection, a map, the values captured by a lambda, and
+    // the class object, while unrelated values pin nothing.
+    List<Object> items = new ArrayList<Object>();
+    items.add(itemType.newInstance());
+    Map<String, Object> map = new HashMap<String, Object>();
+    map.put("item", itemType.newInstance());
+    Object task = wrapType.getMethod("wrap", Object.class).invoke(null, map);
+
+    shell.declareVariable("items", "java.util.List");
+    shell.setVariable("items", items);
+    shell.declareVariable("task", "Runnable");
+    shell.setVariable("task", task);
+    shell.declareVariable("type", "Class");
+    shell.setVariable("type", itemType);
+    shell.declareVariable("text", "String");
+    shell.setVariable("text", "text");
+
+    Map<Long, Set<String>> pinnedLoaders = classes.getPinnedLoaders(shell.getState());
+    Assert.assertEquals(new TreeSet<String>(Arrays.asList("items", "task", "type")),
+                        pinnedLoaders.get(itemLoader));
+    Assert.assertEquals(new TreeSet<String>(Arrays.asList("task")),
+                        pinnedLoaders.get(wrapLoader));
+
+    String report = (String)shell.evaluate("%classes", 3, new HashMap<String, Object>());
+    Assert.assertTrue(report,
+                      report.contains("[" + itemLoader + "] referenced by items, task, type"));
+    Assert.assertTrue(report, report.contains("[" + wrapLoader + "] referenced by task"));
+  }
+
+  @Test
+  public void testReferenceLimit() throws Exception {
+    InteractiveShell shell = new InteractiveShell();
+    shell.initialize(new File(".").toURI().toURL(),
+                     new ArrayList<String>(), new ArrayList<String>(), new ArrayList<String>());
+    shell.evaluate("package pins; public class Item { }", 1, new HashMap<String, Object>());
+
+    Class<?> itemType = shell.getType("pins.Item");
+
+    // The item is only reachable beyond the objects visited for the value, so is not reported.
+    Object values = itemType.newInstance();
+    for (int i = 0; i < InteractiveClasses.MaxReferences; i++) {
+      values = new Object[] { values };
+    }
+
+    shell.declareVariable("values", "Object");
+    shell.setVariable("values", values);
+
+    Assert.assertTrue(shell.getClasses().getPinnedLoaders(shell.getState()).isEmpty());
+  }
+}
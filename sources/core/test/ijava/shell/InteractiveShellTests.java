@@ -0,0 +1,322 @@
+// InteractiveShellTests.java
+//
+
+package ijava.shell;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.jar.*;
+import java.util.regex.*;
+import ijava.extensibility.*;
+import ijava.shell.compiler.*;
+import org.junit.*;
+
+public final class InteractiveShellTests {
+
+  private final static String AGENT_PROPERTY = "ijava.tests.agent";
+  private final static long AGENT_TIMEOUT = 120;
+
+  private InteractiveShell _shell;
+
+  public static final class TestExtension implements ShellExtension {
+
+    @Override
+    public Object initialize(Shell shell) {
+      shell.addImport("java.util.regex.*", /* staticImport */ false);
+      return shell.getType("java.util.regex.Pattern");
+    }
+  }
+
+  @Before
+  public void setUp() throws Exception {
+    _shell = new InteractiveShell();
+    _shell.initialize(new File(".").toURI().toURL(),
+                      new ArrayList<String>(), new ArrayList<String>(), new ArrayList<String>());
+  }
+
+  private static List<Map<String, Object>> createMetadata(int count) {
+    List<Map<String, Object>> metadata = new ArrayList<Map<String, Object>>();
+    for (int i = 0; i < count; i++) {
+      metadata.add(new HashMap<String, Object>());
+    }
+    return metadata;
+  }
+
+  @Test
+  public void testBatchCompilationUnits() throws Exception {
+    List<String> data = new ArrayList<String>();
+    data.add("package a; public class A { public static int value() { return 1; } }");
+    data.add("package b; public class B { public static int value() { return a.A.value() + 1; } }");
+
+    List<Map<String, Object>> metadata = InteractiveShellTests.createMetadata(data.size());
+    List<Object> results = _shell.evaluate(data, 1, metadata);
+
+    Assert.assertEquals(data.size(), results.size());
+    for (Map<String, Object> itemMetadata : metadata) {
+      Assert.assertEquals("CompilationUnit", itemMetadata.get("ijava.snippet.type"));
+    }
+
+    // Both compilation units are compiled together, and so are loaded by the same class loader.
+    Class<?> type = _shell.getType("b.B");
+    Assert.assertEquals(2, type.getMethod("value").invoke(null));
+    Assert.assertSame(_shell.getType("a.A").getClassLoader(), type.getClassLoader());
+  }
+
+  @Test
+  public void testBatchForwardReference() throws Exception {
+    // b.B references a.A, which is declared later in the same batch, which fails just as it
+    // would when evaluating each compilation unit on its own.
+    List<String> data = new ArrayList<String>();
+    data.add("package b; public class B { public static int value() { return a.A.value() + 1; } }");
+    data.add("package a; public class A { public static int value() { return 1; } }");
+
+    try {
+      _shell.evaluate(data, 1, InteractiveShellTests.createMetadata(data.size()));
+      Assert.fail("Expected the forward reference to fail.");
+    }
+    catch (EvaluationError e) {
+    }
+
+    Assert.assertNull(_shell.getType("b.B"));
+    Assert.assertNull(_shell.getType("a.A"));
+  }
+
+  @Test
+  public void testBatchReferenceBeforeRedeclaration() throws Exception {
+    _shell.evaluate("package a; public class A { public static int value() { return 1; } }",
+                    1, new HashMap<String, Object>());
+    Assert.assertEquals(1, _shell.getType("a.A").getMethod("value").invoke(null));
+
+    List<String> data = new ArrayList<String>();
+    data.add("package b; public class B { public static int value() { return a.A.value() + 1; } }");
+    data.add("package a; public class A { public static int value() { return 2; } }");
+    _shell.evaluate(data, 2, InteractiveShellTests.createMetadata(data.size()));
+
+    // b.B references the declaration of a.A that preceded it, rather than the later one.
+    Assert.assertEquals(2, _shell.getType("b.B").getMethod("value").invoke(null));
+    Assert.assertEquals(2, _shell.getType("a.A").getMethod("value").invoke(null));
+  }
+
+  @Test
+  public void testBatchRedeclaration() throws Exception {
+    List<String> data = new ArrayList<String>();
+    data.add("package a; public class A { public static int value() { return 1; } }");
+    data.add("package a; public class A { public static int value() { return 2; } }");
+
+    _shell.evaluate(data, 1, InteractiveShellTests.createMetadata(data.size()));
+
+    // The redeclaration of a.A must be processed after the first declaration.
+    Class<?> type = _shell.getType("a.A");
+    Assert.assertEquals(2, type.getMethod("value").invoke(null));
+  }
+
+  @Test
+  public void testBatchLaterImport() throws Exception {
+    // b.B depends on an import that follows it, which fails just as it would when evaluating
+    // each item on its own, even once the compilation units are evaluated individually.
+    List<String> data = new ArrayList<String>();
+    data.add("package a; public class A { }");
+    data.add("package b; public class B { public Pattern pattern; }");
+    data.add("import java.util.regex.*;");
+
+    try {
+      _shell.evaluate(data, 1, InteractiveShellTests.createMetadata(data.size()));
+      Assert.fail("Expected the reference to the later import to fail.");
+    }
+    catch (EvaluationError e) {
+      Assert.assertTrue(e.getMessage(), e.getMessage().contains("Pattern"));
+    }
+
+    Assert.assertNotNull(_shell.getType("a.A"));
+    Assert.assertNull(_shell.getType("b.B"));
+    Assert.assertFalse(_shell.getImports().contains("import java.util.regex.*;"));
+  }
+
+  @Test
+  public void testBatchErrors() throws Exception {
+    List<String> data = new ArrayList<String>();
+    data.add("package a; public class A { }");
+    data.add("package b; public class B { int value() { return undefinedValue; } }");
+    data.add("package c; public class C { }");
+
+    try {
+      _shell.evaluate(data, 1, InteractiveShellTests.createMetadata(data.size()));
+      Assert.fail("Expected an evaluation error.");
+    }
+    catch (EvaluationError e) {
+      Assert.assertTrue(e.getMessage().contains("undefinedValue"));
+    }
+
+    Assert.assertNotNull(_shell.getType("a.A"));
+    Assert.assertNull(_shell.getType("b.B"));
+    Assert.assertNull(_shell.getType("c.C"));
+  }
+
+  @Test
+  public void testLanguageLevel() throws Exception {
+    String code = "package l; public class L { public static int value() throws Exception {" +
+                  " java.util.concurrent.Callable<Integer> value = () -> 42;" +
+                  " return value.call(); } }";
+
+    _shell.setLanguageLevel(LanguageLevel.Java7);
+    try {
+      _shell.evaluate(code, 1, new HashMap<String, Object>());
+      Assert.fail("Expected lambdas to be rejected at the 1.7 language level.");
+    }
+    catch (EvaluationError e) {
+    }
+
+    _shell.setLanguageLevel(LanguageLevel.Java8);
+    _shell.evaluate(code, 2, new HashMap<String, Object>());
+    Assert.assertEquals(42, _shell.getType("l.L").getMethod("value").invoke(null));
+  }
+
+  private Class<?> declareType(String code, long evaluationID) throws Exception {
+    _shell.evaluate("package r; " + code, evaluationID, new HashMap<String, Object>());
+    return _shell.getType("r.R");
+  }
+
+  private static Object getValue(Object instance) throws Exception {
+    return instance.getClass().getMethod("value").invoke(instance);
+  }
+
+  @Test
+  public void testRedefinition() throws Exception {
+    Assert.assertEquals(JavaTypeRedefiner.isSupported(), _shell.enableTypeRedefinition());
+
+    Class<?> type = declareType("public class R { public int value() { return 1; } }", 1);
+    Object instance = type.newInstance();
+
+    Class<?> newType = declareType("public class R { public int value() { return 2; } }", 2);
+    Assert.assertEquals(2, InteractiveShellTests.getValue(newType.newInstance()));
+
+    if (JavaTypeRedefiner.isSupported()) {
+      // The type is redefined in-place, and existing instances see the new method body.
+      Assert.assertSame(type, newType);
+      Assert.assertEquals(2, InteractiveShellTests.getValue(instance));
+    }
+    else {
+      // Without the agent, a new type is declared, and existing instances are left as-is.
+      Assert.assertNotSame(type, newType);
+      Assert.assertEquals(1, InteractiveShellTests.getValue(instance));
+    }
+  }
+
+  @Test
+  public void testIncompatibleRedefinition() throws Exception {
+    _shell.enableTypeRedefinition();
+
+    String[][] changes = new String[][] {
+      // Fields
+      { "public class R { public int value() { return 1; } }",
+        "public class R { int count; public int value() { return 2; } }" },
+      // Method signatures
+      { "public class R { public int value() { return 1; } }",
+        "public class R { public int value() { return 2; } public void reset() { } }" },
+      // Supertypes
+      { "public class R { public int value() { return 1; } }",
+        "public class R implements Runnable { public int value() { return 2; }" +
+        " public void run() { } }" },
+      // Constants
+      { "public class R { static final int V = 1; public int value() { return V; } }",
+        "public class R { static final int V = 2; public int value() { return V; } }" }
+    };
+
+    long evaluationID = 1;
+    for (String[] change: changes) {
+      Class<?> type = declareType(change[0], evaluationID++);
+      Object instance = type.newInstance();
+
+      // Changes that affect the schema of the type always fall back to declaring a new type.
+      Class<?> newType = declareType(change[1], evaluationID++);
+      Assert.assertNotSame(change[1], type, newType);
+      Assert.assertEquals(1, InteractiveShellTests.getValue(instance));
+      Assert.assertEquals(2, InteractiveShellTests.getValue(newType.newInstance()));
+    }
+  }
+
+  @Test
+  public void testRedefinitionWithAgent() throws Exception {
+    if (System.getProperty(InteractiveShellTests.AGENT_PROPERTY) != null) {
+      // Running within the process started below, where the agent must be present.
+      Assert.assertTrue(JavaTypeRedefiner.isSupported());
+      return;
+    }
+
+    // Run these tests again in a separate process, started with the kernel as its java agent,
+    // as it is when started through the stub.
+    Path agentPath = Files.createTempFile("agent", ".jar");
+    try {
+      Manifest manifest = new Manifest();
+      manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+      manifest.getMainAttributes().putValue("Premain-Class", "ijava.Application");
+      manifest.getMainAttributes().putValue("Can-Redefine-Classes", "true");
+      new JarOutputStream(Files.newOutputStream(agentPath), manifest).close();
+
+      String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+      ProcessBuilder processBuilder =
+          new ProcessBuilder(java, "-javaagent:" + agentPath,
+                             "-D" + InteractiveShellTests.AGENT_PROPERTY + "=true",
+                             "-cp", System.getProperty("java.class.path"),
+                             "org.junit.runner.JUnitCore", InteractiveShellTests.class.getName());
+      processBuilder.redirectErrorStream(true);
+
+      Path outputPath = Files.createTempFile("agent", ".log");
+      processBuilder.redirectOutput(outputPath.toFile());
+      try {
+        Process process = processBuilder.start();
+        if (!InteractiveShellTests.waitFor(process, InteractiveShellTests.AGENT_TIMEOUT)) {
+          process.destroy();
+          Assert.fail("Timed out running tests with the agent.");
+        }
+
+        String output = new String(Files.readAllBytes(outputPath), "UTF-8");
+        Assert.assertEquals(output, 0, process.exitValue());
+      }
+      finally {
+        Files.delete(outputPath);
+      }
+    }
+    finally {
+      Files.delete(agentPath);
+    }
+  }
+
+  private static boolean waitFor(Process process, long timeout) throws InterruptedException {
+    long endTime = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(timeout);
+    while (System.currentTimeMillis() < endTime) {
+      try {
+        process.exitValue();
+        return true;
+      }
+      catch (IllegalThreadStateException e) {
+        Thread.sleep(100);
+      }
+    }
+    return false;
+  }
+
+  @Test
+  public void testBackgroundInitialization() throws Exception {
+    InteractiveShell shell = new InteractiveShell();
+    shell.initialize(new File(".").toURI().toURL(),
+                     new ArrayList<String>(), new ArrayList<String>(),
+                     Arrays.asList(TestExtension.class.getName(), "ijava.shell.Missing"));
+
+    // The extension is loaded in the background, and evaluation waits for it, while the failure
+    // to load the missing extension is reported once.
+    try {
+      shell.evaluate("1", 1, new HashMap<String, Object>());
+      Assert.fail("Expected the missing extension to be reported.");
+    }
+    catch (EvaluationError e) {
+      Assert.assertTrue(e.getMessage().contains("ijava.shell.Missing"));
+    }
+
+    Assert.assertEquals(1, shell.evaluate("1", 2, new HashMap<String, Object>()));
+    Assert.assertTrue(shell.getImports().contains("import java.util.regex.*;"));
+    Assert.assertEquals(Pattern.class, shell.addExtension(TestExtension.class.getName()));
+  }
+}
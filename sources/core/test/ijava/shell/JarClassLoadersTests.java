@@ -0,0 +1,107 @@
+// JarClassLoadersTests.java
+//
+
+package ijava.shell;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.jar.*;
+import org.junit.*;
+
+public final class JarClassLoadersTests {
+
+  public static class Base {
+  }
+
+  public static final class Derived extends Base {
+  }
+
+  private static Path createJar(Path directory, String fileName, Class<?>... types)
+      throws IOException {
+    Path jarPath = directory.resolve(fileName);
+
+    JarOutputStream stream = new JarOutputStream(Files.newOutputStream(jarPath));
+    try {
+      for (Class<?> type: types) {
+        String entryName = type.getName().replace('.', '/') + ".class";
+        stream.putNextEntry(new JarEntry(entryName));
+
+        InputStream classStream = type.getClassLoader().getResourceAsStream(entryName);
+        byte[] buffer = new byte[4096];
+        int count;
+        while ((count = classStream.read(buffer)) > 0) {
+          stream.write(buffer, 0, count);
+        }
+        classStream.close();
+      }
+    }
+    finally {
+      stream.close();
+    }
+
+    return jarPath;
+  }
+
+  @Test
+  public void testSharedJars() throws Exception {
+    Path directory = Files.createTempDirectory("jars");
+    Path jarPath = JarClassLoadersTests.createJar(directory, "base.jar", Base.class);
+    Path copyPath = directory.resolve("copy.jar");
+    Files.copy(jarPath, copyPath);
+
+    // Parent to the extension class loader, so the test classes themselves are not visible.
+    ClassLoader parentClassLoader = ClassLoader.getSystemClassLoader().getParent();
+    JarClassLoaders loaders = new JarClassLoaders(parentClassLoader);
+
+    ClassLoader loader1 = loaders.createClassLoader(Arrays.asList(jarPath.toString()),
+                                                    parentClassLoader);
+    ClassLoader loader2 = loaders.createClassLoader(Arrays.asList(copyPath.toString()),
+                                                    loader1);
+    ClassLoader loader3 = loaders.createClassLoader(Arrays.asList(jarPath.toString()),
+                                                    parentClassLoader);
+
+    Class<?> baseClass = loader1.loadClass(Base.class.getName());
+    Assert.assertNotSame(Base.class, baseClass);
+    Assert.assertSame(baseClass, loader2.loadClass(Base.class.getName()));
+    Assert.assertSame(baseClass, loader3.loadClass(Base.class.getName()));
+    Assert.assertEquals(1, loaders.getLoaderCount());
+
+    Assert.assertNotNull(loader3.getResource(Base.class.getName().replace('.', '/') + ".class"));
+  }
+
+  @Test
+  public void testCrossJarReferences() throws Exception {
+    Path directory = Files.createTempDirectory("jars");
+    Path derivedPath = JarClassLoadersTests.createJar(directory, "derived.jar", Derived.class);
+    Path basePath = JarClassLoadersTests.createJar(directory, "base.jar", Base.class);
+
+    ClassLoader parentClassLoader = ClassLoader.getSystemClassLoader().getParent();
+    JarClassLoaders loaders = new JarClassLoaders(parentClassLoader);
+
+    ClassLoader derivedLoader = loaders.createClassLoader(Arrays.asList(derivedPath.toString()),
+                                                          parentClassLoader);
+    try {
+      derivedLoader.loadClass(Derived.class.getName());
+      Assert.fail("Derived should not be loadable without its base class.");
+    }
+    catch (NoClassDefFoundError e) {
+    }
+
+    // Once the jar containing the base class is loaded, the derived class can reference it,
+    // even though it is loaded through a different dependency.
+    ClassLoader baseLoader = loaders.createClassLoader(Arrays.asList(basePath.toString()),
+                                                       derivedLoader);
+
+    Class<?> derivedClass = baseLoader.loadClass(Derived.class.getName());
+    Assert.assertSame(baseLoader.loadClass(Base.class.getName()), derivedClass.getSuperclass());
+    Assert.assertEquals(2, loaders.getLoaderCount());
+
+    try {
+      baseLoader.loadClass("ijava.shell.Missing");
+      Assert.fail("Missing types should not be loadable.");
+    }
+    catch (ClassNotFoundException e) {
+    }
+  }
+}
@@ -0,0 +1,95 @@
+// JavaByteCodeLoaderTests.java
+//
+
+package ijava.shell;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import org.junit.*;
+
+public final class JavaByteCodeLoaderTests {
+
+  private final static int TYPE_COUNT = 50;
+  private final static int THREAD_COUNT = 16;
+  private final static long STACK_SIZE = 8 * 1024 * 1024;
+
+  @Test
+  public void testParallelTypeLoading() throws Exception {
+    // Declare a chain of types, so that loading any one type also requires loading (and
+    // resolving) all of its base types, from multiple threads at the same time.
+    StringBuilder sb = new StringBuilder();
+    sb.append("package stress;\n");
+    sb.append("public class T0 { }\n");
+    for (int i = 1; i < TYPE_COUNT; i++) {
+      sb.append("class T").append(i).append(" extends T").append(i - 1).append(" { }\n");
+    }
+
+    final InteractiveShell shell = new InteractiveShell();
+    shell.initialize(new File(".").toURI().toURL(),
+                     new ArrayList<String>(), new ArrayList<String>(), new ArrayList<String>());
+    shell.evaluate(sb.toString(), 1, new HashMap<String, Object>());
+
+    final CountDownLatch startSignal = new CountDownLatch(1);
+    ExecutorService executor = Executors.newFixedThreadPool(THREAD_COUNT, new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable runnable) {
+        // Loading a type recursively loads its base types, so the stack size is set explicitly
+        // rather than depending on the platform default.
+        return new Thread(null, runnable, "loader", STACK_SIZE);
+      }
+    });
+    List<Future<Map<String, Class<?>>>> results = new ArrayList<Future<Map<String, Class<?>>>>();
+
+    for (int t = 0; t < THREAD_COUNT; t++) {
+      final long seed = t;
+      results.add(executor.submit(new Callable<Map<String, Class<?>>>() {
+        @Override
+        public Map<String, Class<?>> call() throws Exception {
+          List<String> names = new ArrayList<String>();
+          for (int i = 0; i < TYPE_COUNT; i++) {
+            names.add("stress.T" + i);
+          }
+          Collections.shuffle(names, new Random(seed));
+
+          startSignal.await();
+
+          Map<String, Class<?>> types = new HashMap<String, Class<?>>();
+          for (String name: names) {
+            types.put(name, shell.getType(name));
+          }
+          return types;
+        }
+      }));
+    }
+
+    startSignal.countDown();
+
+    Map<String, Class<?>> expectedTypes = null;
+    for (Future<Map<String, Class<?>>> result: results) {
+      Map<String, Class<?>> types = result.get(60, TimeUnit.SECONDS);
+      if (expectedTypes == null) {
+        expectedTypes = types;
+      }
+
+      for (int i = 0; i < TYPE_COUNT; i++) {
+        String name = "stress.T" + i;
+
+        Assert.assertNotNull(types.get(name));
+        Assert.assertSame(expectedTypes.get(name), types.get(name));
+      }
+    }
+
+    executor.shutdown();
+
+    Class<?> lastType = expectedTypes.get("stress.T" + (TYPE_COUNT - 1));
+    Assert.assertSame(expectedTypes.get("stress.T0"), findRoot(lastType));
+  }
+
+  private static Class<?> findRoot(Class<?> type) {
+    while (type.getSuperclass() != Object.class) {
+      type = type.getSuperclass();
+    }
+    return type;
+  }
+}
@@ -0,0 +1,82 @@
+// JavaInterpreterTests.java
+//
+
+package ijava.shell;
+
+import java.util.*;
+import org.junit.*;
+
+public final class JavaInterpreterTests {
+
+  private InteractiveShell _shell;
+  private JavaInterpreter _interpreter;
+
+  @Before
+  public void setUp() {
+    _shell = new InteractiveShell();
+    _shell.addImport("java.util.*", /* staticImport */ false);
+
+    List<String> list = new ArrayList<String>();
+    list.add("abc");
+
+    _shell.declareVariable("s", "String");
+    _shell.setVariable("s", "hello");
+    _shell.declareVariable("n", "int");
+    _shell.setVariable("n", 5);
+    _shell.declareVariable("list", "List<String>");
+    _shell.setVariable("list", list);
+
+    _interpreter = new JavaInterpreter(_shell);
+  }
+
+  @Test
+  public void testLiterals() throws Exception {
+    Assert.assertEquals(42, _interpreter.interpret("42"));
+    Assert.assertEquals(42L, _interpreter.interpret("42L"));
+    Assert.assertEquals(1.5, _interpreter.interpret("1.5"));
+    Assert.assertEquals('c', _interpreter.interpret("'c'"));
+    Assert.assertEquals("a\tb", _interpreter.interpret("\"a\\tb\""));
+    Assert.assertEquals(true, _interpreter.interpret("true"));
+    Assert.assertNull(_interpreter.interpret("null"));
+  }
+
+  @Test
+  public void testMemberChains() throws Exception {
+    Assert.assertEquals("hello", _interpreter.interpret("s"));
+    Assert.assertEquals(5, _interpreter.interpret(" n "));
+    Assert.assertEquals(5, _interpreter.interpret("s.length()"));
+    Assert.assertEquals("el", _interpreter.interpret("s.substring(1, 3)"));
+    Assert.assertEquals("ELLO", _interpreter.interpret("s.substring(1).toUpperCase()"));
+    Assert.assertEquals(1, _interpreter.interpret("list.size()"));
+    Assert.assertEquals(true, _interpreter.interpret("list.contains(\"abc\")"));
+  }
+
+  @Test
+  public void testFallback() throws Exception {
+    String[] expressions = new String[] {
+      "n + 1",
+      "(s)",
+      "s;",
+      "Math.max(1, 2)",
+      "unknown",
+      "s.substring(1L)",
+      "String.valueOf(n)",
+      "s.valueOf(n)",
+      "list.get(0).length()",
+      "list.clear()",
+      "010",
+      "s // comment"
+    };
+
+    for (String expression : expressions) {
+      Assert.assertSame(expression,
+                        JavaInterpreter.NotInterpreted, _interpreter.interpret(expression));
+    }
+  }
+
+  @Test(expected = NullPointerException.class)
+  public void testExceptions() throws Exception {
+    _shell.setVariable("s", null);
+    _interpreter.interpret("s.length()");
+  }
+}
@@ -0,0 +1,386 @@
+// MavenRepositoryTests.java
+//
+
+package ijava.shell;
+
+import java.io.*;
+import java.nio.file.*;
+import java.security.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+import ijava.extensibility.*;
+import org.junit.*;
+
+public final class MavenRepositoryTests {
+
+  private Path _remoteRepository;
+  private Path _localRepository;
+  private MavenRepository _repository;
+
+  @Before
+  public void setUp() throws Exception {
+    _remoteRepository = Files.createTempDirectory("remote");
+    _localRepository = Files.createTempDirectory("local");
+
+    MavenTransport transport = new MavenTransports.FileTransport(_remoteRepository);
+    _repository = new MavenRepository(_localRepository, transport);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    MavenRepositoryTests.delete(_remoteRepository.toFile());
+    MavenRepositoryTests.delete(_localRepository.toFile());
+  }
+
+  private static void delete(File file) {
+    File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        MavenRepositoryTests.delete(child);
+      }
+    }
+    file.delete();
+  }
+
+  private void addArtifact(String coordinates, String content, boolean jar) throws IOException {
+    String[] parts = coordinates.split(":");
+    Path directory = _remoteRepository.resolve(parts[0].replace('.', '/'))
+                                      .resolve(parts[1]).resolve(parts[2]);
+    Files.createDirectories(directory);
+
+    String pom =
+        "<project xmlns='http://maven.apache.org/POM/4.0.0'>\n" +
+        "  <modelVersion>4.0.0</modelVersion>\n" +
+        "  <groupId>" + parts[0] + "</groupId>\n" +
+        "  <artifactId>" + parts[1] + "</artifactId>\n" +
+        "  <version>" + parts[2] + "</version>\n" +
+        content +
+        "</project>\n";
+    Files.write(directory.resolve(parts[1] + "-" + parts[2] + ".pom"), pom.getBytes("UTF-8"));
+
+    if (jar) {
+      Files.write(directory.resolve(parts[1] + "-" + parts[2] + ".jar"), new byte[100]);
+    }
+  }
+
+  private Path getRemotePath(String coordinates, String extension) {
+    String[] parts = coordinates.split(":");
+    return _remoteRepository.resolve(parts[0].replace('.', '/')).resolve(parts[1])
+                            .resolve(parts[2]).resolve(parts[1] + "-" + parts[2] + extension);
+  }
+
+  private void addChecksum(String coordinates, String algorithm, String extension,
+                           boolean valid) throws Exception {
+    Path path = getRemotePath(coordinates, ".jar");
+
+    byte[] content = Files.readAllBytes(path);
+    if (!valid) {
+      content = new byte[0];
+    }
+
+    StringBuilder sb = new StringBuilder();
+    for (byte b : MessageDigest.getInstance(algorithm).digest(content)) {
+      sb.append(String.format("%02x", b));
+    }
+    sb.append("  ").append(path.getFileName());
+
+    Files.write(getRemotePath(coordinates, ".jar" + extension), sb.toString().getBytes("UTF-8"));
+  }
+
+  private static String dependency(String coordinates, String extra) {
+    String[] parts = coordinates.split(":");
+    return "    <dependency>\n" +
+        "      <groupId>" + parts[0] + "</groupId>\n" +
+        "      <artifactId>" + parts[1] + "</artifactId>\n" +
+        ((parts.length > 2) ? "      <version>" + parts[2] + "</version>\n" : "") +
+        extra +
+        "    </dependency>\n";
+  }
+
+  private static String dependencies(String... dependencies) {
+    StringBuilder sb = new StringBuilder("  <dependencies>\n");
+    for (String dependency : dependencies) {
+      sb.append(dependency);
+    }
+    sb.append("  </dependencies>\n");
+    return sb.toString();
+  }
+
+  private List<String> resolve(String groupId, String artifactId, String version) {
+    List<String> names = new ArrayList<String>();
+    for (String jar : _repository.resolveArtifact(groupId, artifactId, version, true)) {
+      Assert.assertTrue(jar, jar.startsWith(_localRepository.toString()));
+      Assert.assertTrue(jar, Files.isRegularFile(Paths.get(jar)));
+      names.add(Paths.get(jar).getFileName().toString());
+    }
+    return names;
+  }
+
+  @Test
+  public void testScopesAndOptionalDependencies() throws Exception {
+    addArtifact("g:app:1", MavenRepositoryTests.dependencies(
+        MavenRepositoryTests.dependency("g:lib:1", ""),
+        MavenRepositoryTests.dependency("g:rt:1", "<scope>runtime</scope>"),
+        MavenRepositoryTests.dependency("g:test:1", "<scope>test</scope>"),
+        MavenRepositoryTests.dependency("g:provided:1", "<scope>provided</scope>"),
+        MavenRepositoryTests.dependency("g:opt:1", "<optional>true</optional>")), true);
+    addArtifact("g:lib:1", MavenRepositoryTests.dependencies(
+        MavenRepositoryTests.dependency("g:inner:1", "")), true);
+    addArtifact("g:rt:1", "", true);
+    addArtifact("g:inner:1", "", true);
+
+    Assert.assertEquals(Arrays.asList("app-1.jar", "lib-1.jar", "rt-1.jar", "inner-1.jar"),
+                        resolve("g", "app", "1"));
+
+    List<String> jars = _repository.resolveArtifact("g", "app", "1", false);
+    Assert.assertEquals(1, jars.size());
+  }
+
+  @Test
+  public void testExclusionsAndNearestWins() throws Exception {
+    addArtifact("g:app:1", MavenRepositoryTests.dependencies(
+        MavenRepositoryTests.dependency("g:a:1",
+            "<exclusions><exclusion><groupId>g</groupId><artifactId>excluded</artifactId>" +
+            "</exclusion></exclusions>"),
+        MavenRepositoryTests.dependency("g:b:1", "")), true);
+    addArtifact("g:a:1", MavenRepositoryTests.dependencies(
+        MavenRepositoryTests.dependency("g:excluded:1", ""),
+        MavenRepositoryTests.dependency("g:c:2", "")), true);
+    addArtifact("g:b:1", MavenRepositoryTests.dependencies(
+        MavenRepositoryTests.dependency("g:d:1", "")), true);
+    addArtifact("g:d:1", MavenRepositoryTests.dependencies(
+        MavenRepositoryTests.dependency("g:c:1", "")), true);
+    addArtifact("g:c:1", "", true);
+    addArtifact("g:c:2", "", true);
+    addArtifact("g:excluded:1", "", true);
+
+    // c:2 is nearer to the root than c:1, which is reached via b and d.
+    Assert.assertEquals(Arrays.asList("app-1.jar", "a-1.jar", "b-1.jar", "c-2.jar", "d-1.jar"),
+                        resolve("g", "app", "1"));
+  }
+
+  @Test
+  public void testInheritanceAndDependencyManagement() throws Exception {
+    addArtifact("g:bom:1",
+        "  <packaging>pom</packaging>\n" +
+        "  <dependencyManagement>\n" +
+        MavenRepositoryTests.dependencies(MavenRepositoryTests.dependency("g:fromBom:3", "")) +
+        "  </dependencyManagement>\n", false);
+    addArtifact("g:parent:1",
+        "  <packaging>pom</packaging>\n" +
+        "  <properties><lib.version>2</lib.version></properties>\n" +
+        "  <dependencyManagement>\n" +
+        MavenRepositoryTests.dependencies(
+            MavenRepositoryTests.dependency("g:lib:${lib.version}", ""),
+            MavenRepositoryTests.dependency("g:bom:1",
+                                            "<type>pom</type><scope>import</scope>")) +
+        "  </dependencyManagement>\n" +
+        MavenRepositoryTests.dependencies(
+            MavenRepositoryTests.dependency("g:inherited:${project.version}", "")), false);
+    addArtifact("g:child:1",
+        "  <parent><groupId>g</groupId><artifactId>parent</artifactId>" +
+        "<version>1</version></parent>\n" +
+        MavenRepositoryTests.dependencies(
+            MavenRepositoryTests.dependency("g:lib", ""),
+            MavenRepositoryTests.dependency("g:fromBom", "")), true);
+    addArtifact("g:lib:2", "", true);
+    addArtifact("g:fromBom:3", "", true);
+    addArtifact("g:inherited:1", "", true);
+
+    Assert.assertEquals(Arrays.asList("child-1.jar", "lib-2.jar", "fromBom-3.jar",
+                                      "inherited-1.jar"),
+                        resolve("g", "child", "1"));
+  }
+
+  @Test
+  public void testCyclicImports() throws Exception {
+    String[][] imports = { { "g:bomA:1", "g:bomB:1" }, { "g:bomB:1", "g:bomA:1" } };
+    for (String[] bom : imports) {
+      addArtifact(bom[0],
+          "  <packaging>pom</packaging>\n" +
+          "  <dependencyManagement>\n" +
+          MavenRepositoryTests.dependencies(
+              MavenRepositoryTests.dependency(bom[1], "<type>pom</type><scope>import</scope>")) +
+          "  </dependencyManagement>\n", false);
+    }
+    addArtifact("g:app:1",
+        "  <dependencyManagement>\n" +
+        MavenRepositoryTests.dependencies(
+            MavenRepositoryTests.dependency("g:bomA:1", "<type>pom</type><scope>import</scope>")) +
+        "  </dependencyManagement>\n", true);
+
+    try {
+      resolve("g", "app", "1");
+      Assert.fail("Expected the cyclic import to be reported.");
+    }
+    catch (IllegalStateException e) {
+      Assert.assertTrue(e.getMessage(), e.getMessage().contains("cyclic"));
+    }
+  }
+
+  @Test
+  public void testVersionRanges() throws Exception {
+    addArtifact("g:app:1", MavenRepositoryTests.dependencies(
+        MavenRepositoryTests.dependency("g:lib:[1.0,2.0)", ""),
+        MavenRepositoryTests.dependency("g:other:[1.0]", "")), true);
+    for (String version : new String[] { "1.0", "1.9", "1.10-rc1", "1.10", "2.0" }) {
+      addArtifact("g:lib:" + version, "", true);
+    }
+    addArtifact("g:other:1.0", "", true);
+
+    // Ranges are resolved against the versions listed in the repository metadata, so the
+    // exclusive upper bound is honored, and versions are compared numerically.
+    String metadata =
+        "<metadata><groupId>g</groupId><artifactId>lib</artifactId><versioning><versions>" +
+        "<version>1.0</version><version>1.9</version><version>1.10-rc1</version>" +
+        "<version>1.10</version><version>2.0</version><version>2.1-SNAPSHOT</version>" +
+        "</versions></versioning></metadata>";
+    Files.write(_remoteRepository.resolve("g/lib/maven-metadata.xml"),
+                metadata.getBytes("UTF-8"));
+
+    Assert.assertEquals(Arrays.asList("app-1.jar", "lib-1.10.jar", "other-1.0.jar"),
+                        resolve("g", "app", "1"));
+    Assert.assertEquals(Arrays.asList("lib-1.9.jar"), resolve("g", "lib", "(,1.10-rc1)"));
+    Assert.assertEquals(Arrays.asList("lib-2.0.jar"), resolve("g", "lib", "[1.0,1.5),[1.9,]"));
+
+    try {
+      resolve("g", "lib", "(2.0,3.0)");
+      Assert.fail("Expected the range without any versions to be reported.");
+    }
+    catch (IllegalStateException e) {
+      Assert.assertTrue(e.getMessage(), e.getMessage().contains("No version"));
+    }
+  }
+
+  @Test
+  public void testLocalRepository() throws Exception {
+    addArtifact("g:app:1", "", true);
+    resolve("g", "app", "1");
+
+    // Once fetched, artifacts are resolved from the local repository alone.
+    MavenRepositoryTests.delete(_remoteRepository.toFile());
+
+    MavenRepository localRepository = new MavenRepository(_localRepository, null);
+    List<String> jars = localRepository.resolveArtifact("g", "app", "1", true);
+
+    Assert.assertEquals(1, jars.size());
+    Assert.assertTrue(jars.get(0).endsWith("app-1.jar"));
+  }
+
+  @Test
+  public void testProgress() throws Exception {
+    addArtifact("g:app:1", MavenRepositoryTests.dependencies(
+        MavenRepositoryTests.dependency("g:lib:1", "")), true);
+    addArtifact("g:lib:1", "", true);
+
+    final List<String> artifacts = Collections.synchronizedList(new ArrayList<String>());
+    final AtomicLong bytes = new AtomicLong();
+    DependencyProgress progress = new DependencyProgress() {
+      @Override
+      public void artifactResolved(String artifact) {
+        artifacts.add(artifact);
+      }
+
+      @Override
+      public void bytesRead(long count) {
+        bytes.addAndGet(count);
+      }
+    };
+
+    _repository.resolveArtifact("g", "app", "1", true, progress);
+    Assert.assertEquals(Arrays.asList("g:app:1", "g:lib:1"), artifacts);
+    Assert.assertEquals(200L, bytes.get());
+
+    // Nothing is fetched the second time around.
+    _repository.resolveArtifact("g", "app", "1", true, progress);
+    Assert.assertEquals(200L, bytes.get());
+  }
+
+  @Test
+  public void testStreamingProgress() throws Exception {
+    addArtifact("g:app:1", "", false);
+    Files.write(getRemotePath("g:app:1", ".jar"), new byte[1024 * 1024]);
+
+    final Path localPath = _localRepository.resolve("g/app/1/app-1.jar");
+    final AtomicInteger notifications = new AtomicInteger();
+    final AtomicInteger earlyNotifications = new AtomicInteger();
+    final AtomicLong bytes = new AtomicLong();
+    DependencyProgress progress = new DependencyProgress() {
+      @Override
+      public void artifactResolved(String artifact) {
+      }
+
+      @Override
+      public void bytesRead(long count) {
+        notifications.incrementAndGet();
+        if (!Files.exists(localPath)) {
+          earlyNotifications.incrementAndGet();
+        }
+        bytes.addAndGet(count);
+      }
+    };
+
+    // Data is reported as it is read, rather than once the whole file has been fetched.
+    _repository.resolveArtifact("g", "app", "1", true, progress);
+    Assert.assertEquals(1024L * 1024L, bytes.get());
+    Assert.assertTrue(notifications.get() > 1);
+    Assert.assertEquals(notifications.get(), earlyNotifications.get());
+  }
+
+  @Test
+  public void testRootDependencyManagement() throws Exception {
+    addArtifact("g:app:1",
+        "  <dependencyManagement>\n" +
+        MavenRepositoryTests.dependencies(
+            MavenRepositoryTests.dependency("g:c:3", ""),
+            MavenRepositoryTests.dependency("g:t", "<scope>test</scope>")) +
+        "  </dependencyManagement>\n" +
+        MavenRepositoryTests.dependencies(MavenRepositoryTests.dependency("g:a:1", "")), true);
+    addArtifact("g:a:1", MavenRepositoryTests.dependencies(
+        MavenRepositoryTests.dependency("g:c:1", ""),
+        MavenRepositoryTests.dependency("g:t:1", "")), true);
+    addArtifact("g:c:1", "", true);
+    addArtifact("g:c:3", "", true);
+    addArtifact("g:t:1", "", true);
+
+    // The root's dependency management overrides the version and scope of transitive
+    // dependencies, but the management declared by a does not apply to its consumers.
+    Assert.assertEquals(Arrays.asList("app-1.jar", "a-1.jar", "c-3.jar"),
+                        resolve("g", "app", "1"));
+    Assert.assertEquals(Arrays.asList("a-1.jar", "c-1.jar", "t-1.jar"),
+                        resolve("g", "a", "1"));
+  }
+
+  @Test
+  public void testChecksums() throws Exception {
+    addArtifact("g:app:1", MavenRepositoryTests.dependencies(
+        MavenRepositoryTests.dependency("g:lib:1", "")), true);
+    addArtifact("g:lib:1", "", true);
+    addChecksum("g:app:1", "SHA-1", ".sha1", /* valid */ true);
+    addChecksum("g:lib:1", "MD5", ".md5", /* valid */ true);
+
+    Assert.assertEquals(Arrays.asList("app-1.jar", "lib-1.jar"), resolve("g", "app", "1"));
+
+    // A file that does not match its checksum is rejected, and not stored locally. The SHA-1
+    // checksum is preferred over the MD5 one.
+    addArtifact("g:bad:1", "", true);
+    addChecksum("g:bad:1", "SHA-1", ".sha1", /* valid */ false);
+    addChecksum("g:bad:1", "MD5", ".md5", /* valid */ true);
+    try {
+      resolve("g", "bad", "1");
+      Assert.fail("Expected the checksum mismatch to be reported.");
+    }
+    catch (IllegalStateException e) {
+      Assert.assertTrue(e.getMessage(), e.getMessage().contains("checksum"));
+    }
+
+    Assert.assertFalse(Files.exists(_localRepository.resolve("g/bad/1/bad-1.jar")));
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testMissingArtifact() throws Exception {
+    addArtifact("g:app:1", MavenRepositoryTests.dependencies(
+        MavenRepositoryTests.dependency("g:missing:1", "")), true);
+    resolve("g", "app", "1");
+  }
+}
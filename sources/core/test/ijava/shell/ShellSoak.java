@@ -0,0 +1,547 @@
+// ShellSoak.java
+//
+
+package ijava.shell;
+
+import java.io.*;
+import java.lang.management.*;
+import java.net.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.jar.*;
+import com.beust.jcommander.*;
+
+/**
+ * Implements a soak and load test for the shell, i.e. the evaluator of a kernel, which evaluates
+ * a configurable mix of snippets for an extended period of time, while tracking the latency of
+ * each kind of snippet, along with the heap, metaspace, loaded classes and threads of the
+ * process. Resources and latencies that keep growing once the shell has warmed up are flagged,
+ * as they indicate leaks, such as class loaders that are chained but never released, or shell
+ * state that accumulates across evaluations.
+ *
+ * Snippets reuse a bounded set of names, so that a shell without leaks reaches a steady state.
+ * This can be run for hours via its main method, as well as briefly within tests.
+ */
+public final class ShellSoak {
+
+  private final static int NAME_COUNT = 16;
+  private final static int WARMUP_DIVISOR = 4;
+
+  private final InteractiveShell _shell;
+  private final List<SnippetKind> _mix;
+  private final Random _random;
+  private final List<URI> _jars;
+
+  private final Map<SnippetKind, LatencyHistogram> _latencies;
+  private final Map<SnippetKind, Integer> _errors;
+  private final Map<SnippetKind, String> _firstErrors;
+  private final List<Sample> _samples;
+
+  private LatencyHistogram _windowLatencies;
+  private long _startTime;
+  private long _count;
+
+  /**
+   * Initializes an instance of a ShellSoak.
+   * @param shell the initialized shell to evaluate snippets with.
+   * @param jarDirectory the directory to create the jars referenced by dependency snippets in.
+   * @param mix the relative weight of each kind of snippet.
+   * @param jarCount the number of distinct jars referenced by dependency snippets.
+   * @param seed the seed used to pick snippets, so that runs are repeatable.
+   * @throws IOException if the jars could not be created.
+   */
+  public ShellSoak(InteractiveShell shell, Path jarDirectory, Map<SnippetKind, Integer> mix,
+                   int jarCount, long seed) throws IOException {
+    _shell = shell;
+    _random = new Random(seed);
+
+    _mix = new ArrayList<SnippetKind>();
+    for (Map.Entry<SnippetKind, Integer> entry: mix.entrySet()) {
+      for (int i = 0; i < entry.getValue(); i++) {
+        _mix.add(entry.getKey());
+      }
+    }
+    if (_mix.isEmpty()) {
+      throw new IllegalArgumentException("The snippet mix must not be empty.");
+    }
+
+    _jars = new ArrayList<URI>();
+    for (int i = 0; i < jarCount; i++) {
+      _jars.add(ShellSoak.createJar(jarDirectory.resolve("soak" + i + ".jar"), i));
+    }
+
+    _latencies = new EnumMap<SnippetKind, LatencyHistogram>(SnippetKind.class);
+    _errors = new EnumMap<SnippetKind, Integer>(SnippetKind.class);
+    _firstErrors = new EnumMap<SnippetKind, String>(SnippetKind.class);
+    for (SnippetKind kind: SnippetKind.values()) {
+      _latencies.put(kind, new LatencyHistogram());
+      _errors.put(kind, 0);
+    }
+    _samples = new ArrayList<Sample>();
+    _windowLatencies = new LatencyHistogram();
+  }
+
+  /**
+   * Application entry point method.
+   * @param args the arguments passed in into the application process.
+   */
+  public static void main(String[] args) throws Exception {
+    Options options = new Options();
+    JCommander commandParser = new JCommander(options);
+    try {
+      commandParser.parse(args);
+    }
+    catch (ParameterException e) {
+      System.out.println(e.getMessage());
+      commandParser.usage();
+      System.exit(1);
+    }
+
+    InteractiveShell shell = new InteractiveShell();
+    shell.initialize(new File(options.appPath).toURI().toURL(),
+                     new ArrayList<String>(), new ArrayList<String>(), new ArrayList<String>());
+
+    ShellSoak soak = new ShellSoak(shell, Files.createTempDirectory("soak"),
+                                   ShellSoak.parseMix(options.mix), options.jarCount,
+                                   options.seed);
+    soak.run(options.duration * 60000L, options.sampleInterval * 1000L, System.out);
+
+    boolean passed = soak.report(System.out);
+    System.exit(passed ? 0 : 1);
+  }
+
+  /**
+   * Parses a snippet mix, of the form kind=weight,kind=weight...
+   * @param mix the text representing the mix.
+   * @return the relative weight of each kind of snippet.
+   */
+  public static Map<SnippetKind, Integer> parseMix(String mix) {
+    Map<SnippetKind, Integer> weights = new EnumMap<SnippetKind, Integer>(SnippetKind.class);
+    for (String item: mix.split(",")) {
+      String[] parts = item.trim().split("=");
+      SnippetKind kind = SnippetKind.parse(parts[0].trim());
+      if ((kind == null) || (parts.length != 2)) {
+        throw new IllegalArgumentException("Invalid snippet mix item '" + item + "'.");
+      }
+
+      weights.put(kind, Integer.parseInt(parts[1].trim()));
+    }
+
+    return weights;
+  }
+
+  private static URI createJar(Path path, int index) throws IOException {
+    Manifest manifest = new Manifest();
+    manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+
+    JarOutputStream stream = new JarOutputStream(Files.newOutputStream(path), manifest);
+    try {
+      stream.putNextEntry(new JarEntry("soak/data" + index + ".txt"));
+      stream.write(("Soak data " + index).getBytes("UTF-8"));
+      stream.closeEntry();
+    }
+    finally {
+      stream.close();
+    }
+
+    return path.toUri();
+  }
+
+  /**
+   * Creates the code of a snippet of the specified kind.
+   * @param kind the kind of snippet.
+   * @param n the sequence number of the snippet, used to vary its content.
+   * @return the code of the snippet.
+   */
+  public String createSnippet(SnippetKind kind, long n) {
+    long name = n % ShellSoak.NAME_COUNT;
+    switch (kind) {
+      case Expression:
+        return "Integer.valueOf(" + n + ").toString().length() * 2";
+      case CodeBlock:
+        return "long soakTotal" + name + " = 0;\n" +
+               "for (int i = 0; i < 100; i++) { soakTotal" + name + " += i * " + n + "; }";
+      case Member:
+        return "long soakMethod" + name + "(long x) { return x + " + n + "; }";
+      case CompilationUnit:
+        return "package soak;\n" +
+               "public class Type" + name + " {\n" +
+               "  public static long value() { return " + n + "L; }\n" +
+               "}";
+      case Json:
+        return "%%json\n{ \"id\": " + n + ", \"values\": [ 1, 2, 3 ] }";
+      case Dependency:
+        return "%dependency " + _jars.get((int)(n % _jars.size()));
+      default:
+        throw new IllegalArgumentException("Unknown snippet kind.");
+    }
+  }
+
+  /**
+   * Evaluates a single snippet, chosen randomly as per the mix, and records its latency.
+   */
+  public void evaluateNext() {
+    SnippetKind kind = _mix.get(_random.nextInt(_mix.size()));
+    if ((kind == SnippetKind.Dependency) && _jars.isEmpty()) {
+      return;
+    }
+
+    _count++;
+    String code = createSnippet(kind, _count);
+
+    long startTime = System.nanoTime();
+    try {
+      _shell.evaluate(code, _count, new HashMap<String, Object>());
+    }
+    catch (Exception e) {
+      _errors.put(kind, _errors.get(kind) + 1);
+      if (!_firstErrors.containsKey(kind)) {
+        _firstErrors.put(kind, e.getMessage());
+      }
+    }
+    long latency = (System.nanoTime() - startTime) / 1000;
+
+    _latencies.get(kind).add(latency);
+    _windowLatencies.add(latency);
+  }
+
+  /**
+   * Evaluates snippets for the specified duration, sampling the process at each interval.
+   * @param duration the duration to run for, in milliseconds.
+   * @param sampleInterval the time between samples, in milliseconds.
+   * @param output the stream to write each sample to.
+   */
+  public void run(long duration, long sampleInterval, PrintStream output) {
+    _startTime = System.currentTimeMillis();
+    long nextSampleTime = _startTime + sampleInterval;
+    long endTime = _startTime + duration;
+
+    output.println(takeSample().toString());
+    while (System.currentTimeMillis() < endTime) {
+      evaluateNext();
+
+      if (System.currentTimeMillis() >= nextSampleTime) {
+        output.println(takeSample().toString());
+        nextSampleTime += sampleInterval;
+      }
+    }
+    if (_windowLatencies.getCount() != 0) {
+      output.println(takeSample().toString());
+    }
+  }
+
+  /**
+   * Samples the resource usage of the process, along with the latencies since the previous
+   * sample. A garbage collection is requested first, so that the heap usage reflects live
+   * objects rather than garbage.
+   * @return the new sample.
+   */
+  public Sample takeSample() {
+    System.gc();
+
+    long metaspace = 0;
+    for (MemoryPoolMXBean pool: ManagementFactory.getMemoryPoolMXBeans()) {
+      String name = pool.getName();
+      if (name.contains("Metaspace") || name.contains("Perm Gen")) {
+        metaspace += pool.getUsage().getUsed();
+      }
+    }
+
+    Sample sample = new Sample(System.currentTimeMillis() - _startTime, _count,
+                               ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed(),
+                               metaspace,
+                               ManagementFactory.getClassLoadingMXBean().getLoadedClassCount(),
+                               ManagementFactory.getThreadMXBean().getThreadCount(),
+                               _windowLatencies);
+    _samples.add(sample);
+    _windowLatencies = new LatencyHistogram();
+
+    return sample;
+  }
+
+  /**
+   * Gets the samples taken so far.
+   * @return the list of samples.
+   */
+  public List<Sample> getSamples() {
+    return _samples;
+  }
+
+  /**
+   * Gets the number of snippets that failed to evaluate.
+   * @param kind the kind of snippet.
+   * @return the number of errors.
+   */
+  public int getErrorCount(SnippetKind kind) {
+    return _errors.get(kind);
+  }
+
+  /**
+   * Gets the latencies of snippets of the specified kind.
+   * @param kind the kind of snippet.
+   * @return the latency histogram.
+   */
+  public LatencyHistogram getLatencies(SnippetKind kind) {
+    return _latencies.get(kind);
+  }
+
+  /**
+   * Gets the list of resources, as well as the median latency, that grew consistently over the
+   * samples taken, after discarding the initial samples as warm up. A resource is considered to be growing if every sample in
+   * the second half of the remaining samples is larger than every sample in the first half.
+   * @return the names of the growing resources.
+   */
+  public List<String> findGrowth() {
+    List<String> growth = new ArrayList<String>();
+
+    int start = _samples.size() / ShellSoak.WARMUP_DIVISOR;
+    List<Sample> samples = _samples.subList(start, _samples.size());
+    long[] heap = new long[samples.size()];
+    long[] metaspace = new long[samples.size()];
+    long[] classes = new long[samples.size()];
+    long[] threads = new long[samples.size()];
+    List<Long> latencies = new ArrayList<Long>();
+    for (int i = 0; i < samples.size(); i++) {
+      heap[i] = samples.get(i).heap;
+      metaspace[i] = samples.get(i).metaspace;
+      classes[i] = samples.get(i).classes;
+      threads[i] = samples.get(i).threads;
+
+      if (samples.get(i).latencies.getCount() != 0) {
+        latencies.add(samples.get(i).latencies.getPercentile(50));
+      }
+    }
+
+    long[] medianLatencies = new long[latencies.size()];
+    for (int i = 0; i < medianLatencies.length; i++) {
+      medianLatencies[i] = latencies.get(i);
+    }
+
+    if (ShellSoak.isGrowing(heap)) {
+      growth.add("heap");
+    }
+    if (ShellSoak.isGrowing(metaspace)) {
+      growth.add("metaspace");
+    }
+    if (ShellSoak.isGrowing(classes)) {
+      growth.add("classes");
+    }
+    if (ShellSoak.isGrowing(threads)) {
+      growth.add("threads");
+    }
+    if (ShellSoak.isGrowing(medianLatencies)) {
+      growth.add("median latency");
+    }
+    return growth;
+  }
+
+  /**
+   * Determines if a series of values is growing, i.e. if the smallest value in the second half
+   * of the series is larger than the largest value in the first half. This tolerates noise
+   * that a strictly monotonic check wouldn't, while still requiring sustained growth.
+   * @param values the series of values.
+   * @return true if the values are growing.
+   */
+  public static boolean isGrowing(long[] values) {
+    if (values.length < 4) {
+      return false;
+    }
+
+    int middle = values.length / 2;
+    long firstMax = Long.MIN_VALUE;
+    for (int i = 0; i < middle; i++) {
+      firstMax = Math.max(firstMax, values[i]);
+    }
+
+    long secondMin = Long.MAX_VALUE;
+    for (int i = middle; i < values.length; i++) {
+      secondMin = Math.min(secondMin, values[i]);
+    }
+
+    return secondMin > firstMax;
+  }
+
+  /**
+   * Writes a summary of latencies, errors and growing resources.
+   * @param output the stream to write the report to.
+   * @return true if there were no errors, and no growing resources.
+   */
+  public boolean report(PrintStream output) {
+    boolean passed = true;
+
+    output.println();
+    output.println(String.format("%-16s %8s %8s %10s %10s %10s %10s",
+                                 "snippet", "count", "errors", "p50 ms", "p90 ms", "p99 ms",
+                                 "max ms"));
+    for (SnippetKind kind: SnippetKind.values()) {
+      LatencyHistogram latencies = _latencies.get(kind);
+      if (latencies.getCount() == 0) {
+        continue;
+      }
+
+      output.println(String.format("%-16s %8d %8d %10.2f %10.2f %10.2f %10.2f",
+                                   kind, latencies.getCount(), _errors.get(kind),
+                                   latencies.getPercentile(50) / 1000.0,
+                                   latencies.getPercentile(90) / 1000.0,
+                                   latencies.getPercentile(99) / 1000.0,
+                                   latencies.getMax() / 1000.0));
+      if (_errors.get(kind) != 0) {
+        output.println("  first error: " + _firstErrors.get(kind));
+        passed = false;
+      }
+    }
+
+    List<String> growth = findGrowth();
+    if (!growth.isEmpty()) {
+      output.println("Growing after warm up: " + growth);
+      passed = false;
+    }
+
+    return passed;
+  }
+
+
+  /**
+   * The kinds of snippets evaluated during a soak run.
+   */
+  public enum SnippetKind {
+
+    Expression,
+    CodeBlock,
+    Member,
+    CompilationUnit,
+    Json,
+    Dependency;
+
+    /**
+     * Parses the name of a kind of snippet, ignoring case.
+     * @param name the name of the kind.
+     * @return the kind, or null if the name is unknown.
+     */
+    public static SnippetKind parse(String name) {
+      for (SnippetKind kind: SnippetKind.values()) {
+        if (kind.name().equalsIgnoreCase(name)) {
+          return kind;
+        }
+      }
+      return null;
+    }
+  }
+
+
+  /**
+   * Represents a sample of the resource usage of the process.
+   */
+  public static final class Sample {
+
+    public final long time;
+    public final long count;
+    public final long heap;
+    public final long metaspace;
+    public final long classes;
+    public final long threads;
+    public final LatencyHistogram latencies;
+
+    private Sample(long time, long count, long heap, long metaspace, long classes, long threads,
+                   LatencyHistogram latencies) {
+      this.time = time;
+      this.count = count;
+      this.heap = heap;
+      this.metaspace = metaspace;
+      this.classes = classes;
+      this.threads = threads;
+      this.latencies = latencies;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("[%6ds] snippets %8d | p50 %8.2f ms, p99 %8.2f ms | " +
+                           "heap %6.1f MB, metaspace %6.1f MB, classes %6d, threads %3d",
+                           time / 1000, count,
+                           latencies.getPercentile(50) / 1000.0,
+                           latencies.getPercentile(99) / 1000.0,
+                           heap / 1048576.0, metaspace / 1048576.0, classes, threads);
+    }
+  }
+
+
+  /**
+   * Records latencies in a fixed number of logarithmic buckets, so that percentiles can be
+   * computed over runs of any length, without memory usage (and so the heap) growing.
+   */
+  public static final class LatencyHistogram {
+
+    private final static double BUCKET_RATIO = 1.05;
+    private final static int BUCKET_COUNT = 500;
+
+    private final long[] _buckets;
+    private long _count;
+    private long _max;
+
+    public LatencyHistogram() {
+      _buckets = new long[LatencyHistogram.BUCKET_COUNT];
+    }
+
+    /**
+     * Adds a latency.
+     * @param latency the latency in microseconds.
+     */
+    public void add(long latency) {
+      int bucket = (int)(Math.log(1 + latency) / Math.log(LatencyHistogram.BUCKET_RATIO));
+      _buckets[Math.min(bucket, LatencyHistogram.BUCKET_COUNT - 1)]++;
+
+      _count++;
+      _max = Math.max(_max, latency);
+    }
+
+    public long getCount() {
+      return _count;
+    }
+
+    public long getMax() {
+      return _max;
+    }
+
+    /**
+     * Gets the approximate latency at the specified percentile, i.e. the upper bound of the
+     * bucket containing the percentile, which is within 5% of the actual latency.
+     * @param percentile the percentile, between 0 and 100.
+     * @return the latency in microseconds, or 0 if there are no latencies.
+     */
+    public long getPercentile(double percentile) {
+      long target = (long)Math.ceil(_count * percentile / 100);
+      long count = 0;
+      for (int i = 0; i < _buckets.length; i++) {
+        count += _buckets[i];
+        if ((count >= target) && (count > 0)) {
+          long bound = (long)Math.pow(LatencyHistogram.BUCKET_RATIO, i + 1) - 1;
+          return Math.min(bound, _max);
+        }
+      }
+      return 0;
+    }
+  }
+
+
+  @Parameters(separators = ":")
+  public static final class Options {
+
+    @Parameter(names = "--app", description = "The directory containing ijavart.jar")
+    public String appPath = ".";
+
+    @Parameter(names = "--duration", description = "The duration in minutes")
+    public Integer duration = 60;
+
+    @Parameter(names = "--sampleInterval", description = "The time between samples in seconds")
+    public Integer sampleInterval = 60;
+
+    @Parameter(names = "--mix", description = "The weight of each kind of snippet")
+    public String mix = "expression=4,codeBlock=2,member=2,compilationUnit=2,json=1,dependency=1";
+
+    @Parameter(names = "--jars", description = "The number of jars to add as dependencies")
+    public Integer jarCount = 4;
+
+    @Parameter(names = "--seed", description = "The seed used to pick snippets")
+    public Long seed = 0L;
+  }
+}
@@ -0,0 +1,63 @@
+// ShellSoakTests.java
+//
+
+package ijava.shell;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import org.junit.*;
+
+public final class ShellSoakTests {
+
+  @Test
+  public void testShortRun() throws Exception {
+    InteractiveShell shell = new InteractiveShell();
+    shell.initialize(new File(".").toURI().toURL(),
+                     new ArrayList<String>(), new ArrayList<String>(), new ArrayList<String>());
+
+    ShellSoak soak = new ShellSoak(shell, Files.createTempDirectory("soak"),
+                                   ShellSoak.parseMix("compilationUnit=2,json=1,dependency=1"),
+                                   /* jarCount */ 2, /* seed */ 1);
+
+    int initialReferences = shell.getReferences().length;
+
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    soak.run(/* duration */ 3000, /* sampleInterval */ 500, new PrintStream(output, true, "UTF-8"));
+    soak.report(new PrintStream(output, true, "UTF-8"));
+
+    Assert.assertTrue(soak.getSamples().size() >= 4);
+    for (ShellSoak.SnippetKind kind: ShellSoak.SnippetKind.values()) {
+      Assert.assertEquals(output.toString("UTF-8"), 0, soak.getErrorCount(kind));
+    }
+
+    ShellSoak.LatencyHistogram latencies =
+        soak.getLatencies(ShellSoak.SnippetKind.CompilationUnit);
+    Assert.assertTrue(latencies.getCount() > 0);
+    Assert.assertTrue(latencies.getPercentile(50) <= latencies.getPercentile(99));
+    Assert.assertTrue(latencies.getPercentile(99) <= latencies.getMax());
+
+    // The jars referenced by dependency snippets are resolved through the file resolver.
+    Assert.assertEquals(initialReferences + 2, shell.getReferences().length);
+  }
+
+  @Test
+  public void testGrowthDetection() {
+    Assert.assertTrue(ShellSoak.isGrowing(new long[] { 10, 11, 13, 12, 15, 16, 18, 17 }));
+    Assert.assertFalse(ShellSoak.isGrowing(new long[] { 10, 12, 11, 13, 10, 12, 11, 13 }));
+    Assert.assertFalse(ShellSoak.isGrowing(new long[] { 10, 20, 30 }));
+  }
+
+  @Test
+  public void testLatencyPercentiles() {
+    ShellSoak.LatencyHistogram latencies = new ShellSoak.LatencyHistogram();
+    for (int i = 1; i <= 1000; i++) {
+      latencies.add(i * 10);
+    }
+
+    Assert.assertEquals(1000L, latencies.getCount());
+    Assert.assertEquals(10000L, latencies.getMax());
+    Assert.assertEquals(5000, latencies.getPercentile(50), 5000 * 0.05);
+    Assert.assertEquals(9900, latencies.getPercentile(99), 9900 * 0.05);
+  }
+}
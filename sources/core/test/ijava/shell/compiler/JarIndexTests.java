@@ -0,0 +1,239 @@
+// JarIndexTests.java
+//
+
+package ijava.shell.compiler;
+
+import java.io.*;
+import java.nio.file.*;
+import java.nio.file.attribute.*;
+import java.util.*;
+import java.util.jar.*;
+import org.eclipse.jdt.internal.compiler.classfmt.*;
+import org.junit.*;
+
+public final class JarIndexTests {
+
+  private Path _defaultIndexDirectory;
+  private Path _indexDirectory;
+
+  @Before
+  public void setUp() throws Exception {
+    _defaultIndexDirectory = JarIndex.getIndexDirectory();
+    _indexDirectory = Files.createTempDirectory("index");
+    JarIndex.setIndexDirectory(_indexDirectory);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    JarIndex.setIndexDirectory(_defaultIndexDirectory);
+
+    File[] files = _indexDirectory.toFile().listFiles();
+    if (files != null) {
+      for (File file : files) {
+        file.delete();
+      }
+    }
+    Files.delete(_indexDirectory);
+  }
+
+  private static void writeJar(Path jarPath, String className) throws IOException {
+    JarOutputStream stream = new JarOutputStream(Files.newOutputStream(jarPath));
+    try {
+      stream.putNextEntry(new JarEntry("ijava/shell/compiler/" + className + ".class"));
+      InputStream classStream = JarIndexTests.class.getResourceAsStream(className + ".class");
+      byte[] buffer = new byte[4096];
+      int count;
+      while ((count = classStream.read(buffer)) > 0) {
+        stream.write(buffer, 0, count);
+      }
+      classStream.close();
+
+      stream.putNextEntry(new JarEntry("resources/data/file.txt"));
+      stream.write(new byte[] { 1 });
+    }
+    finally {
+      stream.close();
+    }
+  }
+
+  private Path getSavedIndex() {
+    File[] files = _indexDirectory.toFile().listFiles();
+    Assert.assertEquals(1, files.length);
+    return files[0].toPath();
+  }
+
+  private static void assertIndex(JarIndex index) {
+    Assert.assertNotNull(index);
+    Assert.assertTrue(index.containsPackage("ijava/shell/compiler"));
+    Assert.assertTrue(index.containsType("ijava/shell/compiler/JarIndexTests"));
+    Assert.assertFalse(index.containsType("ijava/shell/compiler/JarIndex"));
+  }
+
+  @Test
+  public void testIndex() throws Exception {
+    Path jarPath = Files.createTempFile("index", ".jar");
+    try {
+      JarIndexTests.writeJar(jarPath, "JarIndexTests");
+
+      JarIndex index = JarIndex.getIndex(jarPath.toString());
+      Assert.assertSame(index, JarIndex.getIndex(jarPath.toString()));
+
+      Assert.assertTrue(index.containsPackage("ijava"));
+      Assert.assertTrue(index.containsPackage("ijava/shell/compiler"));
+      Assert.assertTrue(index.containsPackage("resources/data"));
+      Assert.assertFalse(index.containsPackage("ijava/kernel"));
+
+      Assert.assertTrue(index.containsType("ijava/shell/compiler/JarIndexTests"));
+      Assert.assertFalse(index.containsType("ijava/shell/compiler/JarIndex"));
+
+      ClassFileReader reader = index.readType("ijava/shell/compiler/JarIndexTests");
+      Assert.assertEquals("ijava/shell/compiler/JarIndexTests", new String(reader.getName()));
+      Assert.assertNull(index.readType("ijava/shell/compiler/JarIndex"));
+
+      JarNameEnvironment environment =
+          new JarNameEnvironment(Arrays.asList(jarPath.toString(), "/missing.jar"));
+      Assert.assertTrue(environment.isPackage(new char[][] { "ijava".toCharArray() },
+                                              "shell".toCharArray()));
+      Assert.assertNotNull(environment.findType("JarIndexTests".toCharArray(),
+          new char[][] { "ijava".toCharArray(), "shell".toCharArray(),
+                         "compiler".toCharArray() }));
+      Assert.assertNull(environment.findType(new char[][] { "java".toCharArray(),
+                                                            "lang".toCharArray(),
+                                                            "String".toCharArray() }));
+
+      // The index is saved into the index directory.
+      Assert.assertEquals(1, _indexDirectory.toFile().list().length);
+    }
+    finally {
+      Files.delete(jarPath);
+    }
+  }
+
+  @Test
+  public void testSavedIndex() throws Exception {
+    // Where file names can contain them, the jar path includes characters that are encoded
+    // differently by standard and modified UTF-8.
+    String jarName = "UTF-8".equals(System.getProperty("sun.jnu.encoding")) ?
+        "\ud834\udd1e.jar" : "index.jar";
+    Path jarDirectory = Files.createTempDirectory("index");
+    Path jarPath = jarDirectory.resolve(jarName);
+    try {
+      JarIndexTests.writeJar(jarPath, "JarIndexTests");
+      String path = jarPath.toString();
+      long size = Files.size(jarPath);
+      long modified = jarPath.toFile().lastModified();
+
+      JarIndexTests.assertIndex(JarIndex.loadIndex(path, size, modified));
+
+      // The saved index is loaded as-is, rather than rebuilt.
+      Path indexPath = getSavedIndex();
+      FileTime savedTime = FileTime.fromMillis(System.currentTimeMillis() - 60 * 1000);
+      Files.setLastModifiedTime(indexPath, savedTime);
+
+      JarIndexTests.assertIndex(JarIndex.loadIndex(path, size, modified));
+      Assert.assertEquals(savedTime, Files.getLastModifiedTime(indexPath));
+
+      // A saved index that doesn't match the jar is rebuilt.
+      JarIndexTests.assertIndex(JarIndex.loadIndex(path, size, modified + 1000));
+      Assert.assertFalse(savedTime.equals(Files.getLastModifiedTime(indexPath)));
+      JarIndexTests.assertIndex(JarIndex.loadIndex(path, size, modified));
+    }
+    finally {
+      Files.deleteIfExists(jarPath);
+      Files.delete(jarDirectory);
+    }
+  }
+
+  @Test
+  public void testCorruptIndex() throws Exception {
+    Path jarPath = Files.createTempFile("index", ".jar");
+    try {
+      JarIndexTests.writeJar(jarPath, "JarIndexTests");
+      String path = jarPath.toString();
+      long size = Files.size(jarPath);
+      long modified = jarPath.toFile().lastModified();
+
+      JarIndexTests.assertIndex(JarIndex.loadIndex(path, size, modified));
+      Path indexPath = getSavedIndex();
+      byte[] data = Files.readAllBytes(indexPath);
+
+      // Truncated indexes, including ones cut off within the header, the tables and the names,
+      // are rebuilt rather than failing lookups.
+      int[] lengths = new int[] { 0, 20, data.length / 2, data.length - 1 };
+      for (int length : lengths) {
+        Files.write(indexPath, Arrays.copyOf(data, length));
+        JarIndexTests.assertIndex(JarIndex.loadIndex(path, size, modified));
+        Assert.assertTrue(Arrays.equals(data, Files.readAllBytes(indexPath)));
+      }
+
+      // As are indexes with offsets outside the index.
+      byte[] corruptData = data.clone();
+      for (int i = data.length - 40; i < data.length; i++) {
+        corruptData[i] = (byte)0xff;
+      }
+      Files.write(indexPath, corruptData);
+      JarIndexTests.assertIndex(JarIndex.loadIndex(path, size, modified));
+
+      byte[] tableData = data.clone();
+      int tablesOffset = 26 + (((data[24] & 0xff) << 8) | (data[25] & 0xff));
+      tableData[tablesOffset + 8] = (byte)0x7f;
+      Files.write(indexPath, tableData);
+      JarIndexTests.assertIndex(JarIndex.loadIndex(path, size, modified));
+    }
+    finally {
+      Files.delete(jarPath);
+    }
+  }
+
+  @Test
+  public void testUnsavedIndex() throws Exception {
+    Path jarPath = Files.createTempFile("index", ".jar");
+    Path blockingPath = _indexDirectory.resolve("file");
+    try {
+      JarIndexTests.writeJar(jarPath, "JarIndexTests");
+
+      // Indexes that cannot be saved are used from memory.
+      Files.createFile(blockingPath);
+      JarIndex.setIndexDirectory(blockingPath.resolve("index"));
+
+      JarIndex index = JarIndex.loadIndex(jarPath.toString(), Files.size(jarPath),
+                                          jarPath.toFile().lastModified());
+      JarIndexTests.assertIndex(index);
+      Assert.assertNotNull(index.readType("ijava/shell/compiler/JarIndexTests"));
+    }
+    finally {
+      Files.delete(jarPath);
+    }
+  }
+
+  @Test
+  public void testChangedJar() throws Exception {
+    Path jarPath = Files.createTempFile("index", ".jar");
+    try {
+      JarIndexTests.writeJar(jarPath, "JarIndexTests");
+
+      JarIndex index = JarIndex.getIndex(jarPath.toString());
+      Assert.assertNotNull(index.readType("ijava/shell/compiler/JarIndexTests"));
+
+      // Once the jar is rebuilt, its index is replaced, and the old index no longer reads from
+      // the jar it had opened.
+      JarIndexTests.writeJar(jarPath, "JarIndex");
+      jarPath.toFile().setLastModified(jarPath.toFile().lastModified() - 60 * 1000);
+
+      JarIndex newIndex = JarIndex.getIndex(jarPath.toString());
+      Assert.assertNotSame(index, newIndex);
+      Assert.assertSame(newIndex, JarIndex.getIndex(jarPath.toString()));
+      Assert.assertNotNull(newIndex.readType("ijava/shell/compiler/JarIndex"));
+      Assert.assertNull(newIndex.readType("ijava/shell/compiler/JarIndexTests"));
+      Assert.assertNull(index.readType("ijava/shell/compiler/JarIndexTests"));
+
+      // Deleting the jar evicts its index.
+      Files.delete(jarPath);
+      Assert.assertNull(JarIndex.getIndex(jarPath.toString()));
+      Assert.assertNull(newIndex.readType("ijava/shell/compiler/JarIndex"));
+    }
+    finally {
+      Files.deleteIfExists(jarPath);
+    }
+  }
+}
@@ -71,4 +71,28 @@ public final class SnippetParserCodeBlockTests {
 
     Assert.assertEquals(SnippetType.CodeBlock, snippet.getType());
   }
+
+  @Test
+  public void testLambdaStatement() {
+    String code = "values.parallelStream().forEach(v -> System.out.println(v));";
+
+    Snippet snippet = null;
+    try {
+      SnippetParser parser = new SnippetParser(LanguageLevel.Java8);
+      snippet = parser.parse(code, 1);
+    }
+    catch (SnippetException e) {
+      Assert.fail(e.getMessage());
+    }
+
+    Assert.assertEquals(SnippetType.CodeBlock, snippet.getType());
+
+    try {
+      SnippetParser parser = new SnippetParser(LanguageLevel.Java7);
+      parser.parse(code, 1);
+      Assert.fail("Expected lambdas to be rejected at the 1.7 language level.");
+    }
+    catch (SnippetException e) {
+    }
+  }
 }
@@ -14,6 +14,9 @@ if [ "$?" = "0" ]; then
 
   cat ../sources/stub ../sources/core/target/core-0.1.jar > ../build/app/ijava
   chmod +x ../build/app/ijava
+
+  # Generate a class data sharing archive for faster kernel startup, where supported.
+  ./cds.sh ../build/app
   ls -l ../build/*
 else
   cat ../build/maven.log
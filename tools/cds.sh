@@ -0,0 +1,72 @@
+#!/bin/sh
+# Generates a class data sharing archive (ijava.jsa) next to the kernel, from a training run
+# that starts the kernel, evaluates a set of snippets, and exits. The kernel uses the archive
+# automatically when it is present, and was generated by the same java binary. On JDK 8 the
+# archive holds the JDK classes used by the kernel, as application class data sharing is not
+# available; on later JDKs it also holds the classes of the kernel itself. Requires JDK 8 or
+# later.
+#
+# Usage: cds.sh [app directory, defaults to ../build/app]
+
+APP_DIR=`cd "${1:-../build/app}" && pwd`
+KERNEL=$APP_DIR/ijava
+
+java=java
+if test -n "$JAVA_HOME"; then
+  java="$JAVA_HOME/bin/java"
+fi
+
+java=`command -v "$java"`
+
+version=`"$java" -version 2>&1 | head -1 | sed 's/.*version "\(1\.\)\{0,1\}\([0-9]*\).*/\2/'`
+if [ "$version" -lt 8 ]; then
+  echo "Skipping generation of the class data sharing archive; requires JDK 8 or later."
+  exit 0
+elif [ "$version" = "8" ]; then
+  # JDK 8 archives boot classes only, and the archive file option is a diagnostic option.
+  dump_args="-XX:+UnlockDiagnosticVMOptions"
+else
+  dump_args="-cp $KERNEL"
+fi
+
+WORK_DIR=`mktemp -d`
+trap 'rm -rf "$WORK_DIR"' EXIT
+
+port=`awk 'BEGIN { srand(); print 40000 + int(rand() * 20000) }'`
+cat > "$WORK_DIR/connection.json" <<CONNECTION
+{
+  "ip": "127.0.0.1",
+  "transport": "tcp",
+  "key": "",
+  "signature_scheme": "hmac-sha256",
+  "hb_port": $port,
+  "control_port": $((port + 1)),
+  "shell_port": $((port + 2)),
+  "iopub_port": $((port + 3)),
+  "stdin_port": $((port + 4))
+}
+CONNECTION
+
+# The class list is recorded without any existing archive, and the archive is then dumped
+# using the same class path that the kernel runs with.
+rm -f "$APP_DIR/ijava.jsa" "$APP_DIR/ijava.jsa.java"
+"$java" -XX:DumpLoadedClassList="$WORK_DIR/ijava.classlist" \
+  -javaagent:"$KERNEL" -jar "$KERNEL" \
+  --training --dep:joda-time.jar "$WORK_DIR/connection.json" > "$WORK_DIR/training.log" 2>&1
+if [ "$?" != "0" ]; then
+  cat "$WORK_DIR/training.log"
+  exit 1
+fi
+
+"$java" $dump_args -Xshare:dump -XX:SharedClassListFile="$WORK_DIR/ijava.classlist" \
+  -XX:SharedArchiveFile="$APP_DIR/ijava.jsa" > "$WORK_DIR/dump.log" 2>&1
+if [ "$?" != "0" ]; then
+  cat "$WORK_DIR/dump.log"
+  rm -f "$APP_DIR/ijava.jsa"
+  exit 1
+fi
+
+# The launch stub only uses the archive with the java binary that generated it.
+echo "$java" > "$APP_DIR/ijava.jsa.java"
+
+echo "Generated $APP_DIR/ijava.jsa from `wc -l < "$WORK_DIR/ijava.classlist"` classes."
@@ -0,0 +1,58 @@
+#!/bin/sh
+# Measures the startup time of the kernel with and without the class data sharing archive
+# generated by cds.sh, as the average wall-clock time of training runs, i.e. starting the
+# kernel, evaluating a set of snippets, and exiting.
+#
+# Usage: startup.sh [app directory, defaults to ../build/app] [number of runs, defaults to 5]
+
+APP_DIR=`cd "${1:-../build/app}" && pwd`
+KERNEL=$APP_DIR/ijava
+RUNS=${2:-5}
+
+java=java
+if test -n "$JAVA_HOME"; then
+  java="$JAVA_HOME/bin/java"
+fi
+
+if [ ! -f "$APP_DIR/ijava.jsa" ]; then
+  echo "$APP_DIR/ijava.jsa does not exist; run cds.sh first."
+  exit 1
+fi
+
+WORK_DIR=`mktemp -d`
+trap 'rm -rf "$WORK_DIR"' EXIT
+
+measure() {
+  total=0
+  i=0
+  while [ $i -lt $RUNS ]; do
+    port=`awk 'BEGIN { srand(); print 40000 + int(rand() * 20000) }'`
+    cat > "$WORK_DIR/connection.json" <<CONNECTION
+{
+  "ip": "127.0.0.1",
+  "transport": "tcp",
+  "key": "",
+  "signature_scheme": "hmac-sha256",
+  "hb_port": $port,
+  "control_port": $((port + 1)),
+  "shell_port": $((port + 2)),
+  "iopub_port": $((port + 3)),
+  "stdin_port": $((port + 4))
+}
+CONNECTION
+
+    start=`date +%s%N`
+    "$java" "$@" -javaagent:"$KERNEL" -jar "$KERNEL" \
+      --training --dep:joda-time.jar "$WORK_DIR/connection.json" > /dev/null 2>&1
+    end=`date +%s%N`
+
+    total=$((total + (end - start) / 1000000))
+    i=$((i + 1))
+  done
+
+  echo $((total / RUNS))
+}
+
+echo "Default: `measure -Xshare:auto` ms"
+echo "Archive: `measure -XX:+UnlockDiagnosticVMOptions -XX:SharedArchiveFile=$APP_DIR/ijava.jsa \
+  -Xshare:auto` ms"